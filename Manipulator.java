@@ -1,19 +1,36 @@
 import java.io.*;
-import java.util.Scanner;
+import java.util.*;
 
+import batch.*;
 import exceptions.*;
 import graphics.*;
+import metrics.*;
 
 /**
  * A class which contains the main() entry point for the application.
  * It manipulates all the data entry, and bitmap input and output.
  * 
+ * Without arguments, it asks for one file and the commands to run on it. With 
+ * arguments, it runs the same commands over many files, in parallel, without asking:
+ * 
+ *     java Manipulator <input> <operations> <output directory> [images] [threads]
+ * 
+ * where input is a file, a directory or a pattern such as "in/*.bmp", operations are 
+ * the commands such as "i,g,s", images is the maximum number of images kept in memory 
+ * and threads the number of threads the work of each image is split for (they are
+ * run by the shared executor, which has one thread per processor).
+ * 
  * @author Claude Abounegm
  *
  */
 public class Manipulator {
 
 	public static void main(String[] args) {
+		if (args.length > 0) {
+			System.exit(batch(args));
+			return;
+		}
+		
 		// The scanner to read input from console.
 		Scanner scanner = null;
 
@@ -28,7 +45,7 @@ public class Manipulator {
 
 			// Get thread input.
 			do {
-				System.out.print("How many threads would you like to use: ");
+				System.out.print("How many threads would you like to split the work for (1 runs it on this thread): ");
 			} while (!bitmap.setThreads(scanner.nextInt(10)));
 
 			char command = ' ';
@@ -82,6 +99,9 @@ public class Manipulator {
 			// Read the output name of the file, and write the new bitmap to it.
 			bitmap.write(new File(scanner.next()));
 			
+			if (Metrics.isEnabled())
+				System.out.print(Metrics.snapshot());
+			
 		} catch (BitmapNotFoundException e) {
 			System.out.printf("The file: \"%s\" was not found.\n", e.getUnderlyingFile().getAbsolutePath());
 		} catch (NotABitmapException e) {
@@ -92,4 +112,59 @@ public class Manipulator {
 				scanner.close();
 		}
 	}
+	
+	/**
+	 * Runs the commands over many files, and prints the throughput and the failures.
+	 * 
+	 * @param args - The input, operations, output directory, and optionally the
+	 * 				 number of images kept in memory and of threads the work of each image is split for.
+	 * @return The exit status: 0 if all the files were processed; otherwise, 1.
+	 */
+	private static int batch(String[] args) {
+		if (args.length < 3 || args.length > 5) {
+			System.out.println("Usage: java Manipulator <input> <operations> <output directory> [images] [threads]");
+			System.out.println("  input       a bitmap, a directory of bitmaps, or a pattern such as \"in/*.bmp\".");
+			System.out.println("  operations  the commands to run on each bitmap, such as \"i,g,s\" (" + BatchProcessor.COMMANDS + ").");
+			System.out.println("  images      the maximum number of images kept in memory, " + BatchProcessor.DEFAULT_IMAGES + " by default.");
+			System.out.println("  threads     the number of threads the work of each image is split for, one by default.");
+			return 1;
+		}
+		
+		try {
+			BatchProcessor processor = new BatchProcessor(args[1], new File(args[2]));
+			if (args.length > 3)
+				processor.setImages(Integer.parseInt(args[3]));
+			processor.setThreads(args.length > 4 ? Integer.parseInt(args[4]) : 1);
+			
+			List<File> files = BatchProcessor.findFiles(args[0]);
+			if (files.isEmpty()) {
+				System.out.printf("No bitmap was found for \"%s\".\n", args[0]);
+				return 1;
+			}
+			
+			BatchResult result = processor.run(files, BatchProcessor.baseDirectory(args[0]));
+			
+			System.out.printf("Processed %d of %d images in %.3f seconds (%.1f images/s, %.1f MB/s)\n", 
+					result.getProcessed(), result.getImages(), result.getElapsedNanos() / 1e9,
+					result.getImagesPerSecond(), result.getMegabytesPerSecond());
+			System.out.printf("Time spent reading %.3f, computing %.3f and writing %.3f seconds\n", 
+					result.getReadNanos() / 1e9, result.getComputeNanos() / 1e9, result.getWriteNanos() / 1e9);
+			for (BatchResult.Failure failure : result.getFailures())
+				System.out.printf("  failed: \"%s\": %s\n", failure.getFile().getPath(), failure.getMessage());
+			
+			// with -Dbitmap.metrics=true, show the latency of each operation and the work of each thread.
+			if (Metrics.isEnabled())
+				System.out.print(Metrics.snapshot());
+			
+			return result.getProcessed() == result.getImages() ? 0 : 1;
+		} catch (NumberFormatException e) {
+			System.out.println("The number of images and of threads should be numbers.");
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		} catch (IOException e) {
+			System.out.printf("The input \"%s\" could not be listed: %s\n", args[0], e.getMessage());
+		}
+		
+		return 1;
+	}
 }
@@ -0,0 +1,414 @@
+package batch;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+import exceptions.*;
+import graphics.*;
+import io.*;
+
+/**
+ * Runs the same chain of operations over many bitmaps, and writes the results
+ * to an output directory. Reading, running the operations and writing are done
+ * by separate stages at the same time, so the processors keep working while
+ * other images are read or written (see BatchStages). Each worker also splits
+ * the operations on its image between `threads` threads. At most `images` images
+ * are kept in memory at a time, and the storages of written images are re-used
+ * through a pool.
+ *
+ * The operations are given as a string of the Manipulator commands, such as "i,g,s"
+ * for invert, gray-scale then shrink. A file which cannot be read or written is
+ * reported in the result, and does not stop the others.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class BatchProcessor {
+	/**
+	 * The commands which can be used in a chain of operations.
+	 */
+	public static final String COMMANDS = "igbhsdr";
+	/**
+	 * The default number of images kept in memory: enough for the readers and the
+	 * writers to work while every processor runs the operations on another one.
+	 */
+	public static final int DEFAULT_IMAGES = 2 * Runtime.getRuntime().availableProcessors() + 4;
+	/**
+	 * The default number of readers, and of writers.
+	 */
+	public static final int DEFAULT_IO_THREADS = 2;
+
+	private final char[] operations;
+	private final File outputDirectory;
+	private int images = DEFAULT_IMAGES;
+	private int threads = 1;
+	private int workers;
+	private int ioThreads = DEFAULT_IO_THREADS;
+	private StoragePool pool = StoragePool.getShared();
+
+	/**
+	 * Initializes a new batch processor.
+	 *
+	 * @param operations - The commands to run on each image, such as "i,g,s". Commas and
+	 *                     spaces between the commands are ignored.
+	 * @param outputDirectory - The directory to which the images are written. It is created
+	 *                          if it does not exist.
+	 * @throws NullArgumentException if operations or outputDirectory is null.
+	 * @throws IllegalArgumentException if a command is not one of COMMANDS.
+	 */
+	public BatchProcessor(String operations, File outputDirectory) {
+		if (operations == null)
+			throw new NullArgumentException("operations");
+		if (outputDirectory == null)
+			throw new NullArgumentException("outputDirectory");
+
+		this.operations = parseOperations(operations);
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * Parses a chain of operations.
+	 *
+	 * @param operations - The commands, such as "i,g,s".
+	 * @return The commands, in order.
+	 * @throws IllegalArgumentException if a command is not one of COMMANDS.
+	 */
+	static char[] parseOperations(String operations) {
+		StringBuilder commands = new StringBuilder();
+		for (char c : operations.toLowerCase().toCharArray()) {
+			if (c == ',' || Character.isWhitespace(c))
+				continue;
+			if (COMMANDS.indexOf(c) < 0)
+				throw new IllegalArgumentException("'" + c + "' is not a valid command; it should be one of " + COMMANDS + ".");
+
+			commands.append(c);
+		}
+
+		return commands.toString().toCharArray();
+	}
+
+	/**
+	 * Sets the maximum number of images kept in memory, from the time they are
+	 * read until they are written. When it is reached, the readers wait for the
+	 * workers and writers to catch up.
+	 *
+	 * @param n - Number of images, bigger than or equal to one.
+	 * @throws IllegalArgumentException if n is smaller than one.
+	 */
+	public void setImages(int n) {
+		if (n < 1)
+			throw new IllegalArgumentException("images should be bigger than or equal to one.");
+
+		this.images = n;
+	}
+	/**
+	 * Gets the maximum number of images kept in memory.
+	 * @return The number of images.
+	 */
+	public int getImages() {
+		return images;
+	}
+
+	/**
+	 * Sets the number of threads the operations on each image are split for,
+	 * as Bitmap.setThreads() does; they are run by the shared executor.
+	 *
+	 * @param n - Number of threads, bigger than or equal to one.
+	 * @throws IllegalArgumentException if n is smaller than one.
+	 */
+	public void setThreads(int n) {
+		if (n < 1)
+			throw new IllegalArgumentException("threads should be bigger than or equal to one.");
+
+		this.threads = n;
+	}
+	/**
+	 * Gets the number of threads used by the operations on each image.
+	 * @return The number of threads.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the number of workers which run the operations, each on its own image.
+	 *
+	 * @param n - Number of workers, bigger than or equal to one, or zero to have one
+	 * 			  worker for each `threads` processors (the default).
+	 * @throws IllegalArgumentException if n is negative.
+	 */
+	public void setWorkers(int n) {
+		if (n < 0)
+			throw new IllegalArgumentException("workers should be positive.");
+
+		this.workers = n;
+	}
+	/**
+	 * Gets the number of workers which run the operations.
+	 * @return The number of workers, or zero if it depends on the number of processors.
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Sets the number of threads which read the images, and of those which write them.
+	 *
+	 * @param n - Number of readers and of writers, bigger than or equal to one.
+	 * @throws IllegalArgumentException if n is smaller than one.
+	 */
+	public void setIoThreads(int n) {
+		if (n < 1)
+			throw new IllegalArgumentException("ioThreads should be bigger than or equal to one.");
+
+		this.ioThreads = n;
+	}
+	/**
+	 * Gets the number of threads which read the images, and of those which write them.
+	 * @return The number of readers and of writers.
+	 */
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	/**
+	 * Sets the pool from which the images take their storages.
+	 * @param pool - The pool to use, or null to allocate new storages each time.
+	 */
+	public void setPool(StoragePool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Finds the bitmaps to process. The input may be a single file, a directory
+	 * (all the ".bmp" files in it are used), or a glob pattern such as "in/*.bmp"
+	 * or "in/**&#47;*.bmp", which is matched against the paths relative to the
+	 * directory before the first wildcard. A "**&#47;" may also match no directory
+	 * at all, so "in/**&#47;*.bmp" finds the files directly in "in" too.
+	 *
+	 * @param input - The file, directory or pattern.
+	 * @return The files found, sorted by path.
+	 * @throws IOException if a directory cannot be listed.
+	 * @throws NullArgumentException if input is null.
+	 */
+	public static List<File> findFiles(String input) throws IOException {
+		if (input == null)
+			throw new NullArgumentException("input");
+
+		final List<File> files = new ArrayList<File>();
+		File file = new File(input);
+
+		if (file.isFile()) {
+			files.add(file);
+			return files;
+		}
+
+		File directory = baseDirectory(input);
+		if (directory == null || !directory.isDirectory())
+			return files;
+
+		// a pattern is matched against the paths under its directory.
+		final List<PathMatcher> matchers = file.isDirectory() ? null : matchers(input.substring(patternStart(input)));
+
+		final Path root = directory.toPath();
+		int depth = matchers == null ? 1 : Integer.MAX_VALUE;
+		Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), depth, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+				if (!attributes.isRegularFile())
+					return FileVisitResult.CONTINUE;
+
+				boolean matches = matchers == null && path.getFileName().toString().toLowerCase().endsWith(".bmp");
+				for (int i = 0; !matches && matchers != null && i < matchers.size(); ++i)
+					matches = matchers.get(i).matches(root.relativize(path));
+				if (matches)
+					files.add(path.toFile());
+
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Gets the directory under which the files of an input are found: the input
+	 * itself if it is a directory, or the directory before the first wildcard of
+	 * a pattern.
+	 *
+	 * @param input - The file, directory or pattern given to findFiles().
+	 * @return The directory, or null if the input is a single file.
+	 * @throws NullArgumentException if input is null.
+	 */
+	public static File baseDirectory(String input) {
+		if (input == null)
+			throw new NullArgumentException("input");
+
+		File file = new File(input);
+		if (file.isFile())
+			return null;
+		if (file.isDirectory())
+			return file;
+
+		int start = patternStart(input);
+		return new File(start == 0 ? "." : input.substring(0, start));
+	}
+
+	/**
+	 * Gets the matchers of a glob pattern. The glob "**&#47;" matches one directory
+	 * or more, so the pattern is also matched with each of them left out.
+	 *
+	 * @param pattern - The pattern, relative to its directory.
+	 * @return The matchers; a path matches the pattern if any of them matches it.
+	 */
+	private static List<PathMatcher> matchers(String pattern) {
+		List<String> patterns = new ArrayList<String>();
+		withoutAnyDirectories(pattern, 0, patterns);
+
+		List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+		for (String glob : patterns)
+			matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		return matchers;
+	}
+	/**
+	 * Adds the pattern with and without each "**&#47;" from `from` on.
+	 */
+	private static void withoutAnyDirectories(String pattern, int from, List<String> patterns) {
+		int any = pattern.indexOf("**/", from);
+		if (any < 0) {
+			patterns.add(pattern);
+			return;
+		}
+
+		withoutAnyDirectories(pattern, any + 3, patterns);
+		withoutAnyDirectories(pattern.substring(0, any) + pattern.substring(any + 3), any, patterns);
+	}
+
+	/**
+	 * Gets the index at which the part of a pattern holding the first wildcard starts.
+	 * @param pattern - The pattern.
+	 * @return The index of the character after the separator before the first wildcard.
+	 */
+	private static int patternStart(String pattern) {
+		int wildcard = 0;
+		while (wildcard < pattern.length() && "*?[{".indexOf(pattern.charAt(wildcard)) < 0)
+			++wildcard;
+
+		return Math.max(pattern.lastIndexOf('/', wildcard), pattern.lastIndexOf(File.separatorChar, wildcard)) + 1;
+	}
+
+	/**
+	 * Processes all the files, and waits for them to finish. Each output has the same
+	 * name as its input; when the inputs were found under a directory, they keep the
+	 * same sub-directories under the output directory.
+	 *
+	 * @param files - The bitmaps to process.
+	 * @param inputDirectory - The directory under which the files were found, used to name
+	 *                         their outputs, or null to only keep their names.
+	 * @return The result of the batch.
+	 * @throws NullArgumentException if files is null.
+	 */
+	public BatchResult run(List<File> files, File inputDirectory) {
+		if (files == null)
+			throw new NullArgumentException("files");
+
+		Path inputRoot = inputDirectory != null ? inputDirectory.toPath().toAbsolutePath().normalize() : null;
+		int workers = this.workers > 0 ? this.workers : Math.max(1, Runtime.getRuntime().availableProcessors() / threads);
+
+		return new BatchStages(this, files, inputRoot, images, Math.min(workers, images), Math.min(ioThreads, images))
+				.run(files.size());
+	}
+
+	File outputFile(File file, Path inputRoot) {
+		Path path = file.toPath().toAbsolutePath().normalize();
+		if (inputRoot != null && path.startsWith(inputRoot))
+			return new File(outputDirectory, inputRoot.relativize(path).toString());
+
+		return new File(outputDirectory, file.getName());
+	}
+
+	/**
+	 * Reads a bitmap, ready for the operations.
+	 *
+	 * @param input - The bitmap to read.
+	 * @return The bitmap.
+	 * @throws BitmapException if the input is not found or is not a valid bitmap.
+	 */
+	Bitmap read(File input) throws BitmapException {
+		Bitmap bitmap = new Bitmap(input);
+		bitmap.setThreads(threads);
+		bitmap.setPool(pool);
+		return bitmap;
+	}
+
+	/**
+	 * Writes a bitmap, creating the directory of the output if needed.
+	 *
+	 * @param bitmap - The bitmap to write.
+	 * @param output - The file to write the bitmap to.
+	 * @return The number of bytes written.
+	 * @throws IOException if the output cannot be written.
+	 */
+	long write(Bitmap bitmap, File output) throws IOException {
+		File parent = output.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+			throw new IOException("cannot create the directory " + parent + ".");
+
+		BitmapChannelWriter writer = new BitmapChannelWriter(output);
+		try {
+			bitmap.write(writer);
+			return writer.getBytesWritten();
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Gives the storage of a bitmap which is not used anymore back to the pool,
+	 * so the next images can use it.
+	 *
+	 * @param bitmap - The bitmap.
+	 */
+	void release(Bitmap bitmap) {
+		if (pool != null)
+			pool.release(bitmap.getStorage());
+	}
+
+	/**
+	 * Runs the chain of operations on a bitmap.
+	 * @param bitmap - The bitmap to change.
+	 */
+	void apply(Bitmap bitmap) {
+		BitmapPipeline pipeline = bitmap.pipeline();
+		for (char command : operations) {
+			switch (command) {
+				case 'i':
+					pipeline.invert();
+					break;
+				case 'g':
+					pipeline.grayscale();
+					break;
+				case 'b':
+					pipeline.blur();
+					break;
+				case 'h':
+					pipeline.horizontalMirror();
+					break;
+				case 's':
+					pipeline.shrink();
+					break;
+				case 'd':
+					pipeline.doubleSize();
+					break;
+				default:
+					pipeline.rotate90Degrees();
+					break;
+			}
+		}
+
+		pipeline.apply();
+	}
+}
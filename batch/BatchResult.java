@@ -0,0 +1,157 @@
+package batch;
+
+import java.io.File;
+import java.util.*;
+
+import exceptions.*;
+
+/**
+ * The outcome of a batch: how many images were processed, how fast, and
+ * which files failed and why.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class BatchResult {
+	/**
+	 * A file which could not be processed.
+	 */
+	public static class Failure {
+		private final File file;
+		private final Throwable error;
+
+		Failure(File file, Throwable error) {
+			this.file = file;
+			this.error = error;
+		}
+
+		/**
+		 * Gets the file which could not be processed.
+		 * @return The input file.
+		 */
+		public File getFile() {
+			return file;
+		}
+		/**
+		 * Gets the error which stopped the file from being processed, which may
+		 * also be an Error, such as an OutOfMemoryError.
+		 * @return The error.
+		 */
+		public Throwable getError() {
+			return error;
+		}
+		/**
+		 * Gets a short description of the error, to be shown to the user.
+		 * @return The description of the error.
+		 */
+		public String getMessage() {
+			if (error instanceof BitmapNotFoundException)
+				return "the file was not found.";
+			if (error instanceof NotABitmapException)
+				return "the file is not a valid bitmap, or is not supported by this application.";
+
+			return error.getMessage() != null ? error.getMessage() : error.toString();
+		}
+	}
+
+	private final int images, processed;
+	private final List<Failure> failures;
+	private final long bytesRead, bytesWritten;
+	private final long elapsedNanos;
+	private final long readNanos, computeNanos, writeNanos;
+
+	BatchResult(int images, int processed, List<Failure> failures, long bytesRead, long bytesWritten, long elapsedNanos,
+			long readNanos, long computeNanos, long writeNanos) {
+		this.images = images;
+		this.processed = processed;
+		this.failures = Collections.unmodifiableList(failures);
+		this.bytesRead = bytesRead;
+		this.bytesWritten = bytesWritten;
+		this.elapsedNanos = elapsedNanos;
+		this.readNanos = readNanos;
+		this.computeNanos = computeNanos;
+		this.writeNanos = writeNanos;
+	}
+
+	/**
+	 * Gets the number of images which were given to the batch.
+	 * @return The number of input files.
+	 */
+	public int getImages() {
+		return images;
+	}
+	/**
+	 * Gets the number of images which were processed and written. The images which
+	 * were not, because they failed or the batch was interrupted, are not counted.
+	 * @return The number of images processed.
+	 */
+	public int getProcessed() {
+		return processed;
+	}
+	/**
+	 * Gets the files which could not be processed.
+	 * @return The failures, in no particular order.
+	 */
+	public List<Failure> getFailures() {
+		return failures;
+	}
+	/**
+	 * Gets the number of bytes of the images which were read.
+	 * @return The size of the input files which were processed, in bytes.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+	/**
+	 * Gets the number of bytes of the images which were written.
+	 * @return The size of the output files, in bytes.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+	/**
+	 * Gets the time the whole batch took.
+	 * @return The time taken, in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+	/**
+	 * Gets the time spent reading images, added up over all the readers.
+	 * The stages work at the same time, so the times of the three stages add
+	 * up to more than the elapsed time when they overlap.
+	 *
+	 * @return The time spent reading, in nanoseconds.
+	 */
+	public long getReadNanos() {
+		return readNanos;
+	}
+	/**
+	 * Gets the time spent running the operations, added up over all the workers.
+	 * @return The time spent running the operations, in nanoseconds.
+	 */
+	public long getComputeNanos() {
+		return computeNanos;
+	}
+	/**
+	 * Gets the time spent writing images, added up over all the writers.
+	 * @return The time spent writing, in nanoseconds.
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+	/**
+	 * Gets the number of images processed per second.
+	 * @return The throughput, in images per second.
+	 */
+	public double getImagesPerSecond() {
+		return elapsedNanos == 0 ? 0 : this.getProcessed() * 1e9 / elapsedNanos;
+	}
+	/**
+	 * Gets the number of megabytes read per second.
+	 * @return The throughput, in megabytes (of 1024 * 1024 bytes) per second.
+	 */
+	public double getMegabytesPerSecond() {
+		return elapsedNanos == 0 ? 0 : bytesRead * 1e9 / elapsedNanos / (1024 * 1024);
+	}
+}
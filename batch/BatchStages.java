@@ -0,0 +1,301 @@
+package batch;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import graphics.*;
+
+/**
+ * One run of a BatchProcessor, split into three stages which work at the same time:
+ *
+ *  - readers decode the files,
+ *  - workers run the operations, each on one image at a time with the parallel
+ *    operations of Bitmap,
+ *  - writers encode the results.
+ *
+ * The stages hand the images to each other through blocking queues. A reader must
+ * take a permit before reading an image, and the permit is only given back once the
+ * image was written (or failed), so there are never more than `images` images in
+ * memory: when the workers or the disk fall behind, the readers wait for them.
+ *
+ * Readers and writers mostly wait for the disk, so they are virtual threads when
+ * the JVM has them (Java 21 and later), and plain daemon threads otherwise.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class BatchStages {
+	/**
+	 * An image going through the stages.
+	 */
+	private static class Item {
+		final File file;
+		Bitmap bitmap;
+
+		Item(File file) {
+			this.file = file;
+		}
+	}
+
+	// put in a queue to tell the next stage that there are no more images.
+	private static final Item END = new Item(null);
+
+	// the factory of the reader and writer threads, found once.
+	private static ThreadFactory ioThreads;
+
+	private final BatchProcessor processor;
+	private final Path inputRoot;
+	private final Queue<File> files;
+	private final Semaphore permits;
+	private final BlockingQueue<Item> decoded, computed;
+	private final int readers, workers, writers;
+	private final AtomicInteger readersLeft, workersLeft;
+	private final AtomicInteger processed = new AtomicInteger();
+
+	private final List<BatchResult.Failure> failures = Collections.synchronizedList(new ArrayList<BatchResult.Failure>());
+	private final AtomicLong bytesRead = new AtomicLong(), bytesWritten = new AtomicLong();
+	private final AtomicLong readNanos = new AtomicLong(), computeNanos = new AtomicLong(), writeNanos = new AtomicLong();
+
+	BatchStages(BatchProcessor processor, List<File> files, Path inputRoot, int images, int workers, int ioThreads) {
+		this.processor = processor;
+		this.inputRoot = inputRoot;
+		this.files = new ConcurrentLinkedQueue<File>(files);
+		this.permits = new Semaphore(images);
+
+		// there are never more than `images` images in the queues, besides the END markers.
+		this.decoded = new ArrayBlockingQueue<Item>(images + workers);
+		this.computed = new ArrayBlockingQueue<Item>(images + ioThreads);
+
+		this.readers = ioThreads;
+		this.workers = workers;
+		this.writers = ioThreads;
+		this.readersLeft = new AtomicInteger(readers);
+		this.workersLeft = new AtomicInteger(workers);
+	}
+
+	/**
+	 * Starts the stages, and waits for all the images to be written.
+	 *
+	 * @param images - The number of images given to the batch.
+	 * @return The result of the batch.
+	 */
+	BatchResult run(int images) {
+		long start = System.nanoTime();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		ThreadFactory io = getIoThreads();
+		for (int i = 0; i < readers; ++i)
+			threads.add(io.newThread(new Runnable() {
+				public void run() {
+					read();
+				}
+			}));
+		for (int i = 0; i < workers; ++i) {
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					compute();
+				}
+			}, "batch-worker-" + i);
+			worker.setDaemon(true);
+			threads.add(worker);
+		}
+		for (int i = 0; i < writers; ++i)
+			threads.add(io.newThread(new Runnable() {
+				public void run() {
+					write();
+				}
+			}));
+
+		for (Thread thread : threads)
+			thread.start();
+
+		try {
+			for (Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException e) {
+			// stop all the stages, and keep what was done so far.
+			for (Thread thread : threads)
+				thread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+
+		return new BatchResult(images, processed.get(), new ArrayList<BatchResult.Failure>(failures), bytesRead.get(),
+				bytesWritten.get(), System.nanoTime() - start, readNanos.get(), computeNanos.get(), writeNanos.get());
+	}
+
+	/**
+	 * The reader stage: decodes files until there are none left.
+	 */
+	private void read() {
+		try {
+			while (true) {
+				permits.acquire();
+
+				File file = files.poll();
+				if (file == null) {
+					permits.release();
+					break;
+				}
+
+				Item item = new Item(file);
+				long start = System.nanoTime();
+				try {
+					item.bitmap = processor.read(file);
+					bytesRead.addAndGet(file.length());
+				} catch (Throwable e) {
+					// even an Error (such as running out of memory) only fails this image.
+					this.fail(item, e);
+					continue;
+				} finally {
+					readNanos.addAndGet(System.nanoTime() - start);
+				}
+
+				this.handOn(item, decoded);
+			}
+		} catch (InterruptedException e) {
+		} finally {
+			// the last reader tells the workers that nothing else is coming.
+			if (readersLeft.decrementAndGet() == 0)
+				endAll(decoded, workers);
+		}
+	}
+
+	/**
+	 * The worker stage: runs the operations on the decoded images.
+	 */
+	private void compute() {
+		try {
+			Item item;
+			while ((item = decoded.take()) != END) {
+				long start = System.nanoTime();
+				try {
+					processor.apply(item.bitmap);
+				} catch (Throwable e) {
+					this.fail(item, e);
+					continue;
+				} finally {
+					computeNanos.addAndGet(System.nanoTime() - start);
+				}
+
+				this.handOn(item, computed);
+			}
+		} catch (InterruptedException e) {
+		} finally {
+			if (workersLeft.decrementAndGet() == 0)
+				endAll(computed, writers);
+		}
+	}
+
+	/**
+	 * The writer stage: encodes the images, and lets a reader start on the next one.
+	 */
+	private void write() {
+		try {
+			Item item;
+			while ((item = computed.take()) != END) {
+				long start = System.nanoTime();
+				try {
+					bytesWritten.addAndGet(processor.write(item.bitmap, processor.outputFile(item.file, inputRoot)));
+					processed.incrementAndGet();
+					this.done(item);
+				} catch (Throwable e) {
+					this.fail(item, e);
+				} finally {
+					writeNanos.addAndGet(System.nanoTime() - start);
+				}
+			}
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Hands an image to the next stage. If the stage is interrupted meanwhile, the
+	 * image fails, so its permit is given back.
+	 *
+	 * @param item - The image.
+	 * @param queue - The queue of the next stage.
+	 * @throws InterruptedException if the stage was interrupted.
+	 */
+	private void handOn(Item item, BlockingQueue<Item> queue) throws InterruptedException {
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			this.fail(item, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Records an image which could not be processed, and lets go of it.
+	 *
+	 * @param item - The image.
+	 * @param error - What stopped the image.
+	 */
+	private void fail(Item item, Throwable error) {
+		try {
+			failures.add(new BatchResult.Failure(item.file, error));
+		} finally {
+			this.done(item);
+		}
+	}
+
+	/**
+	 * Lets go of an image which went through the stages, or failed. Its permit is
+	 * always given back, so the readers never wait for an image which is gone.
+	 *
+	 * @param item - The image.
+	 */
+	private void done(Item item) {
+		try {
+			if (item.bitmap != null)
+				processor.release(item.bitmap);
+		} finally {
+			item.bitmap = null;
+			permits.release();
+		}
+	}
+
+	private static void endAll(BlockingQueue<Item> queue, int consumers) {
+		try {
+			for (int i = 0; i < consumers; ++i)
+				queue.put(END);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Gets the factory of the reader and writer threads: virtual threads if the JVM
+	 * has them, daemon threads otherwise. Virtual threads are looked up by reflection
+	 * so the same build runs on Java 17.
+	 *
+	 * @return The factory.
+	 */
+	static synchronized ThreadFactory getIoThreads() {
+		if (ioThreads != null)
+			return ioThreads;
+
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+			virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, "batch-io-", 0L);
+			ioThreads = (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			// virtual threads are missing, or are a preview which was not enabled.
+			final AtomicInteger count = new AtomicInteger();
+			ioThreads = new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "batch-io-" + count.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		}
+
+		return ioThreads;
+	}
+}
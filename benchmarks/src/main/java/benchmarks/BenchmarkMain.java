@@ -0,0 +1,26 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with the GC profiler, so the bytes allocated by each
+ * operation are reported next to its time ("gc.alloc.rate.norm").
+ * Any of the usual JMH options can be given, for example:
+ * 
+ *     java -jar benchmarks/target/benchmarks.jar OperationBenchmark.blur -p threads=1,4
+ * 
+ * @author Claude Abounegm
+ *
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.Random;
+
+import graphics.*;
+
+/**
+ * A class which builds the synthetic pictures used by the benchmarks.
+ * 
+ * @author Claude Abounegm
+ *
+ */
+final class Images {
+	private Images() {
+	}
+
+	/**
+	 * Parses a size given as "WIDTHxHEIGHT", such as "1920x1080".
+	 * 
+	 * @param size - The size to parse.
+	 * @return An array which holds the width and the height.
+	 */
+	static int[] parseSize(String size) {
+		int x = size.indexOf('x');
+		if (x < 0)
+			throw new IllegalArgumentException("size should be WIDTHxHEIGHT.");
+
+		return new int[] { Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1)) };
+	}
+
+	/**
+	 * Creates a bitmap of the given size filled with random colors. The same
+	 * size always gives the same colors, so every run works on the same picture.
+	 * 
+	 * @param size - The size of the bitmap, as "WIDTHxHEIGHT".
+	 * @return A new bitmap.
+	 */
+	static Bitmap random(String size) {
+		int[] dimensions = parseSize(size);
+		Bitmap bitmap = new Bitmap(dimensions[0], dimensions[1]);
+		PixelStorage storage = bitmap.getStorage();
+
+		Random random = new Random(size.hashCode());
+		byte[] row = new byte[storage.getWidthBytes()];
+		for (int y = 0; y < storage.getHeight(); ++y) {
+			random.nextBytes(row);
+			storage.setRow(y, row, 0);
+		}
+
+		return bitmap;
+	}
+}
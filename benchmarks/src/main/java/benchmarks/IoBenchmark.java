@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import exceptions.*;
+import graphics.*;
+
+/**
+ * Measures reading and writing bitmaps. The files are written to the temporary
+ * directory, so the times mostly show the file system cache, not the disk.
+ * 
+ * @author Claude Abounegm
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class IoBenchmark {
+	@Param({ "256x256", "1920x1080", "4096x3072" })
+	public String size;
+
+	private Bitmap bitmap;
+	private File input, output;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		bitmap = Images.random(size);
+
+		input = File.createTempFile("bench-in", ".bmp");
+		output = File.createTempFile("bench-out", ".bmp");
+		bitmap.write(input);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		input.delete();
+		output.delete();
+	}
+
+	@Benchmark
+	public Bitmap read() throws BitmapNotFoundException, NotABitmapException {
+		return new Bitmap(input);
+	}
+
+	@Benchmark
+	public Bitmap map() throws BitmapNotFoundException, NotABitmapException {
+		return Bitmap.map(input);
+	}
+
+	@Benchmark
+	public File write() {
+		bitmap.write(output);
+		return output;
+	}
+}
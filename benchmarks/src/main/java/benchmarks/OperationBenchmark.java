@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import graphics.*;
+
+/**
+ * Measures the operations which keep working on the same bitmap: each call
+ * changes the picture in place (or, for the rotation, swaps its width and height),
+ * so the bitmap does not need to be reset between calls.
+ * 
+ * @author Claude Abounegm
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class OperationBenchmark {
+	@Param({ "256x256", "1920x1080", "4096x3072" })
+	public String size;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private Bitmap bitmap;
+	private LookupTable table;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		bitmap = Images.random(size);
+		bitmap.setThreads(threads);
+		table = LookupTable.levels(16, 235, 1.0, 0, 255).then(LookupTable.gamma(2.2));
+	}
+
+	@Benchmark
+	public Bitmap invert() {
+		bitmap.invert();
+		return bitmap;
+	}
+
+	@Benchmark
+	public Bitmap grayscale() {
+		bitmap.grayscale();
+		return bitmap;
+	}
+
+	@Benchmark
+	public Bitmap lookup() {
+		bitmap.lookup(table);
+		return bitmap;
+	}
+
+	@Benchmark
+	public Bitmap horizontalMirror() {
+		bitmap.horizontalMirror();
+		return bitmap;
+	}
+
+	@Benchmark
+	public Bitmap blur() {
+		bitmap.blur();
+		return bitmap;
+	}
+
+	@Benchmark
+	public Bitmap rotate90Degrees() {
+		bitmap.rotate90Degrees();
+		return bitmap;
+	}
+}
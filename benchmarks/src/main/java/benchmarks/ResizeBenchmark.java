@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import graphics.*;
+
+/**
+ * Measures the operations which change the size of the bitmap. The bitmap is
+ * copied back from the original picture before each call. Both bitmaps use a pool
+ * of their own, so the copy does not allocate, and the allocations reported by
+ * the GC profiler are only those of the operation itself.
+ * 
+ * @author Claude Abounegm
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ResizeBenchmark {
+	@Param({ "256x256", "1920x1080", "4096x3072" })
+	public String size;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private Bitmap original, bitmap;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		original = Images.random(size);
+
+		bitmap = Images.random(size);
+		bitmap.setThreads(threads);
+		bitmap.setPool(new StoragePool(Long.MAX_VALUE));
+	}
+
+	@Setup(Level.Invocation)
+	public void reset() {
+		bitmap.copyFrom(original);
+	}
+
+	@Benchmark
+	public Bitmap shrink() {
+		bitmap.shrink();
+		return bitmap;
+	}
+
+	@Benchmark
+	public Bitmap doubleSize() {
+		bitmap.doubleSize();
+		return bitmap;
+	}
+}
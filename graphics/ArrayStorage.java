@@ -0,0 +1,81 @@
+package graphics;
+
+/**
+ * A PixelStorage which keeps all the rows in one array. Row `y` starts
+ * at `y * stride`, where the stride is the width of a row, padded to a
+ * multiple of four bytes if asked for.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class ArrayStorage extends PixelStorage {
+	private final byte[] data;
+	private final int stride;
+	private final boolean padded;
+
+	/**
+	 * Initializes an empty storage of a specific size.
+	 *
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 * @param padded - true to pad each row to a multiple of four bytes.
+	 */
+	ArrayStorage(int width, int height, boolean padded) {
+		super(width, height);
+
+		this.padded = padded;
+		this.stride = padded ? paddedStride(width) : width * 3;
+		if ((long) stride * height > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("the image is too big to be kept in one array.");
+
+		this.data = new byte[stride * height];
+	}
+
+	/**
+	 * Gets the distance between the start of two rows.
+	 * @return The distance between the start of two rows, in bytes.
+	 */
+	int getStride() {
+		return stride;
+	}
+
+	@Override
+	public int get(int y, int index) {
+		return data[y * stride + index] & 0xFF;
+	}
+
+	@Override
+	public void set(int y, int index, int value) {
+		data[y * stride + index] = (byte) value;
+	}
+
+	@Override
+	public void getRow(int y, byte[] dest, int offset) {
+		System.arraycopy(data, y * stride, dest, offset, getWidthBytes());
+	}
+
+	@Override
+	public void setRow(int y, byte[] src, int offset) {
+		System.arraycopy(src, offset, data, y * stride, getWidthBytes());
+	}
+
+	@Override
+	public byte[] rowArray(int y) {
+		return data;
+	}
+
+	@Override
+	public int rowOffset(int y) {
+		return y * stride;
+	}
+
+	@Override
+	boolean isSameKind(PixelStorage other) {
+		return super.isSameKind(other) && ((ArrayStorage) other).padded == this.padded;
+	}
+
+	@Override
+	public PixelStorage allocate(int width, int height) {
+		return new ArrayStorage(width, height, padded);
+	}
+}
@@ -1,9 +1,10 @@
 package graphics;
 
 import java.io.*;
-import java.util.concurrent.*;
+import java.nio.*;
 
 import io.*;
+import metrics.*;
 import exceptions.*;
 
 /**
@@ -15,38 +16,14 @@ import exceptions.*;
  */
 public class Bitmap {
 	// ugly ParallelRunner.. thank you Java, sorry Dr. Wittman.
-	private abstract class ParallelRunner {
+	private abstract class ParallelRunner extends ParallelExecutor.RangeAction {
 		void execute(int start, int end) {
 		}
 
 		public final void startAndWait(int splitValue) {
-			// distribute the work evenly
-			int step = splitValue / nThreads;
-			if (splitValue % nThreads != 0)
-				++step;
-			
-			ExecutorService exec = Executors.newFixedThreadPool(nThreads);
-			
-			// for each thread, do work split up
-			for (int i = 0; i < nThreads; ++i) {
-				// variables need to be final to be used in anonymous functions.
-				final int iFinal = i, 
-					      stepFinal = step;
-				
-				exec.execute(new Runnable() {
-					public void run() {
-						execute(iFinal * stepFinal, Math.min((iFinal + 1) * stepFinal, splitValue));
-					}
-				});
-			}
-			
-			exec.shutdown();
-			
-			try {
-				exec.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-			} catch (InterruptedException e) {
-				
-			}
+			// the executor splits the work into chunks and balances them
+			// between its threads.
+			getExecutor().invoke(this, splitValue, nThreads);
 		}
 	}
 	
@@ -55,10 +32,24 @@ public class Bitmap {
 	 * For this assignment, the radius is required to be two pixels.
 	 */
 	public static final int BLUR_RADIUS = 2;
+	/**
+	 * The part of the darkest and of the brightest pixels of each component which
+	 * autoLevels() leaves out, so a few extreme pixels do not keep the others from
+	 * being stretched.
+	 */
+	public static final double AUTO_LEVELS_CLIP = 0.001;
 	
-	private int nThreads;
+	private int nThreads = 1;
+	private ParallelExecutor executor;
+	private StoragePool pool;
 	private BitmapHeader header;
-	private byte[][] colors;
+	private PixelStorage storage;
+	// true while the storage is shared with another bitmap (such as one kept by
+	// a BitmapCache), which means it has to be copied before it is changed.
+	private boolean shared;
+	// true once regions were made over the storage, which then has to be kept
+	// (see region()).
+	private boolean viewed;
 
 	/**
 	 * Initializes a new Bitmap object. 
@@ -68,10 +59,23 @@ public class Bitmap {
 	 * @throws NullArgumentException  if the file specified is null.
 	 */
 	public Bitmap(File file) throws BitmapNotFoundException, NotABitmapException {
+		this(file, PixelStorage.ROWS);
+	}
+	/**
+	 * Initializes a new Bitmap object, which keeps its colors in a specific kind of storage.
+	 * 32-bit bitmaps are always kept in a PixelStorage.PACKED storage, so their alpha is kept.
+	 * @param file - The bitmap to be opened for reading.
+	 * @param allocator - The allocator of the storage, such as PixelStorage.CONTIGUOUS.
+	 * @throws BitmapNotFoundException  if the bitmap was not found.
+	 * @throws NotABitmapException if the file specified is not a bitmap.
+	 * @throws NullArgumentException  if the file or allocator specified is null.
+	 */
+	public Bitmap(File file, PixelStorage.Allocator allocator) throws BitmapNotFoundException, NotABitmapException {
+		if (allocator == null)
+			throw new NullArgumentException("allocator");
+		
 		// read in the file
-		this.read(file);
-		// assume having one thread
-		this.nThreads = 1;
+		this.read(file, allocator);
 	}
 	/**
 	 * Initializes a new Bitmap object. It's used as a building block, where you
@@ -81,11 +85,191 @@ public class Bitmap {
 	 * @param height - The height of the image.
 	 */
 	public Bitmap(int width, int height) {
+		this(width, height, PixelStorage.ROWS);
+	}
+	/**
+	 * Initializes a new Bitmap object, which keeps its colors in a specific kind of storage.
+	 * 
+	 * @param width - The width of the image.
+	 * @param height - The height of the image.
+	 * @param allocator - The allocator of the storage, such as PixelStorage.CONTIGUOUS.
+	 * @throws NullArgumentException  if the allocator specified is null.
+	 */
+	public Bitmap(int width, int height, PixelStorage.Allocator allocator) {
+		if (allocator == null)
+			throw new NullArgumentException("allocator");
+		
 		// initialize the header
 		this.header = new BitmapHeader(width, height);
 		
-		// initialize the colors array
-		this.colors = new byte[header.getHeight()][header.getWidthBytes()];
+		// initialize the colors storage
+		this.storage = allocator.allocate(header.getWidth(), header.getHeight());
+	}
+	/**
+	 * Initializes a new Bitmap object which uses an existing storage.
+	 * 
+	 * @param storage - The storage which holds the colors of the image.
+	 */
+	Bitmap(PixelStorage storage) {
+		this.header = new BitmapHeader(storage.getWidth(), storage.getHeight());
+		this.storage = storage;
+	}
+	
+	/**
+	 * Creates a bitmap which uses the same storage as this one, without copying it.
+	 * The new bitmap copies the storage the first time it is changed, so this
+	 * bitmap should not be changed itself while the new one is in use.
+	 * 
+	 * @return A new Bitmap which shares the storage of this one.
+	 */
+	Bitmap view() {
+		Bitmap view = this.derive(storage);
+		view.shared = true;
+		return view;
+	}
+	/**
+	 * Creates a bitmap over a rectangle of this one, which uses its colors in place
+	 * instead of copying them: every operation on the region (invert, grayscale, blur,
+	 * horizontal mirror, lookup tables, convolution...) changes that part of this
+	 * picture, split between the threads like on a whole picture, and the changes 
+	 * made to this picture are seen by the region. A region can be written to a file,
+	 * and can have regions itself.
+	 * 
+	 * The operations which write their result to a new storage (such as blur) copy
+	 * it back into the region, and into a picture which has regions. An operation which
+	 * changes the size of a region (such as shrink, or rotate() of a region which is 
+	 * not square) gives it its own colors, as do getRawColors() and setBitsPerPixel(32);
+	 * the picture is then left as it was.
+	 * 
+	 * @param x - The column of the left edge of the region.
+	 * @param y - The row of the bottom edge of the region; as for newPixel(), row 0 is
+	 * 			  the bottom row of the picture, the first one of the file.
+	 * @param width - The width of the region, in pixels.
+	 * @param height - The height of the region, in pixels.
+	 * @return A new Bitmap over the region.
+	 * @throws IllegalArgumentException if the region is empty, or is not inside the picture.
+	 */
+	public Bitmap region(int x, int y, int width, int height) {
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("width and height should be positive.");
+		if (x < 0 || y < 0 || width > getWidth() - x || height > getHeight() - y)
+			throw new IllegalArgumentException("the region should be inside the picture.");
+		
+		// the colors of a cached bitmap are copied first, so the cache is left unchanged.
+		this.unshare();
+		this.viewed = true;
+		return this.derive(storage.region(x, y, width, height));
+	}
+	/**
+	 * Checks whether the bitmap is a region of another one, whose colors it uses.
+	 * 
+	 * @return true if the bitmap is a region; otherwise, false.
+	 */
+	public boolean isRegion() {
+		return storage.isRegion();
+	}
+	/**
+	 * Creates a bitmap over a storage, which is written like this one (with the
+	 * same number of bits and palette) and uses the same threads, executor and pool.
+	 * 
+	 * @param storage - The storage which holds the colors of the new bitmap.
+	 * @return The new Bitmap.
+	 */
+	Bitmap derive(PixelStorage storage) {
+		Bitmap bitmap = new Bitmap(storage);
+		bitmap.header = header.resize(storage.getWidth(), storage.getHeight());
+		bitmap.nThreads = nThreads;
+		bitmap.executor = executor;
+		bitmap.pool = pool;
+		return bitmap;
+	}
+	
+	/**
+	 * Opens a bitmap by mapping the file into memory. Nothing is copied when the 
+	 * bitmap is opened: the colors are used in place, and only copied the first time 
+	 * they are changed. The file should not be changed while the bitmap is in use.
+	 * 32-bit bitmaps cannot be used in place, and are read into a packed storage;
+	 * bitmaps with a palette are read into a contiguous storage.
+	 * 
+	 * @param file - The bitmap to be opened for reading.
+	 * @return A new Bitmap which uses the mapped file.
+	 * @throws BitmapNotFoundException  if the bitmap was not found.
+	 * @throws NotABitmapException if the file specified is not a bitmap.
+	 * @throws NullArgumentException  if the file specified is null.
+	 */
+	public static Bitmap map(File file) throws BitmapNotFoundException, NotABitmapException {
+		if (file == null)
+			throw new NullArgumentException("file");
+		
+		Metrics.Sample sample = Metrics.start(Metrics.READ, 0);
+		BitmapReader reader = null;
+		try {
+			reader = new BitmapReader(file);
+			
+			// parse the header straight from the mapped file.
+			ByteBuffer mapped = reader.map(0, Math.min(reader.size(), BitmapHeader.MAX_LENGTH));
+			BitmapHeader header = new BitmapHeader(mapped, file);
+			sample.setBytes(header.getFileSize());
+			
+			if (header.getBitsPerPixel() != 24)
+				return new Bitmap(file, header.getBitsPerPixel() == 32 ? PixelStorage.PACKED : PixelStorage.CONTIGUOUS);
+			
+			Bitmap bitmap = new Bitmap(BufferStorage.map(reader, header));
+			bitmap.header = header;
+			return bitmap;
+		} catch (FileNotFoundException e) {
+			throw new BitmapNotFoundException(file);
+		} catch (IOException e) {
+			throw new NotABitmapException(file);
+		} finally {
+			try {
+				if (reader != null)
+					reader.close();
+			} catch (IOException e) {
+			}
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Reads the header of a bitmap file, and only the header: the file is opened, 
+	 * its first bytes (enough for the largest header and palette) are read with one
+	 * positional read, and it is closed again. Nothing is allocated for the colors,
+	 * so this is the fast way to check or sort many files, from many threads at once.
+	 * 
+	 * @param file - The bitmap to be probed.
+	 * @return What the header says about the bitmap.
+	 * @throws BitmapNotFoundException  if the bitmap was not found.
+	 * @throws NotABitmapException if the file specified is not a bitmap, or one which
+	 * 							   cannot be read.
+	 * @throws NullArgumentException  if the file specified is null.
+	 */
+	public static BitmapInfo probe(File file) throws BitmapNotFoundException, NotABitmapException {
+		if (file == null)
+			throw new NullArgumentException("file");
+		
+		Metrics.Sample sample = Metrics.start(Metrics.PROBE, 0);
+		BitmapReader reader = null;
+		try {
+			reader = new BitmapReader(file);
+			
+			ByteBuffer buffer = ByteBuffer.allocate(BitmapHeader.MAX_LENGTH);
+			sample.setBytes(reader.read(buffer, 0));
+			buffer.flip();
+			
+			return new BitmapInfo(new BitmapHeader(buffer, file));
+		} catch (FileNotFoundException e) {
+			throw new BitmapNotFoundException(file);
+		} catch (IOException e) {
+			throw new NotABitmapException(file);
+		} finally {
+			try {
+				if (reader != null)
+					reader.close();
+			} catch (IOException e) {
+			}
+			Metrics.stop(sample);
+		}
 	}
 	
 	/**
@@ -95,23 +279,43 @@ public class Bitmap {
 	 *            - The file which points to the bitmap.
 	 * @throws NotABitmapException
 	 *             if the file is not a valid bitmap. This includes having a
-	 *             valid bitmap which is not 24-bit.
+	 *             valid bitmap which is not 24-bit, 32-bit, or 8-bit or 4-bit 
+	 *             with a palette (uncompressed or RLE).
 	 * @throws BitmapNotFoundException if the file was not found.
 	 */
-	private void read(File file) throws NotABitmapException,
+	private void read(File file, PixelStorage.Allocator allocator) throws NotABitmapException,
 			BitmapNotFoundException {
 
+		Metrics.Sample sample = Metrics.start(Metrics.READ, 0);
 		BitmapReader reader = null;
 		try {
 			reader = new BitmapReader(file);
 			
 			// reads the bitmap header
 			this.header = new BitmapHeader(reader);
+			sample.setBytes(header.getFileSize());
 			
-			// read in the color data
-			this.colors = new byte[header.getHeight()][header.getWidthBytes()];
+			if (header.getBitsPerPixel() == 32) {
+				this.readPacked(reader);
+				return;
+			}
+			if (header.getPalette() != null) {
+				this.readPalette(reader, allocator);
+				return;
+			}
+			
+			// read in the color data, straight into the storage if it is kept in arrays.
+			this.storage = allocator.allocate(header.getWidth(), header.getHeight());
+			byte[] row = new byte[header.getWidthBytes()];
 			for (int i = 0; i < header.getHeight(); ++i) {
-				reader.read(colors[i], 0, colors[i].length);
+				byte[] dest = storage.rowArray(i);
+				
+				if (dest != null) {
+					reader.readFully(dest, storage.rowOffset(i), row.length);
+				} else {
+					reader.readFully(row, 0, row.length);
+					storage.setRow(i, row, 0);
+				}
 				reader.skip(header.getPadding());
 			}
 		} catch (FileNotFoundException e) {
@@ -124,7 +328,62 @@ public class Bitmap {
 					reader.close();
 			} catch (IOException e) {
 			}
+			Metrics.stop(sample);
+		}
+	}
+
+	/**
+	 * Reads the pixels of a 32-bit bitmap into a packed storage, four bytes each.
+	 * When the file does not say that the fourth byte is the alpha and it is zero
+	 * for every pixel, it was left unused, and the pixels are made opaque.
+	 * 
+	 * @param reader - The reader, at the first color offset.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void readPacked(BitmapReader reader) throws IOException {
+		PackedStorage packed = new PackedStorage(header.getWidth(), header.getHeight());
+		this.storage = packed;
+		
+		byte[] row = new byte[header.getWidthBytes()];
+		for (int i = 0; i < header.getHeight(); ++i) {
+			reader.readFully(row, 0, row.length);
+			packed.setPackedRow(i, ByteBuffer.wrap(row));
+		}
+		
+		if (!header.hasAlpha())
+			packed.fillUnusedAlpha();
+	}
+
+	/**
+	 * Reads the pixels of a bitmap with a palette, one row at a time, straight 
+	 * into the storage if it is kept in arrays.
+	 * 
+	 * @param reader - The reader, at the first color offset.
+	 * @param allocator - The allocator of the storage.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void readPalette(BitmapReader reader, PixelStorage.Allocator allocator) throws IOException {
+		this.storage = allocator.allocate(header.getWidth(), header.getHeight());
+		
+		PaletteDecoder decoder = new PaletteDecoder(reader, header);
+		byte[] row = null;
+		for (int i = 0; i < header.getHeight(); ++i) {
+			byte[] dest = storage.rowArray(i);
+			
+			if (dest != null) {
+				decoder.readRow(dest, storage.rowOffset(i));
+			} else {
+				if (row == null)
+					row = new byte[storage.getWidthBytes()];
+				
+				decoder.readRow(row, 0);
+				storage.setRow(i, row, 0);
+			}
 		}
+
+		// uncompressed indices are written back compressed.
+		if (!header.isCompressed())
+			this.header = header.resize(header.getWidth(), header.getHeight());
 	}
 
 	/**
@@ -134,29 +393,11 @@ public class Bitmap {
 	 * @param file - The file to which the method is writing the bitmap's data to.
 	 */
 	public void write(File file) {
-		BitmapWriter writer = null;
+		BitmapChannelWriter writer = null;
 		
 		try {
-			writer = new BitmapWriter(file);
-			
-			// write the 54 bytes of the header to the stream.
-			header.write(writer);
-
-			// This is an array of bytes filled with zeros. It is used
-			// to pad the end of a row after colors have been written.
-			// This is due to the bitmap requiring each row of bytes to
-			// be divisible by four.
-			byte[] paddingBytes = new byte[header.getPadding()];
-
-			// write the colors' data to the stream
-			for (int i = 0; i < header.getHeight(); ++i) {
-				writer.write(colors[i]);
-				writer.write(paddingBytes);
-			}
-			
-			// write the two extra bytes at the end of the bitmap to make its
-			// size even.
-			writer.write(new byte[] { 0, 0 });
+			writer = new BitmapChannelWriter(file);
+			this.write(writer);
 		} catch (IOException e) {
 			e.printStackTrace();
 		} finally {
@@ -168,10 +409,165 @@ public class Bitmap {
 		}
 	}
 	
+	/**
+	 * Writes the Bitmap to a channel writer, which points to the beginning of the
+	 * file. The header is assembled in one buffer, and the rows are written with
+	 * gathering writes; the writer keeps track of the bytes written and the time taken.
+	 * 
+	 * @param writer - The writer to which the method is writing the bitmap's data to.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws NullArgumentException if writer is null.
+	 */
+	public void write(BitmapChannelWriter writer) throws IOException {
+		if (writer == null)
+			throw new NullArgumentException("writer");
+		
+		Metrics.Sample sample = Metrics.start(Metrics.WRITE, 0);
+		long written = writer.getBytesWritten();
+		try {
+			this.writeTo(writer);
+		} finally {
+			sample.setBytes(writer.getBytesWritten() - written);
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Writes the header and the rows of the Bitmap, as write() does.
+	 * @param writer - The writer to which the method is writing the bitmap's data to.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void writeTo(BitmapChannelWriter writer) throws IOException {
+		// the 54 bytes of the header, or 122 for a 32-bit bitmap.
+		ByteBuffer headerBuffer = ByteBuffer.allocate(header.getHeaderLength());
+		header.write(headerBuffer);
+		headerBuffer.flip();
+		writer.write(headerBuffer);
+		
+		if (header.getBitsPerPixel() == 32) {
+			this.writePacked(writer);
+			return;
+		}
+		if (header.getPalette() != null) {
+			this.writePalette(writer);
+			return;
+		}
+
+		// This is a buffer of bytes filled with zeros, shared by all the rows. It is 
+		// used to pad the end of a row after colors have been written.
+		// This is due to the bitmap requiring each row of bytes to
+		// be divisible by four.
+		ByteBuffer paddingBytes = ByteBuffer.allocate(header.getPadding());
+		int buffersPerRow = header.getPadding() == 0 ? 1 : 2;
+		
+		// write the colors' data, as many rows at a time as a gathering write accepts.
+		ByteBuffer[] buffers = new ByteBuffer[BitmapChannelWriter.MAX_BUFFERS];
+		int count = 0;
+		for (int i = 0; i < header.getHeight(); ++i) {
+			buffers[count++] = storage.rowBuffer(i);
+			if (buffersPerRow == 2)
+				buffers[count++] = paddingBytes.duplicate();
+			
+			if (count + buffersPerRow > buffers.length) {
+				writer.write(buffers, 0, count);
+				count = 0;
+			}
+		}
+		
+		// write the two extra bytes at the end of the bitmap to make its
+		// size even.
+		buffers[count++] = ByteBuffer.allocate(2);
+		writer.write(buffers, 0, count);
+	}
+	
+	/**
+	 * Writes the pixels of a 32-bit bitmap, four bytes each, a few rows at a time.
+	 * The rows need no padding.
+	 * 
+	 * @param writer - The writer, after the header.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void writePacked(BitmapChannelWriter writer) throws IOException {
+		PackedStorage packed = (PackedStorage) storage;
+		int rowBytes = header.getWidthBytes();
+		
+		if (rowBytes > 0) {
+			ByteBuffer rows = ByteBuffer.allocate(Math.min(header.getHeight(), Math.max(1, (1 << 20) / rowBytes)) * rowBytes);
+			for (int i = 0; i < header.getHeight(); ++i) {
+				packed.getPackedRow(i, rows);
+				
+				if (!rows.hasRemaining() || i == header.getHeight() - 1) {
+					rows.flip();
+					writer.write(rows);
+					rows.clear();
+				}
+			}
+		}
+		
+		// the two extra bytes, as for a 24-bit bitmap.
+		writer.write(ByteBuffer.allocate(2));
+	}
+	
+	/**
+	 * Writes the pixels of a bitmap with a palette, compressed a row at a time. The
+	 * size of the compressed colors is only known at the end, so the header is 
+	 * written again once they are.
+	 * 
+	 * @param writer - The writer, after the header.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void writePalette(BitmapChannelWriter writer) throws IOException {
+		PaletteEncoder encoder = new PaletteEncoder(header);
+		int rowBytes = PaletteEncoder.maxRowBytes(getWidth());
+		ByteBuffer rows = ByteBuffer.allocate(Math.max(1 << 16, rowBytes + 2));
+		byte[] temp = null;
+		long dataSize = 0;
+		
+		for (int i = 0; i < header.getHeight(); ++i) {
+			if (rows.remaining() < rowBytes) {
+				rows.flip();
+				dataSize += rows.remaining();
+				writer.write(rows);
+				rows.clear();
+			}
+			
+			byte[] row = storage.rowArray(i);
+			int offset = storage.rowOffset(i);
+			if (row == null) {
+				if (temp == null)
+					temp = new byte[storage.getWidthBytes()];
+				
+				storage.getRow(i, temp, 0);
+				row = temp;
+				offset = 0;
+			}
+			
+			encoder.encodeRow(row, offset, i == header.getHeight() - 1, rows);
+		}
+		
+		// the end of an empty bitmap.
+		if (header.getHeight() == 0)
+			rows.put((byte) 0).put((byte) 1);
+		
+		rows.flip();
+		dataSize += rows.remaining();
+		writer.write(rows);
+		
+		if (dataSize > Integer.MAX_VALUE)
+			throw new IOException("the compressed colors are too big for a bitmap.");
+		
+		header.setDataSize((int) dataSize);
+		ByteBuffer headerBuffer = ByteBuffer.allocate(header.getHeaderLength());
+		header.write(headerBuffer);
+		headerBuffer.flip();
+		writer.write(headerBuffer, 0);
+	}
+	
 	/**
 	 * Creates a new Pixel which points to (x, y) in the bitmap. This pixel provides
 	 * methods to perform operation on them. Each Pixel can be re-used as many
-	 * times as needed.
+	 * times as needed. Pixels are handy to reach a few colors; to change the
+	 * whole picture, forEachRow() is much faster.
 	 * 
 	 * @param x - The x-coordinate of the pixel.
 	 * @param y - The y-coordinate of the pixel.
@@ -190,16 +586,136 @@ public class Bitmap {
 	}
 	
 	/**
-	 * Gets the 2D array that contains the raw colors.
+	 * Gets the 2D array that contains the raw colors. If the colors are not kept
+	 * in rows (PixelStorage.ROWS), they are moved to rows first, so changes 
+	 * made to the returned array are still seen by the Bitmap. Operations which 
+	 * write their result to a new storage (blur, shrink, double size, rotation)
+	 * replace the array, so it should be gotten again after them. The rows have
+	 * no alpha, so a 32-bit bitmap becomes a 24-bit one.
 	 * 
 	 * @return The 2D array containing the raw colors of the Bitmap.
 	 */
 	public byte[][] getRawColors() {
-		return colors;
+		if (!(storage instanceof RowStorage)) {
+			RowStorage rows = new RowStorage(getWidth(), getHeight());
+			storage.copyTo(rows);
+			storage = rows;
+			shared = false;
+			viewed = false;
+			if (header.getBitsPerPixel() == 32)
+				header = new BitmapHeader(getWidth(), getHeight());
+		} else {
+			this.unshare();
+		}
+		
+		return ((RowStorage) storage).getRows();
+	}
+	
+	/**
+	 * Gets the storage which holds the colors of the Bitmap. If the storage is
+	 * shared with a cached bitmap, it is copied first, so it can be changed.
+	 * 
+	 * @return The storage which holds the colors of the Bitmap.
+	 */
+	public PixelStorage getStorage() {
+		this.unshare();
+		return storage;
+	}
+	/**
+	 * Gets the storage which holds the colors of the Bitmap, without copying it
+	 * if it is shared. It should only be read.
+	 * 
+	 * @return The storage which holds the colors of the Bitmap.
+	 */
+	PixelStorage peekStorage() {
+		return storage;
+	}
+	
+	/**
+	 * Copies the storage if it is shared with another bitmap, so it can be changed.
+	 */
+	private void unshare() {
+		if (!shared)
+			return;
+		
+		PixelStorage copy = acquireStorage(getWidth(), getHeight());
+		storage.copyTo(copy);
+		this.storage = copy;
+		this.shared = false;
+	}
+	
+	/**
+	 * Checks whether the storage is shared with a cached bitmap, and so will be
+	 * copied before it is changed.
+	 * 
+	 * @return true if the storage is shared; otherwise, false.
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+	
+	/**
+	 * Gets the number of bits of each pixel, which is also the number written by write().
+	 * @return 24; 32 if the pixels have an alpha component; or 8 or 4 if they are
+	 *         written as indices into a palette.
+	 */
+	public int getBitsPerPixel() {
+		return header.getBitsPerPixel();
+	}
+	/**
+	 * Sets the number of bits of each pixel written by write(). A 24-bit bitmap 
+	 * set to 32 bits is moved to a packed storage, with opaque pixels; a 32-bit
+	 * bitmap set to 24 bits keeps its storage, but its alpha is not written.
+	 * The palette, if there was one, is dropped.
+	 * 
+	 * @param bits - The number of bits: 24, or 32 to keep the alpha.
+	 * @throws IllegalArgumentException if bits is not 24 or 32.
+	 */
+	public void setBitsPerPixel(int bits) {
+		if (bits != 24 && bits != 32)
+			throw new IllegalArgumentException("bits should be 24 or 32.");
+		
+		if (bits == 32 && !(storage instanceof PackedStorage)) {
+			PixelStorage packed = new PackedStorage(getWidth(), getHeight());
+			storage.copyTo(packed);
+			this.replaceStorage(packed);
+		}
+		
+		this.header = new BitmapHeader(getWidth(), getHeight(), bits);
+	}
+	
+	/**
+	 * Gets the palette the bitmap is written with, such as the one of the file it
+	 * was read from.
+	 * @return The colors of the palette, as 0xRRGGBB, or null if the bitmap has none.
+	 */
+	public int[] getPalette() {
+		int[] palette = header.getPalette();
+		return palette != null ? palette.clone() : null;
+	}
+	/**
+	 * Sets the palette the bitmap is written with. The colors are kept as they are;
+	 * only write() gives each pixel the index of the nearest color of the palette,
+	 * and compresses them with RLE4 (16 colors or less) or RLE8.
+	 * 
+	 * @param palette - The colors of the palette, as 0xRRGGBB, between 1 and 256 of
+	 * 					them; or null to write the bitmap as 24-bit.
+	 * @throws IllegalArgumentException if the palette has no colors, or more than 256.
+	 */
+	public void setPalette(int[] palette) {
+		this.header = palette != null ? new BitmapHeader(getWidth(), getHeight(), palette)
+				: new BitmapHeader(getWidth(), getHeight());
 	}
 	
 	/**
-	 * Sets the number of threads used for image manipulation operations.
+	 * Sets the number of threads the image manipulation operations are split for.
+	 * The work is cut into about four chunks per thread, which are run by the
+	 * workers of the executor; so this is a hint of the parallelism, and does not
+	 * limit how many threads run at once: the shared executor has one worker per
+	 * available processor. With one thread, the operations run on the calling 
+	 * thread only. To run on exactly `n` threads, give the bitmap its own executor
+	 * with setExecutor(new ParallelExecutor(n)).
+	 * 
 	 * @param n - Number of threads, bigger than or equal to one.
 	 * @return true if the value was accepted; otherwise, false.
 	 */
@@ -212,6 +728,52 @@ public class Bitmap {
 		return false;
 	}
 	
+	/**
+	 * Gets the number of threads the image manipulation operations are split for.
+	 * @return The number of threads.
+	 */
+	int getThreads() {
+		return nThreads;
+	}
+	
+	/**
+	 * Sets the executor used to run the image manipulation operations. 
+	 * The number of threads set by setThreads() decides how finely the work
+	 * is split, while the executor decides how many threads run it.
+	 * 
+	 * @param executor - The executor to use, or null to use the shared one.
+	 */
+	public void setExecutor(ParallelExecutor executor) {
+		this.executor = executor;
+	}
+	/**
+	 * Gets the executor used to run the image manipulation operations.
+	 * @return The executor given to setExecutor(), or the shared one if none was given.
+	 */
+	public ParallelExecutor getExecutor() {
+		return executor != null ? executor : ParallelExecutor.getShared();
+	}
+	
+	/**
+	 * Sets the pool from which operations take the storage they write their result to,
+	 * and to which they give back the storage they replace. The same pool can be used
+	 * by many bitmaps; when pictures of the same size are processed one after the 
+	 * other, the storages are re-used instead of being allocated again.
+	 * 
+	 * @param pool - The pool to use, such as StoragePool.getShared(), or null to
+	 * 				 allocate a new storage each time.
+	 */
+	public void setPool(StoragePool pool) {
+		this.pool = pool;
+	}
+	/**
+	 * Gets the pool used by the operations.
+	 * @return The pool given to setPool(), or null if none was given.
+	 */
+	public StoragePool getPool() {
+		return pool;
+	}
+	
 	/**
 	 * Gets the current width (in pixels) of the Bitmap.
 	 * @return The width of the Bitmap, in pixels.
@@ -225,7 +787,7 @@ public class Bitmap {
 	 * @return The width of the Bitmap, in bytes.
 	 */
 	int getWidthBytes() {
-		return header.getWidthBytes();
+		return storage.getWidthBytes();
 	}
 	/**
 	 * Gets the current height (in pixels) of the Bitmap.
@@ -234,279 +796,714 @@ public class Bitmap {
 	public int getHeight() {
 		return header.getHeight();
 	}
+	/**
+	 * Gets the number of bytes of the colors of the Bitmap, without the padding.
+	 * @return The size of the colors, in bytes.
+	 */
+	private long bytes() {
+		return (long) header.getWidthBytes() * header.getHeight();
+	}
 	
 	/**
-	 * Makes this bitmap an exact copy of the source bitmap `srcBmp`.
+	 * Gets a storage of the same kind as this bitmap's, to write the result of 
+	 * an operation to. It is taken from the pool, if one was given.
 	 * 
-	 * @param srcBmp - The bitmap to copy the data from.
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 * @return The storage, whose colors may not be set to zero.
 	 */
-	public void copyFrom(Bitmap srcBmp) {
-		if(srcBmp == null) 
-			throw new NullArgumentException("bitmap");
-		
-		// no need to re-initialize header and array if they are the same size of the source bitmap.
-		if (srcBmp.getWidth() != this.getWidth() || srcBmp.getHeight() != this.getHeight()) {
-			// the content of this bitmap is overwritten with the other bitmap's content.
-			this.header = new BitmapHeader(srcBmp.getWidth(), srcBmp.getHeight());
-			this.colors = new byte[header.getHeight()][header.getWidthBytes()];
-		}
-		
-		// copy the colors from source to destination.
-		byte[][] srcColors = srcBmp.getRawColors();
-		for (int i = 0; i < srcColors.length; ++i) {
-		    System.arraycopy(srcColors[i], 0, colors[i], 0, srcColors[0].length);
-		}
+	PixelStorage acquireStorage(int width, int height) {
+		return pool != null ? pool.acquire(storage, width, height) : storage.allocate(width, height);
 	}
 	
 	/**
-	 * Inverts the picture's colors.
+	 * Replaces the storage of this bitmap, which may be of a different size. 
+	 * Unlike copyFrom(), nothing is copied; the replaced storage is given back 
+	 * to the pool, if one was given. The storage of a region, or of a bitmap which
+	 * has regions, is kept instead if the new one has the same size: the new 
+	 * colors are copied to it, where the other bitmaps see them.
+	 * 
+	 * @param storage - The new storage of the bitmap.
+	 */
+	void setStorage(PixelStorage storage) {
+		if ((viewed || this.storage.isRegion()) && storage != this.storage
+				&& storage.getWidth() == this.getWidth() && storage.getHeight() == this.getHeight()) {
+			storage.copyTo(this.storage);
+			if (pool != null)
+				pool.release(storage);
+			return;
+		}
+		
+		this.replaceStorage(storage);
+	}
+	
+	/**
+	 * Replaces the storage of this bitmap, as setStorage() does, even if it is
+	 * the storage of a region; the region then has its own colors.
+	 * 
+	 * @param storage - The new storage of the bitmap.
+	 */
+	private void replaceStorage(PixelStorage storage) {
+		if (storage.getWidth() != this.getWidth() || storage.getHeight() != this.getHeight())
+			this.header = header.resize(storage.getWidth(), storage.getHeight());
+		
+		PixelStorage replaced = this.storage;
+		this.storage = storage;
+		
+		// a shared storage is still used by the bitmap it is shared with, and
+		// the storage of a bitmap with regions by the regions.
+		if (shared) {
+			shared = replaced == storage;
+		} else if (replaced != storage) {
+			if (pool != null && !viewed)
+				pool.release(replaced);
+			viewed = false;
+		}
+	}
+	
+	/**
+	 * Starts a chain of operations which are only done when BitmapPipeline.apply()
+	 * is called, so they can be combined into as few passes over the picture as possible.
+	 * 
+	 * 	bitmap.pipeline().invert().grayscale().horizontalMirror().shrink().apply();
+	 * 
+	 * @return A new empty pipeline for this bitmap.
+	 */
+	public BitmapPipeline pipeline() {
+		return new BitmapPipeline(this);
+	}
+	
+	/**
+	 * Makes this bitmap an exact copy of the source bitmap `srcBmp`, alpha included:
+	 * if one of them is kept in a packed storage and the other is not, this bitmap
+	 * takes the kind of storage of the source. A region of the same size as the
+	 * source (see region()) only gets its colors, which pastes the source into
+	 * the picture the region is part of.
+	 *
+	 * @param srcBmp - The bitmap to copy the data from.
+	 */
+	public void copyFrom(Bitmap srcBmp) {
+		if(srcBmp == null) 
+			throw new NullArgumentException("bitmap");
+		
+		if ((viewed || storage.isRegion()) && srcBmp.getWidth() == this.getWidth()
+				&& srcBmp.getHeight() == this.getHeight()) {
+			// the colors are copied in place, where the regions see them; the
+			// bitmap is still written as it was.
+			srcBmp.storage.copyTo(storage);
+			return;
+		}
+		
+		if ((srcBmp.storage instanceof PackedStorage) != (storage instanceof PackedStorage)) {
+			this.setStorage(pool != null ? pool.acquire(srcBmp.storage, srcBmp.getWidth(), srcBmp.getHeight())
+					: srcBmp.storage.allocate(srcBmp.getWidth(), srcBmp.getHeight()));
+		} else if (shared || srcBmp.getWidth() != this.getWidth() || srcBmp.getHeight() != this.getHeight()) {
+			// no need to re-initialize header and array if they are the same size of the source bitmap.
+			// the content of this bitmap is overwritten with the other bitmap's content.
+			// a shared storage is not copied, since all of it is overwritten anyway.
+			this.setStorage(acquireStorage(srcBmp.getWidth(), srcBmp.getHeight()));
+		}
+		this.header = srcBmp.header.resize(getWidth(), getHeight());
+		
+		// copy the colors from source to destination.
+		srcBmp.storage.copyTo(storage);
+	}
+	
+	/**
+	 * Inverts the picture's colors.
 	 */
 	public void invert() {
-		new ParallelRunner() {
-			@Override
-			void execute(int x_start, int x_end) {
-				// create a dummy pixel to move around the bitmap.
-				Pixel p = newEmptyPixel();
-
-				// go through each pixel and perform operations on them.
-				for (int x = x_start; x < x_end; ++x) {
-					for (int y = 0; y < getHeight(); ++y) {
-						p.moveTo(x, y);
-						p.setColorsTo(255 - p.getBlue(), 255 - p.getGreen(), 255 - p.getRed());
-					}
-				}
-			}
-		}.startAndWait(this.getWidth());
+		Metrics.Sample sample = Metrics.start(Metrics.INVERT, this.bytes());
+		try {
+			// done a row at a time, on the raw colors.
+			this.pipeline().invert().apply();
+		} finally {
+			Metrics.stop(sample);
+		}
 	}
 	
 	/**
-	 * Changes the colors of the picture to gray-scale.
+	 * Changes the colors of the picture to gray-scale: 30% of red, 59% of green
+	 * and 11% of blue, rounded down.
 	 */
 	public void grayscale() {
-		new ParallelRunner() {
-			@Override
-			void execute(int x_start, int x_end) {
-				// create a dummy pixel to move around the bitmap.
-				Pixel p = newEmptyPixel();
-
-				// go through each pixel and perform operations on them.
-				for (int x = x_start; x < x_end; ++x) {
-					for (int y = 0; y < getHeight(); ++y) {
-						p.moveTo(x, y);
-						p.setAllColorsTo((int) (0.30 * p.getRed() + 0.59 * p.getGreen() + 0.11 * p.getBlue()));
-					}
-				}
-			}
-		}.startAndWait(this.getWidth());
+		Metrics.Sample sample = Metrics.start(Metrics.GRAYSCALE, this.bytes());
+		try {
+			this.pipeline().grayscale().apply();
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Runs a row kernel on every row of the picture, split between the threads.
+	 * This is the fast way to change every pixel of the picture: see RowKernel.
+	 * 
+	 * @param kernel - The kernel to run on each row.
+	 * @throws NullArgumentException if kernel is null.
+	 */
+	public void forEachRow(RowKernel kernel) {
+		if (kernel == null)
+			throw new NullArgumentException("kernel");
+		
+		Metrics.Sample sample = Metrics.start(Metrics.ROWS, this.bytes());
+		try {
+			this.pipeline().forEachRow(kernel).apply();
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Changes the colors of the picture with a lookup table, such as a gamma
+	 * correction, levels or curves. Use LookupTable.then() to combine several tables,
+	 * so they are all done in one pass.
+	 * 
+	 * @param table - The table to change the colors with.
+	 * @throws NullArgumentException if table is null.
+	 */
+	public void lookup(LookupTable table) {
+		if (table == null)
+			throw new NullArgumentException("table");
+		
+		Metrics.Sample sample = Metrics.start(Metrics.LOOKUP, this.bytes());
+		try {
+			this.pipeline().lookup(table).apply();
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Counts the pixels of each value of each component, and of each gray level.
+	 * The rows are counted in parallel, and the picture is left unchanged.
+	 * 
+	 * @return The histogram of the picture.
+	 */
+	public Histogram histogram() {
+		Metrics.Sample sample = Metrics.start(Metrics.HISTOGRAM, this.bytes());
+		try {
+			return new Histogram(storage, getExecutor(), nThreads);
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Equalizes the picture: its gray levels are spread so each range of levels
+	 * holds about as many pixels (see LookupTable.equalize()). This costs a pass to
+	 * count the histogram, and a pass to change the colors with one lookup table.
+	 */
+	public void equalize() {
+		Metrics.Sample sample = Metrics.start(Metrics.EQUALIZE, this.bytes());
+		try {
+			this.lookup(LookupTable.equalize(this.histogram()));
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Stretches each component of the picture over the whole range, leaving out 
+	 * the darkest and the brightest AUTO_LEVELS_CLIP of its pixels.
+	 */
+	public void autoLevels() {
+		this.autoLevels(AUTO_LEVELS_CLIP);
+	}
+	/**
+	 * Stretches each component of the picture over the whole range, so its lowest
+	 * value becomes 0 and its highest becomes 255 (see LookupTable.autoLevels()).
+	 * This costs a pass to count the histogram, and a pass to change the colors 
+	 * with one lookup table.
+	 * 
+	 * @param clip - The part of the darkest and of the brightest pixels of each 
+	 * 				 component which is left out, such as 0.001.
+	 * @throws IllegalArgumentException if clip is negative, or not less than 1.
+	 */
+	public void autoLevels(double clip) {
+		Metrics.Sample sample = Metrics.start(Metrics.AUTO_LEVELS, this.bytes());
+		try {
+			this.lookup(LookupTable.autoLevels(this.histogram(), clip));
+		} finally {
+			Metrics.stop(sample);
+		}
 	}
 	
 	/**
 	 * Horizontally mirrors the picture.
 	 */
 	public void horizontalMirror() {
+		Metrics.Sample sample = Metrics.start(Metrics.HORIZONTAL_MIRROR, this.bytes());
+		try {
+			this.pipeline().horizontalMirror().apply();
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Rotates the picture 90 degrees to the right. 
+	 * 
+	 * Each pixel (x, y) is moved to (y, x) of the raw colors, as it always was. 
+	 * Since the rows of a bitmap are kept bottom to top, this also mirrors the
+	 * picture; use rotate(90) to rotate it without mirroring it.
+	 */
+	public void rotate90Degrees() {
+		Metrics.Sample sample = Metrics.start(Metrics.ROTATE, this.bytes());
+		try {
+			this.swapAxes(false, false);
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Rotates the picture clockwise, as it is displayed. Square pictures, and 
+	 * all rotations of 180 degrees, are done in place.
+	 * 
+	 * @param degrees - The angle of the rotation, a multiple of 90 degrees. 
+	 * 					Negative angles rotate the picture counter-clockwise.
+	 * @throws IllegalArgumentException if the angle is not a multiple of 90 degrees.
+	 */
+	public void rotate(int degrees) {
+		if (degrees % 90 != 0)
+			throw new IllegalArgumentException("degrees should be a multiple of 90.");
+		
+		Metrics.Sample sample = Metrics.start(Metrics.ROTATE, this.bytes());
+		try {
+			// since the rows are kept bottom to top, a clockwise rotation moves 
+			// (x, y) to (y, width - 1 - x) of the raw colors.
+			switch (((degrees % 360) + 360) % 360) {
+				case 90:
+					this.swapAxes(false, true);
+					break;
+				case 180:
+					this.unshare();
+					Transforms.flipRows(storage, true, getExecutor(), nThreads);
+					break;
+				case 270:
+					this.swapAxes(true, false);
+					break;
+			}
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Vertically flips the picture, in place.
+	 */
+	public void verticalFlip() {
+		Metrics.Sample sample = Metrics.start(Metrics.VERTICAL_FLIP, this.bytes());
+		try {
+			this.unshare();
+			Transforms.flipRows(storage, false, getExecutor(), nThreads);
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Transposes the picture, as it is displayed: the top-left to bottom-right
+	 * diagonal stays in place, and the other pixels are mirrored across it.
+	 * Square pictures are transposed in place.
+	 */
+	public void transpose() {
+		Metrics.Sample sample = Metrics.start(Metrics.TRANSPOSE, this.bytes());
+		try {
+			this.swapAxes(true, true);
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Moves each pixel (x, y) of the raw colors to (y, x), flipping the new 
+	 * coordinates if asked for. 
+	 * 
+	 * @param flipX - true to move the pixel to x = height - 1 - y, instead of x = y.
+	 * @param flipY - true to move the pixel to y = width - 1 - x, instead of y = x.
+	 */
+	private void swapAxes(boolean flipX, boolean flipY) {
+		if (this.getWidth() == this.getHeight()) {
+			// square pictures are transposed in place, then flipped in place.
+			this.unshare();
+			Transforms.transposeSquare(storage, getExecutor(), nThreads);
+			
+			if (flipX && flipY)
+				Transforms.flipRows(storage, true, getExecutor(), nThreads);
+			else if (flipY)
+				Transforms.flipRows(storage, false, getExecutor(), nThreads);
+			else if (flipX)
+				Transforms.mirrorRows(storage, getExecutor(), nThreads);
+		} else {
+			PixelStorage rotated = acquireStorage(this.getHeight(), this.getWidth());
+			Transforms.swapAxes(storage, rotated, flipX, flipY, getExecutor(), nThreads);
+			this.setStorage(rotated);
+		}
+	}
+	
+	/**
+	 * Blurs the pictures with a radius of Bitmap.BLUR_RADIUS.
+	 */
+	public void blur() {
+		this.blur(BLUR_RADIUS);
+	}
+	
+	/**
+	 * Blurs the picture with the specified radius. Each pixel is set to the average
+	 * of the pixels around it within the radius; pixels outside the picture are
+	 * not counted in the average.
+	 * 
+	 * The blur is done as a horizontal and a vertical running sum, so it costs 
+	 * the same for any radius. A radius bigger than the picture blurs it as one 
+	 * as big does. The sums are kept in ints, unless a window can hold more than
+	 * 2^31 / 255 pixels (about 8.4 million), which needs longs and is slower.
+	 * 
+	 * @param radius - The radius (in pixels) at which blur should look ahead to.
+	 * @throws IllegalArgumentException if the radius is negative.
+	 */
+	public void blur(int radius) {
+		if (radius < 0)
+			throw new IllegalArgumentException("radius should be positive.");
+		
+		// the window of a bigger radius holds the same pixels, and its edges would overflow.
+		radius = Math.min(radius, Math.max(getWidth(), getHeight()));
+		
+		Metrics.Sample sample = Metrics.start(Metrics.BLUR, this.bytes());
+		try {
+			this.blurRows(radius);
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Blurs the picture with the specified radius, as blur() does.
+	 * @param radius - The radius (in pixels) at which blur should look ahead to.
+	 */
+	private void blurRows(int radius) {
+		// we create a new list as we need to keep track of the original pixels and their
+		// surroundings to average them correctly.
+		final PixelStorage blurred = acquireStorage(this.getWidth(), this.getHeight());
+		
+		if (Kernels.isWideWindow(getWidth(), getHeight(), radius)) {
+			this.blurWide(blurred, radius);
+			return;
+		}
+		if (storage instanceof PackedStorage && blurred instanceof PackedStorage) {
+			this.blurPacked((PackedStorage) storage, (PackedStorage) blurred, radius);
+			return;
+		}
+		
 		new ParallelRunner() {
 			@Override
 			void execute(int y_start, int y_end) {
-				// we need two pixels, so we can swap them around.
-				Pixel p1 = newEmptyPixel(),
-					  p2 = newEmptyPixel();
-
+				int width = getWidth(),
+					height = getHeight(),
+					widthBytes = getWidthBytes();
+				
+				// the horizontal sums of one row, and the vertical running
+				// sums of those horizontal sums over the rows of the window.
+				int[] rowSums = new int[widthBytes],
+					  sums = new int[widthBytes];
+				// a row to copy the colors to, if the storage is not kept in arrays.
+				byte[] row = new byte[widthBytes];
+				
+				// start with the window of the first row of this chunk.
+				for (int y = Math.max(y_start - radius, 0); y <= Math.min(y_start + radius, height - 1); ++y)
+					addRowSums(y, radius, row, rowSums, sums, 1);
+				
 				for (int y = y_start; y < y_end; ++y) {
-					// we go up to half the width since we're swapping
-					// the colors from both sides.
-					for (int x = 0; x < getWidth() / 2; ++x) {
-						p1.moveTo(x, y);
-						p2.moveTo(getWidth() - x - 1, y);
-
-						// swap the two pixels
-						Pixel.swap(p1, p2);
+					// the number of rows in the window of this row
+					int countY = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+					
+					byte[] dest = blurred.rowArray(y);
+					int offset = blurred.rowOffset(y);
+					if (dest == null) {
+						dest = row;
+						offset = 0;
 					}
+					
+					Kernels.average(sums, width, radius, countY, dest, offset);
+					
+					if (dest == row)
+						blurred.setRow(y, row, 0);
+					
+					// slide the window down: the top row leaves, the next row enters.
+					if (y - radius >= 0)
+						addRowSums(y - radius, radius, row, rowSums, sums, -1);
+					if (y + radius + 1 < height)
+						addRowSums(y + radius + 1, radius, row, rowSums, sums, 1);
 				}
 			}
 		}.startAndWait(this.getHeight());
+		
+		// the blurred storage replaces this bitmap's, instead of being copied to it.
+		this.setStorage(blurred);
 	}
 	
 	/**
-	 * Rotates the picture 90 degrees to the right.
+	 * Blurs packed pixels as blurRows() does, with a fifth sum for the alpha.
+	 * 
+	 * @param src - The storage to blur.
+	 * @param blurred - The storage to which the blurred pixels are written.
+	 * @param radius - The radius (in pixels) at which blur should look ahead to.
 	 */
-	public void rotate90Degrees() {
-		// create a new bitmap to keep the rotated image in
-		Bitmap newBitmap = new Bitmap(this.getHeight(), this.getWidth());
-		
+	private void blurPacked(final PackedStorage src, final PackedStorage blurred, final int radius) {
 		new ParallelRunner() {
 			@Override
 			void execute(int y_start, int y_end) {
-				// we need two dummy pixels: one to hold the data of the source pixel,
-				// one to hold the destination pixel
-				Pixel destPixel = newBitmap.newEmptyPixel(),
-					   srcPixel = newEmptyPixel();
-
-				// move (x, y) to (y, x); this rotates the picture by 90 degrees.
-				for (int x = 0; x < getWidth(); ++x) {
-					for (int y = y_start; y < y_end; ++y) {
-						srcPixel.moveTo(x, y);
-						destPixel.moveTo(y, x);
-						
-						destPixel.setColorsFrom(srcPixel);
-					}
+				int width = getWidth(),
+					height = getHeight();
+				int[] pixels = src.getData(),
+					  rowSums = new int[width * 4],
+					  sums = new int[width * 4];
+				
+				for (int y = Math.max(y_start - radius, 0); y <= Math.min(y_start + radius, height - 1); ++y)
+					Kernels.addRowSums(pixels, src.pixelOffset(y), width, radius, rowSums, sums, 1);
+				
+				for (int y = y_start; y < y_end; ++y) {
+					int countY = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+					Kernels.average(sums, width, radius, countY, blurred.getData(), blurred.pixelOffset(y));
+					
+					if (y - radius >= 0)
+						Kernels.addRowSums(pixels, src.pixelOffset(y - radius), width, radius, rowSums, sums, -1);
+					if (y + radius + 1 < height)
+						Kernels.addRowSums(pixels, src.pixelOffset(y + radius + 1), width, radius, rowSums, sums, 1);
 				}
 			}
 		}.startAndWait(this.getHeight());
 		
-		// copy the data from newBitmap to this bitmap.
-		this.copyFrom(newBitmap);
+		this.setStorage(blurred);
 	}
 	
 	/**
-	 * Blurs the pictures with a radius of Bitmap.BLUR_RADIUS.
+	 * Blurs the picture as blurRows() does, with sums kept in longs, for a window
+	 * which can hold too many pixels for the sums to fit in ints.
+	 * 
+	 * @param blurred - The storage to which the blurred pixels are written.
+	 * @param radius - The radius (in pixels) at which blur should look ahead to.
 	 */
-	public void blur() {
-		// we create a new list as we need to keep track of the original pixels and their
-		// surroundings to average them correctly.
-		Bitmap newBitmap = new Bitmap(this.getWidth(), this.getHeight());
+	private void blurWide(final PixelStorage blurred, final int radius) {
+		// packed pixels have a fourth sum, for the alpha.
+		final boolean packed = storage instanceof PackedStorage && blurred instanceof PackedStorage;
 		
 		new ParallelRunner() {
 			@Override
-			void execute(int x_start, int x_end) {
-				Pixel destPixel = newBitmap.newEmptyPixel(), 
-					   srcPixel = newEmptyPixel();
-
-				// those values are used for clamping, since we want to go up
-				// the value, so the max value is array.length - 1.
-				int  widthMinus1 = x_end - 1, 
-					heightMinus1 = getHeight() - 1;
-
-				// define the variables to use them in the loop
-				int startX, endX, startY, endY;
-
-				for (int x1 = x_start; x1 <= widthMinus1; ++x1) {
-					for (int y1 = 0; y1 <= heightMinus1; ++y1) {
-						// calculate the starting and ending points to average
-						// out the pixels around in the specified radius. The 
-						// `minus one` is because the array is in the range 
-						// [0, width[ so clamp works well.
-						startX = Helpers.clamp(x1 - BLUR_RADIUS, 0, widthMinus1);
-						startY = Helpers.clamp(y1 - BLUR_RADIUS, 0, heightMinus1);
-
-						endX = Helpers.clamp(x1 + BLUR_RADIUS, 0, widthMinus1);
-						endY = Helpers.clamp(y1 + BLUR_RADIUS, 0, heightMinus1);
-
-						// change the location to (x1, y1)
-						destPixel.moveTo(x1, y1);
-
-						// avgStart() allows Pixel to start accepting values
-						// from avgAdd().
-						destPixel.avgStart();
-
-						// Average out the values around the radius BLUR_RADIUS
-						for (int x2 = startX; x2 <= endX; ++x2)
-							for (int y2 = startY; y2 <= endY; ++y2)
-								destPixel.avgAdd(srcPixel.moveTo(x2, y2));
-
-						// calculate the average and store it at (x1, y1)
-						destPixel.avgStop();
+			void execute(int y_start, int y_end) {
+				int width = getWidth(),
+					height = getHeight(),
+					length = width * (packed ? 4 : 3);
+				int[] rowSums = new int[length];
+				long[] sums = new long[length];
+				byte[] row = new byte[getWidthBytes()];
+				
+				for (int y = Math.max(y_start - radius, 0); y <= Math.min(y_start + radius, height - 1); ++y)
+					addRowSums(y, radius, packed, row, rowSums, sums, 1);
+				
+				for (int y = y_start; y < y_end; ++y) {
+					int countY = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+					if (packed) {
+						PackedStorage dest = (PackedStorage) blurred;
+						Kernels.average(sums, width, radius, countY, dest.getData(), dest.pixelOffset(y));
+					} else {
+						Kernels.average(sums, width, radius, countY, row, 0);
+						blurred.setRow(y, row, 0);
 					}
+					
+					if (y - radius >= 0)
+						addRowSums(y - radius, radius, packed, row, rowSums, sums, -1);
+					if (y + radius + 1 < height)
+						addRowSums(y + radius + 1, radius, packed, row, rowSums, sums, 1);
 				}
 			}
-		}.startAndWait(this.getWidth());
+		}.startAndWait(this.getHeight());
+		
+		this.setStorage(blurred);
+	}
+	
+	/**
+	 * Calculates the horizontal running sums of the row `y`, and adds them 
+	 * (multiplied by `sign`) to sums kept in longs.
+	 * 
+	 * @param y - The row to sum.
+	 * @param radius - The radius of the window.
+	 * @param packed - Whether the row is summed as packed pixels, with their alpha.
+	 * @param temp - A temporary array to copy the row to, if the storage is not kept in arrays.
+	 * @param rowSums - A temporary array to hold the row's sums.
+	 * @param sums - The sums to add the row's sums to.
+	 * @param sign - 1 to add the row, -1 to remove it.
+	 */
+	private void addRowSums(int y, int radius, boolean packed, byte[] temp, int[] rowSums, long[] sums, int sign) {
+		if (packed) {
+			PackedStorage src = (PackedStorage) storage;
+			Kernels.addRowSums(src.getData(), src.pixelOffset(y), getWidth(), radius, rowSums, sums, sign);
+			return;
+		}
+		
+		byte[] row = storage.rowArray(y);
+		int offset = storage.rowOffset(y);
+		if (row == null) {
+			storage.getRow(y, temp, 0);
+			row = temp;
+			offset = 0;
+		}
 		
-		// copy the data from newBitmap to this bitmap.
-		this.copyFrom(newBitmap);
+		Kernels.addRowSums(row, offset, getWidth(), radius, rowSums, sums, sign);
 	}
 	
 	/**
-	 * Shrinks the picture by two.
+	 * Calculates the horizontal running sums of the row `y`, and adds them 
+	 * (multiplied by `sign`) to `sums`.
+	 * 
+	 * @param y - The row to sum.
+	 * @param radius - The radius of the window.
+	 * @param temp - A temporary array to copy the row to, if the storage is not kept in arrays.
+	 * @param rowSums - A temporary array to hold the row's sums.
+	 * @param sums - The sums to add the row's sums to.
+	 * @param sign - 1 to add the row, -1 to remove it.
+	 */
+	private void addRowSums(int y, int radius, byte[] temp, int[] rowSums, int[] sums, int sign) {
+		byte[] row = storage.rowArray(y);
+		int offset = storage.rowOffset(y);
+		if (row == null) {
+			storage.getRow(y, temp, 0);
+			row = temp;
+			offset = 0;
+		}
+		
+		Kernels.addRowSums(row, offset, getWidth(), radius, rowSums, sums, sign);
+	}
+	
+	/**
+	 * Convolves the picture with a kernel, repeating the pixels of the edges past them.
+	 * 
+	 * @param kernel - The kernel, such as ConvolutionKernel.sharpen().
+	 * @throws NullArgumentException if kernel is null.
+	 */
+	public void convolve(ConvolutionKernel kernel) {
+		this.convolve(kernel, BorderMode.CLAMP);
+	}
+	/**
+	 * Convolves the picture with a kernel: each pixel becomes the weighted sum of
+	 * the pixels around it. Separable kernels (such as a Gaussian or Sobel) are
+	 * done as two passes of one dimension, in one pass over the picture.
+	 * 
+	 * @param kernel - The kernel, such as ConvolutionKernel.sharpen().
+	 * @param border - What is read for the pixels past the edges.
+	 * @throws NullArgumentException if kernel or border is null.
+	 */
+	public void convolve(ConvolutionKernel kernel, BorderMode border) {
+		if (kernel == null)
+			throw new NullArgumentException("kernel");
+		if (border == null)
+			throw new NullArgumentException("border");
+		
+		Metrics.Sample sample = Metrics.start(Metrics.CONVOLVE, this.bytes());
+		try {
+			PixelStorage convolved = acquireStorage(getWidth(), getHeight());
+			Convolution.convolve(storage, convolved, kernel, border, getExecutor(), nThreads);
+			this.setStorage(convolved);
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Shrinks the picture by two. Each pixel of the new picture is the average
+	 * of a 2x2 square of the old one; the last column and row of a picture with 
+	 * an odd width or height are dropped.
 	 */
 	public void shrink() {
-		// if height or width is odd, make it even
-		int height = this.getHeight() - (this.getHeight() % 2 == 0 ? 0 : 1);
-		int width = this.getWidth() - (this.getWidth() % 2 == 0 ? 0 : 1);
-
-		// create a list with half the width and half the height.
-		Bitmap newBitmap = new Bitmap(width / 2, height / 2);
+		Metrics.Sample sample = Metrics.start(Metrics.SHRINK, this.bytes());
+		try {
+			this.pipeline().shrink().apply();
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Resizes the picture to any width and height, weighing the source pixels with
+	 * a filter. The weights are worked out once for each column and each row, and 
+	 * the picture is resized one axis at a time, starting with the one which leaves
+	 * the fewer pixels; an axis whose size does not change is left alone.
+	 * 
+	 * @param width - The new width, in pixels.
+	 * @param height - The new height, in pixels.
+	 * @param filter - The filter, such as ResampleFilter.BICUBIC.
+	 * @throws IllegalArgumentException if width or height is not positive.
+	 * @throws NullArgumentException if filter is null.
+	 */
+	public void resize(int width, int height, ResampleFilter filter) {
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("width and height should be positive.");
+		if (filter == null)
+			throw new NullArgumentException("filter");
 		
-		new ParallelRunner() {
-			@Override
-			void execute(int x_start, int x_end) {
-				Pixel destPixel = newBitmap.newEmptyPixel(),
-					   srcPixel = newEmptyPixel();
-
-				// variables to hold the equivalent location of the
-				// pixels in the original list relative to the new list.
-				//
-				// |x|x|@|@|
-				// |x|x|@|@| -> |x_avg|@_avg|
-				// |~|~|o|o| -> |~_avg|o_avg|
-				// |~|~|o|o|
-				// 4x4 2x2
-				int oldX = 0, oldY = 0;
-				for (int x = x_start; x < x_end; ++x) {
-					oldX = x * 2; // x's position is twice the original position
-
-					for (int y = 0; y < newBitmap.getHeight(); ++y) {
-						destPixel.moveTo(x, y); // set the pixel to (x, y)
-
-						oldY = y * 2; // y's position is twice the original
-										// position
-
-						// start averaging out values
-						destPixel.avgStart();
-
-						// we need to average out 4 pixels every time:
-						// (x, y); (x+1, y); (x, y+1); (x+1, y+1)
-						destPixel.avgAdd(srcPixel.moveTo(oldX, oldY));
-						destPixel.avgAdd(srcPixel.moveTo(oldX + 1, oldY));
-						destPixel.avgAdd(srcPixel.moveTo(oldX, oldY + 1));
-						destPixel.avgAdd(srcPixel.moveTo(oldX + 1, oldY + 1));
-
-						// set the new pixel at (x, y) to the average
-						destPixel.avgStop();
-					}
-				}
+		Metrics.Sample sample = Metrics.start(Metrics.RESIZE, this.bytes());
+		try {
+			boolean horizontal = width != getWidth(), vertical = height != getHeight();
+			if (horizontal && vertical && (long) getWidth() * height < (long) width * getHeight()) {
+				// making the rows first leaves more pixels than making the columns first.
+				this.resizeRows(height, filter);
+				this.resizeColumns(width, filter);
+			} else {
+				if (horizontal)
+					this.resizeColumns(width, filter);
+				if (vertical)
+					this.resizeRows(height, filter);
 			}
-		}.startAndWait(newBitmap.getWidth());
-		
-		this.copyFrom(newBitmap);
+		} finally {
+			Metrics.stop(sample);
+		}
+	}
+	
+	/**
+	 * Resizes each row of the picture to a new width.
+	 */
+	private void resizeColumns(int width, ResampleFilter filter) {
+		PixelStorage resized = acquireStorage(width, getHeight());
+		Resampler.horizontal(storage, resized, Resampler.weights(getWidth(), width, filter), getExecutor(), nThreads);
+		this.setStorage(resized);
+	}
+	/**
+	 * Makes the picture a new number of rows high, each one from the rows around it.
+	 */
+	private void resizeRows(int height, ResampleFilter filter) {
+		PixelStorage resized = acquireStorage(getWidth(), height);
+		Resampler.vertical(storage, resized, Resampler.weights(getHeight(), height, filter), getExecutor(), nThreads);
+		this.setStorage(resized);
+	}
+	
+	/**
+	 * Makes all the shrunk levels of the picture (mipmaps) at once, down to a
+	 * minimum size, reading the picture only once. The picture itself is left
+	 * unchanged. Each level is what shrink() would make of the level above it.
+	 * 
+	 * @param minSize - The smallest width and height of a level, in pixels.
+	 * @return The levels.
+	 * @throws IllegalArgumentException if minSize is not positive.
+	 */
+	public Pyramid pyramid(int minSize) {
+		Metrics.Sample sample = Metrics.start(Metrics.PYRAMID, this.bytes());
+		try {
+			return new Pyramid(this, minSize);
+		} finally {
+			Metrics.stop(sample);
+		}
 	}
 	
 	/**
 	 * Doubles the size of the picture.
 	 */
 	public void doubleSize() {
-		// create a new bitmap with twice the width and height
-		Bitmap newBitmap = new Bitmap(this.getWidth() * 2, this.getHeight() * 2);
-		
-		new ParallelRunner() {
-			@Override
-			void execute(int x_start, int x_end) {
-				Pixel destPixel = newBitmap.newEmptyPixel(),
-				      srcPixel = newEmptyPixel();
-					
-				int newX = 0, newY = 0; // the new coordinates of the x and y positions for the new pixel
-				for (int x = x_start; x < x_end; ++x) {
-					// x's position is twice the original position
-					newX = x * 2;
-
-					for (int y = 0; y < getHeight(); ++y) {
-						// y's position is twice the original position
-						newY = y * 2;
-
-						// set oldPixel's location to (x, y)
-						srcPixel.moveTo(x, y);
-
-						// we need to set 4 pixels with the same pixel.
-						// this always works as the newList is double the size
-						// of the original,
-						// so the width is always even.
-						destPixel.moveTo(newX, newY).setColorsFrom(srcPixel);
-						destPixel.moveTo(newX + 1, newY).setColorsFrom(srcPixel);
-						destPixel.moveTo(newX, newY + 1).setColorsFrom(srcPixel);
-						destPixel.moveTo(newX + 1, newY + 1).setColorsFrom(srcPixel);
-					}
-				}
-			}
-		}.startAndWait(this.getWidth());
-		
-		this.copyFrom(newBitmap);
+		Metrics.Sample sample = Metrics.start(Metrics.DOUBLE_SIZE, this.bytes());
+		try {
+			this.pipeline().doubleSize().apply();
+		} finally {
+			Metrics.stop(sample);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,235 @@
+package graphics;
+
+import java.io.*;
+import java.util.*;
+
+import exceptions.*;
+
+/**
+ * A cache of decoded bitmaps, for the files which are opened over and over (such
+ * as templates and watermarks). Each file is only read once; get() then hands out
+ * a new Bitmap which shares the decoded colors, and copies them the first time it
+ * is changed. So a caller can do anything with the bitmap it gets, without
+ * changing the one which is kept.
+ *
+ * A file is known by its canonical path, its size and the time it was last
+ * modified: once the file changes, it is read again. The cache keeps at most
+ * `maxBytes` bytes of colors, and drops the least recently used bitmaps past
+ * that; a bitmap bigger than that is read but never kept.
+ * This class is thread safe.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class BitmapCache {
+	/**
+	 * The maximum number of bytes kept by the shared cache.
+	 */
+	public static final long SHARED_MAX_BYTES = 256L * 1024 * 1024;
+
+	private static BitmapCache shared;
+
+	/**
+	 * A decoded bitmap, and the state of the file it was read from.
+	 */
+	private static final class Entry {
+		final Bitmap bitmap;
+		final long length, lastModified, bytes;
+
+		Entry(Bitmap bitmap, long length, long lastModified) {
+			this.bitmap = bitmap;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.bytes = bitmap.peekStorage().byteSize();
+		}
+	}
+
+	// the entries by canonical path, from the least recently used to the most.
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final long maxBytes;
+	private final PixelStorage.Allocator allocator;
+	private long retainedBytes;
+	private long hits, misses, evictions;
+
+	/**
+	 * Initializes an empty cache, which reads the bitmaps into PixelStorage.ROWS.
+	 * @param maxBytes - The maximum number of bytes of colors the cache keeps.
+	 */
+	public BitmapCache(long maxBytes) {
+		this(maxBytes, PixelStorage.ROWS);
+	}
+	/**
+	 * Initializes an empty cache, which reads the bitmaps into a specific kind of storage.
+	 *
+	 * @param maxBytes - The maximum number of bytes of colors the cache keeps.
+	 * @param allocator - The allocator of the storages, such as PixelStorage.CONTIGUOUS.
+	 * @throws NullArgumentException if allocator is null.
+	 */
+	public BitmapCache(long maxBytes, PixelStorage.Allocator allocator) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("maxBytes should be positive.");
+		if (allocator == null)
+			throw new NullArgumentException("allocator");
+
+		this.maxBytes = maxBytes;
+		this.allocator = allocator;
+	}
+
+	/**
+	 * Gets a cache which can be shared by the whole application, keeping
+	 * at most SHARED_MAX_BYTES bytes.
+	 *
+	 * @return The shared cache.
+	 */
+	public static synchronized BitmapCache getShared() {
+		if (shared == null)
+			shared = new BitmapCache(SHARED_MAX_BYTES);
+
+		return shared;
+	}
+
+	/**
+	 * Gets a bitmap, reading it only if it is not in the cache or the file changed
+	 * since it was read. The returned bitmap shares the colors of the cached one
+	 * until it is changed (see Bitmap.isShared()).
+	 *
+	 * @param file - The bitmap to be opened.
+	 * @return A new Bitmap with the colors of the file.
+	 * @throws BitmapNotFoundException if the bitmap was not found.
+	 * @throws NotABitmapException if the file specified is not a bitmap.
+	 * @throws NullArgumentException if the file specified is null.
+	 */
+	public Bitmap get(File file) throws BitmapNotFoundException, NotABitmapException {
+		if (file == null)
+			throw new NullArgumentException("file");
+
+		String path = canonicalPath(file);
+		long length = file.length(), lastModified = file.lastModified();
+
+		synchronized (this) {
+			Entry entry = entries.get(path);
+			if (entry != null) {
+				if (entry.length == length && entry.lastModified == lastModified) {
+					++hits;
+					return entry.bitmap.view();
+				}
+
+				// the file changed since it was read.
+				this.remove(path);
+			}
+
+			++misses;
+		}
+
+		// read outside of the lock, so the other files can still be gotten meanwhile.
+		// if two threads read the same file at once, the first one read is kept.
+		Bitmap bitmap = new Bitmap(file, allocator);
+		Entry entry = new Entry(bitmap, length, lastModified);
+		if (entry.bytes > maxBytes)
+			return bitmap;
+
+		synchronized (this) {
+			Entry cached = entries.get(path);
+			if (cached != null && cached.length == length && cached.lastModified == lastModified)
+				return cached.bitmap.view();
+			if (cached != null)
+				this.remove(path);
+
+			entries.put(path, entry);
+			retainedBytes += entry.bytes;
+
+			// drop the least recently used bitmaps, but never the one just read.
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (retainedBytes > maxBytes) {
+				Entry dropped = eldest.next();
+				eldest.remove();
+				retainedBytes -= dropped.bytes;
+				++evictions;
+			}
+		}
+
+		return bitmap.view();
+	}
+
+	/**
+	 * Drops the bitmap of a file from the cache, if it is there. The bitmaps
+	 * already handed out are not changed.
+	 *
+	 * @param file - The file of the bitmap.
+	 * @throws NullArgumentException if the file specified is null.
+	 */
+	public void invalidate(File file) {
+		if (file == null)
+			throw new NullArgumentException("file");
+
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		} catch (IOException e) {
+			return;
+		}
+
+		synchronized (this) {
+			this.remove(path);
+		}
+	}
+
+	/**
+	 * Drops all the bitmaps kept by the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		retainedBytes = 0;
+	}
+
+	/**
+	 * Gets the number of bytes of colors of the bitmaps kept by the cache.
+	 * @return The number of bytes kept.
+	 */
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+	/**
+	 * Gets the number of bitmaps kept by the cache.
+	 * @return The number of bitmaps kept.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	/**
+	 * Gets the number of times get() found the bitmap in the cache.
+	 * @return The number of bitmaps which were not read again.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	/**
+	 * Gets the number of times get() had to read the file, because it was not
+	 * in the cache or had changed.
+	 * @return The number of bitmaps read.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	/**
+	 * Gets the number of bitmaps dropped to keep the cache under its size.
+	 * @return The number of bitmaps dropped.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private void remove(String path) {
+		Entry entry = entries.remove(path);
+		if (entry != null)
+			retainedBytes -= entry.bytes;
+	}
+
+	private static String canonicalPath(File file) throws BitmapNotFoundException {
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			throw new BitmapNotFoundException(file);
+		}
+	}
+}
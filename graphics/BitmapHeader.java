@@ -1,6 +1,7 @@
 package graphics;
 
 import java.io.*;
+import java.nio.*;
 
 import exceptions.*;
 import io.*;
@@ -23,14 +24,51 @@ class BitmapHeader {
 	private static final int VERTICAL_RES = 72;
 	private static final int COLORS = 0;
 	private static final int IMPORTANT_COLORS = 0;
+	
+	// 32-bit bitmaps are written with a BITMAPV4HEADER, which holds the masks
+	// of the components, alpha included.
+	private static final int V4_OFFSET = 122;
+	private static final int V4_HEADER_SIZE = 108;
+	private static final short BITS_32 = 32;
+	private static final int BITFIELDS = 3;
+	private static final int RED_MASK = 0x00FF0000;
+	private static final int GREEN_MASK = 0x0000FF00;
+	private static final int BLUE_MASK = 0x000000FF;
+	private static final int ALPHA_MASK = 0xFF000000;
+	private static final int SRGB = 0x73524742;
+	
+	// bitmaps with a palette have 8 or 4 bits per pixel, and are written 
+	// compressed with RLE8 or RLE4.
+	private static final short BITS_8 = 8;
+	private static final short BITS_4 = 4;
+	private static final int RLE8 = 1;
+	private static final int RLE4 = 2;
+	
+	/**
+	 * The size of the header, in bytes: the 14 bytes of the file header
+	 * followed by the 40 bytes of the info header.
+	 */
+	static final int LENGTH = 54;
+	/**
+	 * The most bytes of the header which are parsed: the file header, the
+	 * largest info header (124 bytes) and a palette of 256 colors.
+	 */
+	static final int MAX_LENGTH = 14 + 124 + 256 * 4;
 
 	// Those fields will change as things are modified.
 	private int size;
+	private int bits = BITS;
+	private boolean alpha;
+	private int compression = COMPRESSION;
+	private int[] palette;
 	private int widthPixels;
 	private int widthBytes;
 	private int padding;
 	private int heightPixels;
 	private int dataSize;
+	private int dataOffset = OFFSET;
+	// the size of the file given by the header it was parsed from, or -1.
+	private long declaredSize = -1;
 	
 	/**
 	 * Initializes a BitmapHeader by reading the bitmap and 
@@ -46,30 +84,119 @@ class BitmapHeader {
 		if(reader == null)
 			throw new NullArgumentException("reader");
 		
-		if (reader.read() != TYPE[0] || reader.read() != TYPE[1])
+		// read the whole header at once, and parse it from memory. The masks of a
+		// 32-bit bitmap, or the palette, may follow the first 54 bytes, before the colors.
+		byte[] data = new byte[MAX_LENGTH];
+		int length = LENGTH;
+		try {
+			reader.readFully(data, 0, LENGTH);
+			
+			length = Math.min(Math.max(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt(10), LENGTH), MAX_LENGTH);
+			reader.readFully(data, LENGTH, length - LENGTH);
+		} catch (EOFException e) {
 			throw new NotABitmapException(reader.getUnderlyingFile());
+		}
+		
+		this.parse(ByteBuffer.wrap(data, 0, length), reader.getUnderlyingFile());
+
+		// Skip any extra bytes after offset
+		reader.skip(dataOffset - length);
+	}
+	/**
+	 * Initializes a BitmapHeader by parsing the header at the start of a buffer,
+	 * such as a file mapped into memory. The buffer's position is not changed.
+	 * 
+	 * @param buffer - The buffer which holds the header, starting at index zero.
+	 * @param file - The file from which the buffer was read, used to report errors.
+	 * @throws NotABitmapException If the buffer does not hold a bitmap header.
+	 * @throws NullArgumentException if buffer is null.
+	 */
+	public BitmapHeader(ByteBuffer buffer, File file) throws NotABitmapException {
+		if(buffer == null)
+			throw new NullArgumentException("buffer");
+		
+		this.parse(buffer, file);
+	}
+	
+	/**
+	 * Parses the header at the start of a buffer.
+	 * 
+	 * @param buffer - The buffer which holds the header, starting at index zero.
+	 * @param file - The file from which the buffer was read, used to report errors.
+	 * @throws NotABitmapException If the buffer does not hold a bitmap header.
+	 */
+	private void parse(ByteBuffer buffer, File file) throws NotABitmapException {
+		if (buffer.limit() < LENGTH)
+			throw new NotABitmapException(file);
+		
+		buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		
+		if (buffer.get(0) != TYPE[0] || buffer.get(1) != TYPE[1])
+			throw new NotABitmapException(file);
 
-		size = reader.readInt32();
-		reader.skip(4); // reserved
-		int skipBytesOffset = reader.readInt32() - 54;
+		// bytes 6-9 are reserved.
+		size = buffer.getInt(2);
+		declaredSize = size & 0xFFFFFFFFL;
+		dataOffset = buffer.getInt(10);
 
-		// header == 40
-		if (reader.readInt32() != 40)
-			throw new NotABitmapException(reader.getUnderlyingFile());
+		// header == 40, or one of the later versions which start the same way:
+		// 52 and 56 (V2 and V3, which add the masks), 108 (V4) and 124 (V5).
+		int headerSize = buffer.getInt(14);
+		if ((headerSize != HEADER_SIZE && headerSize != 52 && headerSize != 56 && headerSize != V4_HEADER_SIZE
+				&& headerSize != 124) || dataOffset < 14 + headerSize)
+			throw new NotABitmapException(file);
 
-		// reads the height, and width, and set the size. 
-		// This also calculates the padding required.
-		this.setSize(reader.readInt32(), reader.readInt32());
+		int width = buffer.getInt(18), height = buffer.getInt(22);
+		if (width < 0 || height < 0)
+			throw new NotABitmapException(file);
 
-		// planes == 1, bits == 24, compression == 0
-		if (reader.readInt16() != 1 || reader.readInt16() != 24 || reader.readInt32() != 0)
-			throw new NotABitmapException(reader.getUnderlyingFile());
+		// planes == 1; bits == 24 and compression == 0, bits == 32 and compression
+		// == 0 or 3 (the masks of the components are given), or bits == 8 or 4 with 
+		// a palette, and compression == 0 or RLE.
+		bits = buffer.getShort(28);
+		compression = buffer.getInt(30);
+		if (buffer.getShort(26) != PLANES)
+			throw new NotABitmapException(file);
+		if (bits == BITS_8 || bits == BITS_4) {
+			if (compression != COMPRESSION && compression != (bits == BITS_8 ? RLE8 : RLE4))
+				throw new NotABitmapException(file);
+			
+			// the palette follows the info header, four bytes (blue, green, red and 
+			// zero) for each color; zero colors means all of them.
+			int colors = buffer.getInt(46), start = 14 + headerSize;
+			if (colors == 0)
+				colors = 1 << bits;
+			if (colors < 0 || colors > 1 << bits || start + colors * 4 > Math.min(dataOffset, buffer.limit()))
+				throw new NotABitmapException(file);
+			
+			palette = new int[colors];
+			for (int i = 0; i < colors; ++i)
+				palette[i] = buffer.getInt(start + i * 4) & 0xFFFFFF;
+			
+			// the size of compressed colors is only known from the header.
+			if (compression != COMPRESSION) {
+				this.setParsedSize(width, height, file);
+				dataSize = buffer.getInt(34);
+				return;
+			}
+		} else if (bits == BITS_32 && compression == BITFIELDS) {
+			// the masks follow the 40 bytes of the info header, and only the usual
+			// layout is supported. The mask of the alpha is only there from V3 on.
+			if (dataOffset < 66 || buffer.limit() < 66)
+				throw new NotABitmapException(file);
+			int alpha = headerSize >= 56 && buffer.limit() >= 70 ? buffer.getInt(66) : 0;
+			if (buffer.getInt(54) != RED_MASK || buffer.getInt(58) != GREEN_MASK || buffer.getInt(62) != BLUE_MASK
+					|| (alpha != 0 && alpha != ALPHA_MASK))
+				throw new NotABitmapException(file);
+			this.alpha = alpha != 0;
+		} else if (!(bits == BITS || bits == BITS_32) || compression != COMPRESSION) {
+			throw new NotABitmapException(file);
+		}
 
-		// The reset of the data is not important.
-		reader.skip(20);
+		// sets the size. This also calculates the padding required.
+		this.setParsedSize(width, height, file);
 
-		// Skip any extra bytes after offset
-		reader.skip(skipBytesOffset);
+		// The reset of the data is not important.
 	}
 	/**
 	 * Initializes a BitmapHeader which has a specific width and height.
@@ -77,11 +204,67 @@ class BitmapHeader {
 	 * @param height - The height of the bitmap.
 	 */
 	public BitmapHeader(int width, int height) {
+		this(width, height, BITS);
+	}
+	/**
+	 * Initializes a BitmapHeader which has a specific width, height and number of bits per pixel.
+	 * @param width - The width of the bitmap.
+	 * @param height - The height of the bitmap.
+	 * @param bits - The number of bits per pixel: 24, or 32 to keep the alpha.
+	 */
+	public BitmapHeader(int width, int height, int bits) {
 		if (width < 0 || height < 0)
 			throw new IllegalArgumentException("width and/or height should be positive.");
+		if (bits != BITS && bits != BITS_32)
+			throw new IllegalArgumentException("bits should be 24 or 32.");
 		
+		this.bits = bits;
+		this.alpha = bits == BITS_32;
+		this.dataOffset = this.getHeaderLength();
 		this.setSize(width, height);
 	}
+	/**
+	 * Initializes a BitmapHeader of a bitmap whose pixels are indices into a palette,
+	 * which is written compressed: with RLE4 if it has 16 colors or less, or with RLE8.
+	 * The size of the compressed colors is set once they are written.
+	 * 
+	 * @param width - The width of the bitmap.
+	 * @param height - The height of the bitmap.
+	 * @param palette - The colors of the palette, as 0xRRGGBB; between 1 and 256 colors.
+	 */
+	public BitmapHeader(int width, int height, int[] palette) {
+		this(width, height, palette, palette != null && palette.length <= 16 ? BITS_4 : BITS_8);
+	}
+	private BitmapHeader(int width, int height, int[] palette, int bits) {
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException("width and/or height should be positive.");
+		if (palette == null)
+			throw new NullArgumentException("palette");
+		if (palette.length < 1 || palette.length > 1 << bits)
+			throw new IllegalArgumentException("palette should have between 1 and " + (1 << bits) + " colors.");
+		
+		this.bits = bits;
+		this.compression = bits == BITS_8 ? RLE8 : RLE4;
+		this.palette = new int[palette.length];
+		for (int i = 0; i < palette.length; ++i)
+			this.palette[i] = palette[i] & 0xFFFFFF;
+		this.dataOffset = this.getHeaderLength();
+		this.setSize(width, height);
+		this.setDataSize(0);
+	}
+	
+	/**
+	 * Creates a header of the same kind as this one (the same number of bits and 
+	 * palette), for a bitmap of another size. Bitmaps with a palette are always
+	 * written compressed.
+	 * 
+	 * @param width - The width of the bitmap.
+	 * @param height - The height of the bitmap.
+	 * @return The new header.
+	 */
+	BitmapHeader resize(int width, int height) {
+		return palette != null ? new BitmapHeader(width, height, palette, bits) : new BitmapHeader(width, height, bits);
+	}
 	
 	/**
 	 * Writes a header to the BitmapWriter's stream. 
@@ -94,21 +277,57 @@ class BitmapHeader {
 		if(writer == null)
 			throw new NullArgumentException("writer");
 		
-		writer.write(TYPE);
-		writer.writeInt32(this.size);
-		writer.writeInt32(RESERVED);
-		writer.writeInt32(OFFSET);
-		writer.writeInt32(HEADER_SIZE);
-		writer.writeInt32(this.widthPixels);
-		writer.writeInt32(this.heightPixels);
-		writer.writeInt16(PLANES);
-		writer.writeInt16(BITS);
-		writer.writeInt32(COMPRESSION);
-		writer.writeInt32(this.dataSize);
-		writer.writeInt32(HORIZONTAL_RES);
-		writer.writeInt32(VERTICAL_RES);
-		writer.writeInt32(COLORS);
-		writer.writeInt32(IMPORTANT_COLORS);
+		// assemble the header in memory, and write it with one call.
+		ByteBuffer buffer = ByteBuffer.allocate(this.getHeaderLength());
+		this.write(buffer);
+		writer.write(buffer.array());
+	}
+	/**
+	 * Puts the getHeaderLength() bytes of the header in a buffer, starting at its 
+	 * current position, and advances the position past the header.
+	 * 
+	 * @param buffer - The buffer to put the header in.
+	 * @throws NullArgumentException if `buffer` is null.
+	 */
+	public void write(ByteBuffer buffer) {
+		if(buffer == null)
+			throw new NullArgumentException("buffer");
+		
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		
+		buffer.put(TYPE);
+		buffer.putInt(this.size);
+		buffer.putInt(RESERVED);
+		buffer.putInt(this.getHeaderLength());
+		buffer.putInt(bits != BITS_32 ? HEADER_SIZE : V4_HEADER_SIZE);
+		buffer.putInt(this.widthPixels);
+		buffer.putInt(this.heightPixels);
+		buffer.putShort(PLANES);
+		buffer.putShort((short) bits);
+		buffer.putInt(palette != null ? compression : bits == BITS ? COMPRESSION : BITFIELDS);
+		buffer.putInt(this.dataSize);
+		buffer.putInt(HORIZONTAL_RES);
+		buffer.putInt(VERTICAL_RES);
+		buffer.putInt(palette != null ? palette.length : COLORS);
+		buffer.putInt(IMPORTANT_COLORS);
+		
+		if (palette != null)
+			for (int color : palette)
+				buffer.putInt(color);
+		
+		if (bits == BITS_32) {
+			buffer.putInt(RED_MASK);
+			buffer.putInt(GREEN_MASK);
+			buffer.putInt(BLUE_MASK);
+			buffer.putInt(ALPHA_MASK);
+			buffer.putInt(SRGB);
+			
+			// the end points and gammas are not used by sRGB.
+			buffer.put(new byte[V4_OFFSET - OFFSET - 20]);
+		}
+		
+		buffer.order(order);
 	}
 	
 	/**
@@ -121,7 +340,7 @@ class BitmapHeader {
 	private void setSize(int width, int height) {
 		// width
 		widthPixels = width;
-		widthBytes = width * 3;
+		widthBytes = (int) (((long) width * bits + 7) / 8);
 		
 		// padding
 		padding = 4 - (widthBytes % 4);
@@ -131,9 +350,27 @@ class BitmapHeader {
 		// height
 		heightPixels = height;
 		
-		// data size and size of the bitmap, in bytes
-		dataSize = heightPixels * ((widthPixels * 3) + padding);
-		size = 54 + dataSize + 2;
+		// data size and size of the bitmap, in bytes; both are unsigned in the file.
+		dataSize = heightPixels * (widthBytes + padding);
+		size = this.getHeaderLength() + dataSize + 2;
+	}
+	/**
+	 * Sets the width and height of a bitmap which is being parsed, once it is
+	 * known that its rows fit in arrays (with three bytes per pixel once they are
+	 * read), and that its colors fit in the four bytes of the size of the file.
+	 * 
+	 * @param width - The width of the bitmap, in pixels.
+	 * @param height - The height of the bitmap, in pixels.
+	 * @param file - The file the header was read from, used to report errors.
+	 * @throws NotABitmapException if the sizes of the rows or the colors cannot be represented.
+	 */
+	private void setParsedSize(int width, int height, File file) throws NotABitmapException {
+		long rowBytes = ((long) width * bits + 7) / 8, stride = (rowBytes + 3) & ~3L;
+		if (stride > Integer.MAX_VALUE - 8 || (long) width * 3 > Integer.MAX_VALUE - 8
+				|| dataOffset + height * stride > 0xFFFFFFFFL)
+			throw new NotABitmapException(file);
+		
+		this.setSize(width, height);
 	}
 	
 	/**
@@ -145,13 +382,83 @@ class BitmapHeader {
 	}
 	
 	/**
-	 * Gets the current width (in bytes) of the Bitmap.
-	 * @return The width of the Bitmap, in pixels.
+	 * Gets the current width (in bytes) of a row of the Bitmap in the file, without
+	 * the padding: three bytes per pixel, or four for a 32-bit bitmap.
+	 * @return The width of the Bitmap, in bytes.
 	 */
 	public int getWidthBytes() {
 		return widthBytes;
 	}
 	
+	/**
+	 * Gets the number of bits of each pixel.
+	 * @return 24; 32 if the pixels have an alpha component; or 8 or 4 if they are
+	 *         indices into the palette.
+	 */
+	public int getBitsPerPixel() {
+		return bits;
+	}
+	
+	/**
+	 * Gets the palette of a bitmap whose pixels are indices into it.
+	 * @return The colors of the palette, as 0xRRGGBB, or null if the bitmap has no palette.
+	 */
+	public int[] getPalette() {
+		return palette;
+	}
+	
+	/**
+	 * Gets the compression of the colors, as the file gives it.
+	 * @return 0 if the colors are not compressed, 1 for RLE8, 2 for RLE4, or 3 if
+	 * 		   the masks of the components are given (BI_BITFIELDS).
+	 */
+	public int getCompression() {
+		return compression;
+	}
+	
+	/**
+	 * Checks whether the colors are compressed with RLE8 or RLE4.
+	 * @return true if the colors are compressed; otherwise, false.
+	 */
+	public boolean isCompressed() {
+		return compression == RLE8 || compression == RLE4;
+	}
+	
+	/**
+	 * Sets the number of bytes of the compressed colors, and so the size of the file,
+	 * once they were written.
+	 * 
+	 * @param dataSize - The number of bytes of the colors.
+	 */
+	void setDataSize(int dataSize) {
+		this.dataSize = dataSize;
+		this.size = this.getHeaderLength() + dataSize;
+	}
+	
+	/**
+	 * Checks whether the header says that the fourth byte of each pixel is its alpha.
+	 * A 32-bit bitmap with no mask of the alpha may leave that byte unused.
+	 * 
+	 * @return true if the pixels have an alpha component; otherwise, false.
+	 */
+	public boolean hasAlpha() {
+		return alpha;
+	}
+	
+	/**
+	 * Gets the number of bytes written by write(): 54, 122 for a 32-bit bitmap,
+	 * whose header holds the masks of the components, or 54 and four bytes for
+	 * each color of the palette.
+	 * 
+	 * @return The length of the header, in bytes.
+	 */
+	public int getHeaderLength() {
+		if (palette != null)
+			return OFFSET + palette.length * 4;
+		
+		return bits == BITS ? OFFSET : V4_OFFSET;
+	}
+	
 	/**
 	 * Gets the current height (in pixels) of the Bitmap.
 	 * @return The height of the Bitmap, in pixels.
@@ -160,6 +467,39 @@ class BitmapHeader {
 		return heightPixels;
 	}
 	
+	/**
+	 * Gets the offset at which the colors start in the file.
+	 * 
+	 * @return The offset of the colors, in bytes.
+	 */
+	public int getDataOffset() {
+		return dataOffset;
+	}
+	
+	/**
+	 * Gets the number of bytes of the file which hold the header and the colors:
+	 * the offset of the colors, followed by the padded rows or the compressed colors.
+	 * 
+	 * @return The size of the header and the colors, in bytes.
+	 */
+	public long getFileSize() {
+		if (this.isCompressed())
+			return dataOffset + (long) dataSize;
+		
+		return dataOffset + (long) (widthBytes + padding) * heightPixels;
+	}
+	
+	/**
+	 * Gets the size of the file as the header it was parsed from gives it, which
+	 * may not be the actual size of the file; some writers leave it at zero.
+	 * 
+	 * @return The size of the file written in the header, in bytes; or, if the header
+	 * 		   was not parsed from a file, the size it is written with.
+	 */
+	public long getDeclaredSize() {
+		return declaredSize >= 0 ? declaredSize : size & 0xFFFFFFFFL;
+	}
+	
 	/**
 	 * Gets the padding required to complete each row based on
 	 * the Bitmap standard.
@@ -0,0 +1,112 @@
+package graphics;
+
+/**
+ * What the header of a bitmap file says about it, as found by Bitmap.probe()
+ * without reading its colors: its size, number of bits, compression, and where
+ * its colors start.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class BitmapInfo {
+	private final int width, height, bits, compression, colors, dataOffset;
+	private final boolean alpha;
+	private final long declaredSize, fileSize;
+
+	/**
+	 * Initializes the information of a bitmap from its header.
+	 *
+	 * @param header - The header of the bitmap.
+	 */
+	BitmapInfo(BitmapHeader header) {
+		this.width = header.getWidth();
+		this.height = header.getHeight();
+		this.bits = header.getBitsPerPixel();
+		this.compression = header.getCompression();
+		this.colors = header.getPalette() != null ? header.getPalette().length : 0;
+		this.dataOffset = header.getDataOffset();
+		this.alpha = header.hasAlpha();
+		this.declaredSize = header.getDeclaredSize();
+		this.fileSize = header.getFileSize();
+	}
+
+	/**
+	 * Gets the width of the bitmap.
+	 * @return The width of the bitmap, in pixels.
+	 */
+	public int getWidth() {
+		return width;
+	}
+	/**
+	 * Gets the height of the bitmap.
+	 * @return The height of the bitmap, in pixels.
+	 */
+	public int getHeight() {
+		return height;
+	}
+	/**
+	 * Gets the number of bits of each pixel in the file.
+	 * @return 24, 32, or 8 or 4 if the pixels are indices into a palette.
+	 */
+	public int getBitsPerPixel() {
+		return bits;
+	}
+	/**
+	 * Gets the compression of the colors, as the file gives it.
+	 * @return 0 if the colors are not compressed, 1 for RLE8, 2 for RLE4, or 3 if
+	 * 		   the masks of the components are given (BI_BITFIELDS).
+	 */
+	public int getCompression() {
+		return compression;
+	}
+	/**
+	 * Checks whether the colors are compressed with RLE8 or RLE4.
+	 * @return true if the colors are compressed; otherwise, false.
+	 */
+	public boolean isCompressed() {
+		return compression == 1 || compression == 2;
+	}
+	/**
+	 * Gets the number of colors of the palette.
+	 * @return The number of colors, or 0 if the bitmap has no palette.
+	 */
+	public int getColors() {
+		return colors;
+	}
+	/**
+	 * Checks whether the header says that the fourth byte of each pixel is its alpha.
+	 * @return true if the pixels have an alpha component; otherwise, false.
+	 */
+	public boolean hasAlpha() {
+		return alpha;
+	}
+	/**
+	 * Gets the offset at which the colors start in the file.
+	 * @return The offset of the colors, in bytes.
+	 */
+	public int getDataOffset() {
+		return dataOffset;
+	}
+	/**
+	 * Gets the size of the file as the header gives it, which may not be the actual
+	 * size of the file; some writers leave it at zero.
+	 * @return The size written in the header, in bytes.
+	 */
+	public long getDeclaredSize() {
+		return declaredSize;
+	}
+	/**
+	 * Gets the number of bytes the file needs to hold the header and all the colors,
+	 * worked out from the other fields. A file shorter than this is truncated.
+	 * @return The size of the header and the colors, in bytes.
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	@Override
+	public String toString() {
+		return width + "x" + height + ", " + bits + " bits, compression " + compression + ", colors at "
+				+ dataOffset + ", " + declaredSize + " bytes";
+	}
+}
@@ -0,0 +1,455 @@
+package graphics;
+
+import java.util.*;
+
+import exceptions.*;
+import metrics.*;
+
+/**
+ * A chain of operations on a Bitmap which are only done when apply() is called.
+ * The operations are combined into as few passes over the picture as possible:
+ *
+ *  - invert, gray-scale, horizontal mirror, lookup tables and row kernels only need
+ *    one row at a time, so all the consecutive ones are done together, on each row
+ *    while it is in cache.
+ *  - shrink and double size are done in the same pass as the row operations
+ *    around them, writing straight to the resized picture. The operations which
+ *    do not depend on where the pixels are (invert, gray-scale, horizontal mirror
+ *    and lookup tables) are done before doubling, on the smaller rows; row kernels
+ *    after a doubling are done on the doubled rows.
+ *  - two inversions, or two mirrors, in a row cancel each other out.
+ *  - lookup tables which follow each other, and inversions next to them,
+ *    are combined into a single table.
+ *
+ * Blur and rotation are done on their own, as the Bitmap operations.
+ * The results are the same as calling the Bitmap operations one by one.
+ * On a PackedStorage, the operations work on whole pixels when their kernel can.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class BitmapPipeline {
+	private enum Operation {
+		INVERT, GRAYSCALE, HORIZONTAL_MIRROR, LOOKUP, ROWS, BLUR, SHRINK, DOUBLE_SIZE, ROTATE_90
+	}
+
+	/**
+	 * An operation of the chain, and its argument: the radius of a blur, or
+	 * the kernel which does a row operation.
+	 */
+	private static class Step {
+		final Operation operation;
+		final int radius;
+		final RowKernel kernel;
+
+		Step(Operation operation, int radius, RowKernel kernel) {
+			this.operation = operation;
+			this.radius = radius;
+			this.kernel = kernel;
+		}
+
+		boolean isRowOperation() {
+			return kernel != null;
+		}
+	}
+
+	private final Bitmap bitmap;
+	private final List<Step> steps = new ArrayList<Step>();
+
+	/**
+	 * Initializes an empty pipeline for a bitmap.
+	 * @param bitmap - The bitmap on which the operations are done.
+	 */
+	BitmapPipeline(Bitmap bitmap) {
+		this.bitmap = bitmap;
+	}
+
+	/**
+	 * Adds an inversion of the colors to the chain.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public BitmapPipeline invert() {
+		return this.add(new Step(Operation.INVERT, 0, Kernels.INVERT));
+	}
+	/**
+	 * Adds a change of the colors to gray-scale to the chain.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public BitmapPipeline grayscale() {
+		return this.add(new Step(Operation.GRAYSCALE, 0, Kernels.GRAYSCALE));
+	}
+	/**
+	 * Adds a horizontal mirror to the chain.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public BitmapPipeline horizontalMirror() {
+		return this.add(new Step(Operation.HORIZONTAL_MIRROR, 0, Kernels.HORIZONTAL_MIRROR));
+	}
+	/**
+	 * Adds a change of the colors with a lookup table to the chain.
+	 *
+	 * @param table - The table to change the colors with.
+	 * @return This same pipeline, used for chaining.
+	 * @throws NullArgumentException if table is null.
+	 */
+	public BitmapPipeline lookup(LookupTable table) {
+		if (table == null)
+			throw new NullArgumentException("table");
+
+		return this.add(new Step(Operation.LOOKUP, 0, table));
+	}
+	/**
+	 * Adds a row kernel to the chain, which is run on every row of the picture.
+	 *
+	 * @param kernel - The kernel to run on each row.
+	 * @return This same pipeline, used for chaining.
+	 * @throws NullArgumentException if kernel is null.
+	 */
+	public BitmapPipeline forEachRow(RowKernel kernel) {
+		if (kernel == null)
+			throw new NullArgumentException("kernel");
+
+		return this.add(new Step(Operation.ROWS, 0, kernel));
+	}
+	/**
+	 * Adds a blur with a radius of Bitmap.BLUR_RADIUS to the chain.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public BitmapPipeline blur() {
+		return this.blur(Bitmap.BLUR_RADIUS);
+	}
+	/**
+	 * Adds a blur to the chain.
+	 *
+	 * @param radius - The radius (in pixels) at which blur should look ahead to.
+	 * @return This same pipeline, used for chaining.
+	 * @throws IllegalArgumentException if the radius is negative.
+	 */
+	public BitmapPipeline blur(int radius) {
+		if (radius < 0)
+			throw new IllegalArgumentException("radius should be positive.");
+
+		return this.add(Operation.BLUR, radius);
+	}
+	/**
+	 * Adds a shrink by two to the chain.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public BitmapPipeline shrink() {
+		return this.add(Operation.SHRINK, 0);
+	}
+	/**
+	 * Adds a doubling of the size to the chain.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public BitmapPipeline doubleSize() {
+		return this.add(Operation.DOUBLE_SIZE, 0);
+	}
+	/**
+	 * Adds a rotation of 90 degrees to the right to the chain.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public BitmapPipeline rotate90Degrees() {
+		return this.add(Operation.ROTATE_90, 0);
+	}
+
+	private BitmapPipeline add(Operation operation, int radius) {
+		return this.add(new Step(operation, radius, null));
+	}
+	private BitmapPipeline add(Step step) {
+		Step last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+
+		if (last != null && last.operation == step.operation
+				&& (step.operation == Operation.INVERT || step.operation == Operation.HORIZONTAL_MIRROR)) {
+			// two inversions or two mirrors in a row do nothing.
+			steps.remove(steps.size() - 1);
+		} else if (last != null && isTable(last) && isTable(step)) {
+			// both are done by a single table.
+			steps.set(steps.size() - 1, new Step(Operation.LOOKUP, 0, toTable(last).then(toTable(step))));
+		} else {
+			steps.add(step);
+		}
+
+		return this;
+	}
+
+	private static boolean isTable(Step step) {
+		return step.operation == Operation.LOOKUP || step.operation == Operation.INVERT;
+	}
+	private static LookupTable toTable(Step step) {
+		return step.operation == Operation.LOOKUP ? (LookupTable) step.kernel : LookupTable.invert();
+	}
+
+	/**
+	 * Does all the operations of the chain on the bitmap, and empties the chain.
+	 * @return The bitmap, used for chaining.
+	 */
+	public Bitmap apply() {
+		Metrics.Sample sample = Metrics.start(Metrics.PIPELINE, (long) bitmap.getWidthBytes() * bitmap.getHeight());
+		try {
+			this.applySteps();
+		} finally {
+			steps.clear();
+			Metrics.stop(sample);
+		}
+
+		return bitmap;
+	}
+
+	private void applySteps() {
+		int i = 0;
+		while (i < steps.size()) {
+			// the row operations before the next other operation
+			List<Step> before = this.rowOperations(i);
+			i += before.size();
+
+			Step step = i < steps.size() ? steps.get(i++) : null;
+			if (step == null) {
+				this.applyRows(before);
+				break;
+			}
+
+			switch (step.operation) {
+				case SHRINK: {
+					List<Step> after = this.rowOperations(i);
+					i += after.size();
+					this.shrink(before, after);
+					break;
+				}
+				case DOUBLE_SIZE: {
+					// the operations which do not depend on where the pixels are work the same
+					// before or after doubling, so they are done before, on the smaller rows. a
+					// row kernel sees the doubled rows, and so does everything after it.
+					List<Step> after = this.rowOperations(i);
+					i += after.size();
+					int moved = 0;
+					while (moved < after.size() && after.get(moved).operation != Operation.ROWS)
+						++moved;
+
+					before.addAll(after.subList(0, moved));
+					this.doubleSize(before, after.subList(moved, after.size()));
+					break;
+				}
+				case BLUR:
+					this.applyRows(before);
+					bitmap.blur(step.radius);
+					break;
+				default:
+					this.applyRows(before);
+					bitmap.rotate90Degrees();
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Gets the row operations which follow each other, starting at `start`.
+	 * @param start - The index of the first step.
+	 * @return The row operations.
+	 */
+	private List<Step> rowOperations(int start) {
+		List<Step> operations = new ArrayList<Step>();
+		for (int i = start; i < steps.size() && steps.get(i).isRowOperation(); ++i)
+			operations.add(steps.get(i));
+
+		return operations;
+	}
+
+	/**
+	 * Does row operations on a row.
+	 *
+	 * @param operations - The row operations.
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 */
+	private static void applyRow(List<Step> operations, byte[] row, int offset, int width) {
+		for (int i = 0; i < operations.size(); ++i)
+			operations.get(i).kernel.apply(row, offset, width);
+	}
+
+	/**
+	 * Does row operations on a row of packed pixels.
+	 *
+	 * @param operations - The row operations.
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param temp - A temporary array of `width * 3` bytes, for the kernels which
+	 *               cannot work on packed pixels.
+	 */
+	private static void applyRow(List<Step> operations, int[] pixels, int start, int width, byte[] temp) {
+		for (int i = 0; i < operations.size(); ++i)
+			Kernels.apply(operations.get(i).kernel, pixels, start, width, temp);
+	}
+
+	private void run(ParallelExecutor.RangeAction action, int splitValue) {
+		bitmap.getExecutor().invoke(action, splitValue, bitmap.getThreads());
+	}
+
+	/**
+	 * Does row operations on every row of the bitmap, in one pass.
+	 * @param operations - The row operations.
+	 */
+	private void applyRows(final List<Step> operations) {
+		if (operations.isEmpty())
+			return;
+
+		if (bitmap.getStorage() instanceof PackedStorage) {
+			final PackedStorage storage = (PackedStorage) bitmap.getStorage();
+			this.run(new ParallelExecutor.RangeAction() {
+				@Override
+				void execute(int start, int end) {
+					byte[] temp = new byte[storage.getWidthBytes()];
+					for (int y = start; y < end; ++y)
+						applyRow(operations, storage.getData(), storage.pixelOffset(y), storage.getWidth(), temp);
+				}
+			}, storage.getHeight());
+			return;
+		}
+
+		RowKernel kernel = operations.size() == 1 ? operations.get(0).kernel : new RowKernel() {
+			@Override
+			public void apply(byte[] row, int offset, int width) {
+				applyRow(operations, row, offset, width);
+			}
+		};
+
+		Kernels.forEachRow(bitmap.getStorage(), kernel, bitmap.getExecutor(), bitmap.getThreads());
+	}
+
+	/**
+	 * Shrinks the bitmap by two, doing row operations on the rows before and after
+	 * they are shrunk, in one pass.
+	 *
+	 * @param before - The row operations to do before shrinking.
+	 * @param after - The row operations to do after shrinking.
+	 */
+	private void shrink(final List<Step> before, final List<Step> after) {
+		final PixelStorage src = bitmap.peekStorage();
+		final PixelStorage dest = bitmap.acquireStorage(src.getWidth() / 2, src.getHeight() / 2);
+
+		if (src instanceof PackedStorage && dest instanceof PackedStorage) {
+			this.shrink((PackedStorage) src, (PackedStorage) dest, before, after);
+			return;
+		}
+
+		this.run(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				byte[] top = new byte[src.getWidthBytes()],
+					   bottom = new byte[src.getWidthBytes()],
+					   temp = new byte[dest.getWidthBytes()];
+
+				for (int y = start; y < end; ++y) {
+					// the source rows are copied, so they are left unchanged.
+					src.getRow(y * 2, top, 0);
+					src.getRow(y * 2 + 1, bottom, 0);
+					applyRow(before, top, 0, src.getWidth());
+					applyRow(before, bottom, 0, src.getWidth());
+
+					byte[] row = dest.rowArray(y);
+					int offset = dest.rowOffset(y);
+					if (row == null) {
+						row = temp;
+						offset = 0;
+					}
+
+					Kernels.shrink(top, 0, bottom, 0, dest.getWidth(), row, offset);
+					applyRow(after, row, offset, dest.getWidth());
+
+					if (row == temp)
+						dest.setRow(y, temp, 0);
+				}
+			}
+		}, dest.getHeight());
+
+		bitmap.setStorage(dest);
+	}
+
+	private void shrink(final PackedStorage src, final PackedStorage dest, final List<Step> before,
+			final List<Step> after) {
+		this.run(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				int[] top = new int[src.getWidth()],
+					  bottom = new int[src.getWidth()];
+				byte[] temp = new byte[src.getWidthBytes()];
+
+				for (int y = start; y < end; ++y) {
+					System.arraycopy(src.getData(), src.pixelOffset(y * 2), top, 0, top.length);
+					System.arraycopy(src.getData(), src.pixelOffset(y * 2 + 1), bottom, 0, bottom.length);
+					applyRow(before, top, 0, src.getWidth(), temp);
+					applyRow(before, bottom, 0, src.getWidth(), temp);
+
+					Kernels.shrink(top, 0, bottom, 0, dest.getWidth(), dest.getData(), dest.pixelOffset(y));
+					applyRow(after, dest.getData(), dest.pixelOffset(y), dest.getWidth(), temp);
+				}
+			}
+		}, dest.getHeight());
+
+		bitmap.setStorage(dest);
+	}
+
+	/**
+	 * Doubles the size of the bitmap, doing row operations on the rows before and
+	 * after they are doubled, in one pass.
+	 *
+	 * @param before - The row operations to do before doubling.
+	 * @param after - The row operations to do after doubling.
+	 */
+	private void doubleSize(final List<Step> before, final List<Step> after) {
+		final PixelStorage src = bitmap.peekStorage();
+		final PixelStorage dest = bitmap.acquireStorage(src.getWidth() * 2, src.getHeight() * 2);
+
+		if (src instanceof PackedStorage && dest instanceof PackedStorage) {
+			this.doubleSize((PackedStorage) src, (PackedStorage) dest, before, after);
+			return;
+		}
+
+		this.run(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				byte[] row = new byte[src.getWidthBytes()],
+					   doubled = new byte[dest.getWidthBytes()];
+
+				for (int y = start; y < end; ++y) {
+					src.getRow(y, row, 0);
+					applyRow(before, row, 0, src.getWidth());
+
+					// both rows of the doubled row are the same.
+					Kernels.doubleWidth(row, 0, src.getWidth(), doubled, 0);
+					applyRow(after, doubled, 0, dest.getWidth());
+					dest.setRow(y * 2, doubled, 0);
+					dest.setRow(y * 2 + 1, doubled, 0);
+				}
+			}
+		}, src.getHeight());
+
+		bitmap.setStorage(dest);
+	}
+
+	private void doubleSize(final PackedStorage src, final PackedStorage dest, final List<Step> before,
+			final List<Step> after) {
+		this.run(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				int[] row = new int[src.getWidth()];
+				byte[] temp = new byte[dest.getWidthBytes()];
+
+				for (int y = start; y < end; ++y) {
+					System.arraycopy(src.getData(), src.pixelOffset(y), row, 0, row.length);
+					applyRow(before, row, 0, src.getWidth(), temp);
+
+					// both rows of the doubled row are the same.
+					int[] pixels = dest.getData();
+					Kernels.doubleWidth(row, 0, src.getWidth(), pixels, dest.pixelOffset(y * 2));
+					applyRow(after, pixels, dest.pixelOffset(y * 2), dest.getWidth(), temp);
+					System.arraycopy(pixels, dest.pixelOffset(y * 2), pixels, dest.pixelOffset(y * 2 + 1), dest.getWidth());
+				}
+			}
+		}, src.getHeight());
+
+		bitmap.setStorage(dest);
+	}
+}
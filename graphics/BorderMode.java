@@ -0,0 +1,50 @@
+package graphics;
+
+/**
+ * What a convolution reads for the pixels past the edges of the picture.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public enum BorderMode {
+	/**
+	 * The nearest pixel of the edge is repeated.
+	 */
+	CLAMP,
+	/**
+	 * The picture is mirrored across its edge, without repeating the edge itself:
+	 * the pixels before column 0 are columns 1, 2, 3...
+	 */
+	MIRROR,
+	/**
+	 * The picture is repeated: the pixels past the right edge are those of the
+	 * left edge, and so on.
+	 */
+	WRAP;
+
+	/**
+	 * Gets the pixel which is read for a coordinate, which may be past the edges.
+	 *
+	 * @param i - The coordinate.
+	 * @param size - The number of pixels along the axis.
+	 * @return The coordinate of the pixel read, between 0 and size - 1.
+	 */
+	int map(int i, int size) {
+		if (i >= 0 && i < size)
+			return i;
+
+		switch (this) {
+			case MIRROR:
+				if (size == 1)
+					return 0;
+
+				int period = size * 2 - 2;
+				i = ((i % period) + period) % period;
+				return i < size ? i : period - i;
+			case WRAP:
+				return ((i % size) + size) % size;
+			default:
+				return i < 0 ? 0 : size - 1;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package graphics;
+
+import java.io.*;
+import java.nio.*;
+
+import io.*;
+
+/**
+ * A PixelStorage which keeps the rows in byte buffers. A single buffer cannot hold
+ * more than 2 GB, so big images are split into several buffers, each holding
+ * `rowsPerBuffer` whole rows. Row `y` starts at `(y % rowsPerBuffer) * stride`
+ * in buffer `y / rowsPerBuffer`.
+ * 
+ * The buffers may be read-only, such as a file mapped into memory. In that case
+ * they are copied to new direct buffers the first time the storage is written to.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class BufferStorage extends PixelStorage {
+	private volatile ByteBuffer[] buffers;
+	private volatile boolean readOnly;
+	private final int rowsPerBuffer;
+	private final int stride;
+	private final boolean padded;
+
+	/**
+	 * Initializes a storage over existing buffers.
+	 *
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 * @param padded - true if each row is padded to a multiple of four bytes.
+	 * @param buffers - The buffers which hold the rows.
+	 * @param rowsPerBuffer - The number of rows each buffer holds.
+	 */
+	BufferStorage(int width, int height, boolean padded, ByteBuffer[] buffers, int rowsPerBuffer) {
+		super(width, height);
+
+		this.padded = padded;
+		this.stride = padded ? paddedStride(width) : width * 3;
+		this.buffers = buffers;
+		this.rowsPerBuffer = rowsPerBuffer;
+		this.readOnly = buffers.length > 0 && buffers[0].isReadOnly();
+	}
+
+	/**
+	 * Allocates an empty storage kept in direct (off-heap) buffers.
+	 *
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 * @param padded - true to pad each row to a multiple of four bytes.
+	 * @return The new storage.
+	 */
+	static BufferStorage allocateDirect(int width, int height, boolean padded) {
+		int stride = padded ? paddedStride(width) : width * 3;
+		int rowsPerBuffer = rowsPerBuffer(stride);
+
+		ByteBuffer[] buffers = new ByteBuffer[(height + rowsPerBuffer - 1) / rowsPerBuffer];
+		for (int i = 0; i < buffers.length; ++i) {
+			int rows = Math.min(rowsPerBuffer, height - i * rowsPerBuffer);
+			buffers[i] = ByteBuffer.allocateDirect(rows * stride);
+		}
+
+		return new BufferStorage(width, height, padded, buffers, rowsPerBuffer);
+	}
+
+	/**
+	 * Maps the colors of a bitmap file into memory, without reading them. The rows are 
+	 * used in place, including their padding, until the storage is first written to.
+	 *
+	 * @param reader - The reader of the bitmap file.
+	 * @param header - The header of the bitmap file.
+	 * @return The new storage.
+	 * @throws IOException if an I/O error occurs, or the file is too short.
+	 */
+	static BufferStorage map(BitmapReader reader, BitmapHeader header) throws IOException {
+		int width = header.getWidth(), height = header.getHeight();
+		int stride = paddedStride(width);
+		int rowsPerBuffer = rowsPerBuffer(stride);
+
+		if (header.getDataOffset() + (long) stride * height > reader.size())
+			throw new EOFException();
+
+		ByteBuffer[] buffers = new ByteBuffer[(height + rowsPerBuffer - 1) / rowsPerBuffer];
+		for (int i = 0; i < buffers.length; ++i) {
+			int rows = Math.min(rowsPerBuffer, height - i * rowsPerBuffer);
+			buffers[i] = reader.map(header.getDataOffset() + (long) i * rowsPerBuffer * stride, (long) rows * stride);
+		}
+
+		return new BufferStorage(width, height, true, buffers, rowsPerBuffer);
+	}
+
+	/**
+	 * Gets the number of whole rows that fit in one buffer.
+	 *
+	 * @param stride - The distance between the start of two rows, in bytes.
+	 * @return The number of rows that fit in one buffer.
+	 */
+	static int rowsPerBuffer(int stride) {
+		return Math.max(1, Integer.MAX_VALUE / Math.max(1, stride));
+	}
+
+	/**
+	 * Gets the distance between the start of two rows.
+	 * @return The distance between the start of two rows, in bytes.
+	 */
+	int getStride() {
+		return stride;
+	}
+
+	@Override
+	public int get(int y, int index) {
+		return buffers[y / rowsPerBuffer].get((y % rowsPerBuffer) * stride + index) & 0xFF;
+	}
+
+	@Override
+	public void set(int y, int index, int value) {
+		this.writableBuffer(y).put((y % rowsPerBuffer) * stride + index, (byte) value);
+	}
+
+	@Override
+	public void getRow(int y, byte[] dest, int offset) {
+		buffers[y / rowsPerBuffer].get((y % rowsPerBuffer) * stride, dest, offset, getWidthBytes());
+	}
+
+	@Override
+	public void setRow(int y, byte[] src, int offset) {
+		this.writableBuffer(y).put((y % rowsPerBuffer) * stride, src, offset, getWidthBytes());
+	}
+
+	@Override
+	void getRow(int y, int index, byte[] dest, int offset, int length) {
+		buffers[y / rowsPerBuffer].get((y % rowsPerBuffer) * stride + index, dest, offset, length);
+	}
+
+	@Override
+	void setRow(int y, int index, byte[] src, int offset, int length) {
+		this.writableBuffer(y).put((y % rowsPerBuffer) * stride + index, src, offset, length);
+	}
+
+	@Override
+	public ByteBuffer rowBuffer(int y) {
+		return buffers[y / rowsPerBuffer].slice((y % rowsPerBuffer) * stride, getWidthBytes());
+	}
+
+	/**
+	 * Gets the buffer which holds row `y`, copying the buffers first if they are read-only.
+	 *
+	 * @param y - The row.
+	 * @return The buffer which holds the row.
+	 */
+	private ByteBuffer writableBuffer(int y) {
+		if (readOnly)
+			this.copyBuffers();
+
+		return buffers[y / rowsPerBuffer];
+	}
+
+	/**
+	 * Copies the read-only buffers to new direct buffers, which can be written to.
+	 */
+	private synchronized void copyBuffers() {
+		// another thread might have copied them already.
+		if (!readOnly)
+			return;
+
+		ByteBuffer[] copies = new ByteBuffer[buffers.length];
+		for (int i = 0; i < copies.length; ++i) {
+			copies[i] = ByteBuffer.allocateDirect(buffers[i].capacity());
+			copies[i].put(buffers[i].duplicate());
+		}
+
+		buffers = copies;
+		readOnly = false;
+	}
+
+	/**
+	 * Checks whether the storage still uses its original read-only buffers.
+	 * @return true if the storage was not written to yet; otherwise, false.
+	 */
+	boolean isReadOnly() {
+		return readOnly;
+	}
+
+	@Override
+	boolean isSameKind(PixelStorage other) {
+		return super.isSameKind(other) && ((BufferStorage) other).padded == this.padded;
+	}
+
+	@Override
+	public PixelStorage allocate(int width, int height) {
+		return allocateDirect(width, height, padded);
+	}
+}
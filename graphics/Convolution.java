@@ -0,0 +1,277 @@
+package graphics;
+
+import java.util.*;
+
+/**
+ * A class which convolves a storage with a ConvolutionKernel, writing the result
+ * to another storage of the same size. The threads share the rows of the result.
+ *
+ * A separable kernel is done in one pass over the rows, as two passes of one
+ * dimension: for each row of the result, the column of weights adds up the rows
+ * around it into one row of sums, and the row of weights is then run along those
+ * sums. Other kernels add up each of their weights for each pixel.
+ *
+ * The weights are turned into fixed-point numbers, so the sums are only made with
+ * integers; each sum is scaled back once, when it is written. The pixels past the
+ * edges are read as the BorderMode says. Packed storages keep their alpha.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class Convolution {
+	// the most bits after the point of the fixed-point weights.
+	private static final int PRECISION = 14;
+	// the bits after the point kept by the sums of the column of a separable kernel.
+	private static final int KEPT_BITS = 6;
+
+	private Convolution() {
+	}
+
+	/**
+	 * Convolves `src` with a kernel, and writes the result to `dest`.
+	 *
+	 * @param src - The storage to read from.
+	 * @param dest - The storage to write to, of the same size as `src`.
+	 * @param kernel - The kernel.
+	 * @param border - What is read past the edges.
+	 * @param executor - The executor which runs the rows.
+	 * @param threads - The number of threads to split the rows for.
+	 */
+	static void convolve(PixelStorage src, PixelStorage dest, ConvolutionKernel kernel, BorderMode border,
+			ParallelExecutor executor, int threads) {
+		// the byte offset read for each column, from `width / 2` columns before the
+		// first one to as many after the last one.
+		int[] columns = new int[src.getWidth() + kernel.getWidth() - 1];
+		for (int i = 0; i < columns.length; ++i)
+			columns[i] = border.map(i - kernel.getWidth() / 2, src.getWidth()) * 3;
+
+		if (kernel.isSeparable())
+			separable(src, dest, kernel, border, columns, executor, threads);
+		else
+			full(src, dest, kernel, border, columns, executor, threads);
+	}
+
+	private static void separable(final PixelStorage src, final PixelStorage dest, final ConvolutionKernel kernel,
+			final BorderMode border, final int[] columns, ParallelExecutor executor, int threads) {
+		// the rows of the storage go up the picture, so the column of weights is reversed.
+		double[] column = kernel.getColumn().clone(), row = kernel.getRow();
+		for (int i = 0, j = column.length - 1; i < j; ++i, --j) {
+			double weight = column[i];
+			column[i] = column[j];
+			column[j] = weight;
+		}
+
+		// the sums of the column keep KEPT_BITS bits after the point, so the row
+		// of weights can add them up in an int too.
+		double columnMax = max(column), rowMax = max(row);
+		int columnBits = bits(column, columnMax, 255), shift = Math.max(0, columnBits - KEPT_BITS);
+		int rowBits = bits(row, rowMax, 255 * total(column, columnMax) * (1 << (columnBits - shift)));
+		final int[] columnTaps = taps(column), columnWeights = quantize(column, columnTaps, columnMax, columnBits);
+		final int[] rowTaps = taps(row), rowWeights = quantize(row, rowTaps, rowMax, rowBits);
+		final double scale = columnMax * rowMax / ((double) (1 << (columnBits - shift)) * (1 << rowBits));
+		final double bias = kernel.getBias();
+		final int sumShift = shift;
+		final int radius = kernel.getHeight() / 2;
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				int widthBytes = dest.getWidthBytes();
+				int[] sums = new int[widthBytes], padded = new int[columns.length * 3];
+				byte[] temp = new byte[widthBytes], destTemp = new byte[widthBytes];
+
+				for (int y = start; y < end; ++y) {
+					// the column of weights, over the rows around this one.
+					Arrays.fill(sums, 0);
+					for (int t = 0; t < columnTaps.length; ++t) {
+						int sy = border.map(y - radius + columnTaps[t], src.getHeight()), weight = columnWeights[t];
+						byte[] from = src.rowArray(sy);
+						int offset = src.rowOffset(sy);
+						if (from == null) {
+							src.getRow(sy, temp, 0);
+							from = temp;
+							offset = 0;
+						}
+
+						for (int i = 0; i < widthBytes; ++i)
+							sums[i] += weight * (from[offset + i] & 0xFF);
+					}
+
+					// the sums, with the columns past the edges.
+					for (int p = 0, i = 0; p < columns.length; ++p, i += 3) {
+						padded[i] = sums[columns[p]] >> sumShift;
+						padded[i + 1] = sums[columns[p] + 1] >> sumShift;
+						padded[i + 2] = sums[columns[p] + 2] >> sumShift;
+					}
+
+					byte[] to = dest.rowArray(y);
+					int d = dest.rowOffset(y);
+					if (to == null) {
+						to = destTemp;
+						d = 0;
+					}
+
+					// then the row of weights, along the sums, a weight at a time.
+					Arrays.fill(sums, 0);
+					for (int t = 0; t < rowTaps.length; ++t) {
+						int weight = rowWeights[t], p = rowTaps[t] * 3;
+						for (int i = 0; i < widthBytes; ++i)
+							sums[i] += weight * padded[p + i];
+					}
+
+					for (int i = 0; i < widthBytes; ++i)
+						to[d + i] = (byte) clamp(sums[i] * scale + bias);
+
+					finishRow(src, dest, y, to);
+				}
+			}
+		}, dest.getHeight(), threads);
+	}
+
+	private static void full(final PixelStorage src, final PixelStorage dest, final ConvolutionKernel kernel,
+			final BorderMode border, final int[] columns, ParallelExecutor executor, int threads) {
+		final int kernelWidth = kernel.getWidth(), kernelHeight = kernel.getHeight();
+
+		// the weights of each row of the kernel, from the bottom one, since the
+		// rows of the storage go up the picture.
+		double[] weights = new double[kernelWidth * kernelHeight];
+		for (int y = 0; y < kernelHeight; ++y)
+			for (int x = 0; x < kernelWidth; ++x)
+				weights[y * kernelWidth + x] = kernel.getWeight(x, kernelHeight - 1 - y);
+
+		double max = max(weights);
+		int bits = bits(weights, max, 255);
+		final int[] taps = taps(weights), quantized = quantize(weights, taps, max, bits);
+		final double scale = max / (1 << bits), bias = kernel.getBias();
+		final int radius = kernelHeight / 2;
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				int widthBytes = dest.getWidthBytes();
+				int[] sums = new int[widthBytes], padded = new int[columns.length * 3];
+				byte[] temp = new byte[widthBytes], destTemp = new byte[widthBytes];
+
+				for (int y = start; y < end; ++y) {
+					Arrays.fill(sums, 0);
+
+					// the taps are sorted by row, so each row is gotten (with the
+					// columns past the edges) once.
+					int lastRow = -1;
+					for (int t = 0; t < taps.length; ++t) {
+						int ky = taps[t] / kernelWidth, kx = taps[t] % kernelWidth, weight = quantized[t];
+						if (ky != lastRow) {
+							int sy = border.map(y - radius + ky, src.getHeight());
+							byte[] from = src.rowArray(sy);
+							int offset = src.rowOffset(sy);
+							if (from == null) {
+								src.getRow(sy, temp, 0);
+								from = temp;
+								offset = 0;
+							}
+
+							for (int p = 0, i = 0; p < columns.length; ++p, i += 3) {
+								int o = offset + columns[p];
+								padded[i] = from[o] & 0xFF;
+								padded[i + 1] = from[o + 1] & 0xFF;
+								padded[i + 2] = from[o + 2] & 0xFF;
+							}
+							lastRow = ky;
+						}
+
+						for (int i = 0, p = kx * 3; i < widthBytes; ++i)
+							sums[i] += weight * padded[p + i];
+					}
+
+					byte[] to = dest.rowArray(y);
+					int d = dest.rowOffset(y);
+					if (to == null) {
+						to = destTemp;
+						d = 0;
+					}
+
+					for (int i = 0; i < widthBytes; ++i)
+						to[d + i] = (byte) clamp(sums[i] * scale + bias);
+
+					finishRow(src, dest, y, to);
+				}
+			}
+		}, dest.getHeight(), threads);
+	}
+
+	/**
+	 * Copies a row which was written to a temporary array to the storage, and
+	 * gives the pixels of a packed storage the alpha of the source.
+	 */
+	private static void finishRow(PixelStorage src, PixelStorage dest, int y, byte[] row) {
+		if (dest.rowArray(y) != row)
+			dest.setRow(y, row, 0);
+
+		if (src instanceof PackedStorage && dest instanceof PackedStorage) {
+			PackedStorage from = (PackedStorage) src, to = (PackedStorage) dest;
+			int[] pixels = from.getData(), result = to.getData();
+			for (int i = from.pixelOffset(y), j = to.pixelOffset(y), end = i + from.getWidth(); i < end; ++i, ++j)
+				result[j] = (result[j] & PackedStorage.COLORS) | (pixels[i] & PackedStorage.OPAQUE);
+		}
+	}
+
+	private static double max(double[] weights) {
+		double max = 0;
+		for (double weight : weights)
+			max = Math.max(max, Math.abs(weight));
+		return max;
+	}
+
+	/**
+	 * Gets the number of bits after the point the weights can have, so that adding
+	 * up all of them, times the biggest value they are multiplied with, fits in an int.
+	 */
+	private static int bits(double[] weights, double max, double values) {
+		double total = total(weights, max);
+
+		int bits = PRECISION;
+		while (bits > 0 && values * total * (1 << bits) >= Integer.MAX_VALUE)
+			--bits;
+		return bits;
+	}
+
+	/**
+	 * Gets the sum of the absolute weights, the biggest one being one.
+	 */
+	private static double total(double[] weights, double max) {
+		double total = 0;
+		for (double weight : weights)
+			total += Math.abs(weight) / max;
+		return total;
+	}
+
+	/**
+	 * Gets the indices of the weights which are not zero, which are the only ones added up.
+	 */
+	private static int[] taps(double[] weights) {
+		int count = 0;
+		for (double weight : weights)
+			if (weight != 0)
+				++count;
+
+		int[] taps = new int[count];
+		for (int i = 0, t = 0; i < weights.length; ++i)
+			if (weights[i] != 0)
+				taps[t++] = i;
+		return taps;
+	}
+
+	private static int[] quantize(double[] weights, int[] taps, double max, int bits) {
+		int[] quantized = new int[taps.length];
+		for (int t = 0; t < taps.length; ++t)
+			quantized[t] = (int) Math.round(weights[taps[t]] / max * (1 << bits));
+		return quantized;
+	}
+
+	/**
+	 * Rounds a component, and clamps it between 0 and 255.
+	 */
+	private static int clamp(double value) {
+		return value <= 0 ? 0 : value >= 255 ? 255 : (int) (value + 0.5);
+	}
+}
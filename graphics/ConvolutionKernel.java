@@ -0,0 +1,222 @@
+package graphics;
+
+import exceptions.*;
+
+/**
+ * The weights of a convolution: each pixel becomes the sum of the pixels around
+ * it, each one multiplied by its weight, plus a bias. The kernel is `width` by
+ * `height` weights, both odd, centered on the pixel; the first row of weights is
+ * for the row above the pixel, as the picture is displayed.
+ *
+ * A kernel which is the product of a column and a row of weights (such as a
+ * Gaussian or Sobel) is found to be separable when it is made, and is then done
+ * as two passes of one dimension, which costs `width + height` multiplications
+ * for each pixel instead of `width * height`.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class ConvolutionKernel {
+	private final int width, height;
+	private final double[] weights;
+	private final double bias;
+	// the column and the row whose product is the kernel, if it is separable.
+	private final double[] column, row;
+
+	/**
+	 * Initializes a kernel with no bias.
+	 *
+	 * @param width - The number of weights in a row; odd.
+	 * @param height - The number of rows of weights; odd.
+	 * @param weights - The weights, row by row from the top.
+	 * @throws IllegalArgumentException if width or height is not odd and positive,
+	 * 				or there are not width * height finite weights.
+	 * @throws NullArgumentException if weights is null.
+	 */
+	public ConvolutionKernel(int width, int height, double[] weights) {
+		this(width, height, weights, 0);
+	}
+	/**
+	 * Initializes a kernel.
+	 *
+	 * @param width - The number of weights in a row; odd.
+	 * @param height - The number of rows of weights; odd.
+	 * @param weights - The weights, row by row from the top.
+	 * @param bias - The value added to each component, such as 128 to see the
+	 * 				 negative responses of an edge detection.
+	 * @throws IllegalArgumentException if width or height is not odd and positive,
+	 * 				or there are not width * height finite weights.
+	 * @throws NullArgumentException if weights is null.
+	 */
+	public ConvolutionKernel(int width, int height, double[] weights, double bias) {
+		if (width < 1 || height < 1 || width % 2 == 0 || height % 2 == 0)
+			throw new IllegalArgumentException("width and height should be odd and positive.");
+		if (weights == null)
+			throw new NullArgumentException("weights");
+		if (weights.length != width * height)
+			throw new IllegalArgumentException("weights should have width * height weights.");
+		for (double weight : weights)
+			if (Double.isNaN(weight) || Double.isInfinite(weight))
+				throw new IllegalArgumentException("weights should be finite.");
+
+		this.width = width;
+		this.height = height;
+		this.weights = weights.clone();
+		this.bias = bias;
+
+		// the kernel is separable if each weight is the product of the weight of its
+		// row in the column of the biggest weight, and of its column in the row of it.
+		int biggest = 0;
+		for (int i = 1; i < weights.length; ++i)
+			if (Math.abs(weights[i]) > Math.abs(weights[biggest]))
+				biggest = i;
+
+		double max = Math.abs(weights[biggest]);
+		double[] column = new double[height], row = new double[width];
+		for (int y = 0; y < height; ++y)
+			column[y] = weights[y * width + biggest % width];
+		for (int x = 0; x < width; ++x)
+			row[x] = max != 0 ? weights[biggest - biggest % width + x] / weights[biggest] : 0;
+
+		boolean separable = max != 0;
+		for (int y = 0; separable && y < height; ++y)
+			for (int x = 0; separable && x < width; ++x)
+				separable = Math.abs(weights[y * width + x] - column[y] * row[x]) <= max * 1e-9;
+
+		this.column = separable ? column : null;
+		this.row = separable ? row : null;
+	}
+
+	/**
+	 * Makes a Gaussian blur, whose weights add up to one.
+	 *
+	 * @param sigma - The standard deviation, in pixels; the kernel reaches three times as far.
+	 * @return The kernel.
+	 * @throws IllegalArgumentException if sigma is not positive.
+	 */
+	public static ConvolutionKernel gaussian(double sigma) {
+		if (!(sigma > 0))
+			throw new IllegalArgumentException("sigma should be positive.");
+
+		int radius = Math.max(1, (int) Math.ceil(sigma * 3)), size = radius * 2 + 1;
+		double[] curve = new double[size];
+		double total = 0;
+		for (int i = 0; i < size; ++i)
+			total += curve[i] = Math.exp(-(i - radius) * (i - radius) / (2 * sigma * sigma));
+
+		double[] weights = new double[size * size];
+		for (int y = 0; y < size; ++y)
+			for (int x = 0; x < size; ++x)
+				weights[y * size + x] = curve[y] * curve[x] / (total * total);
+
+		return new ConvolutionKernel(size, size, weights);
+	}
+	/**
+	 * Makes a kernel which sharpens the picture, by adding to each pixel its
+	 * difference with its four neighbors.
+	 *
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel sharpen() {
+		return new ConvolutionKernel(3, 3, new double[] {
+			 0, -1,  0,
+			-1,  5, -1,
+			 0, -1,  0
+		});
+	}
+	/**
+	 * Makes the Sobel kernel which finds the vertical edges, where the picture
+	 * gets brighter from left to right. Edges the other way give negative values,
+	 * which are clamped to zero.
+	 *
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel sobelX() {
+		return new ConvolutionKernel(3, 3, new double[] {
+			-1, 0, 1,
+			-2, 0, 2,
+			-1, 0, 1
+		});
+	}
+	/**
+	 * Makes the Sobel kernel which finds the horizontal edges, where the picture
+	 * gets brighter from top to bottom.
+	 *
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel sobelY() {
+		return new ConvolutionKernel(3, 3, new double[] {
+			-1, -2, -1,
+			 0,  0,  0,
+			 1,  2,  1
+		});
+	}
+	/**
+	 * Makes a kernel which embosses the picture, as if it was lit from the top left.
+	 *
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel emboss() {
+		return new ConvolutionKernel(3, 3, new double[] {
+			-2, -1, 0,
+			-1,  1, 1,
+			 0,  1, 2
+		});
+	}
+
+	/**
+	 * Gets the number of weights in a row.
+	 * @return The width of the kernel.
+	 */
+	public int getWidth() {
+		return width;
+	}
+	/**
+	 * Gets the number of rows of weights.
+	 * @return The height of the kernel.
+	 */
+	public int getHeight() {
+		return height;
+	}
+	/**
+	 * Gets the weight of a pixel.
+	 *
+	 * @param x - The column of the weight, from the left.
+	 * @param y - The row of the weight, from the top.
+	 * @return The weight.
+	 */
+	public double getWeight(int x, int y) {
+		return weights[y * width + x];
+	}
+	/**
+	 * Gets the value added to each component.
+	 * @return The bias.
+	 */
+	public double getBias() {
+		return bias;
+	}
+	/**
+	 * Checks whether the kernel is the product of a column and a row of weights,
+	 * and so is done as two passes of one dimension.
+	 *
+	 * @return true if the kernel is separable; otherwise, false.
+	 */
+	public boolean isSeparable() {
+		return column != null;
+	}
+
+	/**
+	 * Gets the column of weights of a separable kernel, from the top.
+	 * @return The weights, or null if the kernel is not separable.
+	 */
+	double[] getColumn() {
+		return column;
+	}
+	/**
+	 * Gets the row of weights of a separable kernel, from the left.
+	 * @return The weights, or null if the kernel is not separable.
+	 */
+	double[] getRow() {
+		return row;
+	}
+}
@@ -0,0 +1,219 @@
+package graphics;
+
+import exceptions.*;
+
+/**
+ * The number of pixels of a picture which have each value of each component, and
+ * of each gray level (as Bitmap.grayscale() would make the pixel), from 0 to 255.
+ *
+ * It is counted in one parallel pass over the rows: each chunk of rows counts its
+ * pixels in its own bins, and only adds them to the histogram once it is done,
+ * so the threads never write to the same counts while they count.
+ *
+ * Usage:
+ *
+ *     Histogram histogram = bitmap.histogram();
+ *     bitmap.lookup(LookupTable.autoLevels(histogram, 0.001));
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class Histogram {
+	/**
+	 * A channel of the histogram.
+	 */
+	public enum Channel {
+		BLUE, GREEN, RED,
+		/**
+		 * The gray level of the pixels: 30% of red, 59% of green and 11% of blue.
+		 */
+		LUMINANCE
+	}
+
+	// the counts of each channel, in the order of Channel.
+	private final long[][] counts = new long[4][256];
+	private final long total;
+
+	/**
+	 * Counts the pixels of a storage.
+	 *
+	 * @param storage - The storage to count the pixels of.
+	 * @param executor - The executor which runs the rows.
+	 * @param threads - The number of threads to split the rows for.
+	 */
+	Histogram(final PixelStorage storage, ParallelExecutor executor, int threads) {
+		this.total = (long) storage.getWidth() * storage.getHeight();
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				// the blue, green, red and gray bins of this chunk, one after the other.
+				long[] bins = new long[256 * 4];
+
+				if (storage instanceof PackedStorage) {
+					PackedStorage packed = (PackedStorage) storage;
+					for (int y = start; y < end; ++y)
+						count(packed.getData(), packed.pixelOffset(y), packed.getWidth(), bins);
+				} else {
+					byte[] temp = null;
+					for (int y = start; y < end; ++y) {
+						byte[] row = storage.rowArray(y);
+						int offset = storage.rowOffset(y);
+						if (row == null) {
+							if (temp == null)
+								temp = new byte[storage.getWidthBytes()];
+
+							storage.getRow(y, temp, 0);
+							row = temp;
+							offset = 0;
+						}
+
+						count(row, offset, storage.getWidth(), bins);
+					}
+				}
+
+				merge(bins);
+			}
+		}, storage.getHeight(), threads);
+	}
+
+	private static void count(byte[] row, int offset, int width, long[] bins) {
+		for (int i = offset, end = offset + width * 3; i < end; i += 3) {
+			int blue = row[i] & 0xFF, green = row[i + 1] & 0xFF, red = row[i + 2] & 0xFF;
+			++bins[blue];
+			++bins[256 + green];
+			++bins[512 + red];
+			++bins[768 + Kernels.gray(blue, green, red)];
+		}
+	}
+
+	private static void count(int[] pixels, int start, int width, long[] bins) {
+		for (int i = start, end = start + width; i < end; ++i) {
+			int pixel = pixels[i];
+			int blue = pixel & 0xFF, green = (pixel >>> 8) & 0xFF, red = (pixel >>> 16) & 0xFF;
+			++bins[blue];
+			++bins[256 + green];
+			++bins[512 + red];
+			++bins[768 + Kernels.gray(blue, green, red)];
+		}
+	}
+
+	/**
+	 * Adds the bins counted by a chunk to the histogram.
+	 */
+	private void merge(long[] bins) {
+		synchronized (counts) {
+			for (int c = 0; c < counts.length; ++c)
+				for (int value = 0; value < 256; ++value)
+					counts[c][value] += bins[c * 256 + value];
+		}
+	}
+
+	/**
+	 * Gets the number of pixels whose channel has a value.
+	 *
+	 * @param channel - The channel.
+	 * @param value - The value, between 0 and 255.
+	 * @return The number of pixels.
+	 * @throws NullArgumentException if channel is null.
+	 */
+	public long getCount(Channel channel, int value) {
+		return this.getCountsOf(channel)[value];
+	}
+	/**
+	 * Gets the number of pixels of each value of a channel.
+	 *
+	 * @param channel - The channel.
+	 * @return A new array of 256 counts, one for each value.
+	 * @throws NullArgumentException if channel is null.
+	 */
+	public long[] getCounts(Channel channel) {
+		return this.getCountsOf(channel).clone();
+	}
+	/**
+	 * Gets the number of pixels of the picture.
+	 * @return The number of pixels counted.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Gets the average value of a channel.
+	 *
+	 * @param channel - The channel.
+	 * @return The average value, between 0 and 255; 0 if the picture is empty.
+	 * @throws NullArgumentException if channel is null.
+	 */
+	public double getMean(Channel channel) {
+		long[] counts = this.getCountsOf(channel);
+		if (total == 0)
+			return 0;
+
+		double sum = 0;
+		for (int value = 0; value < 256; ++value)
+			sum += (double) value * counts[value];
+		return sum / total;
+	}
+	/**
+	 * Gets the lowest value of a channel, leaving out a part of the darkest
+	 * pixels, such as noise.
+	 *
+	 * @param channel - The channel.
+	 * @param clip - The part of the pixels left out, from 0 (none) to less than 1.
+	 * @return The lowest value which is not left out; 0 if the picture is empty.
+	 * @throws IllegalArgumentException if clip is negative, or not less than 1.
+	 * @throws NullArgumentException if channel is null.
+	 */
+	public int getLowest(Channel channel, double clip) {
+		long[] counts = this.getCountsOf(channel);
+		double skipped = skipped(clip);
+
+		long sum = 0;
+		for (int value = 0; value < 256; ++value) {
+			sum += counts[value];
+			if (sum > skipped)
+				return value;
+		}
+		return 0;
+	}
+	/**
+	 * Gets the highest value of a channel, leaving out a part of the brightest
+	 * pixels, such as noise.
+	 *
+	 * @param channel - The channel.
+	 * @param clip - The part of the pixels left out, from 0 (none) to less than 1.
+	 * @return The highest value which is not left out; 255 if the picture is empty.
+	 * @throws IllegalArgumentException if clip is negative, or not less than 1.
+	 * @throws NullArgumentException if channel is null.
+	 */
+	public int getHighest(Channel channel, double clip) {
+		long[] counts = this.getCountsOf(channel);
+		double skipped = skipped(clip);
+
+		long sum = 0;
+		for (int value = 255; value >= 0; --value) {
+			sum += counts[value];
+			if (sum > skipped)
+				return value;
+		}
+		return 255;
+	}
+
+	private long[] getCountsOf(Channel channel) {
+		if (channel == null)
+			throw new NullArgumentException("channel");
+
+		return counts[channel.ordinal()];
+	}
+
+	/**
+	 * Gets the number of pixels left out by a clip.
+	 */
+	private double skipped(double clip) {
+		if (!(clip >= 0 && clip < 1))
+			throw new IllegalArgumentException("clip should be positive and less than 1.");
+
+		return clip * total;
+	}
+}
@@ -0,0 +1,639 @@
+package graphics;
+
+/**
+ * A class which holds the operations done on whole rows of raw colors. Each row is
+ * given as an array and the offset at which the row starts in it, and holds `width`
+ * pixels of blue, green and red components. The operations which change a row in
+ * place are also given as RowKernels.
+ *
+ * When the vector API is available (the program is started with 
+ * "--add-modules jdk.incubator.vector"), invert, gray-scale, shrink and the sums and
+ * averages of blur are done by VectorKernels, which gives exactly the same colors.
+ * Setting the system property "bitmap.vector" to false always uses the plain loops.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class Kernels {
+	/**
+	 * Whether the operations are done by VectorKernels.
+	 */
+	static final boolean VECTORIZED = isVectorSupported();
+
+	/**
+	 * Gray-scale is 30% of red, 59% of green and 11% of blue. The weights are
+	 * kept in fixed point: multiplying by GRAY_SCALE then shifting right by
+	 * GRAY_SHIFT is the same as dividing by 100, for every sum of weighted components.
+	 */
+	static final int GRAY_RED = 30, GRAY_GREEN = 59, GRAY_BLUE = 11;
+	static final int GRAY_SCALE = 5243, GRAY_SHIFT = 19;
+
+	/**
+	 * The fixed point weight of each value of each component.
+	 */
+	private static final int[] GRAY_RED_TABLE = weights(GRAY_RED),
+			GRAY_GREEN_TABLE = weights(GRAY_GREEN),
+			GRAY_BLUE_TABLE = weights(GRAY_BLUE);
+
+	static final RowKernel INVERT = new PackedRowKernel() {
+		@Override
+		public void apply(byte[] row, int offset, int width) {
+			invert(row, offset, width);
+		}
+		@Override
+		public void apply(int[] pixels, int start, int width) {
+			invert(pixels, start, width);
+		}
+	};
+	static final RowKernel GRAYSCALE = new PackedRowKernel() {
+		@Override
+		public void apply(byte[] row, int offset, int width) {
+			grayscale(row, offset, width);
+		}
+		@Override
+		public void apply(int[] pixels, int start, int width) {
+			grayscale(pixels, start, width);
+		}
+	};
+	static final RowKernel HORIZONTAL_MIRROR = new PackedRowKernel() {
+		@Override
+		public void apply(byte[] row, int offset, int width) {
+			horizontalMirror(row, offset, width);
+		}
+		@Override
+		public void apply(int[] pixels, int start, int width) {
+			horizontalMirror(pixels, start, width);
+		}
+	};
+
+	private Kernels() {
+	}
+
+	private static int[] weights(int weight) {
+		int[] table = new int[256];
+		for (int value = 0; value < 256; ++value)
+			table[value] = value * weight * GRAY_SCALE;
+
+		return table;
+	}
+
+	private static boolean isVectorSupported() {
+		if (!Boolean.parseBoolean(System.getProperty("bitmap.vector", "true")))
+			return false;
+
+		try {
+			return VectorKernels.isSupported();
+		} catch (LinkageError e) {
+			// the jdk.incubator.vector module was not added.
+			return false;
+		}
+	}
+
+	/**
+	 * Runs a kernel on every row of a storage, split between threads. Rows kept in
+	 * arrays are changed in place; the others are copied to an array and back.
+	 *
+	 * @param storage - The storage to change.
+	 * @param kernel - The kernel to run on each row.
+	 * @param executor - The executor which runs the rows.
+	 * @param threads - The number of threads to split the rows for.
+	 */
+	static void forEachRow(final PixelStorage storage, final RowKernel kernel, ParallelExecutor executor,
+			int threads) {
+		if (storage instanceof PackedStorage) {
+			forEachRow((PackedStorage) storage, kernel, executor, threads);
+			return;
+		}
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				byte[] temp = null;
+
+				for (int y = start; y < end; ++y) {
+					byte[] row = storage.rowArray(y);
+
+					if (row != null) {
+						kernel.apply(row, storage.rowOffset(y), storage.getWidth());
+					} else {
+						if (temp == null)
+							temp = new byte[storage.getWidthBytes()];
+
+						storage.getRow(y, temp, 0);
+						kernel.apply(temp, 0, storage.getWidth());
+						storage.setRow(y, temp, 0);
+					}
+				}
+			}
+		}, storage.getHeight(), threads);
+	}
+
+	/**
+	 * Runs a kernel on every row of a packed storage, split between threads. The
+	 * rows are changed in place.
+	 *
+	 * @param storage - The storage to change.
+	 * @param kernel - The kernel to run on each row.
+	 * @param executor - The executor which runs the rows.
+	 * @param threads - The number of threads to split the rows for.
+	 */
+	private static void forEachRow(final PackedStorage storage, final RowKernel kernel, ParallelExecutor executor,
+			int threads) {
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				byte[] temp = kernel instanceof PackedRowKernel ? null : new byte[storage.getWidthBytes()];
+
+				for (int y = start; y < end; ++y)
+					apply(kernel, storage.getData(), storage.pixelOffset(y), storage.getWidth(), temp);
+			}
+		}, storage.getHeight(), threads);
+	}
+
+	/**
+	 * Runs a kernel on a row of packed pixels. A kernel which cannot work on them
+	 * is given the row as bytes, and the alpha of the pixels is kept.
+	 *
+	 * @param kernel - The kernel to run.
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param temp - A temporary array of `width * 3` bytes, only used if the kernel cannot
+	 *               work on packed pixels.
+	 */
+	static void apply(RowKernel kernel, int[] pixels, int start, int width, byte[] temp) {
+		if (kernel instanceof PackedRowKernel) {
+			((PackedRowKernel) kernel).apply(pixels, start, width);
+		} else {
+			PackedStorage.unpack(pixels, start, width, temp, 0);
+			kernel.apply(temp, 0, width);
+			PackedStorage.pack(temp, 0, width, pixels, start);
+		}
+	}
+
+	/**
+	 * Inverts the colors of a row.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 */
+	static void invert(byte[] row, int offset, int width) {
+		if (VECTORIZED)
+			VectorKernels.invert(row, offset, width);
+		else
+			for (int i = offset, end = offset + width * 3; i < end; ++i)
+				row[i] = (byte) (255 - (row[i] & 0xFF));
+	}
+
+	/**
+	 * Inverts the colors of a row of packed pixels.
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 */
+	static void invert(int[] pixels, int start, int width) {
+		for (int i = start, end = start + width; i < end; ++i)
+			pixels[i] ^= PackedStorage.COLORS;
+	}
+
+	/**
+	 * Changes the colors of a row to gray-scale.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 */
+	static void grayscale(byte[] row, int offset, int width) {
+		if (VECTORIZED)
+			VectorKernels.grayscale(row, offset, width);
+		else
+			grayscaleScalar(row, offset, width);
+	}
+	/**
+	 * Gets the gray level of a color, as grayscale() makes it.
+	 *
+	 * @param blue - The blue component, between 0 and 255.
+	 * @param green - The green component, between 0 and 255.
+	 * @param red - The red component, between 0 and 255.
+	 * @return The gray level, between 0 and 255.
+	 */
+	static int gray(int blue, int green, int red) {
+		return (GRAY_RED_TABLE[red] + GRAY_GREEN_TABLE[green] + GRAY_BLUE_TABLE[blue]) >>> GRAY_SHIFT;
+	}
+	static void grayscaleScalar(byte[] row, int offset, int width) {
+		int[] red = GRAY_RED_TABLE, green = GRAY_GREEN_TABLE, blue = GRAY_BLUE_TABLE;
+
+		for (int i = offset, end = offset + width * 3; i < end; i += 3) {
+			byte gray = (byte) ((red[row[i + 2] & 0xFF] + green[row[i + 1] & 0xFF] + blue[row[i] & 0xFF]) >>> GRAY_SHIFT);
+			row[i] = gray;
+			row[i + 1] = gray;
+			row[i + 2] = gray;
+		}
+	}
+
+	/**
+	 * Changes the colors of a row of packed pixels to gray-scale.
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 */
+	static void grayscale(int[] pixels, int start, int width) {
+		int[] red = GRAY_RED_TABLE, green = GRAY_GREEN_TABLE, blue = GRAY_BLUE_TABLE;
+
+		for (int i = start, end = start + width; i < end; ++i) {
+			int pixel = pixels[i];
+			int gray = (red[(pixel >>> 16) & 0xFF] + green[(pixel >>> 8) & 0xFF] + blue[pixel & 0xFF]) >>> GRAY_SHIFT;
+			pixels[i] = (pixel & PackedStorage.OPAQUE) | gray * 0x010101;
+		}
+	}
+
+	/**
+	 * Horizontally mirrors a row.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 */
+	static void horizontalMirror(byte[] row, int offset, int width) {
+		for (int left = offset, right = offset + (width - 1) * 3; left < right; left += 3, right -= 3) {
+			for (int c = 0; c < 3; ++c) {
+				byte temp = row[left + c];
+				row[left + c] = row[right + c];
+				row[right + c] = temp;
+			}
+		}
+	}
+
+	/**
+	 * Horizontally mirrors a row of packed pixels.
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 */
+	static void horizontalMirror(int[] pixels, int start, int width) {
+		for (int left = start, right = start + width - 1; left < right; ++left, --right) {
+			int temp = pixels[left];
+			pixels[left] = pixels[right];
+			pixels[right] = temp;
+		}
+	}
+
+	/**
+	 * Averages each 2x2 square of pixels of two rows into one pixel.
+	 *
+	 * @param top - The array which holds the first row.
+	 * @param topOffset - The offset at which the first row starts.
+	 * @param bottom - The array which holds the second row.
+	 * @param bottomOffset - The offset at which the second row starts.
+	 * @param newWidth - The width of the shrunk row, in pixels.
+	 * @param dest - The array to which the shrunk row is written.
+	 * @param destOffset - The offset at which the shrunk row starts.
+	 */
+	static void shrink(byte[] top, int topOffset, byte[] bottom, int bottomOffset, int newWidth,
+			byte[] dest, int destOffset) {
+		if (VECTORIZED)
+			VectorKernels.shrink(top, topOffset, bottom, bottomOffset, newWidth, dest, destOffset);
+		else
+			shrinkScalar(top, topOffset, bottom, bottomOffset, newWidth, dest, destOffset);
+	}
+	static void shrinkScalar(byte[] top, int topOffset, byte[] bottom, int bottomOffset, int newWidth,
+			byte[] dest, int destOffset) {
+		for (int x = 0; x < newWidth; ++x) {
+			int t = topOffset + x * 6, b = bottomOffset + x * 6, d = destOffset + x * 3;
+
+			for (int c = 0; c < 3; ++c) {
+				int sum = (top[t + c] & 0xFF) + (top[t + 3 + c] & 0xFF)
+						+ (bottom[b + c] & 0xFF) + (bottom[b + 3 + c] & 0xFF);
+				dest[d + c] = (byte) (sum / 4);
+			}
+		}
+	}
+
+	/**
+	 * Averages each 2x2 square of packed pixels of two rows into one pixel, alpha
+	 * included. The four components are averaged two at a time: with every other 
+	 * byte masked out, each sum of four components has 16 bits to itself.
+	 *
+	 * @param top - The array which holds the first row.
+	 * @param topStart - The index of the first pixel of the first row.
+	 * @param bottom - The array which holds the second row.
+	 * @param bottomStart - The index of the first pixel of the second row.
+	 * @param newWidth - The width of the shrunk row, in pixels.
+	 * @param dest - The array to which the shrunk row is written.
+	 * @param destStart - The index of the first pixel of the shrunk row.
+	 */
+	static void shrink(int[] top, int topStart, int[] bottom, int bottomStart, int newWidth,
+			int[] dest, int destStart) {
+		for (int x = 0; x < newWidth; ++x) {
+			int a = top[topStart + x * 2], b = top[topStart + x * 2 + 1],
+				c = bottom[bottomStart + x * 2], d = bottom[bottomStart + x * 2 + 1];
+
+			// blue and red, then green and alpha.
+			int even = (a & 0x00FF00FF) + (b & 0x00FF00FF) + (c & 0x00FF00FF) + (d & 0x00FF00FF);
+			int odd = ((a >>> 8) & 0x00FF00FF) + ((b >>> 8) & 0x00FF00FF)
+					+ ((c >>> 8) & 0x00FF00FF) + ((d >>> 8) & 0x00FF00FF);
+			dest[destStart + x] = ((even >>> 2) & 0x00FF00FF) | ((odd >>> 2) & 0x00FF00FF) << 8;
+		}
+	}
+
+	/**
+	 * Doubles the width of a row, by repeating each pixel twice.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 * @param dest - The array to which the doubled row is written.
+	 * @param destOffset - The offset at which the doubled row starts.
+	 */
+	static void doubleWidth(byte[] row, int offset, int width, byte[] dest, int destOffset) {
+		for (int x = 0; x < width; ++x) {
+			int s = offset + x * 3, d = destOffset + x * 6;
+
+			dest[d] = dest[d + 3] = row[s];
+			dest[d + 1] = dest[d + 4] = row[s + 1];
+			dest[d + 2] = dest[d + 5] = row[s + 2];
+		}
+	}
+
+	/**
+	 * Doubles the width of a row of packed pixels, by repeating each pixel twice.
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param dest - The array to which the doubled row is written.
+	 * @param destStart - The index of the first pixel of the doubled row.
+	 */
+	static void doubleWidth(int[] pixels, int start, int width, int[] dest, int destStart) {
+		for (int x = 0; x < width; ++x)
+			dest[destStart + x * 2] = dest[destStart + x * 2 + 1] = pixels[start + x];
+	}
+
+	/**
+	 * Calculates the horizontal running sums of a row, and adds them
+	 * (multiplied by `sign`) to `sums`. Each sum covers the pixels within
+	 * `radius` of the pixel, which are inside the row.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param rowSums - A temporary array to hold the row's sums.
+	 * @param sums - The sums to add the row's sums to.
+	 * @param sign - 1 to add the row, -1 to remove it.
+	 */
+	static void addRowSums(byte[] row, int offset, int width, int radius, int[] rowSums, int[] sums, int sign) {
+		rowSums(row, offset, width, radius, rowSums);
+
+		if (VECTORIZED) {
+			VectorKernels.addSums(rowSums, sums, width * 3, sign);
+		} else {
+			for (int i = 0, end = width * 3; i < end; ++i)
+				sums[i] += sign * rowSums[i];
+		}
+	}
+	/**
+	 * Calculates the horizontal running sums of a row, and adds them to sums
+	 * which are too big for ints (see isWideWindow()).
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param rowSums - A temporary array to hold the row's sums.
+	 * @param sums - The sums to add the row's sums to.
+	 * @param sign - 1 to add the row, -1 to remove it.
+	 */
+	static void addRowSums(byte[] row, int offset, int width, int radius, int[] rowSums, long[] sums, int sign) {
+		rowSums(row, offset, width, radius, rowSums);
+		for (int i = 0, end = width * 3; i < end; ++i)
+			sums[i] += sign * rowSums[i];
+	}
+	/**
+	 * Calculates the horizontal running sums of a row. A row is at most
+	 * 2^31 / 255 pixels wide, so they always fit in ints.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param rowSums - The array to which the sums are written.
+	 */
+	private static void rowSums(byte[] row, int offset, int width, int radius, int[] rowSums) {
+		int blue = 0, green = 0, red = 0;
+
+		// the window of the first pixel
+		for (int x = 0, i = offset; x <= Math.min(radius, width - 1); ++x, i += 3) {
+			blue += row[i] & 0xFF;
+			green += row[i + 1] & 0xFF;
+			red += row[i + 2] & 0xFF;
+		}
+
+		for (int x = 0, i = 0; x < width; ++x, i += 3) {
+			rowSums[i] = blue;
+			rowSums[i + 1] = green;
+			rowSums[i + 2] = red;
+
+			// slide the window to the right
+			int out = offset + (x - radius) * 3, in = offset + (x + radius + 1) * 3;
+			if (x - radius >= 0) {
+				blue -= row[out] & 0xFF;
+				green -= row[out + 1] & 0xFF;
+				red -= row[out + 2] & 0xFF;
+			}
+			if (x + radius + 1 < width) {
+				blue += row[in] & 0xFF;
+				green += row[in + 1] & 0xFF;
+				red += row[in + 2] & 0xFF;
+			}
+		}
+	}
+
+	/**
+	 * Writes the averages of the window sums of a row, built by addRowSums().
+	 *
+	 * @param sums - The sums of the windows of each pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param countY - The number of rows added to the sums.
+	 * @param dest - The array to which the averages are written.
+	 * @param offset - The offset at which the row starts.
+	 */
+	static void average(int[] sums, int width, int radius, int countY, byte[] dest, int offset) {
+		// the pixels whose window is inside the row all have the same count.
+		int middleStart = Math.min(radius, width), middleEnd = Math.max(width - radius, middleStart);
+		if (VECTORIZED && middleEnd > middleStart) {
+			averageScalar(sums, 0, middleStart, width, radius, countY, dest, offset);
+			VectorKernels.divide(sums, middleStart * 3, middleEnd * 3, countY * (radius * 2 + 1), dest, offset);
+			averageScalar(sums, middleEnd, width, width, radius, countY, dest, offset);
+		} else {
+			averageScalar(sums, 0, width, width, radius, countY, dest, offset);
+		}
+	}
+	private static void averageScalar(int[] sums, int start, int end, int width, int radius, int countY,
+			byte[] dest, int offset) {
+		for (int x = start, i = start * 3; x < end; ++x, i += 3) {
+			int count = countY * (Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1);
+
+			dest[offset + i] = (byte) (sums[i] / count);
+			dest[offset + i + 1] = (byte) (sums[i + 1] / count);
+			dest[offset + i + 2] = (byte) (sums[i + 2] / count);
+		}
+	}
+	/**
+	 * Writes the averages of the window sums of a row, when they are too big for ints.
+	 *
+	 * @param sums - The sums of the windows of each pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param countY - The number of rows added to the sums.
+	 * @param dest - The array to which the averages are written.
+	 * @param offset - The offset at which the row starts.
+	 */
+	static void average(long[] sums, int width, int radius, int countY, byte[] dest, int offset) {
+		for (int x = 0, i = 0; x < width; ++x, i += 3) {
+			long count = (long) countY * (Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1);
+
+			dest[offset + i] = (byte) (sums[i] / count);
+			dest[offset + i + 1] = (byte) (sums[i + 1] / count);
+			dest[offset + i + 2] = (byte) (sums[i + 2] / count);
+		}
+	}
+
+	/**
+	 * Tells whether the sums of the windows of a blur can be too big for ints: each
+	 * window holds at most (2 * radius + 1)^2 pixels of the picture, of up to 255 each.
+	 *
+	 * @param width - The width of the picture, in pixels.
+	 * @param height - The height of the picture, in pixels.
+	 * @param radius - The radius of the window.
+	 * @return true if the sums should be longs; otherwise, false.
+	 */
+	static boolean isWideWindow(int width, int height, int radius) {
+		long side = radius * 2L + 1;
+		return Math.min(side, width) * Math.min(side, height) > Integer.MAX_VALUE / 255;
+	}
+
+	/**
+	 * Calculates the horizontal running sums of a row of packed pixels, and adds
+	 * them (multiplied by `sign`) to `sums`, as addRowSums() does for a row of bytes.
+	 * There are four sums for each pixel: blue, green, red and alpha.
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param rowSums - A temporary array of `width * 4` sums, to hold the row's sums.
+	 * @param sums - The `width * 4` sums to add the row's sums to.
+	 * @param sign - 1 to add the row, -1 to remove it.
+	 */
+	static void addRowSums(int[] pixels, int start, int width, int radius, int[] rowSums, int[] sums, int sign) {
+		rowSums(pixels, start, width, radius, rowSums);
+		for (int i = 0, end = width * 4; i < end; ++i)
+			sums[i] += sign * rowSums[i];
+	}
+	/**
+	 * Calculates the horizontal running sums of a row of packed pixels, and adds
+	 * them to sums which are too big for ints (see isWideWindow()).
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param rowSums - A temporary array of `width * 4` sums, to hold the row's sums.
+	 * @param sums - The `width * 4` sums to add the row's sums to.
+	 * @param sign - 1 to add the row, -1 to remove it.
+	 */
+	static void addRowSums(int[] pixels, int start, int width, int radius, int[] rowSums, long[] sums, int sign) {
+		rowSums(pixels, start, width, radius, rowSums);
+		for (int i = 0, end = width * 4; i < end; ++i)
+			sums[i] += sign * rowSums[i];
+	}
+	/**
+	 * Calculates the four horizontal running sums of each pixel of a row of packed pixels.
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param rowSums - The `width * 4` sums to write.
+	 */
+	private static void rowSums(int[] pixels, int start, int width, int radius, int[] rowSums) {
+		int blue = 0, green = 0, red = 0, alpha = 0;
+
+		// the window of the first pixel
+		for (int x = 0; x <= Math.min(radius, width - 1); ++x) {
+			int pixel = pixels[start + x];
+			blue += pixel & 0xFF;
+			green += (pixel >>> 8) & 0xFF;
+			red += (pixel >>> 16) & 0xFF;
+			alpha += pixel >>> 24;
+		}
+
+		for (int x = 0, i = 0; x < width; ++x, i += 4) {
+			rowSums[i] = blue;
+			rowSums[i + 1] = green;
+			rowSums[i + 2] = red;
+			rowSums[i + 3] = alpha;
+
+			// slide the window to the right
+			if (x - radius >= 0) {
+				int pixel = pixels[start + x - radius];
+				blue -= pixel & 0xFF;
+				green -= (pixel >>> 8) & 0xFF;
+				red -= (pixel >>> 16) & 0xFF;
+				alpha -= pixel >>> 24;
+			}
+			if (x + radius + 1 < width) {
+				int pixel = pixels[start + x + radius + 1];
+				blue += pixel & 0xFF;
+				green += (pixel >>> 8) & 0xFF;
+				red += (pixel >>> 16) & 0xFF;
+				alpha += pixel >>> 24;
+			}
+		}
+	}
+
+	/**
+	 * Writes the averages of the window sums of a row of packed pixels, built by
+	 * addRowSums().
+	 *
+	 * @param sums - The four sums of the windows of each pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param countY - The number of rows added to the sums.
+	 * @param dest - The array to which the averages are written.
+	 * @param destStart - The index of the first pixel of the row.
+	 */
+	static void average(int[] sums, int width, int radius, int countY, int[] dest, int destStart) {
+		for (int x = 0, i = 0; x < width; ++x, i += 4) {
+			int count = countY * (Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1);
+
+			dest[destStart + x] = (sums[i + 3] / count) << 24 | (sums[i + 2] / count) << 16
+					| (sums[i + 1] / count) << 8 | (sums[i] / count);
+		}
+	}
+	/**
+	 * Writes the averages of the window sums of a row of packed pixels, when they
+	 * are too big for ints.
+	 *
+	 * @param sums - The four sums of the windows of each pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 * @param radius - The radius of the window.
+	 * @param countY - The number of rows added to the sums.
+	 * @param dest - The array to which the averages are written.
+	 * @param destStart - The index of the first pixel of the row.
+	 */
+	static void average(long[] sums, int width, int radius, int countY, int[] dest, int destStart) {
+		for (int x = 0, i = 0; x < width; ++x, i += 4) {
+			long count = (long) countY * (Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1);
+
+			dest[destStart + x] = (int) (sums[i + 3] / count) << 24 | (int) (sums[i + 2] / count) << 16
+					| (int) (sums[i + 1] / count) << 8 | (int) (sums[i] / count);
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package graphics;
+
+import exceptions.*;
+
+/**
+ * A point operation: a change of colors where the new value of each component
+ * only depends on its old value. It is kept as three tables of 256 entries (one
+ * for each of blue, green and red), so applying it to a picture costs a table
+ * lookup per component, whatever the operation was.
+ *
+ * Tables can be chained with then(), which builds a single table doing both:
+ * a chain of any length is still applied in one pass over the picture.
+ *
+ * Usage:
+ *
+ *     bitmap.lookup(LookupTable.levels(16, 235, 1.0, 0, 255).then(LookupTable.gamma(2.2)));
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class LookupTable implements PackedRowKernel {
+	/**
+	 * A change of one component, used to build a table.
+	 */
+	public interface Transform {
+		/**
+		 * Changes the value of a component.
+		 * @param value - The old value, between 0 and 255.
+		 * @return The new value; it is clamped between 0 and 255.
+		 */
+		int apply(int value);
+	}
+
+	private static final LookupTable IDENTITY = of(new Transform() {
+		@Override
+		public int apply(int value) {
+			return value;
+		}
+	});
+
+	private final byte[] blue, green, red;
+
+	private LookupTable(byte[] blue, byte[] green, byte[] red) {
+		this.blue = blue;
+		this.green = green;
+		this.red = red;
+	}
+
+	/**
+	 * Builds a table which changes the three components the same way.
+	 *
+	 * @param transform - The change of each component.
+	 * @return A new table.
+	 * @throws NullArgumentException if transform is null.
+	 */
+	public static LookupTable of(Transform transform) {
+		if (transform == null)
+			throw new NullArgumentException("transform");
+
+		byte[] table = build(transform);
+		return new LookupTable(table, table, table);
+	}
+	/**
+	 * Builds a table which changes each component its own way.
+	 *
+	 * @param blue - The change of the blue component.
+	 * @param green - The change of the green component.
+	 * @param red - The change of the red component.
+	 * @return A new table.
+	 * @throws NullArgumentException if any transform is null.
+	 */
+	public static LookupTable of(Transform blue, Transform green, Transform red) {
+		if (blue == null)
+			throw new NullArgumentException("blue");
+		if (green == null)
+			throw new NullArgumentException("green");
+		if (red == null)
+			throw new NullArgumentException("red");
+
+		return new LookupTable(build(blue), build(green), build(red));
+	}
+	/**
+	 * Builds a table which uses the blue table of `blue`, the green table of
+	 * `green` and the red table of `red`. This is used to give each component
+	 * its own curve or levels.
+	 *
+	 * @param blue - The table of the blue component.
+	 * @param green - The table of the green component.
+	 * @param red - The table of the red component.
+	 * @return A new table.
+	 * @throws NullArgumentException if any table is null.
+	 */
+	public static LookupTable channels(LookupTable blue, LookupTable green, LookupTable red) {
+		if (blue == null)
+			throw new NullArgumentException("blue");
+		if (green == null)
+			throw new NullArgumentException("green");
+		if (red == null)
+			throw new NullArgumentException("red");
+
+		return new LookupTable(blue.blue, green.green, red.red);
+	}
+
+	/**
+	 * Gets the table which leaves the colors unchanged.
+	 * @return The identity table.
+	 */
+	public static LookupTable identity() {
+		return IDENTITY;
+	}
+	/**
+	 * Builds a table which inverts the colors, as Bitmap.invert() does.
+	 * @return A new table.
+	 */
+	public static LookupTable invert() {
+		return of(new Transform() {
+			@Override
+			public int apply(int value) {
+				return 255 - value;
+			}
+		});
+	}
+	/**
+	 * Builds a gamma correction table: each component is set to
+	 * 255 * (value / 255) ^ (1 / gamma). A gamma bigger than one brightens
+	 * the dark colors, and a gamma smaller than one darkens them.
+	 *
+	 * @param gamma - The gamma, bigger than zero.
+	 * @return A new table.
+	 * @throws IllegalArgumentException if gamma is not bigger than zero.
+	 */
+	public static LookupTable gamma(double gamma) {
+		if (!(gamma > 0))
+			throw new IllegalArgumentException("gamma should be positive.");
+
+		final double exponent = 1 / gamma;
+		return of(new Transform() {
+			@Override
+			public int apply(int value) {
+				return (int) Math.round(255 * Math.pow(value / 255.0, exponent));
+			}
+		});
+	}
+	/**
+	 * Builds a table which changes the brightness and the contrast: each component
+	 * is moved away from (or towards) the middle gray by `contrast`, then
+	 * `brightness` is added to it.
+	 *
+	 * @param brightness - The value added to each component, between -255 and 255.
+	 * @param contrast - The factor of the contrast: 1 leaves it unchanged, 0 makes
+	 *                   the picture gray.
+	 * @return A new table.
+	 * @throws IllegalArgumentException if brightness is not between -255 and 255, or contrast is negative.
+	 */
+	public static LookupTable brightnessContrast(final int brightness, final double contrast) {
+		if (brightness < -255 || brightness > 255)
+			throw new IllegalArgumentException("brightness should be between -255 and 255.");
+		if (!(contrast >= 0))
+			throw new IllegalArgumentException("contrast should be positive.");
+
+		return of(new Transform() {
+			@Override
+			public int apply(int value) {
+				return (int) Math.round((value - 128) * contrast + 128 + brightness);
+			}
+		});
+	}
+	/**
+	 * Builds a levels table: components between `inBlack` and `inWhite` are
+	 * stretched between `outBlack` and `outWhite`, with a gamma correction in between.
+	 * Components below inBlack become outBlack, and those above inWhite become outWhite.
+	 *
+	 * @param inBlack - The component which becomes black, between 0 and 254.
+	 * @param inWhite - The component which becomes white, bigger than inBlack.
+	 * @param gamma - The gamma of the middle tones, bigger than zero; 1 keeps them linear.
+	 * @param outBlack - The value of black, between 0 and 255.
+	 * @param outWhite - The value of white, between 0 and 255.
+	 * @return A new table.
+	 * @throws IllegalArgumentException if a value is out of its range.
+	 */
+	public static LookupTable levels(final int inBlack, final int inWhite, double gamma,
+			final int outBlack, final int outWhite) {
+		if (inBlack < 0 || inWhite > 255 || inBlack >= inWhite)
+			throw new IllegalArgumentException("inBlack and inWhite should be between 0 and 255, inBlack below inWhite.");
+		if (outBlack < 0 || outBlack > 255 || outWhite < 0 || outWhite > 255)
+			throw new IllegalArgumentException("outBlack and outWhite should be between 0 and 255.");
+		if (!(gamma > 0))
+			throw new IllegalArgumentException("gamma should be positive.");
+
+		final double exponent = 1 / gamma;
+		return of(new Transform() {
+			@Override
+			public int apply(int value) {
+				double t = Math.min(Math.max((value - inBlack) / (double) (inWhite - inBlack), 0), 1);
+				return (int) Math.round(outBlack + Math.pow(t, exponent) * (outWhite - outBlack));
+			}
+		});
+	}
+	/**
+	 * Builds a curve table, going through control points given as (input, output)
+	 * pairs, such as curve(0, 0, 64, 40, 192, 215, 255, 255). The components between
+	 * two points are on the straight line between them; those before the first point
+	 * or after the last one take its output.
+	 *
+	 * @param points - The input and output of each point, with increasing inputs.
+	 * @return A new table.
+	 * @throws IllegalArgumentException if there are no points, the inputs are not
+	 *                                  increasing, or a value is not between 0 and 255.
+	 */
+	public static LookupTable curve(final int... points) {
+		if (points == null)
+			throw new NullArgumentException("points");
+		if (points.length < 2 || points.length % 2 != 0)
+			throw new IllegalArgumentException("points should hold pairs of input and output.");
+
+		for (int i = 0; i < points.length; ++i) {
+			if (points[i] < 0 || points[i] > 255)
+				throw new IllegalArgumentException("points should be between 0 and 255.");
+			if (i % 2 == 0 && i >= 2 && points[i] <= points[i - 2])
+				throw new IllegalArgumentException("the inputs of points should be increasing.");
+		}
+
+		return of(new Transform() {
+			@Override
+			public int apply(int value) {
+				if (value <= points[0])
+					return points[1];
+
+				for (int i = 2; i < points.length; i += 2) {
+					if (value <= points[i]) {
+						int x0 = points[i - 2], y0 = points[i - 1], x1 = points[i], y1 = points[i + 1];
+						return (int) Math.round(y0 + (y1 - y0) * (value - x0) / (double) (x1 - x0));
+					}
+				}
+
+				return points[points.length - 1];
+			}
+		});
+	}
+
+	/**
+	 * Builds a table which equalizes a picture: the gray levels are spread so that
+	 * each range of levels holds about as many pixels, which brings out the details
+	 * of a picture with little contrast. The table is made from the luminance of the
+	 * histogram, and changes the three components the same way, so the colors keep
+	 * their hue.
+	 *
+	 * @param histogram - The histogram of the picture, from Bitmap.histogram().
+	 * @return A new table.
+	 * @throws NullArgumentException if histogram is null.
+	 */
+	public static LookupTable equalize(Histogram histogram) {
+		if (histogram == null)
+			throw new NullArgumentException("histogram");
+
+		// the number of pixels at or below each level.
+		final long[] cumulative = histogram.getCounts(Histogram.Channel.LUMINANCE);
+		for (int value = 1; value < 256; ++value)
+			cumulative[value] += cumulative[value - 1];
+
+		// the pixels of the darkest level stay black.
+		long darkest = 0;
+		for (int value = 0; value < 256 && darkest == 0; ++value)
+			darkest = cumulative[value];
+		if (darkest == histogram.getTotal())
+			return IDENTITY;
+
+		final long first = darkest, range = histogram.getTotal() - darkest;
+		return of(new Transform() {
+			@Override
+			public int apply(int value) {
+				return (int) Math.round(Math.max(cumulative[value] - first, 0) * 255.0 / range);
+			}
+		});
+	}
+	/**
+	 * Builds a table which stretches each component over the whole range: its
+	 * lowest value becomes 0 and its highest becomes 255, as levels() would make
+	 * them. Each component is stretched on its own, so a color cast is removed too.
+	 *
+	 * @param histogram - The histogram of the picture, from Bitmap.histogram().
+	 * @param clip - The part of the darkest and of the brightest pixels of each
+	 * 				 component which is left out when looking for its lowest and
+	 * 				 highest values, such as 0.001, so a few extreme pixels do not
+	 * 				 keep the others from being stretched.
+	 * @return A new table.
+	 * @throws IllegalArgumentException if clip is negative, or not less than 1.
+	 * @throws NullArgumentException if histogram is null.
+	 */
+	public static LookupTable autoLevels(Histogram histogram, double clip) {
+		if (histogram == null)
+			throw new NullArgumentException("histogram");
+
+		return channels(stretch(histogram, Histogram.Channel.BLUE, clip),
+				stretch(histogram, Histogram.Channel.GREEN, clip), stretch(histogram, Histogram.Channel.RED, clip));
+	}
+
+	private static LookupTable stretch(Histogram histogram, Histogram.Channel channel, double clip) {
+		int low = histogram.getLowest(channel, clip), high = histogram.getHighest(channel, clip);
+		return low < high ? levels(low, high, 1, 0, 255) : IDENTITY;
+	}
+
+	/**
+	 * Builds a table which does this table, then `next`.
+	 *
+	 * @param next - The table to apply after this one.
+	 * @return A new table.
+	 * @throws NullArgumentException if next is null.
+	 */
+	public LookupTable then(LookupTable next) {
+		if (next == null)
+			throw new NullArgumentException("next");
+		if (this == IDENTITY)
+			return next;
+		if (next == IDENTITY)
+			return this;
+
+		return new LookupTable(compose(blue, next.blue), compose(green, next.green), compose(red, next.red));
+	}
+
+	/**
+	 * Gets the new value of a blue component.
+	 * @param value - The old value, between 0 and 255.
+	 * @return The new value.
+	 */
+	public int getBlue(int value) {
+		return blue[value] & 0xFF;
+	}
+	/**
+	 * Gets the new value of a green component.
+	 * @param value - The old value, between 0 and 255.
+	 * @return The new value.
+	 */
+	public int getGreen(int value) {
+		return green[value] & 0xFF;
+	}
+	/**
+	 * Gets the new value of a red component.
+	 * @param value - The old value, between 0 and 255.
+	 * @return The new value.
+	 */
+	public int getRed(int value) {
+		return red[value] & 0xFF;
+	}
+
+	/**
+	 * Changes the colors of a row with this table.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 */
+	@Override
+	public void apply(byte[] row, int offset, int width) {
+		if (this == IDENTITY)
+			return;
+
+		byte[] blue = this.blue, green = this.green, red = this.red;
+		for (int i = offset, end = offset + width * 3; i < end; i += 3) {
+			row[i] = blue[row[i] & 0xFF];
+			row[i + 1] = green[row[i + 1] & 0xFF];
+			row[i + 2] = red[row[i + 2] & 0xFF];
+		}
+	}
+
+	/**
+	 * Changes the colors of a row of packed pixels (0xAARRGGBB) with this table,
+	 * keeping their alpha.
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 */
+	@Override
+	public void apply(int[] pixels, int start, int width) {
+		if (this == IDENTITY)
+			return;
+
+		byte[] blue = this.blue, green = this.green, red = this.red;
+		for (int i = start, end = start + width; i < end; ++i) {
+			int pixel = pixels[i];
+			pixels[i] = (pixel & 0xFF000000) | (red[(pixel >>> 16) & 0xFF] & 0xFF) << 16
+					| (green[(pixel >>> 8) & 0xFF] & 0xFF) << 8 | (blue[pixel & 0xFF] & 0xFF);
+		}
+	}
+
+	private static byte[] build(Transform transform) {
+		byte[] table = new byte[256];
+		for (int value = 0; value < 256; ++value)
+			table[value] = (byte) Math.min(Math.max(transform.apply(value), 0), 255);
+
+		return table;
+	}
+
+	private static byte[] compose(byte[] first, byte[] second) {
+		byte[] table = new byte[256];
+		for (int value = 0; value < 256; ++value)
+			table[value] = second[first[value] & 0xFF];
+
+		return table;
+	}
+}
@@ -0,0 +1,21 @@
+package graphics;
+
+/**
+ * A row operation which can also be done on a row of a PackedStorage, one
+ * whole pixel (0xAARRGGBB) at a time. The operations of a Bitmap kept in a 
+ * PackedStorage use it when their kernel has it; the other kernels are given 
+ * the row as bytes, and the alpha of the pixels is kept.
+ *
+ * @author Claude Abounegm
+ *
+ */
+interface PackedRowKernel extends RowKernel {
+	/**
+	 * Changes the pixels of a row, in place. The alpha of each pixel should be kept.
+	 *
+	 * @param pixels - The array which holds the row.
+	 * @param start - The index of the first pixel of the row.
+	 * @param width - The width of the row, in pixels.
+	 */
+	void apply(int[] pixels, int start, int width);
+}
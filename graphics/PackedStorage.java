@@ -0,0 +1,218 @@
+package graphics;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * A PixelStorage which keeps each pixel in one int, as 0xAARRGGBB: the blue, green,
+ * red and alpha components of a 32-bit bitmap, in the order they are in the file.
+ * All the rows are in one array, row `y` starting at `offset + y * stride`; a new
+ * storage has no offset and a stride of `width`, and a region of another storage
+ * (see region()) uses its array in place. The operations which know about it work
+ * on whole pixels at a time, instead of one component.
+ *
+ * To the code which only knows about rows of bytes, each row is still `width * 3`
+ * bytes of blue, green and red: getRow() leaves out the alpha, and setRow() keeps
+ * the alpha the pixels already had. The alpha of a new storage is 255 (opaque).
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class PackedStorage extends PixelStorage {
+	/**
+	 * The alpha of an opaque pixel, in place.
+	 */
+	static final int OPAQUE = 0xFF000000;
+	/**
+	 * The blue, green and red components of a pixel, in place.
+	 */
+	static final int COLORS = 0x00FFFFFF;
+
+	private final int[] data;
+	private final int offset, stride;
+	// true if the array is the one of another storage, which this one is a rectangle of.
+	private final boolean region;
+
+	/**
+	 * Initializes a storage of a specific size, where all the pixels are opaque black.
+	 *
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 */
+	PackedStorage(int width, int height) {
+		super(width, height);
+
+		if ((long) width * height > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("the image is too big to be kept in one array.");
+
+		this.data = new int[width * height];
+		this.offset = 0;
+		this.stride = width;
+		this.region = false;
+		Arrays.fill(data, OPAQUE);
+	}
+	/**
+	 * Initializes a storage over a rectangle of another one, which uses its pixels in place.
+	 *
+	 * @param parent - The storage which holds the pixels.
+	 * @param x - The first column of the rectangle.
+	 * @param y - The first row of the rectangle.
+	 * @param width - The width of the rectangle, in pixels.
+	 * @param height - The height of the rectangle, in pixels.
+	 */
+	private PackedStorage(PackedStorage parent, int x, int y, int width, int height) {
+		super(width, height);
+
+		this.data = parent.data;
+		this.offset = parent.pixelOffset(y) + x;
+		this.stride = parent.stride;
+		this.region = true;
+	}
+
+	/**
+	 * Gets the array which holds all the pixels.
+	 * @return The pixels, row by row.
+	 */
+	int[] getData() {
+		return data;
+	}
+	/**
+	 * Gets the index at which row `y` starts in getData().
+	 *
+	 * @param y - The row.
+	 * @return The index of the first pixel of the row.
+	 */
+	int pixelOffset(int y) {
+		return offset + y * stride;
+	}
+
+	// four bytes for each pixel, instead of the three of getWidthBytes().
+	@Override
+	long byteSize() {
+		return (long) getWidth() * 4 * getHeight();
+	}
+
+	@Override
+	public int get(int y, int index) {
+		return (data[this.pixelOffset(y) + index / 3] >>> ((index % 3) * 8)) & 0xFF;
+	}
+
+	@Override
+	public void set(int y, int index, int value) {
+		int i = this.pixelOffset(y) + index / 3, shift = (index % 3) * 8;
+		data[i] = (data[i] & ~(0xFF << shift)) | ((value & 0xFF) << shift);
+	}
+
+	@Override
+	public void getRow(int y, byte[] dest, int offset) {
+		unpack(data, this.pixelOffset(y), getWidth(), dest, offset);
+	}
+
+	@Override
+	public void setRow(int y, byte[] src, int offset) {
+		pack(src, offset, getWidth(), data, this.pixelOffset(y));
+	}
+
+	/**
+	 * Makes all the pixels opaque if they are all fully transparent, which is what
+	 * a 32-bit bitmap holds when it left the fourth byte of each pixel unused.
+	 */
+	void fillUnusedAlpha() {
+		for (int pixel : data)
+			if ((pixel & OPAQUE) != 0)
+				return;
+
+		for (int i = 0; i < data.length; ++i)
+			data[i] |= OPAQUE;
+	}
+
+	/**
+	 * Copies the pixels of a row of a 32-bit file, four bytes each, to row `y`.
+	 *
+	 * @param y - The row.
+	 * @param src - The buffer to read the pixels from, at its position. The position
+	 *              is advanced past them.
+	 */
+	void setPackedRow(int y, ByteBuffer src) {
+		ByteOrder order = src.order();
+		src.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(data, this.pixelOffset(y), getWidth());
+		src.position(src.position() + getWidth() * 4).order(order);
+	}
+	/**
+	 * Copies the pixels of row `y` to a buffer, as four bytes each like the rows
+	 * of a 32-bit file, and advances the buffer's position past them.
+	 *
+	 * @param y - The row.
+	 * @param dest - The buffer to write the pixels to.
+	 */
+	void getPackedRow(int y, ByteBuffer dest) {
+		ByteOrder order = dest.order();
+		dest.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(data, this.pixelOffset(y), getWidth());
+		dest.position(dest.position() + getWidth() * 4).order(order);
+	}
+
+	@Override
+	public ByteBuffer rowBuffer(int y) {
+		byte[] row = new byte[getWidthBytes()];
+		this.getRow(y, row, 0);
+		return ByteBuffer.wrap(row);
+	}
+
+	@Override
+	public void copyTo(PixelStorage dest) {
+		if (dest instanceof PackedStorage && dest.getWidth() == getWidth() && dest.getHeight() == getHeight()) {
+			PackedStorage to = (PackedStorage) dest;
+			for (int y = 0; y < getHeight(); ++y)
+				System.arraycopy(data, this.pixelOffset(y), to.data, to.pixelOffset(y), getWidth());
+		} else {
+			super.copyTo(dest);
+		}
+	}
+
+	@Override
+	PixelStorage region(int x, int y, int width, int height) {
+		return new PackedStorage(this, x, y, width, height);
+	}
+
+	@Override
+	boolean isRegion() {
+		return region;
+	}
+
+	@Override
+	public PixelStorage allocate(int width, int height) {
+		return new PackedStorage(width, height);
+	}
+
+	/**
+	 * Copies the blue, green and red components of packed pixels to a row of bytes.
+	 *
+	 * @param pixels - The array which holds the pixels.
+	 * @param start - The index of the first pixel.
+	 * @param width - The number of pixels.
+	 * @param dest - The array to copy the components to.
+	 * @param offset - The offset in `dest` at which the row starts.
+	 */
+	static void unpack(int[] pixels, int start, int width, byte[] dest, int offset) {
+		for (int i = start, end = start + width, d = offset; i < end; ++i, d += 3) {
+			int pixel = pixels[i];
+			dest[d] = (byte) pixel;
+			dest[d + 1] = (byte) (pixel >>> 8);
+			dest[d + 2] = (byte) (pixel >>> 16);
+		}
+	}
+	/**
+	 * Copies a row of blue, green and red components to packed pixels, keeping
+	 * the alpha of each pixel.
+	 *
+	 * @param src - The array to copy the components from.
+	 * @param offset - The offset in `src` at which the row starts.
+	 * @param width - The number of pixels.
+	 * @param pixels - The array which holds the pixels.
+	 * @param start - The index of the first pixel.
+	 */
+	static void pack(byte[] src, int offset, int width, int[] pixels, int start) {
+		for (int i = start, end = start + width, s = offset; i < end; ++i, s += 3)
+			pixels[i] = (pixels[i] & OPAQUE) | (src[s + 2] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s] & 0xFF);
+	}
+}
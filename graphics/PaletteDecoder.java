@@ -0,0 +1,189 @@
+package graphics;
+
+import java.io.*;
+
+/**
+ * Reads the rows of a bitmap whose pixels are indices into a palette, one row at
+ * a time, and gives them as blue, green and red components. The rows may be
+ * uncompressed (8 or 4 bits per pixel, padded to a multiple of four bytes) or
+ * compressed with RLE8 or RLE4.
+ *
+ * The file is read through a small buffer, and each row is decoded straight into
+ * the array it is given, so nothing as big as the picture is ever held besides it.
+ * Pixels which the compressed colors skip (with an end of line, a delta or the end
+ * of the bitmap) take the first color of the palette.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class PaletteDecoder {
+	// the size of the buffer the file is read through.
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final InputStream in;
+	private final int width, bits;
+	private final boolean compressed;
+	// the blue, green and red components of each index; the indices outside
+	// the palette are black.
+	private final byte[] colors = new byte[256 * 3];
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position, limit;
+
+	// the rows a delta skipped, the column the next row starts at, and
+	// whether the end of the bitmap was reached.
+	private int skippedRows, startX;
+	private boolean ended;
+
+	/**
+	 * Initializes a decoder which reads the rows of a bitmap.
+	 *
+	 * @param in - The stream to read from, at the first color offset.
+	 * @param header - The header of the bitmap, with its palette.
+	 */
+	PaletteDecoder(InputStream in, BitmapHeader header) {
+		this.in = in;
+		this.width = header.getWidth();
+		this.bits = header.getBitsPerPixel();
+		this.compressed = header.isCompressed();
+
+		int[] palette = header.getPalette();
+		for (int i = 0; i < palette.length; ++i) {
+			colors[i * 3] = (byte) palette[i];
+			colors[i * 3 + 1] = (byte) (palette[i] >>> 8);
+			colors[i * 3 + 2] = (byte) (palette[i] >>> 16);
+		}
+	}
+
+	/**
+	 * Decodes the next row, starting from the first row of the file.
+	 *
+	 * @param dest - The array to write the blue, green and red components of the row to.
+	 * @param offset - The offset in `dest` at which the row starts.
+	 * @throws EOFException if the file ends before the row.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void readRow(byte[] dest, int offset) throws IOException {
+		if (!compressed) {
+			this.readUncompressed(dest, offset);
+			return;
+		}
+
+		// the skipped pixels take the first color.
+		for (int i = offset, end = offset + width * 3; i < end; i += 3) {
+			dest[i] = colors[0];
+			dest[i + 1] = colors[1];
+			dest[i + 2] = colors[2];
+		}
+
+		if (skippedRows > 0) {
+			--skippedRows;
+			return;
+		}
+		if (ended)
+			return;
+
+		int x = startX;
+		startX = 0;
+		while (true) {
+			int count = this.next(), value = this.next();
+
+			if (count > 0) {
+				// encoded mode: `count` pixels of one index, or of two alternating indices with RLE4.
+				if (bits == 8) {
+					for (int i = 0; i < count; ++i)
+						this.set(dest, offset, x++, value);
+				} else {
+					for (int i = 0; i < count; ++i)
+						this.set(dest, offset, x++, (i & 1) == 0 ? value >>> 4 : value & 0x0F);
+				}
+				continue;
+			}
+
+			switch (value) {
+				case 0:
+					// end of the line.
+					return;
+				case 1:
+					// end of the bitmap.
+					ended = true;
+					return;
+				case 2: {
+					// delta: move right and up; moving up ends this row.
+					int dx = this.next(), dy = this.next();
+					x += dx;
+					if (dy > 0) {
+						skippedRows = dy - 1;
+						startX = x;
+						return;
+					}
+					break;
+				}
+				default: {
+					// absolute mode: `value` indices, padded to a multiple of two bytes.
+					int bytes = bits == 8 ? value : (value + 1) / 2, data = 0;
+					for (int i = 0; i < value; ++i) {
+						if (bits == 8) {
+							this.set(dest, offset, x++, this.next());
+						} else {
+							if ((i & 1) == 0)
+								data = this.next();
+							this.set(dest, offset, x++, (i & 1) == 0 ? data >>> 4 : data & 0x0F);
+						}
+					}
+					if ((bytes & 1) != 0)
+						this.next();
+					break;
+				}
+			}
+		}
+	}
+
+	private void readUncompressed(byte[] dest, int offset) throws IOException {
+		int rowBytes = ((width * bits + 31) / 32) * 4;
+
+		for (int x = 0, read = 0; read < rowBytes; ++read) {
+			int value = this.next();
+
+			if (bits == 8) {
+				this.set(dest, offset, x++, value);
+			} else {
+				this.set(dest, offset, x++, value >>> 4);
+				this.set(dest, offset, x++, value & 0x0F);
+			}
+		}
+	}
+
+	/**
+	 * Sets pixel `x` of a row to the color of an index; pixels outside the row are dropped.
+	 */
+	private void set(byte[] dest, int offset, int x, int index) {
+		if (x >= width)
+			return;
+
+		int i = offset + x * 3, c = index * 3;
+		dest[i] = colors[c];
+		dest[i + 1] = colors[c + 1];
+		dest[i + 2] = colors[c + 2];
+	}
+
+	/**
+	 * Reads the next byte of the file.
+	 */
+	private int next() throws IOException {
+		if (position >= limit)
+			this.fill();
+
+		return buffer[position++] & 0xFF;
+	}
+
+	private void fill() throws IOException {
+		limit = in.read(buffer, 0, buffer.length);
+		position = 0;
+
+		if (limit <= 0) {
+			limit = 0;
+			throw new EOFException();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package graphics;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Writes the rows of a bitmap as indices into a palette, compressed with RLE8
+ * (or RLE4, for a palette of 16 colors or less), one row at a time.
+ *
+ * Each color is given the index of the same color in the palette; a color which
+ * is not in the palette (such as one made by a blur) is given the index of the
+ * nearest one. The index of each color is only looked for once, and kept in a
+ * small hash table.
+ *
+ * A row is encoded as runs of the same index, and the indices which are not
+ * repeated are written as they are (the "absolute" mode), when there are at
+ * least three of them in a row. Each row ends with an end of line, and the last
+ * one with the end of the bitmap.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class PaletteEncoder {
+	// the longest run, or number of indices written as they are.
+	private static final int MAX_RUN = 255;
+	// the most colors kept in the table; past that, it starts over with the palette.
+	private static final int MAX_COLORS = 1 << 17;
+
+	private final int[] palette;
+	private final int bits;
+
+	// the colors (as 0xRRGGBB, plus one so zero is empty) and their indices,
+	// in open addressing.
+	private int[] keys = new int[1024], indices = new int[1024];
+	private int count;
+	private final int[] row;
+
+	/**
+	 * Initializes an encoder for the rows of a bitmap.
+	 * @param header - The header of the bitmap, with its palette.
+	 */
+	PaletteEncoder(BitmapHeader header) {
+		this.palette = header.getPalette();
+		this.bits = header.getBitsPerPixel();
+		this.row = new int[header.getWidth()];
+
+		this.clear();
+	}
+
+	/**
+	 * Empties the table, and puts the colors of the palette back in it. If a
+	 * color is twice in the palette, its first index is used.
+	 */
+	private void clear() {
+		Arrays.fill(keys, 0);
+		count = 0;
+
+		for (int i = palette.length - 1; i >= 0; --i)
+			this.put(palette[i], i);
+	}
+
+	/**
+	 * Gets the most bytes a row of a specific width can be encoded to, with its
+	 * end of line: a run of one index for each pixel.
+	 *
+	 * @param width - The width of the row, in pixels.
+	 * @return The number of bytes.
+	 */
+	static int maxRowBytes(int width) {
+		return width * 2 + 2;
+	}
+
+	/**
+	 * Encodes a row of blue, green and red components.
+	 *
+	 * @param src - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param last - true if it is the last row of the bitmap.
+	 * @param dest - The buffer to write the row to, with at least maxRowBytes() bytes remaining.
+	 */
+	void encodeRow(byte[] src, int offset, boolean last, ByteBuffer dest) {
+		int width = row.length;
+		for (int x = 0, i = offset; x < width; ++x, i += 3)
+			row[x] = this.indexOf((src[i + 2] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i] & 0xFF));
+
+		int x = 0;
+		while (x < width) {
+			int run = 1;
+			while (x + run < width && run < MAX_RUN && row[x + run] == row[x])
+				++run;
+
+			if (run >= 2) {
+				this.putRun(dest, run, row[x]);
+				x += run;
+				continue;
+			}
+
+			// the indices up to the next run.
+			int end = x + 1;
+			while (end < width && end - x < MAX_RUN && (end + 1 >= width || row[end] != row[end + 1]))
+				++end;
+
+			if (end - x < 3) {
+				// too short for the absolute mode, which needs at least three.
+				for (; x < end; ++x)
+					this.putRun(dest, 1, row[x]);
+				continue;
+			}
+
+			int n = end - x;
+			dest.put((byte) 0).put((byte) n);
+			if (bits == 8) {
+				for (; x < end; ++x)
+					dest.put((byte) row[x]);
+				if ((n & 1) != 0)
+					dest.put((byte) 0);
+			} else {
+				for (int i = x; i < end; i += 2)
+					dest.put((byte) (row[i] << 4 | (i + 1 < end ? row[i + 1] : 0)));
+				if ((((n + 1) / 2) & 1) != 0)
+					dest.put((byte) 0);
+				x = end;
+			}
+		}
+
+		dest.put((byte) 0).put((byte) (last ? 1 : 0));
+	}
+
+	private void putRun(ByteBuffer dest, int run, int index) {
+		dest.put((byte) run).put((byte) (bits == 8 ? index : index << 4 | index));
+	}
+
+	/**
+	 * Gets the index of the color of the palette which is the nearest to a color.
+	 * @param color - The color, as 0xRRGGBB.
+	 * @return The index.
+	 */
+	private int indexOf(int color) {
+		int mask = keys.length - 1;
+		for (int i = hash(color) & mask; keys[i] != 0; i = (i + 1) & mask)
+			if (keys[i] == color + 1)
+				return indices[i];
+
+		int nearest = 0, best = Integer.MAX_VALUE;
+		for (int i = 0; i < palette.length; ++i) {
+			int red = ((color >>> 16) & 0xFF) - ((palette[i] >>> 16) & 0xFF),
+				green = ((color >>> 8) & 0xFF) - ((palette[i] >>> 8) & 0xFF),
+				blue = (color & 0xFF) - (palette[i] & 0xFF);
+			int distance = red * red + green * green + blue * blue;
+
+			if (distance < best) {
+				best = distance;
+				nearest = i;
+			}
+		}
+
+		this.put(color, nearest);
+		return nearest;
+	}
+
+	private void put(int color, int index) {
+		if (count >= MAX_COLORS) {
+			this.clear();
+		} else if (count * 2 >= keys.length) {
+			// keep the table at most half full.
+			int[] oldKeys = keys, oldIndices = indices;
+			keys = new int[oldKeys.length * 2];
+			indices = new int[oldKeys.length * 2];
+			count = 0;
+
+			for (int i = 0; i < oldKeys.length; ++i)
+				if (oldKeys[i] != 0)
+					this.put(oldKeys[i] - 1, oldIndices[i]);
+		}
+
+		int mask = keys.length - 1, i = hash(color) & mask;
+		while (keys[i] != 0 && keys[i] != color + 1)
+			i = (i + 1) & mask;
+
+		if (keys[i] == 0)
+			++count;
+		keys[i] = color + 1;
+		indices[i] = index;
+	}
+
+	private static int hash(int color) {
+		int hash = color * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
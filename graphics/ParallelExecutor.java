@@ -0,0 +1,217 @@
+package graphics;
+
+import java.util.concurrent.*;
+
+import metrics.*;
+
+/**
+ * A long-lived fork/join executor which runs the parallel parts of the Bitmap
+ * operations. Work is split recursively into ranges, and idle workers steal
+ * the pending halves of busy ones, so uneven rows or columns do not leave
+ * threads waiting. One shared instance is used by every Bitmap unless another
+ * executor is given to it through Bitmap.setExecutor().
+ *
+ * When the metrics are on, the time each worker spends running chunks is
+ * recorded (see Metrics), which shows how well the chunks were balanced.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class ParallelExecutor {
+	/**
+	 * The number of chunks each thread should get, on average. Having more chunks
+	 * than threads is what allows the work to be stolen and balanced.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	// the executor shared by all bitmaps, created on first use.
+	private static ParallelExecutor shared;
+	// whether the hook which shuts the shared executor down at exit was added.
+	private static boolean hookAdded;
+
+	private final ForkJoinPool pool;
+	private final Metrics.Workers workers = Metrics.newWorkers();
+
+	/**
+	 * A range of work which splits itself in halves until it is small enough
+	 * to be executed directly.
+	 */
+	private static final class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 6327419006851240214L;
+
+		private final RangeAction action;
+		private final int start, end, grain;
+		// where the chunks are recorded, or null if the metrics are off; the pool tells
+		// its workers apart from the threads which called it.
+		private final ForkJoinPool pool;
+		private final Metrics.Workers workers;
+		private final Metrics.Sample sample;
+
+		RangeTask(RangeAction action, int start, int end, int grain, ForkJoinPool pool, Metrics.Workers workers,
+				Metrics.Sample sample) {
+			this.action = action;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+			this.pool = pool;
+			this.workers = workers;
+			this.sample = sample;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= grain) {
+				if (workers == null) {
+					action.execute(start, end);
+				} else {
+					long time = System.nanoTime(), allocated = Metrics.allocatedBytes();
+					action.execute(start, end);
+					workers.chunk(time, allocated, sample, getPool() == pool);
+				}
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+			invokeAll(new RangeTask(action, start, middle, grain, pool, workers, sample),
+					  new RangeTask(action, middle, end, grain, pool, workers, sample));
+		}
+	}
+
+	/**
+	 * An action which is executed on a sub-range [start, end[ of the work.
+	 */
+	static abstract class RangeAction {
+		abstract void execute(int start, int end);
+	}
+
+	/**
+	 * Initializes a new executor with a specific number of worker threads.
+	 *
+	 * @param parallelism - The number of worker threads, bigger than or equal to one.
+	 */
+	public ParallelExecutor(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism should be bigger than or equal to one.");
+
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Gets the executor shared by all the bitmaps. It is created the first time
+	 * it is needed, with one worker per available processor, and is shut down
+	 * automatically when the JVM exits.
+	 *
+	 * @return The shared executor.
+	 */
+	public static synchronized ParallelExecutor getShared() {
+		if (shared == null || shared.isShutdown())
+			shared = new ParallelExecutor(Runtime.getRuntime().availableProcessors());
+
+		// a single hook, which stops whichever executor is shared at exit; it does
+		// not keep the executors which were shut down before reachable. It does not
+		// wait for the running work, which would hold up the exit.
+		if (!hookAdded) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					ParallelExecutor executor = shared();
+					if (executor != null)
+						executor.stop();
+				}
+			}, "ParallelExecutor-shutdown"));
+			hookAdded = true;
+		}
+
+		return shared;
+	}
+
+	/**
+	 * Shuts the shared executor down, if it was ever created, and waits for its
+	 * running work to finish. A new one is created if a bitmap needs it afterwards.
+	 */
+	public static void shutdownShared() {
+		// the lock is not held while waiting, so getShared() is not held up.
+		ParallelExecutor executor = shared();
+		if (executor != null)
+			executor.shutdown();
+	}
+	private static synchronized ParallelExecutor shared() {
+		return shared;
+	}
+
+	/**
+	 * Runs the action over the range [0, splitValue[ and waits for it to finish.
+	 * The range is split into about `chunks` * CHUNKS_PER_THREAD pieces; if only one
+	 * chunk is asked for, the action is run on the calling thread.
+	 *
+	 * @param action - The action to run on each piece.
+	 * @param splitValue - The end of the range.
+	 * @param chunks - The number of threads the caller would like to split the work for.
+	 */
+	void invoke(RangeAction action, int splitValue, int chunks) {
+		if (splitValue <= 0)
+			return;
+
+		boolean single = chunks <= 1 || splitValue == 1;
+		int grain = single ? splitValue : Math.max(1, splitValue / (chunks * CHUNKS_PER_THREAD));
+
+		if (!Metrics.isEnabled()) {
+			if (single)
+				action.execute(0, splitValue);
+			else
+				pool.invoke(new RangeTask(action, 0, splitValue, grain, pool, null, null));
+			return;
+		}
+
+		// a single chunk is recorded as a chunk of the calling thread, and does not make
+		// the workers active; a split one does, until it is done.
+		RangeTask task = new RangeTask(action, 0, splitValue, grain, pool, workers, Metrics.current());
+		if (single) {
+			task.compute();
+			return;
+		}
+
+		workers.started();
+		try {
+			pool.invoke(task);
+		} finally {
+			workers.finished();
+		}
+	}
+
+	/**
+	 * Gets the number of worker threads of this executor.
+	 * @return The number of worker threads.
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Stops accepting new work, and waits for the running work to finish.
+	 */
+	public void shutdown() {
+		this.stop();
+
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops accepting new work, without waiting for the running work.
+	 */
+	private void stop() {
+		pool.shutdown();
+		Metrics.removeWorkers(workers);
+	}
+
+	/**
+	 * Checks whether this executor was shut down.
+	 * @return true if shutdown() was called; otherwise, false.
+	 */
+	public boolean isShutdown() {
+		return pool.isShutdown();
+	}
+}
@@ -3,6 +3,10 @@ package graphics;
 import exceptions.*;
 
 /**
+ * A pointer to one pixel of a Bitmap, used to read and change its colors one 
+ * component at a time. Each call checks its coordinates and goes through the 
+ * storage of the bitmap, so Pixels are convenient but slow; the operations which
+ * go over the whole picture use a RowKernel instead (see Bitmap.forEachRow()).
  * 
  * @author Claude Abounegm
  *
@@ -169,7 +173,7 @@ public class Pixel {
 	 *         between 0-255, inclusive.
 	 */
 	public int getBlue() {
-		return parent.getRawColors()[offsetY][offsetX + BLUE] & 0xFF;
+		return parent.peekStorage().get(offsetY, offsetX + BLUE);
 	}
 	/**
 	 * Sets the blue component of this pixel.
@@ -178,7 +182,7 @@ public class Pixel {
 	 *            - the value of the color.
 	 */
 	public void setBlue(byte blue) {
-		parent.getRawColors()[offsetY][offsetX + BLUE] = blue;
+		parent.getStorage().set(offsetY, offsetX + BLUE, blue);
 	}	
 	/**
 	 * Sets the blue component of this pixel.
@@ -199,7 +203,7 @@ public class Pixel {
 	 *         between 0-255, inclusive.
 	 */
 	public int getGreen() {
-		return parent.getRawColors()[offsetY][offsetX + GREEN] & 0xFF;
+		return parent.peekStorage().get(offsetY, offsetX + GREEN);
 	}
 	/**
 	 * Sets the green component of this pixel.
@@ -208,7 +212,7 @@ public class Pixel {
 	 *            - the value of the color.
 	 */
 	public void setGreen(byte green) {
-		parent.getRawColors()[offsetY][offsetX + GREEN] = green;
+		parent.getStorage().set(offsetY, offsetX + GREEN, green);
 	}
 	/**
 	 * Sets the green component of this pixel.
@@ -229,7 +233,7 @@ public class Pixel {
 	 *         between 0-255, inclusive.
 	 */
 	public int getRed() {
-		return parent.getRawColors()[offsetY][offsetX + RED] & 0xFF;
+		return parent.peekStorage().get(offsetY, offsetX + RED);
 	}
 	/**
 	 * Sets the red component of this pixel.
@@ -238,7 +242,7 @@ public class Pixel {
 	 *            - the value of the color.
 	 */
 	public void setRed(byte red) {
-		parent.getRawColors()[offsetY][offsetX + RED] = red;
+		parent.getStorage().set(offsetY, offsetX + RED, red);
 	}
 	/**
 	 * Sets the red component of this pixel.
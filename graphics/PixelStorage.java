@@ -0,0 +1,326 @@
+package graphics;
+
+import java.nio.*;
+
+import exceptions.*;
+
+/**
+ * A class which holds the raw colors of a Bitmap. The colors are stored row by row,
+ * each row being `width * 3` bytes of blue, green and red components, but where
+ * and how the rows are kept depends on the implementation:
+ *
+ *  - ROWS keeps each row in its own array (byte[][]), as Bitmap always did.
+ *  - CONTIGUOUS keeps all the rows in one array, one after the other.
+ *  - DIRECT keeps the rows in off-heap (direct) byte buffers.
+ *  - PACKED keeps each pixel in one int, with its alpha (see PackedStorage).
+ *
+ * The _PADDED variants pad each row to a multiple of four bytes, exactly like the
+ * rows of a bitmap file.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public abstract class PixelStorage {
+	/**
+	 * Allocates a new empty storage with a specific size.
+	 */
+	public interface Allocator {
+		/**
+		 * Allocates a new storage, with all the colors set to zero.
+		 *
+		 * @param width - The width of the storage, in pixels.
+		 * @param height - The height of the storage, in pixels.
+		 * @return The new storage.
+		 */
+		PixelStorage allocate(int width, int height);
+	}
+
+	/**
+	 * Keeps each row in its own array.
+	 */
+	public static final Allocator ROWS = new Allocator() {
+		public PixelStorage allocate(int width, int height) {
+			return new RowStorage(width, height);
+		}
+	};
+	/**
+	 * Keeps all the rows in one array, with no padding between them.
+	 */
+	public static final Allocator CONTIGUOUS = new Allocator() {
+		public PixelStorage allocate(int width, int height) {
+			return new ArrayStorage(width, height, false);
+		}
+	};
+	/**
+	 * Keeps all the rows in one array, each one padded to a multiple of four bytes.
+	 */
+	public static final Allocator CONTIGUOUS_PADDED = new Allocator() {
+		public PixelStorage allocate(int width, int height) {
+			return new ArrayStorage(width, height, true);
+		}
+	};
+	/**
+	 * Keeps the rows off-heap, with no padding between them.
+	 */
+	public static final Allocator DIRECT = new Allocator() {
+		public PixelStorage allocate(int width, int height) {
+			return BufferStorage.allocateDirect(width, height, false);
+		}
+	};
+	/**
+	 * Keeps the rows off-heap, each one padded to a multiple of four bytes.
+	 */
+	public static final Allocator DIRECT_PADDED = new Allocator() {
+		public PixelStorage allocate(int width, int height) {
+			return BufferStorage.allocateDirect(width, height, true);
+		}
+	};
+	/**
+	 * Keeps each pixel in one int, with its alpha. 32-bit bitmaps are always read
+	 * into this storage; 24-bit ones are moved to it (and made opaque) when they
+	 * are read with this allocator. The operations work on whole pixels at a time.
+	 */
+	public static final Allocator PACKED = new Allocator() {
+		public PixelStorage allocate(int width, int height) {
+			return new PackedStorage(width, height);
+		}
+	};
+
+	private final int width;
+	private final int height;
+
+	/**
+	 * Initializes a storage of a specific size.
+	 *
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 */
+	protected PixelStorage(int width, int height) {
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException("width and/or height should be positive.");
+
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Gets the number of bytes of a row padded to a multiple of four,
+	 * like the rows of a bitmap file.
+	 *
+	 * @param width - The width of the row, in pixels.
+	 * @return The number of bytes of the padded row.
+	 */
+	static int paddedStride(int width) {
+		return (width * 3 + 3) & ~3;
+	}
+
+	/**
+	 * Gets the color component at `index` of row `y`.
+	 *
+	 * @param y - The row.
+	 * @param index - The index of the component in the row, in bytes.
+	 * @return The component, between 0-255, inclusive.
+	 */
+	public abstract int get(int y, int index);
+	/**
+	 * Sets the color component at `index` of row `y`.
+	 *
+	 * @param y - The row.
+	 * @param index - The index of the component in the row, in bytes.
+	 * @param value - The value of the component. Only the least significant byte is kept.
+	 */
+	public abstract void set(int y, int index, int value);
+
+	/**
+	 * Copies the colors of row `y` to an array.
+	 *
+	 * @param y - The row.
+	 * @param dest - The array to copy the colors to.
+	 * @param offset - The offset in `dest` at which the row starts.
+	 */
+	public abstract void getRow(int y, byte[] dest, int offset);
+	/**
+	 * Copies the colors of row `y` from an array.
+	 *
+	 * @param y - The row.
+	 * @param src - The array to copy the colors from.
+	 * @param offset - The offset in `src` at which the row starts.
+	 */
+	public abstract void setRow(int y, byte[] src, int offset);
+
+	/**
+	 * Copies a part of row `y` to an array.
+	 *
+	 * @param y - The row.
+	 * @param index - The index in the row of the first component to copy, in bytes.
+	 * @param dest - The array to copy the colors to.
+	 * @param offset - The offset in `dest` at which the colors start.
+	 * @param length - The number of bytes to copy.
+	 */
+	void getRow(int y, int index, byte[] dest, int offset, int length) {
+		for (int i = 0; i < length; ++i)
+			dest[offset + i] = (byte) this.get(y, index + i);
+	}
+	/**
+	 * Copies a part of row `y` from an array.
+	 *
+	 * @param y - The row.
+	 * @param index - The index in the row of the first component to copy, in bytes.
+	 * @param src - The array to copy the colors from.
+	 * @param offset - The offset in `src` at which the colors start.
+	 * @param length - The number of bytes to copy.
+	 */
+	void setRow(int y, int index, byte[] src, int offset, int length) {
+		for (int i = 0; i < length; ++i)
+			this.set(y, index + i, src[offset + i]);
+	}
+
+	/**
+	 * Gets the array which holds row `y`, if the storage is kept in arrays. The
+	 * row can be read and written directly, starting at rowOffset(y).
+	 *
+	 * @param y - The row.
+	 * @return The array which holds the row; or null if the storage is not kept in arrays.
+	 */
+	public byte[] rowArray(int y) {
+		return null;
+	}
+	/**
+	 * Checks whether the rows of the storage are kept in arrays, which
+	 * can be read and written directly through rowArray().
+	 *
+	 * @return true if the storage is kept in arrays; otherwise, false.
+	 */
+	public boolean hasArray() {
+		return height == 0 || this.rowArray(0) != null;
+	}
+	/**
+	 * Gets the offset at which row `y` starts in rowArray(y).
+	 *
+	 * @param y - The row.
+	 * @return The offset of the row, in bytes.
+	 */
+	public int rowOffset(int y) {
+		return 0;
+	}
+
+	/**
+	 * Gets a buffer over the colors of row `y`, positioned at the start of the row,
+	 * and limited to its end. The buffer should only be read from; if the storage 
+	 * is not kept in arrays, it may be a copy of the row.
+	 *
+	 * @param y - The row.
+	 * @return A buffer over the colors of the row.
+	 */
+	public ByteBuffer rowBuffer(int y) {
+		byte[] row = this.rowArray(y);
+		if (row != null)
+			return ByteBuffer.wrap(row, this.rowOffset(y), getWidthBytes());
+
+		row = new byte[getWidthBytes()];
+		this.getRow(y, row, 0);
+		return ByteBuffer.wrap(row);
+	}
+
+	/**
+	 * Allocates a new empty storage of the same kind as this one.
+	 *
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 * @return The new storage.
+	 */
+	public abstract PixelStorage allocate(int width, int height);
+
+	/**
+	 * Gets a storage over a rectangle of this one, which uses its colors in place.
+	 *
+	 * @param x - The first column of the rectangle.
+	 * @param y - The first row of the rectangle.
+	 * @param width - The width of the rectangle, in pixels.
+	 * @param height - The height of the rectangle, in pixels.
+	 * @return The storage of the rectangle.
+	 */
+	PixelStorage region(int x, int y, int width, int height) {
+		return new RegionStorage(this, x, y, width, height);
+	}
+	/**
+	 * Checks whether the storage is a rectangle of another one, and so should
+	 * not be re-used for anything else.
+	 *
+	 * @return true if the storage is part of another storage; otherwise, false.
+	 */
+	boolean isRegion() {
+		return false;
+	}
+
+	/**
+	 * Gets the number of bytes the colors of the storage take in memory, without
+	 * padding; used to bound the pools and caches of storages.
+	 *
+	 * @return The size of the colors, in bytes.
+	 */
+	long byteSize() {
+		return (long) getWidthBytes() * height;
+	}
+
+	/**
+	 * Checks whether another storage is of the same kind as this one, so one 
+	 * can be used in place of the other if they have the same size.
+	 *
+	 * @param other - The other storage.
+	 * @return true if the storages are of the same kind; otherwise, false.
+	 */
+	boolean isSameKind(PixelStorage other) {
+		return other != null && other.getClass() == this.getClass();
+	}
+
+	/**
+	 * Copies all the colors of this storage to another storage of the same size.
+	 *
+	 * @param dest - The storage to copy the colors to.
+	 * @throws NullArgumentException if dest is null.
+	 */
+	public void copyTo(PixelStorage dest) {
+		if (dest == null)
+			throw new NullArgumentException("dest");
+		if (dest.getWidth() != width || dest.getHeight() != height)
+			throw new IllegalArgumentException("dest should be the same size as this storage.");
+
+		byte[] row = null;
+		for (int y = 0; y < height; ++y) {
+			byte[] destRow = dest.rowArray(y);
+
+			if (destRow != null) {
+				this.getRow(y, destRow, dest.rowOffset(y));
+			} else {
+				if (row == null)
+					row = new byte[getWidthBytes()];
+
+				this.getRow(y, row, 0);
+				dest.setRow(y, row, 0);
+			}
+		}
+	}
+
+	/**
+	 * Gets the width (in pixels) of the storage.
+	 * @return The width of the storage, in pixels.
+	 */
+	public int getWidth() {
+		return width;
+	}
+	/**
+	 * Gets the width (in bytes) of a row, without padding.
+	 * @return The width of a row, in bytes.
+	 */
+	public int getWidthBytes() {
+		return width * 3;
+	}
+	/**
+	 * Gets the height (in pixels) of the storage.
+	 * @return The height of the storage, in pixels.
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
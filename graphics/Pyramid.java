@@ -0,0 +1,187 @@
+package graphics;
+
+import java.io.*;
+
+import io.*;
+import exceptions.*;
+
+/**
+ * The shrunk levels of a bitmap (mipmaps): level 1 is half the width and height
+ * of the source, level 2 a quarter, and so on, each pixel being the average of
+ * a 2x2 square of the level above it, exactly like shrink() does.
+ *
+ * All the levels are made in one pass over the source. The source is split into
+ * bands of 2^5 rows, which the threads share; each band is shrunk into its rows
+ * of levels 1 to 5 while it is still in cache, so the source is read only once.
+ * The levels after the fifth are made the same way from the fifth, which is only
+ * 1/1024th of the source.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class Pyramid {
+	// the number of levels made from the same band of rows.
+	private static final int BAND_LEVELS = 5;
+
+	private final Bitmap source;
+	private final Bitmap[] levels;
+
+	/**
+	 * Makes the levels of a bitmap, until the next one would be narrower or
+	 * shorter than `minSize` pixels.
+	 *
+	 * @param source - The bitmap to shrink.
+	 * @param minSize - The smallest width and height of a level, in pixels.
+	 */
+	Pyramid(Bitmap source, int minSize) {
+		if (minSize < 1)
+			throw new IllegalArgumentException("minSize should be positive.");
+
+		int count = 0;
+		while ((source.getWidth() >> (count + 1)) >= minSize && (source.getHeight() >> (count + 1)) >= minSize)
+			++count;
+
+		this.source = source;
+		this.levels = new Bitmap[count];
+
+		PixelStorage[] storages = new PixelStorage[count + 1];
+		storages[0] = source.peekStorage();
+		for (int i = 1; i <= count; ++i)
+			storages[i] = source.acquireStorage(source.getWidth() >> i, source.getHeight() >> i);
+
+		for (int level = 0; level < count; level += BAND_LEVELS)
+			this.shrink(storages, level, Math.min(BAND_LEVELS, count - level));
+
+		for (int i = 0; i < count; ++i)
+			levels[i] = source.derive(storages[i + 1]);
+	}
+
+	/**
+	 * Makes levels `first + 1` to `first + depth` from level `first`, a band of
+	 * 2^depth rows at a time.
+	 *
+	 * @param storages - The storages of the levels, the source being level 0.
+	 * @param first - The level to shrink.
+	 * @param depth - The number of levels to make.
+	 */
+	private void shrink(final PixelStorage[] storages, final int first, final int depth) {
+		// each band makes one row of the last level.
+		int bands = storages[first + depth].getHeight();
+
+		source.getExecutor().invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				Scratch scratch = new Scratch(storages[first]);
+
+				for (int band = start; band < end; ++band)
+					for (int k = 1; k <= depth; ++k)
+						for (int y = band << (depth - k), last = (band + 1) << (depth - k); y < last; ++y)
+							shrinkRow(storages[first + k - 1], storages[first + k], y, scratch);
+			}
+		}, bands, source.getThreads());
+
+		// the rows below the last band, when the height of a level is odd.
+		Scratch scratch = new Scratch(storages[first]);
+		for (int k = 1; k <= depth; ++k)
+			for (int y = bands << (depth - k); y < storages[first + k].getHeight(); ++y)
+				shrinkRow(storages[first + k - 1], storages[first + k], y, scratch);
+	}
+
+	/**
+	 * The rows a thread copies the colors to, when a storage is not kept in arrays.
+	 */
+	private static final class Scratch {
+		final byte[] top, bottom, dest;
+
+		Scratch(PixelStorage widest) {
+			boolean packed = widest instanceof PackedStorage;
+			this.top = packed ? null : new byte[widest.getWidthBytes()];
+			this.bottom = packed ? null : new byte[widest.getWidthBytes()];
+			this.dest = packed ? null : new byte[widest.getWidthBytes()];
+		}
+	}
+
+	/**
+	 * Makes row `y` of a level from rows `y * 2` and `y * 2 + 1` of the level above it.
+	 */
+	private static void shrinkRow(PixelStorage src, PixelStorage dest, int y, Scratch scratch) {
+		if (src instanceof PackedStorage && dest instanceof PackedStorage) {
+			PackedStorage from = (PackedStorage) src, to = (PackedStorage) dest;
+			Kernels.shrink(from.getData(), from.pixelOffset(y * 2), from.getData(), from.pixelOffset(y * 2 + 1),
+					to.getWidth(), to.getData(), to.pixelOffset(y));
+			return;
+		}
+
+		byte[] top = src.rowArray(y * 2), bottom = src.rowArray(y * 2 + 1), row = dest.rowArray(y);
+		int topOffset = src.rowOffset(y * 2), bottomOffset = src.rowOffset(y * 2 + 1), offset = dest.rowOffset(y);
+		if (top == null) {
+			src.getRow(y * 2, scratch.top, 0);
+			top = scratch.top;
+			topOffset = 0;
+		}
+		if (bottom == null) {
+			src.getRow(y * 2 + 1, scratch.bottom, 0);
+			bottom = scratch.bottom;
+			bottomOffset = 0;
+		}
+		if (row == null) {
+			row = scratch.dest;
+			offset = 0;
+		}
+
+		Kernels.shrink(top, topOffset, bottom, bottomOffset, dest.getWidth(), row, offset);
+
+		if (row == scratch.dest)
+			dest.setRow(y, row, 0);
+	}
+
+	/**
+	 * Gets the number of levels, not counting the source.
+	 * @return The number of levels.
+	 */
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * Gets a level of the pyramid.
+	 *
+	 * @param level - The level, from 1 (half the size of the source) to getLevelCount();
+	 * 				  0 is the source itself.
+	 * @return The bitmap of the level.
+	 * @throws IllegalArgumentException if there is no such level.
+	 */
+	public Bitmap getLevel(int level) {
+		if (level < 0 || level > levels.length)
+			throw new IllegalArgumentException("level should be between 0 and " + levels.length + ".");
+
+		return level == 0 ? source : levels[level - 1];
+	}
+
+	/**
+	 * Writes all the levels (not the source) to a directory, level `i` to `name-i.bmp`.
+	 *
+	 * @param directory - The directory to write the levels to, which is made if needed.
+	 * @param name - The name of the files, without the level and the extension.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws NullArgumentException if directory or name is null.
+	 */
+	public void write(File directory, String name) throws IOException {
+		if (directory == null)
+			throw new NullArgumentException("directory");
+		if (name == null)
+			throw new NullArgumentException("name");
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("could not make " + directory + ".");
+
+		for (int i = 0; i < levels.length; ++i) {
+			BitmapChannelWriter writer = new BitmapChannelWriter(new File(directory, name + "-" + (i + 1) + ".bmp"));
+			try {
+				levels[i].write(writer);
+			} finally {
+				writer.close();
+			}
+		}
+	}
+}
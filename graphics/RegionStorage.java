@@ -0,0 +1,124 @@
+package graphics;
+
+import java.nio.*;
+
+/**
+ * A PixelStorage which is a rectangle of another storage, whose colors it uses
+ * in place: row `y` of the region is part of row `top + y` of the parent,
+ * starting at pixel `left`. Nothing is copied, so the changes made through one
+ * are seen by the other.
+ *
+ * If the parent is kept in arrays, so is the region: rowArray() gives the arrays
+ * of the parent, and rowOffset() the offset of the region in them, so the operations
+ * work on the parent's rows directly. Packed storages make their own regions
+ * (see PackedStorage.region()).
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class RegionStorage extends PixelStorage {
+	private final PixelStorage parent;
+	private final int left, top;
+
+	/**
+	 * Initializes a region of a storage.
+	 *
+	 * @param parent - The storage which holds the colors.
+	 * @param left - The first column of the region in the parent.
+	 * @param top - The first row of the region in the parent.
+	 * @param width - The width of the region, in pixels.
+	 * @param height - The height of the region, in pixels.
+	 */
+	RegionStorage(PixelStorage parent, int left, int top, int width, int height) {
+		super(width, height);
+
+		this.parent = parent;
+		this.left = left;
+		this.top = top;
+	}
+
+	/**
+	 * Gets the storage which holds the colors of the region.
+	 * @return The parent storage.
+	 */
+	PixelStorage getParent() {
+		return parent;
+	}
+
+	@Override
+	public int get(int y, int index) {
+		return parent.get(top + y, left * 3 + index);
+	}
+
+	@Override
+	public void set(int y, int index, int value) {
+		parent.set(top + y, left * 3 + index, value);
+	}
+
+	@Override
+	public void getRow(int y, byte[] dest, int offset) {
+		this.getRow(y, 0, dest, offset, getWidthBytes());
+	}
+
+	@Override
+	public void setRow(int y, byte[] src, int offset) {
+		this.setRow(y, 0, src, offset, getWidthBytes());
+	}
+
+	@Override
+	void getRow(int y, int index, byte[] dest, int offset, int length) {
+		byte[] row = parent.rowArray(top + y);
+		if (row != null)
+			System.arraycopy(row, this.rowOffset(y) + index, dest, offset, length);
+		else
+			parent.getRow(top + y, left * 3 + index, dest, offset, length);
+	}
+
+	@Override
+	void setRow(int y, int index, byte[] src, int offset, int length) {
+		byte[] row = parent.rowArray(top + y);
+		if (row != null)
+			System.arraycopy(src, offset, row, this.rowOffset(y) + index, length);
+		else
+			parent.setRow(top + y, left * 3 + index, src, offset, length);
+	}
+
+	@Override
+	public byte[] rowArray(int y) {
+		return parent.rowArray(top + y);
+	}
+
+	@Override
+	public int rowOffset(int y) {
+		return parent.rowOffset(top + y) + left * 3;
+	}
+
+	@Override
+	public ByteBuffer rowBuffer(int y) {
+		// the part of the parent's row which is in the region.
+		ByteBuffer row = parent.rowBuffer(top + y);
+		int start = row.position() + left * 3;
+		row.limit(start + getWidthBytes()).position(start);
+		return row;
+	}
+
+	@Override
+	PixelStorage region(int x, int y, int width, int height) {
+		return new RegionStorage(parent, left + x, top + y, width, height);
+	}
+
+	@Override
+	boolean isRegion() {
+		return true;
+	}
+
+	@Override
+	boolean isSameKind(PixelStorage other) {
+		return parent.isSameKind(other);
+	}
+
+	@Override
+	public PixelStorage allocate(int width, int height) {
+		return parent.allocate(width, height);
+	}
+}
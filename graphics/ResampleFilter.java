@@ -0,0 +1,26 @@
+package graphics;
+
+/**
+ * The filters Bitmap.resize() can weigh the source pixels with.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public enum ResampleFilter {
+	/**
+	 * Each pixel is interpolated between the two nearest pixels on each axis. When
+	 * the picture is made smaller, the filter is stretched so every source pixel counts.
+	 */
+	BILINEAR,
+	/**
+	 * Each pixel is interpolated with a cubic curve (Keys, a = -0.5) through the four
+	 * nearest pixels on each axis, which keeps the edges sharper than BILINEAR.
+	 * When the picture is made smaller, the filter is stretched the same way.
+	 */
+	BICUBIC,
+	/**
+	 * Each pixel is the average of the source pixels it covers, each weighed by the
+	 * part of it which is covered. It is the best filter to make a picture much smaller.
+	 */
+	AREA
+}
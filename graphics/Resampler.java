@@ -0,0 +1,309 @@
+package graphics;
+
+import java.util.*;
+
+/**
+ * A class which resizes storages to any size, one axis at a time: a horizontal
+ * pass resizes each row, and a vertical pass makes each row from a few rows of
+ * the source.
+ *
+ * The weights of the source pixels only depend on the position on one axis, so
+ * they are worked out once for each column (or row) of the result, as fixed-point
+ * numbers which add up to ONE. Each pass then only multiplies and adds integers
+ * on the raw rows, and the threads share the rows of the result.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class Resampler {
+	// the weights are fixed-point numbers with PRECISION bits after the point.
+	private static final int PRECISION = 14;
+	private static final int ONE = 1 << PRECISION;
+	private static final int HALF = ONE >> 1;
+	// the number of bytes of a row the vertical pass adds up at a time.
+	private static final int BLOCK = 4096;
+
+	/**
+	 * The source pixels each pixel of the result is made from, along one axis:
+	 * pixel `i` is made from `counts[i]` pixels starting at `starts[i]`, with the
+	 * weights `values[i * taps]` to `values[i * taps + counts[i] - 1]`.
+	 */
+	static final class Weights {
+		final int[] starts, counts, values;
+		final int taps;
+
+		Weights(int[] starts, int[] counts, int[] values, int taps) {
+			this.starts = starts;
+			this.counts = counts;
+			this.values = values;
+			this.taps = taps;
+		}
+	}
+
+	private Resampler() {
+	}
+
+	/**
+	 * Works out the weights to resize one axis.
+	 *
+	 * @param srcSize - The number of pixels of the source, on this axis.
+	 * @param destSize - The number of pixels of the result, on this axis.
+	 * @param filter - The filter.
+	 * @return The weights of each pixel of the result.
+	 */
+	static Weights weights(int srcSize, int destSize, ResampleFilter filter) {
+		double scale = (double) srcSize / destSize;
+		// a filter is stretched when the picture is made smaller, so no pixel is skipped.
+		double stretch = Math.max(scale, 1);
+		double support = (filter == ResampleFilter.BICUBIC ? 2 : filter == ResampleFilter.BILINEAR ? 1 : 0.5)
+				* stretch;
+
+		int taps = Math.min(srcSize, (int) Math.ceil(support * 2) + 2);
+		int[] starts = new int[destSize], counts = new int[destSize], values = new int[destSize * taps];
+		double[] weights = new double[taps];
+
+		for (int i = 0; i < destSize; ++i) {
+			int start, end;
+			if (filter == ResampleFilter.AREA) {
+				// the part of each source pixel covered by [low, high).
+				double low = i * scale, high = (i + 1) * scale;
+				start = Math.min((int) low, srcSize);
+				end = Math.min((int) Math.ceil(high), srcSize);
+				for (int x = start; x < end; ++x)
+					weights[x - start] = Math.min(high, x + 1) - Math.max(low, x);
+			} else {
+				double center = (i + 0.5) * scale;
+				start = Math.max(0, (int) Math.floor(center - support));
+				end = Math.min(srcSize, (int) Math.ceil(center + support));
+				for (int x = start; x < end; ++x)
+					weights[x - start] = kernel(filter, (x + 0.5 - center) / stretch);
+			}
+
+			double total = 0;
+			for (int k = 0; k < end - start; ++k)
+				total += weights[k];
+
+			// rounded to fixed-point, with what rounding lost given to the biggest weight.
+			int sum = 0, biggest = 0;
+			for (int k = 0; k < end - start; ++k) {
+				int value = total != 0 ? (int) Math.round(weights[k] / total * ONE) : 0;
+				values[i * taps + k] = value;
+				sum += value;
+				if (value > values[i * taps + biggest])
+					biggest = k;
+			}
+			if (end > start)
+				values[i * taps + biggest] += ONE - sum;
+
+			starts[i] = start;
+			counts[i] = Math.max(0, end - start);
+		}
+
+		return new Weights(starts, counts, values, taps);
+	}
+
+	private static double kernel(ResampleFilter filter, double x) {
+		x = Math.abs(x);
+		if (filter == ResampleFilter.BILINEAR)
+			return x < 1 ? 1 - x : 0;
+
+		// Keys' cubic, with a = -0.5.
+		if (x < 1)
+			return (1.5 * x - 2.5) * x * x + 1;
+		if (x < 2)
+			return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+		return 0;
+	}
+
+	/**
+	 * Resizes each row of `src` to the width of `dest`, which should be as high as `src`.
+	 *
+	 * @param src - The storage to read from.
+	 * @param dest - The storage to write to.
+	 * @param weights - The weights of the columns of `dest`.
+	 * @param executor - The executor which runs the rows.
+	 * @param threads - The number of threads to split the rows for.
+	 */
+	static void horizontal(final PixelStorage src, final PixelStorage dest, final Weights weights,
+			ParallelExecutor executor, int threads) {
+		final int[] starts = weights.starts, counts = weights.counts, values = weights.values;
+		final int taps = weights.taps, width = dest.getWidth();
+
+		if (src instanceof PackedStorage && dest instanceof PackedStorage) {
+			final PackedStorage from = (PackedStorage) src, to = (PackedStorage) dest;
+
+			executor.invoke(new ParallelExecutor.RangeAction() {
+				@Override
+				void execute(int start, int end) {
+					int[] pixels = from.getData(), result = to.getData();
+
+					for (int y = start; y < end; ++y) {
+						int offset = from.pixelOffset(y), d = to.pixelOffset(y);
+
+						for (int x = 0; x < width; ++x) {
+							int blue = HALF, green = HALF, red = HALF, alpha = HALF;
+							for (int k = 0, w = x * taps, s = offset + starts[x]; k < counts[x]; ++k) {
+								int value = values[w + k], pixel = pixels[s + k];
+								blue += value * (pixel & 0xFF);
+								green += value * ((pixel >>> 8) & 0xFF);
+								red += value * ((pixel >>> 16) & 0xFF);
+								alpha += value * (pixel >>> 24);
+							}
+
+							result[d + x] = clamp(alpha >> PRECISION) << 24 | clamp(red >> PRECISION) << 16
+									| clamp(green >> PRECISION) << 8 | clamp(blue >> PRECISION);
+						}
+					}
+				}
+			}, dest.getHeight(), threads);
+			return;
+		}
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				byte[] temp = new byte[src.getWidthBytes()], destTemp = new byte[dest.getWidthBytes()];
+
+				for (int y = start; y < end; ++y) {
+					byte[] row = src.rowArray(y), destRow = dest.rowArray(y);
+					int offset = src.rowOffset(y), d = dest.rowOffset(y);
+					if (row == null) {
+						src.getRow(y, temp, 0);
+						row = temp;
+						offset = 0;
+					}
+					if (destRow == null) {
+						destRow = destTemp;
+						d = 0;
+					}
+
+					for (int x = 0; x < width; ++x, d += 3) {
+						int blue = HALF, green = HALF, red = HALF;
+						for (int k = 0, w = x * taps, s = offset + starts[x] * 3; k < counts[x]; ++k, s += 3) {
+							int value = values[w + k];
+							blue += value * (row[s] & 0xFF);
+							green += value * (row[s + 1] & 0xFF);
+							red += value * (row[s + 2] & 0xFF);
+						}
+
+						destRow[d] = (byte) clamp(blue >> PRECISION);
+						destRow[d + 1] = (byte) clamp(green >> PRECISION);
+						destRow[d + 2] = (byte) clamp(red >> PRECISION);
+					}
+
+					if (destRow == destTemp)
+						dest.setRow(y, destTemp, 0);
+				}
+			}
+		}, dest.getHeight(), threads);
+	}
+
+	/**
+	 * Makes each row of `dest` from the rows of `src`, which should be as wide as `dest`.
+	 *
+	 * @param src - The storage to read from.
+	 * @param dest - The storage to write to.
+	 * @param weights - The weights of the rows of `dest`.
+	 * @param executor - The executor which runs the rows.
+	 * @param threads - The number of threads to split the rows for.
+	 */
+	static void vertical(final PixelStorage src, final PixelStorage dest, final Weights weights,
+			ParallelExecutor executor, int threads) {
+		final int[] starts = weights.starts, counts = weights.counts, values = weights.values;
+		final int taps = weights.taps;
+
+		if (src instanceof PackedStorage && dest instanceof PackedStorage) {
+			final PackedStorage from = (PackedStorage) src, to = (PackedStorage) dest;
+			final int width = dest.getWidth();
+
+			executor.invoke(new ParallelExecutor.RangeAction() {
+				@Override
+				void execute(int start, int end) {
+					int[] pixels = from.getData(), result = to.getData();
+					// the blue, green, red and alpha sums of each pixel.
+					int[] sums = new int[width * 4];
+
+					for (int y = start; y < end; ++y) {
+						Arrays.fill(sums, HALF);
+
+						for (int k = 0; k < counts[y]; ++k) {
+							int value = values[y * taps + k], s = from.pixelOffset(starts[y] + k);
+							for (int x = 0, i = 0; x < width; ++x, i += 4) {
+								int pixel = pixels[s + x];
+								sums[i] += value * (pixel & 0xFF);
+								sums[i + 1] += value * ((pixel >>> 8) & 0xFF);
+								sums[i + 2] += value * ((pixel >>> 16) & 0xFF);
+								sums[i + 3] += value * (pixel >>> 24);
+							}
+						}
+
+						for (int x = 0, i = 0, d = to.pixelOffset(y); x < width; ++x, i += 4)
+							result[d + x] = clamp(sums[i + 3] >> PRECISION) << 24 | clamp(sums[i + 2] >> PRECISION) << 16
+									| clamp(sums[i + 1] >> PRECISION) << 8 | clamp(sums[i] >> PRECISION);
+					}
+				}
+			}, dest.getHeight(), threads);
+			return;
+		}
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				int widthBytes = dest.getWidthBytes();
+				byte[][] rows = new byte[taps][], temps = new byte[taps][];
+				int[] offsets = new int[taps];
+				byte[] destTemp = new byte[widthBytes];
+				int[] sums = new int[BLOCK];
+
+				for (int y = start; y < end; ++y) {
+					for (int k = 0; k < counts[y]; ++k) {
+						int sy = starts[y] + k;
+						rows[k] = src.rowArray(sy);
+						offsets[k] = src.rowOffset(sy);
+						if (rows[k] == null) {
+							if (temps[k] == null)
+								temps[k] = new byte[widthBytes];
+
+							src.getRow(sy, temps[k], 0);
+							rows[k] = temps[k];
+							offsets[k] = 0;
+						}
+					}
+
+					byte[] destRow = dest.rowArray(y);
+					int d = dest.rowOffset(y);
+					if (destRow == null) {
+						destRow = destTemp;
+						d = 0;
+					}
+
+					// a block of the row at a time, so the sums stay in the first level cache.
+					for (int from = 0; from < widthBytes; from += BLOCK) {
+						int length = Math.min(BLOCK, widthBytes - from);
+						Arrays.fill(sums, 0, length, HALF);
+
+						for (int k = 0; k < counts[y]; ++k) {
+							byte[] row = rows[k];
+							int value = values[y * taps + k], offset = offsets[k] + from;
+							for (int i = 0; i < length; ++i)
+								sums[i] += value * (row[offset + i] & 0xFF);
+						}
+
+						for (int i = 0; i < length; ++i)
+							destRow[d + from + i] = (byte) clamp(sums[i] >> PRECISION);
+					}
+
+					if (destRow == destTemp)
+						dest.setRow(y, destTemp, 0);
+				}
+			}
+		}, dest.getHeight(), threads);
+	}
+
+	/**
+	 * Clamps a component between 0 and 255; a bicubic filter can overshoot both.
+	 */
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+}
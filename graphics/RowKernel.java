@@ -0,0 +1,30 @@
+package graphics;
+
+/**
+ * An operation done on a whole row of raw colors at a time. The row is given as
+ * an array and the offset at which the row starts in it, and holds `width` pixels
+ * of blue, green and red components (in that order), one byte each:
+ *
+ *     for (int i = offset, end = offset + width * 3; i < end; i += 3) {
+ *         int blue = row[i] & 0xFF, green = row[i + 1] & 0xFF, red = row[i + 2] & 0xFF;
+ *         ...
+ *     }
+ *
+ * The kernel is called once per row, so the loop over the pixels is in the kernel
+ * itself, where it can be compiled with no calls or checks in between; this is much
+ * faster than going through a Pixel for each component. The same kernel is called
+ * by many threads at once, on different rows, so it should not keep any state.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public interface RowKernel {
+	/**
+	 * Changes the colors of a row, in place.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 */
+	void apply(byte[] row, int offset, int width);
+}
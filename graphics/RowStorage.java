@@ -0,0 +1,60 @@
+package graphics;
+
+/**
+ * A PixelStorage which keeps each row in its own array.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class RowStorage extends PixelStorage {
+	private final byte[][] rows;
+
+	/**
+	 * Initializes an empty storage of a specific size.
+	 *
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 */
+	RowStorage(int width, int height) {
+		super(width, height);
+		this.rows = new byte[height][width * 3];
+	}
+
+	/**
+	 * Gets the arrays which hold the rows.
+	 * @return The arrays which hold the rows.
+	 */
+	byte[][] getRows() {
+		return rows;
+	}
+
+	@Override
+	public int get(int y, int index) {
+		return rows[y][index] & 0xFF;
+	}
+
+	@Override
+	public void set(int y, int index, int value) {
+		rows[y][index] = (byte) value;
+	}
+
+	@Override
+	public void getRow(int y, byte[] dest, int offset) {
+		System.arraycopy(rows[y], 0, dest, offset, rows[y].length);
+	}
+
+	@Override
+	public void setRow(int y, byte[] src, int offset) {
+		System.arraycopy(src, offset, rows[y], 0, rows[y].length);
+	}
+
+	@Override
+	public byte[] rowArray(int y) {
+		return rows[y];
+	}
+
+	@Override
+	public PixelStorage allocate(int width, int height) {
+		return new RowStorage(width, height);
+	}
+}
@@ -0,0 +1,162 @@
+package graphics;
+
+import java.util.*;
+
+import exceptions.*;
+
+/**
+ * A pool of storages which can be re-used by the operations of many bitmaps.
+ * Operations which write their result to a new storage (such as blur, shrink,
+ * double size and rotation) take it from the pool, and give the storage they
+ * replaced back to it. When many pictures of the same size are processed, the
+ * same few storages go back and forth, and nothing new is allocated.
+ *
+ * The storages are kept in buckets by their size. The pool keeps at most
+ * `maxBytes` bytes of storages; any storage given back past that is dropped.
+ * This class is thread safe.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class StoragePool {
+	/**
+	 * The maximum number of bytes kept by the shared pool.
+	 */
+	public static final long SHARED_MAX_BYTES = 256L * 1024 * 1024;
+
+	private static StoragePool shared;
+
+	private final Map<Long, List<PixelStorage>> buckets = new HashMap<Long, List<PixelStorage>>();
+	private final long maxBytes;
+	private long retainedBytes;
+	private long hits, misses;
+
+	/**
+	 * Initializes an empty pool.
+	 * @param maxBytes - The maximum number of bytes of storages the pool keeps.
+	 */
+	public StoragePool(long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("maxBytes should be positive.");
+
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets a pool which can be shared by all the bitmaps, keeping
+	 * at most SHARED_MAX_BYTES bytes.
+	 *
+	 * @return The shared pool.
+	 */
+	public static synchronized StoragePool getShared() {
+		if (shared == null)
+			shared = new StoragePool(SHARED_MAX_BYTES);
+
+		return shared;
+	}
+
+	/**
+	 * Takes a storage of the same kind as `like` out of the pool, or allocates
+	 * a new one if the pool has none of that size. The colors of a storage
+	 * taken out of the pool are left as they were, not set to zero.
+	 *
+	 * @param like - A storage of the kind which is needed.
+	 * @param width - The width of the storage, in pixels.
+	 * @param height - The height of the storage, in pixels.
+	 * @return A storage of the same kind as `like`, of the requested size.
+	 * @throws NullArgumentException if like is null.
+	 */
+	public PixelStorage acquire(PixelStorage like, int width, int height) {
+		if (like == null)
+			throw new NullArgumentException("like");
+		// a region is of the kind of the storage it is part of.
+		if (like instanceof RegionStorage)
+			like = ((RegionStorage) like).getParent();
+
+		synchronized (this) {
+			List<PixelStorage> bucket = buckets.get(key(width, height));
+
+			if (bucket != null) {
+				for (int i = bucket.size() - 1; i >= 0; --i) {
+					if (bucket.get(i).isSameKind(like)) {
+						PixelStorage storage = bucket.remove(i);
+						retainedBytes -= storage.byteSize();
+						++hits;
+						return storage;
+					}
+				}
+			}
+
+			++misses;
+		}
+
+		return like.allocate(width, height);
+	}
+
+	/**
+	 * Gives a storage back to the pool, so it can be re-used. The storage should
+	 * not be used anymore by the caller. Files mapped into memory, and regions of
+	 * other storages, are not kept.
+	 *
+	 * @param storage - The storage to give back.
+	 */
+	public synchronized void release(PixelStorage storage) {
+		if (storage == null || storage.isRegion())
+			return;
+		if (storage instanceof BufferStorage && ((BufferStorage) storage).isReadOnly())
+			return;
+
+		long size = storage.byteSize();
+		if (retainedBytes + size > maxBytes)
+			return;
+
+		Long key = key(storage.getWidth(), storage.getHeight());
+		List<PixelStorage> bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<PixelStorage>();
+			buckets.put(key, bucket);
+		}
+
+		// the same storage should not be given out twice.
+		for (PixelStorage pooled : bucket)
+			if (pooled == storage)
+				return;
+
+		bucket.add(storage);
+		retainedBytes += size;
+	}
+
+	/**
+	 * Drops all the storages kept by the pool.
+	 */
+	public synchronized void clear() {
+		buckets.clear();
+		retainedBytes = 0;
+	}
+
+	/**
+	 * Gets the number of bytes of the storages kept by the pool.
+	 * @return The number of bytes kept.
+	 */
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+	/**
+	 * Gets the number of times acquire() re-used a storage of the pool.
+	 * @return The number of storages re-used.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	/**
+	 * Gets the number of times acquire() had to allocate a new storage.
+	 * @return The number of storages allocated.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private static Long key(int width, int height) {
+		return ((long) width << 32) | (height & 0xFFFFFFFFL);
+	}
+}
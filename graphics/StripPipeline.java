@@ -0,0 +1,605 @@
+package graphics;
+
+import java.io.*;
+import java.util.*;
+
+import exceptions.*;
+import io.*;
+import metrics.*;
+
+/**
+ * A class which manipulates bitmaps that are too big to be loaded in memory. The rows
+ * of the source bitmap are read in strips of a fixed height, pushed through the
+ * operations one strip at a time, and written straight to the destination bitmap.
+ *
+ * Only the operations which need a bounded number of rows at a time are supported:
+ * invert, gray-scale and horizontal mirror work on each row on its own; blur keeps
+ * `radius` rows above and below the strip, and shrink keeps one row to pair
+ * with the next strip. The results are the same as the Bitmap operations.
+ * The output is always 24-bit: the alpha of a 32-bit source is dropped, and
+ * the colors of a source with a palette are decoded.
+ *
+ * Usage:
+ *
+ * 	new StripPipeline().invert().blur(5).shrink().process(in, out);
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class StripPipeline {
+	/**
+	 * The number of rows read at a time, unless another height is given.
+	 */
+	public static final int DEFAULT_STRIP_HEIGHT = 64;
+
+	private enum Operation {
+		ROWS, LOOKUP, BLUR, SHRINK
+	}
+
+	/**
+	 * A step of the pipeline. It receives rows from the step before it,
+	 * and pushes the rows it produces to the next step.
+	 */
+	private abstract class Stage {
+		Stage next;
+		int width, height; // the size of the rows the stage produces
+
+		/**
+		 * Starts the stage, before any row is pushed.
+		 * @param inWidth - The width of the rows which will be pushed, in pixels.
+		 * @param inHeight - The number of rows which will be pushed.
+		 */
+		void start(int inWidth, int inHeight) throws IOException {
+			this.width = inWidth;
+			this.height = inHeight;
+			next.start(width, height);
+		}
+
+		/**
+		 * Pushes a strip of rows to the stage. The arrays may be re-used by the
+		 * caller once the method returns, so they need to be copied to be kept.
+		 *
+		 * @param rows - The rows of the strip.
+		 * @param y - The index of the first row of the strip.
+		 * @param count - The number of rows of the strip.
+		 */
+		abstract void push(byte[][] rows, int y, int count) throws IOException;
+
+		/**
+		 * Ends the stage, after all the rows are pushed.
+		 */
+		void end() throws IOException {
+			next.end();
+		}
+	}
+
+	/**
+	 * Runs a row kernel on each row of the strip.
+	 */
+	private class RowStage extends Stage {
+		private final RowKernel kernel;
+
+		RowStage(RowKernel kernel) {
+			this.kernel = kernel;
+		}
+
+		@Override
+		void push(final byte[][] rows, int y, int count) throws IOException {
+			run(new ParallelExecutor.RangeAction() {
+				@Override
+				void execute(int start, int end) {
+					for (int i = start; i < end; ++i)
+						kernel.apply(rows[i], 0, width);
+				}
+			}, count);
+
+			next.push(rows, y, count);
+		}
+	}
+
+	/**
+	 * Blurs the strips, keeping the rows it needs around the strip.
+	 */
+	private class BlurStage extends Stage {
+		private int radius;
+		// whether the sums of a window can be too big for ints.
+		private boolean wide;
+
+		// the rows received which are still needed, starting at row `windowStart`.
+		private final List<byte[]> window = new ArrayList<byte[]>();
+		private final ArrayDeque<byte[]> unused = new ArrayDeque<byte[]>();
+		private int windowStart;
+		private int nextOut;
+		private byte[][] out = new byte[0][];
+
+		BlurStage(int radius) {
+			this.radius = radius;
+		}
+
+		@Override
+		void start(int inWidth, int inHeight) throws IOException {
+			super.start(inWidth, inHeight);
+
+			// the window of a bigger radius holds the same rows, and its edges would overflow.
+			radius = Math.min(radius, Math.max(width, height));
+			wide = Kernels.isWideWindow(width, height, radius);
+		}
+
+		@Override
+		void push(byte[][] rows, int y, int count) throws IOException {
+			// keep a copy of the rows
+			for (int i = 0; i < count; ++i) {
+				byte[] row = unused.isEmpty() ? new byte[width * 3] : unused.pop();
+				System.arraycopy(rows[i], 0, row, 0, row.length);
+				window.add(row);
+			}
+
+			// the rows whose window has been completely received can be blurred.
+			this.emit(y + count - radius);
+		}
+
+		@Override
+		void end() throws IOException {
+			this.emit(height);
+			next.end();
+		}
+
+		/**
+		 * Blurs the rows [nextOut, ready[ and pushes them to the next stage.
+		 * @param ready - The end of the rows to blur.
+		 */
+		private void emit(int ready) throws IOException {
+			if (ready <= nextOut)
+				return;
+
+			final int from = nextOut, count = ready - nextOut;
+			if (out.length < count) {
+				out = new byte[count][];
+				for (int i = 0; i < count; ++i)
+					out[i] = new byte[width * 3];
+			}
+
+			if (wide) {
+				this.blurWide(from, count);
+			} else {
+				this.blur(from, count);
+			}
+
+			next.push(out, from, count);
+			nextOut = ready;
+
+			// the rows above the window of the next row are not needed anymore.
+			while (windowStart < nextOut - radius) {
+				unused.push(window.remove(0));
+				++windowStart;
+			}
+		}
+
+		/**
+		 * Blurs the rows [from, from + count[ into `out`.
+		 * @param from - The first row to blur.
+		 * @param count - The number of rows to blur.
+		 */
+		private void blur(final int from, int count) {
+			run(new ParallelExecutor.RangeAction() {
+				@Override
+				void execute(int start, int end) {
+					int[] rowSums = new int[width * 3],
+						  sums = new int[width * 3];
+
+					// start with the window of the first row of this chunk.
+					int y_start = from + start;
+					for (int y = Math.max(y_start - radius, 0); y <= Math.min(y_start + radius, height - 1); ++y)
+						Kernels.addRowSums(row(y), 0, width, radius, rowSums, sums, 1);
+
+					for (int y = y_start; y < from + end; ++y) {
+						// slide the window down: the top row leaves, the next row enters.
+						// the next row may not have been received before it is needed.
+						if (y > y_start) {
+							if (y - radius - 1 >= 0)
+								Kernels.addRowSums(row(y - radius - 1), 0, width, radius, rowSums, sums, -1);
+							if (y + radius < height)
+								Kernels.addRowSums(row(y + radius), 0, width, radius, rowSums, sums, 1);
+						}
+
+						int countY = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+						Kernels.average(sums, width, radius, countY, out[y - from], 0);
+					}
+				}
+			}, count);
+		}
+
+		/**
+		 * Blurs the rows [from, from + count[ into `out` as blur() does, with the sums
+		 * kept in longs, for a window which can hold too many pixels for ints.
+		 * @param from - The first row to blur.
+		 * @param count - The number of rows to blur.
+		 */
+		private void blurWide(final int from, int count) {
+			run(new ParallelExecutor.RangeAction() {
+				@Override
+				void execute(int start, int end) {
+					int[] rowSums = new int[width * 3];
+					long[] sums = new long[width * 3];
+
+					int y_start = from + start;
+					for (int y = Math.max(y_start - radius, 0); y <= Math.min(y_start + radius, height - 1); ++y)
+						Kernels.addRowSums(row(y), 0, width, radius, rowSums, sums, 1);
+
+					for (int y = y_start; y < from + end; ++y) {
+						if (y > y_start) {
+							if (y - radius - 1 >= 0)
+								Kernels.addRowSums(row(y - radius - 1), 0, width, radius, rowSums, sums, -1);
+							if (y + radius < height)
+								Kernels.addRowSums(row(y + radius), 0, width, radius, rowSums, sums, 1);
+						}
+
+						int countY = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+						Kernels.average(sums, width, radius, countY, out[y - from], 0);
+					}
+				}
+			}, count);
+		}
+
+		private byte[] row(int y) {
+			return window.get(y - windowStart);
+		}
+	}
+
+	/**
+	 * Shrinks the strips by two, keeping the last row of a strip if it has
+	 * to be paired with the first row of the next strip.
+	 */
+	private class ShrinkStage extends Stage {
+		private byte[] pending;
+		private int nextOut;
+		private byte[][] out = new byte[0][];
+
+		@Override
+		void start(int inWidth, int inHeight) throws IOException {
+			pending = new byte[inWidth * 3];
+			super.start(inWidth / 2, inHeight / 2);
+		}
+
+		@Override
+		void push(final byte[][] rows, int y, int count) throws IOException {
+			// the row of each pair which is in this strip, and the row before it
+			final byte[][] tops = new byte[count / 2 + 1][], bottoms = new byte[count / 2 + 1][];
+			int pairs = 0;
+
+			for (int i = 0; i < count && y + i < height * 2; ++i) {
+				// the last row of an odd height is dropped
+				if ((y + i) % 2 == 1) {
+					tops[pairs] = i == 0 ? pending : rows[i - 1];
+					bottoms[pairs++] = rows[i];
+				}
+			}
+
+			if (pairs > 0)
+				this.emit(tops, bottoms, pairs);
+
+			// an even row ending the strip is paired with the first row of the next one.
+			if ((y + count - 1) % 2 == 0 && y + count - 1 < height * 2)
+				System.arraycopy(rows[count - 1], 0, pending, 0, pending.length);
+		}
+
+		/**
+		 * Shrinks pairs of rows and pushes them to the next stage.
+		 * @param tops - The first row of each pair.
+		 * @param bottoms - The second row of each pair.
+		 * @param pairs - The number of pairs.
+		 */
+		private void emit(final byte[][] tops, final byte[][] bottoms, int pairs) throws IOException {
+			if (out.length < pairs) {
+				out = new byte[pairs][];
+				for (int i = 0; i < pairs; ++i)
+					out[i] = new byte[width * 3];
+			}
+
+			run(new ParallelExecutor.RangeAction() {
+				@Override
+				void execute(int start, int end) {
+					for (int i = start; i < end; ++i)
+						Kernels.shrink(tops[i], 0, bottoms[i], 0, width, out[i], 0);
+				}
+			}, pairs);
+
+			next.push(out, nextOut, pairs);
+			nextOut += pairs;
+		}
+	}
+
+	/**
+	 * Writes the strips to the destination bitmap.
+	 */
+	private class WriterStage extends Stage {
+		private final BitmapWriter writer;
+		private int padding;
+		private byte[] strip = new byte[0];
+
+		WriterStage(BitmapWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		void start(int inWidth, int inHeight) throws IOException {
+			this.width = inWidth;
+			this.height = inHeight;
+
+			BitmapHeader header = new BitmapHeader(width, height);
+			header.write(writer);
+			padding = header.getPadding();
+		}
+
+		@Override
+		void push(byte[][] rows, int y, int count) throws IOException {
+			// write the rows and their padding with one call.
+			int stride = width * 3 + padding;
+			if (strip.length < stride * count)
+				strip = new byte[stride * count];
+
+			for (int i = 0; i < count; ++i)
+				System.arraycopy(rows[i], 0, strip, i * stride, width * 3);
+
+			writer.write(strip, 0, stride * count);
+		}
+
+		@Override
+		void end() throws IOException {
+			// write the two extra bytes at the end of the bitmap to make its
+			// size even.
+			writer.write(new byte[] { 0, 0 });
+		}
+	}
+
+	private final List<Operation> operations = new ArrayList<Operation>();
+	private final List<Integer> radii = new ArrayList<Integer>();
+	private final List<RowKernel> kernels = new ArrayList<RowKernel>();
+	private final int stripHeight;
+	private int nThreads = 1;
+	private ParallelExecutor executor;
+
+	/**
+	 * Initializes an empty pipeline, which reads DEFAULT_STRIP_HEIGHT rows at a time.
+	 */
+	public StripPipeline() {
+		this(DEFAULT_STRIP_HEIGHT);
+	}
+	/**
+	 * Initializes an empty pipeline.
+	 *
+	 * @param stripHeight - The number of rows read at a time, bigger than or equal to one.
+	 */
+	public StripPipeline(int stripHeight) {
+		if (stripHeight < 1)
+			throw new IllegalArgumentException("stripHeight should be bigger than or equal to one.");
+
+		this.stripHeight = stripHeight;
+	}
+
+	/**
+	 * Adds an inversion of the colors to the pipeline.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public StripPipeline invert() {
+		return this.add(Operation.ROWS, 0, Kernels.INVERT);
+	}
+	/**
+	 * Adds a change of the colors to gray-scale to the pipeline.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public StripPipeline grayscale() {
+		return this.add(Operation.ROWS, 0, Kernels.GRAYSCALE);
+	}
+	/**
+	 * Adds a horizontal mirror to the pipeline.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public StripPipeline horizontalMirror() {
+		return this.add(Operation.ROWS, 0, Kernels.HORIZONTAL_MIRROR);
+	}
+	/**
+	 * Adds a change of the colors with a lookup table to the pipeline. Tables
+	 * which follow each other are combined into one.
+	 *
+	 * @param table - The table to change the colors with.
+	 * @return This same pipeline, used for chaining.
+	 * @throws NullArgumentException if table is null.
+	 */
+	public StripPipeline lookup(LookupTable table) {
+		if (table == null)
+			throw new NullArgumentException("table");
+
+		int last = operations.size() - 1;
+		if (last >= 0 && operations.get(last) == Operation.LOOKUP) {
+			kernels.set(last, ((LookupTable) kernels.get(last)).then(table));
+			return this;
+		}
+
+		return this.add(Operation.LOOKUP, 0, table);
+	}
+	/**
+	 * Adds a row kernel to the pipeline, which is run on every row of the picture.
+	 *
+	 * @param kernel - The kernel to run on each row.
+	 * @return This same pipeline, used for chaining.
+	 * @throws NullArgumentException if kernel is null.
+	 */
+	public StripPipeline forEachRow(RowKernel kernel) {
+		if (kernel == null)
+			throw new NullArgumentException("kernel");
+
+		return this.add(Operation.ROWS, 0, kernel);
+	}
+	/**
+	 * Adds a blur with a radius of Bitmap.BLUR_RADIUS to the pipeline.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public StripPipeline blur() {
+		return this.blur(Bitmap.BLUR_RADIUS);
+	}
+	/**
+	 * Adds a blur to the pipeline.
+	 *
+	 * @param radius - The radius (in pixels) at which blur should look ahead to.
+	 * @return This same pipeline, used for chaining.
+	 * @throws IllegalArgumentException if the radius is negative.
+	 */
+	public StripPipeline blur(int radius) {
+		if (radius < 0)
+			throw new IllegalArgumentException("radius should be positive.");
+
+		return this.add(Operation.BLUR, radius);
+	}
+	/**
+	 * Adds a shrink by two to the pipeline.
+	 * @return This same pipeline, used for chaining.
+	 */
+	public StripPipeline shrink() {
+		return this.add(Operation.SHRINK, 0);
+	}
+
+	private StripPipeline add(Operation operation, int radius) {
+		return this.add(operation, radius, null);
+	}
+	private StripPipeline add(Operation operation, int radius, RowKernel kernel) {
+		operations.add(operation);
+		radii.add(radius);
+		kernels.add(kernel);
+		return this;
+	}
+
+	/**
+	 * Sets the number of threads the processing of each strip is split for; as for
+	 * Bitmap.setThreads(), the executor decides how many threads run it.
+	 * @param n - Number of threads, bigger than or equal to one.
+	 * @return true if the value was accepted; otherwise, false.
+	 */
+	public boolean setThreads(int n) {
+		if (n >= 1) {
+			this.nThreads = n;
+			return true;
+		}
+
+		return false;
+	}
+	/**
+	 * Sets the executor used to process each strip.
+	 * @param executor - The executor to use, or null to use the shared one.
+	 */
+	public void setExecutor(ParallelExecutor executor) {
+		this.executor = executor;
+	}
+
+	private void run(ParallelExecutor.RangeAction action, int splitValue) {
+		(executor != null ? executor : ParallelExecutor.getShared()).invoke(action, splitValue, nThreads);
+	}
+
+	/**
+	 * Reads the source bitmap, pushes it through the operations of the pipeline,
+	 * and writes the result to the destination bitmap. The destination is
+	 * created if it doesn't already exist, otherwise it is overwritten.
+	 *
+	 * @param src - The bitmap to read.
+	 * @param dest - The bitmap to write.
+	 * @throws BitmapNotFoundException if the source bitmap was not found.
+	 * @throws NotABitmapException if the source file is not a valid bitmap.
+	 * @throws IOException if an I/O error occurs while writing the destination.
+	 * @throws NullArgumentException if src or dest are null.
+	 */
+	public void process(File src, File dest) throws BitmapNotFoundException, NotABitmapException, IOException {
+		if (src == null)
+			throw new NullArgumentException("src");
+		if (dest == null)
+			throw new NullArgumentException("dest");
+
+		Metrics.Sample sample = Metrics.start(Metrics.STRIPS, 0);
+		BitmapReader reader = null;
+		BitmapWriter writer = null;
+		try {
+			try {
+				reader = new BitmapReader(src);
+			} catch (FileNotFoundException e) {
+				throw new BitmapNotFoundException(src);
+			}
+
+			BitmapHeader header = new BitmapHeader(reader);
+			sample.setBytes(header.getFileSize());
+			writer = new BitmapWriter(dest);
+
+			// chain the stages together, ending with the writer.
+			Stage first = new WriterStage(writer);
+			for (int i = operations.size() - 1; i >= 0; --i) {
+				Stage stage;
+				switch (operations.get(i)) {
+					case BLUR:
+						stage = new BlurStage(radii.get(i));
+						break;
+					case SHRINK:
+						stage = new ShrinkStage();
+						break;
+					default:
+						stage = new RowStage(kernels.get(i));
+						break;
+				}
+
+				stage.next = first;
+				first = stage;
+			}
+
+			first.start(header.getWidth(), header.getHeight());
+
+			// read a strip of rows, with their padding, at a time.
+			// the rows of a 32-bit bitmap lose their alpha, as the output is 24-bit,
+			// and the rows of a bitmap with a palette are decoded as they are read.
+			boolean packed = header.getBitsPerPixel() == 32;
+			PaletteDecoder decoder = header.getPalette() != null ? new PaletteDecoder(reader, header) : null;
+			int widthBytes = header.getWidth() * 3,
+				stride = header.getWidthBytes() + header.getPadding();
+			byte[][] rows = new byte[Math.min(stripHeight, Math.max(header.getHeight(), 1))][widthBytes];
+			byte[] strip = new byte[decoder == null ? stride * rows.length : 0];
+
+			for (int y = 0; y < header.getHeight(); y += rows.length) {
+				int count = Math.min(rows.length, header.getHeight() - y);
+
+				try {
+					if (decoder != null) {
+						for (int i = 0; i < count; ++i)
+							decoder.readRow(rows[i], 0);
+					} else {
+						reader.readFully(strip, 0, count * stride);
+					}
+				} catch (EOFException e) {
+					throw new NotABitmapException(src);
+				}
+
+				for (int i = 0; i < count && decoder == null; ++i) {
+					if (packed) {
+						for (int x = 0, from = i * stride, to = 0; x < header.getWidth(); ++x, from += 4, to += 3) {
+							rows[i][to] = strip[from];
+							rows[i][to + 1] = strip[from + 1];
+							rows[i][to + 2] = strip[from + 2];
+						}
+					} else {
+						System.arraycopy(strip, i * stride, rows[i], 0, widthBytes);
+					}
+				}
+
+				first.push(rows, y, count);
+			}
+
+			first.end();
+		} finally {
+			Metrics.stop(sample);
+			
+			try {
+				if (reader != null)
+					reader.close();
+			} catch (IOException e) {
+			}
+			
+			if (writer != null)
+				writer.close();
+		}
+	}
+}
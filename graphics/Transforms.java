@@ -0,0 +1,285 @@
+package graphics;
+
+/**
+ * A class which holds the geometric transforms that move pixels around without
+ * changing them: rotations, flips and transpositions.
+ *
+ * Transforms that swap the x and y axes read the source in square tiles of
+ * TILE x TILE pixels, so both the rows read and the rows written stay in cache.
+ * The tiles are spread between the threads. Transforms that keep the size of a
+ * square picture, and those that only move whole rows, are done in place.
+ *
+ * All the coordinates are those of the storage, where row zero is the first row of
+ * the file (the bottom row of the picture). Packed storages move whole pixels,
+ * alpha included.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class Transforms {
+	/**
+	 * The width and height of a tile, in pixels. A 64x64 tile of the source
+	 * and of the destination is 24 KB, which fits in the first level cache.
+	 */
+	static final int TILE = 64;
+
+	private Transforms() {
+	}
+
+	/**
+	 * Moves each pixel (x, y) of `src` to (y, x) of `dest`, flipping the
+	 * new x and/or y coordinates if asked for. `dest` should be as wide as
+	 * `src` is high, and as high as `src` is wide.
+	 *
+	 * @param src - The storage to read from.
+	 * @param dest - The storage to write to.
+	 * @param flipX - true to move the pixel to x = height - 1 - y, instead of x = y.
+	 * @param flipY - true to move the pixel to y = width - 1 - x, instead of y = x.
+	 * @param executor - The executor which runs the tiles.
+	 * @param threads - The number of threads to split the tiles for.
+	 */
+	static void swapAxes(PixelStorage src, PixelStorage dest, final boolean flipX, final boolean flipY,
+			ParallelExecutor executor, int threads) {
+		if (src instanceof PackedStorage && dest instanceof PackedStorage) {
+			swapAxes((PackedStorage) src, (PackedStorage) dest, flipX, flipY, executor, threads);
+			return;
+		}
+
+		final PixelStorage from = toArrays(src),
+				to = dest.hasArray() ? dest : new ArrayStorage(dest.getWidth(), dest.getHeight(), false);
+		final int width = from.getWidth(), height = from.getHeight();
+		final int tilesX = (width + TILE - 1) / TILE, tilesY = (height + TILE - 1) / TILE;
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				for (int t = start; t < end; ++t) {
+					int x_start = (t % tilesX) * TILE, x_end = Math.min(x_start + TILE, width),
+						y_start = (t / tilesX) * TILE, y_end = Math.min(y_start + TILE, height);
+
+					for (int y = y_start; y < y_end; ++y) {
+						byte[] row = from.rowArray(y);
+						int offset = from.rowOffset(y) + x_start * 3;
+						int destX = (flipX ? height - 1 - y : y) * 3;
+
+						for (int x = x_start; x < x_end; ++x, offset += 3) {
+							int destY = flipY ? width - 1 - x : x;
+							byte[] destRow = to.rowArray(destY);
+							int i = to.rowOffset(destY) + destX;
+
+							destRow[i] = row[offset];
+							destRow[i + 1] = row[offset + 1];
+							destRow[i + 2] = row[offset + 2];
+						}
+					}
+				}
+			}
+		}, tilesX * tilesY, threads);
+
+		if (to != dest)
+			to.copyTo(dest);
+	}
+
+	private static void swapAxes(final PackedStorage src, final PackedStorage dest, final boolean flipX,
+			final boolean flipY, ParallelExecutor executor, int threads) {
+		final int[] from = src.getData(), to = dest.getData();
+		final int width = src.getWidth(), height = src.getHeight();
+		final int tilesX = (width + TILE - 1) / TILE, tilesY = (height + TILE - 1) / TILE;
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				for (int t = start; t < end; ++t) {
+					int x_start = (t % tilesX) * TILE, x_end = Math.min(x_start + TILE, width),
+						y_start = (t / tilesX) * TILE, y_end = Math.min(y_start + TILE, height);
+
+					for (int y = y_start; y < y_end; ++y) {
+						int offset = src.pixelOffset(y);
+						int destX = flipX ? height - 1 - y : y;
+
+						for (int x = x_start; x < x_end; ++x)
+							to[dest.pixelOffset(flipY ? width - 1 - x : x) + destX] = from[offset + x];
+					}
+				}
+			}
+		}, tilesX * tilesY, threads);
+	}
+
+	/**
+	 * Moves each pixel (x, y) of a square storage to (y, x), in place.
+	 *
+	 * @param storage - The square storage to transpose.
+	 * @param executor - The executor which runs the tiles.
+	 * @param threads - The number of threads to split the tiles for.
+	 */
+	static void transposeSquare(PixelStorage storage, ParallelExecutor executor, int threads) {
+		if (storage instanceof PackedStorage) {
+			transposeSquare((PackedStorage) storage, executor, threads);
+			return;
+		}
+
+		final PixelStorage square = toArrays(storage);
+		final int size = square.getWidth(), tiles = (size + TILE - 1) / TILE;
+
+		// each tile above the diagonal is swapped with its mirror below the
+		// diagonal; the tiles on the diagonal are transposed on their own.
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				for (int ty = start; ty < end; ++ty) {
+					int y_start = ty * TILE, y_end = Math.min(y_start + TILE, size);
+
+					for (int tx = ty; tx < tiles; ++tx) {
+						int x_start = tx * TILE, x_end = Math.min(x_start + TILE, size);
+
+						for (int y = y_start; y < y_end; ++y) {
+							byte[] row = square.rowArray(y);
+							int offset = square.rowOffset(y);
+
+							for (int x = (tx == ty ? y + 1 : x_start); x < x_end; ++x) {
+								byte[] other = square.rowArray(x);
+								int i = offset + x * 3, j = square.rowOffset(x) + y * 3;
+
+								for (int c = 0; c < 3; ++c) {
+									byte temp = row[i + c];
+									row[i + c] = other[j + c];
+									other[j + c] = temp;
+								}
+							}
+						}
+					}
+				}
+			}
+		}, tiles, threads);
+
+		if (square != storage)
+			square.copyTo(storage);
+	}
+
+	private static void transposeSquare(final PackedStorage storage, ParallelExecutor executor, int threads) {
+		final int[] pixels = storage.getData();
+		final int size = storage.getWidth(), tiles = (size + TILE - 1) / TILE;
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				for (int ty = start; ty < end; ++ty) {
+					int y_start = ty * TILE, y_end = Math.min(y_start + TILE, size);
+
+					for (int tx = ty; tx < tiles; ++tx) {
+						int x_start = tx * TILE, x_end = Math.min(x_start + TILE, size);
+
+						for (int y = y_start; y < y_end; ++y) {
+							for (int x = (tx == ty ? y + 1 : x_start); x < x_end; ++x) {
+								int i = storage.pixelOffset(y) + x, j = storage.pixelOffset(x) + y;
+								int temp = pixels[i];
+								pixels[i] = pixels[j];
+								pixels[j] = temp;
+							}
+						}
+					}
+				}
+			}
+		}, tiles, threads);
+	}
+
+	/**
+	 * Swaps row y with row (height - 1 - y), in place, and mirrors the rows
+	 * horizontally if asked for. Flipping and mirroring rotates the picture
+	 * by 180 degrees.
+	 *
+	 * @param storage - The storage to flip.
+	 * @param mirror - true to also mirror the rows horizontally.
+	 * @param executor - The executor which runs the rows.
+	 * @param threads - The number of threads to split the rows for.
+	 */
+	static void flipRows(final PixelStorage storage, final boolean mirror, ParallelExecutor executor, int threads) {
+		if (storage instanceof PackedStorage) {
+			flipRows((PackedStorage) storage, mirror, executor, threads);
+			return;
+		}
+
+		final int height = storage.getHeight(), width = storage.getWidth();
+
+		// the middle row of an odd height is only mirrored.
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				byte[] top = new byte[storage.getWidthBytes()],
+					   bottom = new byte[storage.getWidthBytes()];
+
+				for (int y = start; y < end; ++y) {
+					int other = height - 1 - y;
+
+					storage.getRow(y, top, 0);
+					storage.getRow(other, bottom, 0);
+					if (mirror) {
+						Kernels.horizontalMirror(top, 0, width);
+						if (other != y)
+							Kernels.horizontalMirror(bottom, 0, width);
+					}
+
+					storage.setRow(y, bottom, 0);
+					storage.setRow(other, top, 0);
+				}
+			}
+		}, (height + 1) / 2, threads);
+	}
+
+	private static void flipRows(final PackedStorage storage, final boolean mirror, ParallelExecutor executor,
+			int threads) {
+		final int[] pixels = storage.getData();
+		final int height = storage.getHeight(), width = storage.getWidth();
+
+		executor.invoke(new ParallelExecutor.RangeAction() {
+			@Override
+			void execute(int start, int end) {
+				for (int y = start; y < end; ++y) {
+					int top = storage.pixelOffset(y), bottom = storage.pixelOffset(height - 1 - y);
+
+					if (mirror) {
+						// pixel x of one row goes to (width - 1 - x) of the other.
+						for (int x = 0, last = top == bottom ? width / 2 : width; x < last; ++x) {
+							int temp = pixels[top + x];
+							pixels[top + x] = pixels[bottom + width - 1 - x];
+							pixels[bottom + width - 1 - x] = temp;
+						}
+					} else if (top != bottom) {
+						for (int x = 0; x < width; ++x) {
+							int temp = pixels[top + x];
+							pixels[top + x] = pixels[bottom + x];
+							pixels[bottom + x] = temp;
+						}
+					}
+				}
+			}
+		}, (height + 1) / 2, threads);
+	}
+
+	/**
+	 * Mirrors each row horizontally, in place.
+	 *
+	 * @param storage - The storage to mirror.
+	 * @param executor - The executor which runs the rows.
+	 * @param threads - The number of threads to split the rows for.
+	 */
+	static void mirrorRows(PixelStorage storage, ParallelExecutor executor, int threads) {
+		Kernels.forEachRow(storage, Kernels.HORIZONTAL_MIRROR, executor, threads);
+	}
+
+	/**
+	 * Gets a storage kept in arrays with the same colors. The tiled transforms
+	 * need direct access to the rows.
+	 *
+	 * @param storage - The storage.
+	 * @return The same storage if it is kept in arrays; otherwise, a copy of it.
+	 */
+	private static PixelStorage toArrays(PixelStorage storage) {
+		if (storage.hasArray())
+			return storage;
+
+		PixelStorage copy = new ArrayStorage(storage.getWidth(), storage.getHeight(), false);
+		storage.copyTo(copy);
+		return copy;
+	}
+}
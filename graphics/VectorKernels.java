@@ -0,0 +1,331 @@
+package graphics;
+
+import jdk.incubator.vector.*;
+
+/**
+ * The row operations of Kernels, done on many colors at once with the vector API
+ * (jdk.incubator.vector). This class is only loaded when the module is available,
+ * which needs the "--add-modules jdk.incubator.vector" option; Kernels uses its own
+ * loops otherwise. Every method gives exactly the same colors as Kernels.
+ *
+ * The colors of a row are interleaved (blue, green, red, blue, ...), so the
+ * operations which treat each component differently load a vector of bytes,
+ * and rearrange it to get the components they need in the lanes they need.
+ * The end of each row, which does not fill a vector, is done by plain loops.
+ *
+ * All the vectors have the same size: conversions between vectors of different
+ * sizes, and between floating point numbers and ints, are slow or not compiled to
+ * vector instructions at all. Instead, bytes are moved to the first byte of wider lanes,
+ * and small integers are turned into floats (and back) by adding a large power of two,
+ * whose bits end with the integer.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class VectorKernels {
+	private static final VectorShape SHAPE = VectorShape.preferredShape();
+	private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, SHAPE);
+	private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class, SHAPE);
+	private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, SHAPE);
+
+	/**
+	 * 2^23 as a float: adding an integer smaller than it gives
+	 * a float whose last bits are that integer.
+	 */
+	private static final float FLOAT_MAGIC = 0x1p23f;
+	private static final int FLOAT_MAGIC_BITS = Float.floatToIntBits(FLOAT_MAGIC);
+
+	/**
+	 * Gray-scale is calculated with the fixed point weights of Kernels, one
+	 * pixel per lane of ints. Each component is moved to the first byte of a lane.
+	 */
+	private static final int GRAY_PIXELS = INTS.length();
+	private static final VectorShuffle<Byte> GRAY_BLUE = toLanes(0),
+			GRAY_GREEN = toLanes(1),
+			GRAY_RED = toLanes(2),
+			GRAY_SPREAD = fromLanes();
+	private static final VectorMask<Byte> GRAY_MASK = BYTES.indexInRange(0, GRAY_PIXELS * 3);
+
+	/**
+	 * Shrink reads two pixels for each pixel it writes, so there are as many
+	 * pixels per step as fit twice in a vector of bytes. The sums of four colors
+	 * are kept in shorts, which fill half as many lanes.
+	 */
+	private static final int SHRINK_PIXELS = BYTES.length() / 6;
+	private static final VectorShuffle<Byte> SHRINK_LEFT = shrinkShuffle(0),
+			SHRINK_RIGHT = shrinkShuffle(3);
+	private static final VectorMask<Byte> SHRINK_MASK = BYTES.indexInRange(0, SHRINK_PIXELS * 3);
+
+	/**
+	 * The averages of blur are calculated with floats. Each vector of bytes
+	 * is filled with the averages of four vectors of ints.
+	 */
+	private static final int INTS_PER_BYTES = BYTES.length() / INTS.length();
+	private static final VectorShuffle<Byte>[] AVERAGE_PACK = packShuffles();
+	private static final VectorMask<Byte>[] AVERAGE_MASK = packMasks();
+
+	/**
+	 * The sums should stay below 2^23 to be turned into floats, and below 2^24
+	 * for a float division truncated to an int to be the same as an int division.
+	 */
+	private static final int MAX_FLOAT_SUM = 1 << 23;
+
+	private VectorKernels() {
+	}
+
+	/**
+	 * Tells whether the vectors are big enough to be worth using. The vector API
+	 * works on any computer, but it is slower than plain loops when the processor
+	 * does not have vector instructions.
+	 *
+	 * @return true if the vector operations should be used; otherwise, false.
+	 */
+	static boolean isSupported() {
+		return GRAY_PIXELS >= 2 && SHRINK_PIXELS >= 1;
+	}
+
+	/**
+	 * Inverts the colors of a row.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 */
+	static void invert(byte[] row, int offset, int width) {
+		int i = offset, end = offset + width * 3;
+
+		// 255 - color is the same as flipping all the bits of the byte.
+		for (int last = end - BYTES.length(); i <= last; i += BYTES.length())
+			ByteVector.fromArray(BYTES, row, i).not().intoArray(row, i);
+
+		// the vectors do not end on a pixel, so the rest is done a byte at a time.
+		for (; i < end; ++i)
+			row[i] = (byte) (255 - (row[i] & 0xFF));
+	}
+
+	/**
+	 * Changes the colors of a row to gray-scale.
+	 *
+	 * @param row - The array which holds the row.
+	 * @param offset - The offset at which the row starts.
+	 * @param width - The width of the row, in pixels.
+	 */
+	static void grayscale(byte[] row, int offset, int width) {
+		int i = offset, end = offset + width * 3;
+
+		// a whole vector is read and written back, but only the first pixels change.
+		for (int last = end - BYTES.length(); i <= last; i += GRAY_PIXELS * 3) {
+			ByteVector colors = ByteVector.fromArray(BYTES, row, i);
+
+			IntVector gray = toInts(colors, GRAY_RED).mul(Kernels.GRAY_RED)
+					.add(toInts(colors, GRAY_GREEN).mul(Kernels.GRAY_GREEN))
+					.add(toInts(colors, GRAY_BLUE).mul(Kernels.GRAY_BLUE))
+					.mul(Kernels.GRAY_SCALE)
+					.lanewise(VectorOperators.LSHR, Kernels.GRAY_SHIFT);
+
+			colors.blend(gray.reinterpretAsBytes().rearrange(GRAY_SPREAD), GRAY_MASK).intoArray(row, i);
+		}
+
+		Kernels.grayscaleScalar(row, i, (end - i) / 3);
+	}
+
+	/**
+	 * Gets one component of each pixel as ints.
+	 * @param colors - The colors of the pixels.
+	 * @param component - The shuffle which gets the component of each pixel.
+	 * @return The components, between 0 and 255.
+	 */
+	private static IntVector toInts(ByteVector colors, VectorShuffle<Byte> component) {
+		return colors.rearrange(component).reinterpretAsInts().and(0xFF);
+	}
+
+	/**
+	 * Averages each 2x2 square of pixels of two rows into one pixel.
+	 *
+	 * @param top - The array which holds the first row.
+	 * @param topOffset - The offset at which the first row starts.
+	 * @param bottom - The array which holds the second row.
+	 * @param bottomOffset - The offset at which the second row starts.
+	 * @param newWidth - The width of the shrunk row, in pixels.
+	 * @param dest - The array to which the shrunk row is written.
+	 * @param destOffset - The offset at which the shrunk row starts.
+	 */
+	static void shrink(byte[] top, int topOffset, byte[] bottom, int bottomOffset, int newWidth,
+			byte[] dest, int destOffset) {
+		int x = 0;
+
+		// each step reads and writes a whole vector, which should stay inside the rows.
+		for (int last = newWidth * 3 - BYTES.length(); x * 3 <= last; x += SHRINK_PIXELS) {
+			int t = topOffset + x * 6, b = bottomOffset + x * 6, d = destOffset + x * 3;
+
+			ByteVector upper = ByteVector.fromArray(BYTES, top, t),
+					   lower = ByteVector.fromArray(BYTES, bottom, b);
+
+			ShortVector sum = toShorts(upper.rearrange(SHRINK_LEFT))
+					.add(toShorts(upper.rearrange(SHRINK_RIGHT)))
+					.add(toShorts(lower.rearrange(SHRINK_LEFT)))
+					.add(toShorts(lower.rearrange(SHRINK_RIGHT)))
+					.lanewise(VectorOperators.LSHR, 2);
+
+			ByteVector old = ByteVector.fromArray(BYTES, dest, d);
+			old.blend(sum.convertShape(VectorOperators.S2B, BYTES, 0), SHRINK_MASK).intoArray(dest, d);
+		}
+
+		Kernels.shrinkScalar(top, topOffset + x * 6, bottom, bottomOffset + x * 6, newWidth - x,
+				dest, destOffset + x * 3);
+	}
+
+	/**
+	 * Gets the colors of the first half of a vector of bytes as shorts.
+	 * @param bytes - The colors.
+	 * @return The colors, between 0 and 255.
+	 */
+	private static ShortVector toShorts(ByteVector bytes) {
+		return ((ShortVector) bytes.convertShape(VectorOperators.B2S, SHORTS, 0)).and((short) 0xFF);
+	}
+
+	/**
+	 * Adds `values` (multiplied by `sign`) to `sums`.
+	 *
+	 * @param values - The values to add.
+	 * @param sums - The sums to add the values to.
+	 * @param length - The number of values.
+	 * @param sign - 1 to add the values, -1 to subtract them.
+	 */
+	static void addSums(int[] values, int[] sums, int length, int sign) {
+		int i = 0, last = length - INTS.length();
+
+		if (sign < 0) {
+			for (; i <= last; i += INTS.length())
+				IntVector.fromArray(INTS, sums, i).sub(IntVector.fromArray(INTS, values, i)).intoArray(sums, i);
+		} else {
+			for (; i <= last; i += INTS.length())
+				IntVector.fromArray(INTS, sums, i).add(IntVector.fromArray(INTS, values, i)).intoArray(sums, i);
+		}
+
+		for (; i < length; ++i)
+			sums[i] += sign * values[i];
+	}
+
+	/**
+	 * Divides `sums` by `count`, and writes the results as colors.
+	 *
+	 * @param sums - The sums to divide.
+	 * @param start - The index of the first sum.
+	 * @param end - The index after the last sum.
+	 * @param count - The number of colors added to each sum.
+	 * @param dest - The array to which the averages are written.
+	 * @param offset - The offset at which the average of the sum at zero is written.
+	 */
+	static void divide(int[] sums, int start, int end, int count, byte[] dest, int offset) {
+		int i = start;
+
+		// the sums are at most 255 * count.
+		if ((long) count * 255 < MAX_FLOAT_SUM) {
+			float divisor = count;
+
+			for (int last = end - BYTES.length(); i <= last; i += BYTES.length()) {
+				ByteVector averages = ByteVector.zero(BYTES);
+
+				for (int part = 0; part < INTS_PER_BYTES; ++part) {
+					IntVector sum = IntVector.fromArray(INTS, sums, i + part * INTS.length());
+
+					// the bits of 2^23 + sum, as a float, minus 2^23 is the sum.
+					FloatVector average = sum.or(FLOAT_MAGIC_BITS).reinterpretAsFloats()
+							.sub(FLOAT_MAGIC).div(divisor);
+
+					FloatVector rounded = average.add(FLOAT_MAGIC);
+					rounded = rounded.sub(1.0f, rounded.sub(FLOAT_MAGIC).compare(VectorOperators.GT, average));
+
+					averages = averages.blend(rounded.reinterpretAsBytes().rearrange(AVERAGE_PACK[part]),
+							AVERAGE_MASK[part]);
+				}
+
+				averages.intoArray(dest, offset + i);
+			}
+		}
+
+		for (; i < end; ++i)
+			dest[offset + i] = (byte) (sums[i] / count);
+	}
+
+	/**
+	 * Makes a shuffle which moves one component of each pixel to the first byte
+	 * of a lane of ints.
+	 *
+	 * @param component - The component: 0 for blue, 1 for green and 2 for red.
+	 * @return The shuffle.
+	 */
+	private static VectorShuffle<Byte> toLanes(int component) {
+		int[] indexes = new int[BYTES.length()];
+		for (int i = 0; i < indexes.length; i += 4)
+			indexes[i] = (i / 4) * 3 + component;
+
+		return VectorShuffle.fromArray(BYTES, indexes, 0);
+	}
+
+	/**
+	 * Makes a shuffle which copies the first byte of each lane of ints
+	 * to the three components of a pixel.
+	 *
+	 * @return The shuffle.
+	 */
+	private static VectorShuffle<Byte> fromLanes() {
+		int[] indexes = new int[BYTES.length()];
+		for (int i = 0; i < GRAY_PIXELS * 3; ++i)
+			indexes[i] = (i / 3) * 4;
+
+		return VectorShuffle.fromArray(BYTES, indexes, 0);
+	}
+
+	/**
+	 * Makes a shuffle which gets, for each component of each shrunk pixel, the
+	 * same component of the left (or right) pixel of the pair it comes from.
+	 *
+	 * @param right - 0 for the left pixel, or 3 for the right pixel.
+	 * @return The shuffle.
+	 */
+	private static VectorShuffle<Byte> shrinkShuffle(int right) {
+		int[] indexes = new int[BYTES.length()];
+		for (int i = 0; i < SHRINK_PIXELS * 3; ++i)
+			indexes[i] = (i / 3) * 6 + i % 3 + right;
+
+		return VectorShuffle.fromArray(BYTES, indexes, 0);
+	}
+
+	/**
+	 * Makes the shuffles which move the first byte of each lane of a vector of
+	 * ints to its part of a vector of bytes.
+	 *
+	 * @return The shuffle of each part.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static VectorShuffle<Byte>[] packShuffles() {
+		VectorShuffle<Byte>[] shuffles = new VectorShuffle[INTS_PER_BYTES];
+
+		for (int part = 0; part < shuffles.length; ++part) {
+			int[] indexes = new int[BYTES.length()];
+			for (int lane = 0; lane < INTS.length(); ++lane)
+				indexes[part * INTS.length() + lane] = lane * 4;
+
+			shuffles[part] = VectorShuffle.fromArray(BYTES, indexes, 0);
+		}
+
+		return shuffles;
+	}
+
+	/**
+	 * Makes the masks of the parts of a vector of bytes filled by packShuffles().
+	 * @return The mask of each part.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static VectorMask<Byte>[] packMasks() {
+		VectorMask<Byte>[] masks = new VectorMask[INTS_PER_BYTES];
+
+		// a lane is in the part if lane - part * INTS.length() is within [0, INTS.length()).
+		for (int part = 0; part < masks.length; ++part)
+			masks[part] = BYTES.indexInRange(-part * INTS.length(), INTS.length());
+
+		return masks;
+	}
+}
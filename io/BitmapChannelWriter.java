@@ -0,0 +1,117 @@
+package io;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * A BitmapChannelWriter writes data to a Bitmap file through a FileChannel, using
+ * gathering writes so many buffers (such as the rows of a bitmap and their padding)
+ * can be written with a single call. It keeps track of the number of bytes
+ * written, and the time spent writing them.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class BitmapChannelWriter implements Closeable {
+	/**
+	 * The maximum number of buffers passed to a single gathering write. Most
+	 * systems do not accept more than 1024 at once.
+	 */
+	public static final int MAX_BUFFERS = 1024;
+
+	private FileChannel channel;
+	private long bytesWritten;
+	private long elapsedNanos;
+
+	/**
+	 * Creates a BitmapChannelWriter by opening a channel to an actual file. The file
+	 * is created if it does not exist, otherwise it is overwritten.
+	 *
+	 * @param file - the file to be opened for writing.
+	 * @throws IOException if the file cannot be opened for writing.
+	 */
+	public BitmapChannelWriter(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Writes the remaining bytes of a buffer to the file.
+	 *
+	 * @param buffer - The buffer to write.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(ByteBuffer buffer) throws IOException {
+		this.write(new ByteBuffer[] { buffer }, 0, 1);
+	}
+
+	/**
+	 * Writes the remaining bytes of a sequence of buffers to the file,
+	 * in order, using as few gathering writes as possible.
+	 *
+	 * @param buffers - The buffers to write.
+	 * @param offset - The index of the first buffer to write.
+	 * @param length - The number of buffers to write.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+		long start = System.nanoTime();
+
+		while (length > 0) {
+			// skip the buffers which were written completely
+			if (!buffers[offset].hasRemaining()) {
+				++offset;
+				--length;
+				continue;
+			}
+
+			bytesWritten += channel.write(buffers, offset, Math.min(length, MAX_BUFFERS));
+		}
+
+		elapsedNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Writes the remaining bytes of a buffer at a position of the file, such as a
+	 * header which could only be completed once what follows it was written. The
+	 * next write() still goes after what was written so far. The bytes are not added
+	 * to getBytesWritten(), as they replace bytes which were already written.
+	 *
+	 * @param buffer - The buffer to write.
+	 * @param position - The position in the file at which the buffer is written.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(ByteBuffer buffer, long position) throws IOException {
+		long start = System.nanoTime();
+
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+
+		elapsedNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Gets the number of bytes written to the file so far.
+	 * @return The number of bytes written.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Gets the time spent writing to the file so far.
+	 * @return The time spent writing, in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Closes the underlying channel.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+}
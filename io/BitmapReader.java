@@ -1,5 +1,7 @@
 package io;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel.MapMode;
 
 /**
  * A BitmapReader supplies functions allowing to be able to read data from a Bitmap file.
@@ -46,6 +48,72 @@ public class BitmapReader extends FileInputStream {
 		return (this.read() | this.read() << 8 | this.read() << 16 | this.read() << 24);
 	}
 	
+	/**
+	 * Reads exactly `length` bytes from the current stream into an array.
+	 * 
+	 * @param b - The array to read the data into.
+	 * @param offset - The offset in the array at which the data is written.
+	 * @param length - The number of bytes to read.
+	 * @throws EOFException if the stream ends before all the bytes are read.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void readFully(byte[] b, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = this.read(b, offset, length);
+			if (n < 0)
+				throw new EOFException();
+			
+			offset += n;
+			length -= n;
+		}
+	}
+	
+	/**
+	 * Reads the file at a position into a buffer, until the buffer is full or the
+	 * file ends, without moving the position of the stream. A regular file is
+	 * usually read with a single positional read.
+	 *
+	 * @param dest - The buffer to read the data into, from its position to its limit.
+	 * @param position - The position in the file at which the data is read.
+	 * @return The number of bytes read, which is less than the buffer had room for
+	 * 		   if the file ended.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public int read(ByteBuffer dest, long position) throws IOException {
+		int read = 0;
+		while (dest.hasRemaining()) {
+			int n = this.getChannel().read(dest, position + read);
+			if (n < 0)
+				break;
+
+			read += n;
+		}
+		return read;
+	}
+
+	/**
+	 * Maps a region of the file into memory, so it can be read without copying it.
+	 * The mapping is read-only, and stays valid after the stream is closed.
+	 * 
+	 * @param position - The position in the file at which the region starts.
+	 * @param size - The size of the region, in bytes.
+	 * @return The mapped region, in little endian order.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public ByteBuffer map(long position, long size) throws IOException {
+		return this.getChannel().map(MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Gets the size of the underlying file.
+	 * 
+	 * @return The size of the file, in bytes.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public long size() throws IOException {
+		return this.getChannel().size();
+	}
+	
 	/**
 	 * Gets the file which the stream is reading from.
 	 * @return The file which the stream is reading from.
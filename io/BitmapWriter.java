@@ -28,8 +28,7 @@ public class BitmapWriter extends FileOutputStream {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public void writeInt16(short value) throws IOException {
-		this.write(value & 0xFF);
-		this.write((value >>> 8) & 0xFF);
+		this.write(new byte[] { (byte) value, (byte) (value >>> 8) });
 	}
 	
 	/**
@@ -39,9 +38,6 @@ public class BitmapWriter extends FileOutputStream {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public void writeInt32(int value) throws IOException {
-		this.write(value & 0xFF);
-		this.write((value >>> 8) & 0xFF);
-		this.write((value >>> 16) & 0xFF);
-		this.write((value >>> 24) & 0xFF);
+		this.write(new byte[] { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) });
 	}
 }
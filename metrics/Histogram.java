@@ -0,0 +1,109 @@
+package metrics;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A histogram of durations, which many threads can record to at once without
+ * locking. Each power of two is split into SUB_BUCKETS buckets, so a percentile
+ * is off by at most 1/SUB_BUCKETS (12.5%) of its value, whatever the range of
+ * the durations; the maximum is kept exactly.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class Histogram {
+	// the number of buckets each power of two is split into, and its logarithm.
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong(), total = new AtomicLong(), max = new AtomicLong();
+
+	/**
+	 * Adds a duration to the histogram.
+	 * @param nanos - The duration, in nanoseconds.
+	 */
+	void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+		}
+	}
+
+	/**
+	 * Gets the number of durations recorded.
+	 * @return The number of durations.
+	 */
+	long getCount() {
+		return count.get();
+	}
+	/**
+	 * Gets the sum of the durations recorded.
+	 * @return The sum, in nanoseconds.
+	 */
+	long getTotal() {
+		return total.get();
+	}
+	/**
+	 * Gets the longest duration recorded.
+	 * @return The longest duration, in nanoseconds.
+	 */
+	long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the duration below which a part of the durations are.
+	 *
+	 * @param fraction - The part of the durations, such as 0.99 for the 99th percentile.
+	 * @return The highest duration of the bucket which holds the percentile, or zero
+	 *         if nothing was recorded.
+	 */
+	long getPercentile(double fraction) {
+		long count = this.getCount();
+		if (count == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(fraction * count)), seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highest(i), this.getMax());
+		}
+
+		return this.getMax();
+	}
+
+	/**
+	 * Gets the bucket of a duration. The durations below SUB_BUCKETS each have their
+	 * own bucket; the others are put by their highest bit and the SUB_BITS bits after it.
+	 */
+	private static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS)
+			return (int) nanos;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Gets the highest duration which is put in a bucket.
+	 */
+	private static long highest(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long lowest = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,449 @@
+package metrics;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+
+/**
+ * Metrics of the Bitmap operations: the latency of each kind of operation (as a
+ * histogram, so p50, p99 and max can be read), the bytes it processed and
+ * allocated, and the busy and idle time of each worker of the ParallelExecutors.
+ * They can be pulled at any time with snapshot(), or read through JMX once
+ * registerMBean() was called.
+ *
+ * The metrics are off by default; -Dbitmap.metrics=true turns them on and registers
+ * the MBean when the first operation is done, or setEnabled() can be called.
+ * When they are off, an operation only costs a check of a volatile field.
+ *
+ * An operation records itself like this:
+ *
+ *     Metrics.Sample sample = Metrics.start(Metrics.BLUR, bytes);
+ *     try {
+ *         ...
+ *     } finally {
+ *         Metrics.stop(sample);
+ *     }
+ *
+ * Only the outermost operation of a thread is recorded: the operations it calls
+ * (such as the blur of a pipeline) are counted as a part of it.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class Metrics {
+	/**
+	 * The name under which registerMBean() registers the metrics.
+	 */
+	public static final String OBJECT_NAME = "bitmap:type=Metrics";
+
+	// the names of the operations.
+	public static final String READ = "read";
+	public static final String WRITE = "write";
+	public static final String PROBE = "probe";
+	public static final String INVERT = "invert";
+	public static final String GRAYSCALE = "grayscale";
+	public static final String ROWS = "forEachRow";
+	public static final String LOOKUP = "lookup";
+	public static final String HISTOGRAM = "histogram";
+	public static final String EQUALIZE = "equalize";
+	public static final String AUTO_LEVELS = "autoLevels";
+	public static final String HORIZONTAL_MIRROR = "horizontalMirror";
+	public static final String VERTICAL_FLIP = "verticalFlip";
+	public static final String ROTATE = "rotate";
+	public static final String TRANSPOSE = "transpose";
+	public static final String BLUR = "blur";
+	public static final String SHRINK = "shrink";
+	public static final String DOUBLE_SIZE = "doubleSize";
+	public static final String PYRAMID = "pyramid";
+	public static final String RESIZE = "resize";
+	public static final String CONVOLVE = "convolve";
+	public static final String PIPELINE = "pipeline";
+	public static final String STRIPS = "strips";
+
+	/**
+	 * An operation being recorded, returned by start().
+	 */
+	public static final class Sample {
+		private final Operation operation;
+		private final Thread thread;
+		private final long start, allocated;
+		private final AtomicLong workerAllocated = new AtomicLong();
+		private long bytes;
+
+		Sample(Operation operation, long bytes) {
+			this.operation = operation;
+			this.thread = operation != null ? Thread.currentThread() : null;
+			this.bytes = bytes;
+			this.allocated = operation != null ? allocatedBytes() : 0;
+			this.start = operation != null ? System.nanoTime() : 0;
+		}
+
+		/**
+		 * Sets the number of bytes processed by the operation, when it is only
+		 * known at its end (such as the size of a file written).
+		 *
+		 * @param bytes - The number of bytes processed.
+		 */
+		public void setBytes(long bytes) {
+			this.bytes = bytes;
+		}
+
+		private void stop() {
+			long nanos = System.nanoTime() - start;
+			operation.latency.record(nanos);
+			operation.bytes.addAndGet(bytes);
+			operation.allocated.addAndGet(allocatedBytes() - allocated + workerAllocated.get());
+		}
+	}
+
+	/**
+	 * The metrics of the workers of one executor. The executor calls chunk() after
+	 * each chunk it ran, and started() and finished() around each operation it split
+	 * between its workers. They are only listed by snapshot() once something was
+	 * recorded, and are held weakly there, so an executor which is dropped without
+	 * being shut down is forgotten, with its metrics.
+	 *
+	 * The executor is active while at least one operation runs on it; operations
+	 * which overlap are only counted once, so the idle time of a worker is the time
+	 * it did not run chunks while there was work it could have stolen. The chunks
+	 * run by the threads which called the executor (a single chunk, or one they
+	 * helped with) are kept apart, as callers.
+	 */
+	public static final class Workers {
+		private final ConcurrentHashMap<String, Worker> workers = new ConcurrentHashMap<String, Worker>(),
+				callers = new ConcurrentHashMap<String, Worker>();
+		// the number of operations running, since when, and the time active before; locked by this.
+		private int running;
+		private long activeSince, activeNanos;
+		private volatile boolean listed;
+
+		private Workers() {
+		}
+
+		/**
+		 * Lists the workers in the snapshots, the first time something is recorded.
+		 */
+		private void list() {
+			if (listed)
+				return;
+
+			synchronized (executors) {
+				executors.add(this);
+			}
+			listed = true;
+		}
+
+		/**
+		 * Records a chunk which was run on the current thread.
+		 *
+		 * @param startNanos - The value of System.nanoTime() when the chunk started.
+		 * @param startAllocated - The value of Metrics.allocatedBytes() when the chunk started.
+		 * @param sample - The operation the chunk is a part of, from Metrics.current(), or null.
+		 * @param pooled - true if the thread is a worker of the executor; false if it is
+		 * 				   a thread which called it.
+		 */
+		public void chunk(long startNanos, long startAllocated, Sample sample, boolean pooled) {
+			long nanos = System.nanoTime() - startNanos, allocated = allocatedBytes() - startAllocated;
+			this.list();
+
+			Thread thread = Thread.currentThread();
+			ConcurrentHashMap<String, Worker> threads = pooled ? workers : callers;
+			Worker worker = threads.get(thread.getName());
+			if (worker == null) {
+				Worker added = new Worker();
+				worker = threads.putIfAbsent(thread.getName(), added);
+				if (worker == null)
+					worker = added;
+			}
+
+			worker.chunks.incrementAndGet();
+			worker.busyNanos.addAndGet(nanos);
+			worker.allocated.addAndGet(allocated);
+
+			// what the calling thread allocates is already counted by the sample itself.
+			if (sample != null && sample.thread != thread)
+				sample.workerAllocated.addAndGet(allocated);
+		}
+
+		/**
+		 * Records the start of an operation which is split between the workers.
+		 */
+		public void started() {
+			this.list();
+			synchronized (this) {
+				if (running++ == 0)
+					activeSince = System.nanoTime();
+			}
+		}
+		/**
+		 * Records the end of an operation given to started().
+		 */
+		public synchronized void finished() {
+			if (--running == 0)
+				activeNanos += System.nanoTime() - activeSince;
+		}
+
+		/**
+		 * Gets the time at least one operation was running on the executor.
+		 * @return The active time, in nanoseconds.
+		 */
+		private synchronized long activeNanos() {
+			return activeNanos + (running > 0 ? System.nanoTime() - activeSince : 0);
+		}
+		private synchronized void reset() {
+			workers.clear();
+			callers.clear();
+			activeNanos = 0;
+			activeSince = System.nanoTime();
+		}
+	}
+
+	private static final class Operation {
+		final Histogram latency = new Histogram();
+		final AtomicLong bytes = new AtomicLong(), allocated = new AtomicLong();
+	}
+
+	private static final class Worker {
+		final AtomicLong chunks = new AtomicLong(), busyNanos = new AtomicLong(), allocated = new AtomicLong();
+	}
+
+	/**
+	 * Measures the bytes allocated by a thread, if the JVM can. It is only loaded
+	 * when the metrics are used.
+	 */
+	private static final class Allocations {
+		static final com.sun.management.ThreadMXBean THREADS = threads();
+
+		private static com.sun.management.ThreadMXBean threads() {
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (!(threads instanceof com.sun.management.ThreadMXBean))
+				return null;
+
+			com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+			return allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()
+					? allocations : null;
+		}
+	}
+
+	/**
+	 * The implementation of the MBean, which reads the static metrics.
+	 */
+	private static final class Bean implements MetricsMXBean {
+		public boolean isEnabled() {
+			return Metrics.isEnabled();
+		}
+		public void setEnabled(boolean enabled) {
+			Metrics.setEnabled(enabled);
+		}
+		public List<OperationMetrics> getOperations() {
+			return snapshot().getOperations();
+		}
+		public List<WorkerMetrics> getWorkers() {
+			return snapshot().getWorkers();
+		}
+		public List<WorkerMetrics> getCallers() {
+			return snapshot().getCallers();
+		}
+		public void reset() {
+			Metrics.reset();
+		}
+	}
+
+	// returned by start() when nothing is recorded.
+	private static final Sample NONE = new Sample(null, 0);
+
+	private static volatile boolean enabled = Boolean.getBoolean("bitmap.metrics");
+	private static volatile boolean registered;
+
+	private static final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+	// the workers of the executors which recorded something, held weakly; locked when used.
+	private static final Set<Workers> executors = Collections.newSetFromMap(new WeakHashMap<Workers, Boolean>());
+	private static final ThreadLocal<Sample> current = new ThreadLocal<Sample>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Checks whether the metrics are being recorded.
+	 * @return true if they are recorded; otherwise, false.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	/**
+	 * Starts or stops recording the metrics. What was recorded so far is kept.
+	 * @param enabled - true to record the metrics.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	/**
+	 * Starts recording an operation, if the metrics are on and no other operation
+	 * is being recorded on this thread. stop() should be called once it is done,
+	 * even if it failed.
+	 *
+	 * @param operation - The name of the operation, such as Metrics.BLUR.
+	 * @param bytes - The number of bytes the operation processes.
+	 * @return The sample to give to stop().
+	 */
+	public static Sample start(String operation, long bytes) {
+		if (!enabled || current.get() != null)
+			return NONE;
+
+		if (!registered && Boolean.getBoolean("bitmap.metrics"))
+			registerMBean();
+
+		Operation metrics = operations.get(operation);
+		if (metrics == null) {
+			Operation added = new Operation();
+			metrics = operations.putIfAbsent(operation, added);
+			if (metrics == null)
+				metrics = added;
+		}
+
+		Sample sample = new Sample(metrics, bytes);
+		current.set(sample);
+		return sample;
+	}
+
+	/**
+	 * Stops recording an operation, and adds its duration to the histogram.
+	 * @param sample - The sample returned by start().
+	 */
+	public static void stop(Sample sample) {
+		if (sample == NONE)
+			return;
+
+		current.remove();
+		sample.stop();
+	}
+
+	/**
+	 * Gets the operation being recorded on this thread.
+	 * @return The sample of the operation, or null if there is none.
+	 */
+	public static Sample current() {
+		return enabled ? current.get() : null;
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread so far.
+	 * @return The number of bytes, or zero if the JVM cannot measure it.
+	 */
+	public static long allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = Allocations.THREADS;
+		return threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+	}
+
+	/**
+	 * Creates the metrics of the workers of a new executor. They are not listed by
+	 * snapshot() until the executor records something.
+	 * @return The metrics of the workers.
+	 */
+	public static Workers newWorkers() {
+		return new Workers();
+	}
+	/**
+	 * Drops the metrics of the workers of an executor which was shut down. An executor
+	 * which is dropped without being shut down is forgotten once it is collected.
+	 * @param workers - The metrics of the workers.
+	 */
+	public static void removeWorkers(Workers workers) {
+		synchronized (executors) {
+			executors.remove(workers);
+		}
+	}
+
+	/**
+	 * Gets the workers of the executors which are still listed.
+	 * @return A copy of the list of workers.
+	 */
+	private static List<Workers> executors() {
+		synchronized (executors) {
+			return new ArrayList<Workers>(executors);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of all the metrics.
+	 * @return The snapshot.
+	 */
+	public static MetricsSnapshot snapshot() {
+		List<OperationMetrics> results = new ArrayList<OperationMetrics>();
+		for (Map.Entry<String, Operation> entry : new TreeMap<String, Operation>(operations).entrySet()) {
+			Operation operation = entry.getValue();
+			results.add(new OperationMetrics(entry.getKey(), operation.latency, operation.bytes.get(),
+					operation.allocated.get()));
+		}
+
+		List<WorkerMetrics> workers = new ArrayList<WorkerMetrics>();
+		// a thread may call several executors, so its chunks are added up.
+		Map<String, long[]> callers = new TreeMap<String, long[]>();
+		for (Workers executor : executors()) {
+			long active = executor.activeNanos();
+			for (Map.Entry<String, Worker> entry : executor.workers.entrySet()) {
+				Worker worker = entry.getValue();
+				long busy = worker.busyNanos.get();
+				workers.add(new WorkerMetrics(entry.getKey(), worker.chunks.get(), busy, Math.max(0, active - busy),
+						worker.allocated.get()));
+			}
+			for (Map.Entry<String, Worker> entry : executor.callers.entrySet()) {
+				long[] totals = callers.get(entry.getKey());
+				if (totals == null)
+					callers.put(entry.getKey(), totals = new long[3]);
+
+				totals[0] += entry.getValue().chunks.get();
+				totals[1] += entry.getValue().busyNanos.get();
+				totals[2] += entry.getValue().allocated.get();
+			}
+		}
+		Collections.sort(workers, new Comparator<WorkerMetrics>() {
+			public int compare(WorkerMetrics a, WorkerMetrics b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+
+		// a caller only runs chunks of its own operations, so it has no idle time.
+		List<WorkerMetrics> callerMetrics = new ArrayList<WorkerMetrics>();
+		for (Map.Entry<String, long[]> entry : callers.entrySet()) {
+			long[] totals = entry.getValue();
+			callerMetrics.add(new WorkerMetrics(entry.getKey(), totals[0], totals[1], 0, totals[2]));
+		}
+
+		return new MetricsSnapshot(System.currentTimeMillis(), results, workers, callerMetrics);
+	}
+
+	/**
+	 * Clears all the metrics recorded so far.
+	 */
+	public static void reset() {
+		operations.clear();
+		for (Workers executor : executors())
+			executor.reset();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under OBJECT_NAME,
+	 * if they were not registered yet.
+	 *
+	 * @throws IllegalStateException if the MBean cannot be registered.
+	 */
+	public static synchronized void registerMBean() {
+		if (registered)
+			return;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// registered by another copy of this class.
+		} catch (JMException e) {
+			throw new IllegalStateException("the metrics could not be registered.", e);
+		}
+
+		registered = true;
+	}
+}
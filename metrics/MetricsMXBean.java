@@ -0,0 +1,44 @@
+package metrics;
+
+import java.util.*;
+
+/**
+ * The management interface of the metrics, registered by Metrics.registerMBean()
+ * under Metrics.OBJECT_NAME, so they can be read with JConsole or any JMX client.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public interface MetricsMXBean {
+	/**
+	 * Checks whether the metrics are being recorded.
+	 * @return true if they are recorded; otherwise, false.
+	 */
+	boolean isEnabled();
+	/**
+	 * Starts or stops recording the metrics.
+	 * @param enabled - true to record the metrics.
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Gets the metrics of each operation.
+	 * @return The metrics of the operations which were done at least once.
+	 */
+	List<OperationMetrics> getOperations();
+	/**
+	 * Gets the metrics of each worker thread.
+	 * @return The metrics of the workers which ran at least one chunk.
+	 */
+	List<WorkerMetrics> getWorkers();
+	/**
+	 * Gets the metrics of the threads which ran chunks of their own operations.
+	 * @return The metrics of the callers which ran at least one chunk.
+	 */
+	List<WorkerMetrics> getCallers();
+
+	/**
+	 * Clears all the metrics recorded so far.
+	 */
+	void reset();
+}
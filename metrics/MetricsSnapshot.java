@@ -0,0 +1,94 @@
+package metrics;
+
+import java.util.*;
+
+/**
+ * The metrics of all the operations and of all the workers, taken at once
+ * by Metrics.snapshot(). A snapshot does not change afterwards.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class MetricsSnapshot {
+	private final long timestamp;
+	private final List<OperationMetrics> operations;
+	private final List<WorkerMetrics> workers, callers;
+
+	MetricsSnapshot(long timestamp, List<OperationMetrics> operations, List<WorkerMetrics> workers,
+			List<WorkerMetrics> callers) {
+		this.timestamp = timestamp;
+		this.operations = Collections.unmodifiableList(operations);
+		this.workers = Collections.unmodifiableList(workers);
+		this.callers = Collections.unmodifiableList(callers);
+	}
+
+	/**
+	 * Gets the time at which the snapshot was taken.
+	 * @return The time, in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	/**
+	 * Gets the metrics of the operations which were done at least once.
+	 * @return The metrics of each operation, sorted by name.
+	 */
+	public List<OperationMetrics> getOperations() {
+		return operations;
+	}
+	/**
+	 * Gets the metrics of one operation.
+	 *
+	 * @param name - The name of the operation, such as Metrics.BLUR.
+	 * @return The metrics of the operation, or null if it was never done.
+	 */
+	public OperationMetrics getOperation(String name) {
+		for (OperationMetrics operation : operations)
+			if (operation.getName().equals(name))
+				return operation;
+
+		return null;
+	}
+	/**
+	 * Gets the metrics of the worker threads of the executors which ran at least one chunk.
+	 * @return The metrics of each worker, sorted by name.
+	 */
+	public List<WorkerMetrics> getWorkers() {
+		return workers;
+	}
+	/**
+	 * Gets the metrics of the threads which ran chunks of the operations they called,
+	 * such as the operations which are not split, or the chunks they helped with.
+	 * Their idle time is always zero.
+	 *
+	 * @return The metrics of each caller, sorted by name.
+	 */
+	public List<WorkerMetrics> getCallers() {
+		return callers;
+	}
+
+	/**
+	 * Formats the snapshot as three tables, for the operations, the workers and
+	 * the callers, with the times in milliseconds and the sizes in megabytes.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%-12s %8s %10s %10s %10s %10s %10s%n", "operation", "count", "p50 ms", "p99 ms",
+				"max ms", "MB", "alloc MB"));
+		for (OperationMetrics operation : operations)
+			builder.append(operation).append(String.format("%n"));
+
+		builder.append(String.format("%-28s %8s %10s %10s %10s%n", "worker", "chunks", "busy ms", "idle ms", "alloc MB"));
+		for (WorkerMetrics worker : workers)
+			builder.append(worker).append(String.format("%n"));
+
+		if (!callers.isEmpty()) {
+			builder.append(String.format("%-28s %8s %10s %10s %10s%n", "caller", "chunks", "busy ms", "idle ms", "alloc MB"));
+			for (WorkerMetrics caller : callers)
+				builder.append(caller).append(String.format("%n"));
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,93 @@
+package metrics;
+
+/**
+ * The metrics of one kind of operation, such as "blur" or "read", at the time
+ * of a snapshot. All the durations are in nanoseconds.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class OperationMetrics {
+	private final String name;
+	private final long count, totalNanos, p50Nanos, p99Nanos, maxNanos;
+	private final long bytes, allocatedBytes;
+
+	OperationMetrics(String name, Histogram latency, long bytes, long allocatedBytes) {
+		this.name = name;
+		this.count = latency.getCount();
+		this.totalNanos = latency.getTotal();
+		this.p50Nanos = latency.getPercentile(0.50);
+		this.p99Nanos = latency.getPercentile(0.99);
+		this.maxNanos = latency.getMax();
+		this.bytes = bytes;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/**
+	 * Gets the name of the operation.
+	 * @return The name of the operation, such as "blur".
+	 */
+	public String getName() {
+		return name;
+	}
+	/**
+	 * Gets the number of times the operation was done.
+	 * @return The number of operations.
+	 */
+	public long getCount() {
+		return count;
+	}
+	/**
+	 * Gets the time taken by all the operations.
+	 * @return The sum of the durations.
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+	/**
+	 * Gets the median duration of the operation.
+	 * @return The 50th percentile of the durations, within 12.5%.
+	 */
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+	/**
+	 * Gets the duration which 99% of the operations took less than.
+	 * @return The 99th percentile of the durations, within 12.5%.
+	 */
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+	/**
+	 * Gets the longest duration of the operation.
+	 * @return The longest duration.
+	 */
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+	/**
+	 * Gets the number of bytes processed: the size of the colors of the pictures
+	 * the operations were done on, or the size of the files read or written.
+	 *
+	 * @return The number of bytes processed.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+	/**
+	 * Gets the number of bytes allocated by the operations, on the thread which
+	 * called them and on the workers which ran their parallel parts. It is zero
+	 * if the JVM cannot measure it.
+	 *
+	 * @return The number of bytes allocated.
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-12s %8d %10.3f %10.3f %10.3f %10.1f %10.1f", name, count, p50Nanos / 1e6, p99Nanos / 1e6,
+				maxNanos / 1e6, bytes / (1024.0 * 1024), allocatedBytes / (1024.0 * 1024));
+	}
+}
@@ -0,0 +1,68 @@
+package metrics;
+
+/**
+ * The metrics of one worker thread of a ParallelExecutor, or of a thread which ran
+ * chunks of the operations it called, at the time of a snapshot.
+ * Comparing the busy time of the workers shows how evenly the chunks of the
+ * operations were balanced between them. All the durations are in nanoseconds.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public final class WorkerMetrics {
+	private final String name;
+	private final long chunks, busyNanos, idleNanos, allocatedBytes;
+
+	WorkerMetrics(String name, long chunks, long busyNanos, long idleNanos, long allocatedBytes) {
+		this.name = name;
+		this.chunks = chunks;
+		this.busyNanos = busyNanos;
+		this.idleNanos = idleNanos;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/**
+	 * Gets the name of the worker thread.
+	 * @return The name of the thread.
+	 */
+	public String getName() {
+		return name;
+	}
+	/**
+	 * Gets the number of chunks the worker ran.
+	 * @return The number of chunks.
+	 */
+	public long getChunks() {
+		return chunks;
+	}
+	/**
+	 * Gets the time the worker spent running chunks.
+	 * @return The busy time.
+	 */
+	public long getBusyNanos() {
+		return busyNanos;
+	}
+	/**
+	 * Gets the time the worker did not run chunks while its executor was running
+	 * at least one operation; operations which overlap are counted once. It is zero
+	 * for a thread which called the executor.
+	 *
+	 * @return The idle time.
+	 */
+	public long getIdleNanos() {
+		return idleNanos;
+	}
+	/**
+	 * Gets the number of bytes the worker allocated while running chunks.
+	 * @return The number of bytes allocated, or zero if the JVM cannot measure it.
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-28s %8d %10.3f %10.3f %10.1f", name, chunks, busyNanos / 1e6, idleNanos / 1e6,
+				allocatedBytes / (1024.0 * 1024));
+	}
+}
@@ -0,0 +1,152 @@
+package batch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import graphics.*;
+
+/**
+ * Checks that a batch keeps going when an image fails in any stage, even with an
+ * Error, and that it never keeps more than `images` images in memory.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class BatchStagesTest {
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	@TempDir
+	File directory;
+
+	/**
+	 * A processor which fails the images whose name starts with a stage's name,
+	 * and counts the images between read() and release().
+	 */
+	private static class Processor extends BatchProcessor {
+		final AtomicInteger inMemory = new AtomicInteger(), maxInMemory = new AtomicInteger();
+		long applyMillis;
+
+		Processor(File output) {
+			super("i", output);
+		}
+
+		private static void failIf(String stage, File file) {
+			if (file.getName().startsWith(stage))
+				throw new OutOfMemoryError("no memory left to " + stage + " " + file.getName());
+		}
+
+		@Override
+		Bitmap read(File input) throws exceptions.BitmapException {
+			failIf("read", input);
+			Bitmap bitmap = super.read(input);
+			maxInMemory.accumulateAndGet(inMemory.incrementAndGet(), Math::max);
+			return bitmap;
+		}
+
+		@Override
+		void apply(Bitmap bitmap) {
+			// the width tells which images fail here.
+			if (bitmap.getWidth() == 13)
+				throw new OutOfMemoryError("no memory left to apply");
+			if (applyMillis > 0) {
+				try {
+					Thread.sleep(applyMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			super.apply(bitmap);
+		}
+
+		@Override
+		long write(Bitmap bitmap, File output) throws IOException {
+			failIf("write", output);
+			return super.write(bitmap, output);
+		}
+
+		@Override
+		void release(Bitmap bitmap) {
+			inMemory.decrementAndGet();
+			super.release(bitmap);
+		}
+	}
+
+	private List<File> files(String prefix, int count, int width) {
+		File input = new File(directory, "in");
+		input.mkdirs();
+
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < count; ++i) {
+			File file = new File(input, prefix + i + ".bmp");
+			new Bitmap(width, 7).write(file);
+			files.add(file);
+		}
+
+		return files;
+	}
+
+	@Test
+	void errorsOnlyFailTheirImage() {
+		final List<File> files = new ArrayList<File>();
+		files.addAll(this.files("ok", 6, 8));
+		files.addAll(this.files("read", 3, 8));
+		files.addAll(this.files("apply", 3, 13));
+		files.addAll(this.files("write", 3, 8));
+		Collections.shuffle(files, new Random(1));
+
+		final Processor processor = new Processor(new File(directory, "out"));
+		processor.setImages(1);
+		processor.setWorkers(1);
+
+		// a permit which is not given back would leave the readers waiting forever.
+		BatchResult result = assertTimeoutPreemptively(TIMEOUT, () -> processor.run(files, null));
+
+		assertEquals(15, result.getImages());
+		assertEquals(6, result.getProcessed());
+		assertEquals(9, result.getFailures().size());
+		for (BatchResult.Failure failure : result.getFailures()) {
+			assertTrue(failure.getError() instanceof OutOfMemoryError);
+			assertFalse(failure.getFile().getName().startsWith("ok"), failure.getFile().getName());
+		}
+		for (int i = 0; i < 6; ++i)
+			assertTrue(new File(directory, "out/ok" + i + ".bmp").isFile());
+		assertEquals(0, processor.inMemory.get());
+	}
+
+	@Test
+	void missingFilesFail() {
+		final List<File> files = this.files("ok", 2, 8);
+		files.add(new File(directory, "missing.bmp"));
+		final Processor processor = new Processor(new File(directory, "out"));
+
+		BatchResult result = assertTimeoutPreemptively(TIMEOUT, () -> processor.run(files, null));
+
+		assertEquals(2, result.getProcessed());
+		assertEquals(1, result.getFailures().size());
+		assertEquals("the file was not found.", result.getFailures().get(0).getMessage());
+	}
+
+	@Test
+	void neverMoreImagesThanAllowed() {
+		final List<File> files = this.files("ok", 24, 8);
+		final Processor processor = new Processor(new File(directory, "out"));
+		processor.setImages(3);
+		processor.setWorkers(2);
+		// the workers fall behind, so the readers have to wait for them.
+		processor.applyMillis = 5;
+
+		BatchResult result = assertTimeoutPreemptively(TIMEOUT, () -> processor.run(files, null));
+
+		assertEquals(24, result.getProcessed());
+		assertTrue(result.getFailures().isEmpty());
+		assertTrue(processor.maxInMemory.get() <= 3, "at most 3 images, not " + processor.maxInMemory.get());
+		assertEquals(3, processor.maxInMemory.get());
+	}
+}
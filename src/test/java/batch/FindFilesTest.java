@@ -0,0 +1,60 @@
+package batch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * Checks the files findFiles() finds for a file, a directory and glob patterns,
+ * including "**&#47;", which also matches the files directly in its directory.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class FindFilesTest {
+	@TempDir
+	File directory;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		for (String name : new String[] { "in/a.bmp", "in/b.txt", "in/sub/c.bmp", "in/sub/deep/d.bmp",
+				"in/other/deep/e.bmp", "in/deep/f.bmp" }) {
+			File file = new File(directory, name);
+			file.getParentFile().mkdirs();
+			file.createNewFile();
+		}
+	}
+
+	private List<String> find(String input) throws IOException {
+		List<String> names = new ArrayList<String>();
+		for (File file : BatchProcessor.findFiles(new File(directory, input).getPath()))
+			names.add(file.getName());
+		return names;
+	}
+
+	@Test
+	void fileAndDirectory() throws IOException {
+		assertEquals(Arrays.asList("a.bmp"), find("in/a.bmp"));
+		assertEquals(Arrays.asList("a.bmp"), find("in"));
+		assertEquals(Arrays.asList(), find("missing"));
+	}
+
+	@Test
+	void patterns() throws IOException {
+		assertEquals(Arrays.asList("a.bmp"), find("in/*.bmp"));
+		assertEquals(Arrays.asList("f.bmp", "c.bmp"), find("in/*/*.bmp"));
+		assertEquals(Arrays.asList("b.txt"), find("in/*.txt"));
+	}
+
+	@Test
+	void anyDirectoriesMayBeNone() throws IOException {
+		assertEquals(Arrays.asList("a.bmp", "f.bmp", "e.bmp", "c.bmp", "d.bmp"), find("in/**/*.bmp"));
+		assertEquals(Arrays.asList("c.bmp", "d.bmp"), find("in/sub/**/*.bmp"));
+		assertEquals(Arrays.asList("f.bmp", "e.bmp", "d.bmp"), find("in/**/deep/*.bmp"));
+		assertEquals(Arrays.asList("a.bmp", "f.bmp", "e.bmp", "c.bmp", "d.bmp"), find("in/**/**/*.bmp"));
+	}
+}
@@ -0,0 +1,104 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * Checks that the bitmaps handed out by a BitmapCache share the cached colors until
+ * they are changed, and that changing one never changes the others.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class BitmapCacheTest {
+	@TempDir
+	File directory;
+
+	private File write(String name, long seed) {
+		File file = new File(directory, name);
+		Pictures.random(53, 31, PixelStorage.ROWS, seed).write(file);
+		return file;
+	}
+
+	@Test
+	void readOnce() throws Exception {
+		File file = this.write("a.bmp", 1);
+		BitmapCache cache = new BitmapCache(1 << 24);
+		Bitmap first = cache.get(file), second = cache.get(file);
+
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertTrue(first.isShared());
+		assertTrue(second.isShared());
+		assertNull(Pictures.difference(new Bitmap(file), second));
+	}
+
+	@Test
+	void copyOnWrite() throws Exception {
+		File file = this.write("b.bmp", 2);
+		Bitmap original = new Bitmap(file);
+
+		// every kind of change copies the colors first.
+		BitmapCache cache = new BitmapCache(1 << 24);
+		Bitmap[] bitmaps = new Bitmap[6];
+		for (int i = 0; i < bitmaps.length; ++i)
+			bitmaps[i] = cache.get(file);
+
+		bitmaps[0].invert();
+		bitmaps[1].blur();
+		bitmaps[2].shrink();
+		bitmaps[3].newPixel(0, 0).setColorsTo(1, 2, 3);
+		bitmaps[4].getRawColors()[0][0] ^= 0xFF;
+		bitmaps[5].getStorage();
+
+		for (Bitmap bitmap : bitmaps)
+			assertFalse(bitmap.isShared());
+
+		assertNull(Pictures.difference(original, cache.get(file)));
+
+		Bitmap inverted = Pictures.copy(original);
+		inverted.invert();
+		assertNull(Pictures.difference(inverted, bitmaps[0]));
+	}
+
+	@Test
+	void sharedBitmapIsReadThroughTheCache() throws Exception {
+		File file = this.write("c.bmp", 3);
+		BitmapCache cache = new BitmapCache(1 << 24);
+		Bitmap bitmap = cache.get(file);
+		Bitmap copy = Pictures.copy(bitmap);
+
+		// reading through a Pixel does not copy the colors.
+		assertTrue(bitmap.isShared());
+		assertNull(Pictures.difference(new Bitmap(file), copy));
+	}
+
+	@Test
+	void changedFileIsReadAgain() throws Exception {
+		File file = this.write("d.bmp", 4);
+		BitmapCache cache = new BitmapCache(1 << 24);
+		cache.get(file);
+
+		Bitmap changed = Pictures.random(54, 31, PixelStorage.ROWS, 5);
+		changed.write(file);
+		assertNull(Pictures.difference(changed, cache.get(file)));
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	void leastRecentlyUsedIsDropped() throws Exception {
+		File a = this.write("e.bmp", 6), b = this.write("f.bmp", 7);
+		// room for a single bitmap.
+		BitmapCache cache = new BitmapCache(53 * 31 * 3 + 1024);
+		cache.get(a);
+		cache.get(b);
+		cache.get(a);
+
+		assertEquals(3, cache.getMisses());
+		assertTrue(cache.getEvictions() >= 2);
+	}
+}
@@ -0,0 +1,98 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.function.*;
+
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks that a pipeline gives the same picture as calling the Bitmap operations
+ * one by one, for every order of up to three operations, over every kind of storage.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class BitmapPipelineTest {
+	/**
+	 * A kernel whose result depends on where the pixels are in the row.
+	 */
+	private static final RowKernel KERNEL = new RowKernel() {
+		@Override
+		public void apply(byte[] row, int offset, int width) {
+			for (int i = offset, x = 0; x < width; i += 3, ++x)
+				row[i] = (byte) (row[i] + x * 7);
+
+			row[offset + 2] = (byte) 255;
+		}
+	};
+
+	/**
+	 * An operation, done both on a pipeline and on a bitmap.
+	 */
+	private static final class Operation {
+		final String name;
+		final Consumer<BitmapPipeline> pipeline;
+		final Consumer<Bitmap> bitmap;
+
+		Operation(String name, Consumer<BitmapPipeline> pipeline, Consumer<Bitmap> bitmap) {
+			this.name = name;
+			this.pipeline = pipeline;
+			this.bitmap = bitmap;
+		}
+	}
+
+	private static final List<Operation> OPERATIONS = Arrays.asList(
+			new Operation("invert", BitmapPipeline::invert, Bitmap::invert),
+			new Operation("grayscale", BitmapPipeline::grayscale, Bitmap::grayscale),
+			new Operation("mirror", BitmapPipeline::horizontalMirror, Bitmap::horizontalMirror),
+			new Operation("gamma", p -> p.lookup(LookupTable.gamma(2.2)), b -> b.lookup(LookupTable.gamma(2.2))),
+			new Operation("kernel", p -> p.forEachRow(KERNEL), b -> b.forEachRow(KERNEL)),
+			new Operation("blur", p -> p.blur(2), b -> b.blur(2)),
+			new Operation("shrink", BitmapPipeline::shrink, Bitmap::shrink),
+			new Operation("double", BitmapPipeline::doubleSize, Bitmap::doubleSize),
+			new Operation("rotate", BitmapPipeline::rotate90Degrees, Bitmap::rotate90Degrees));
+
+	private static void check(List<Operation> operations, PixelStorage.Allocator allocator, int threads) {
+		Bitmap expected = Pictures.random(13, 9, allocator, operations.hashCode());
+		Bitmap actual = Pictures.random(13, 9, allocator, operations.hashCode());
+		expected.setThreads(threads);
+		actual.setThreads(threads);
+
+		BitmapPipeline pipeline = actual.pipeline();
+		StringBuilder name = new StringBuilder();
+		for (Operation operation : operations) {
+			operation.bitmap.accept(expected);
+			operation.pipeline.accept(pipeline);
+			name.append(operation.name).append(' ');
+		}
+		pipeline.apply();
+
+		assertNull(Pictures.difference(expected, actual), name + "on " + allocator + ", " + threads + " threads");
+	}
+
+	@Test
+	void everyOrder() {
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			for (Operation a : OPERATIONS) {
+				for (Operation b : OPERATIONS) {
+					check(Arrays.asList(a, b), allocator, 1);
+					for (Operation c : OPERATIONS)
+						check(Arrays.asList(a, b, c), allocator, 3);
+				}
+			}
+		}
+	}
+
+	@Test
+	void kernelAfterDoubling() {
+		Bitmap expected = Pictures.random(4, 2, PixelStorage.ROWS, 1);
+		Bitmap actual = Pictures.copy(expected);
+		expected.doubleSize();
+		expected.forEachRow(KERNEL);
+		actual.pipeline().doubleSize().forEachRow(KERNEL).apply();
+
+		assertNull(Pictures.difference(expected, actual));
+	}
+}
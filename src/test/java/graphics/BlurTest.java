@@ -0,0 +1,140 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * Checks blur against the average of the pixels of each window, worked out one by
+ * one, including radii bigger than the picture and windows whose sums do not fit in ints.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class BlurTest {
+	@TempDir
+	File directory;
+
+	/**
+	 * Blurs a picture the slow way: each pixel is the average of the pixels of its
+	 * window which are inside the picture.
+	 */
+	private static Bitmap blur(Bitmap bitmap, int radius) {
+		int width = bitmap.getWidth(), height = bitmap.getHeight();
+		Bitmap blurred = new Bitmap(width, height);
+		Pixel in = bitmap.newEmptyPixel();
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				long blue = 0, green = 0, red = 0, count = 0;
+				for (long j = Math.max(0, y - (long) radius); j <= Math.min(height - 1, y + (long) radius); ++j) {
+					for (long i = Math.max(0, x - (long) radius); i <= Math.min(width - 1, x + (long) radius); ++i) {
+						in.moveTo((int) i, (int) j);
+						blue += in.getBlue();
+						green += in.getGreen();
+						red += in.getRed();
+						++count;
+					}
+				}
+
+				blurred.newPixel(x, y).setColorsTo((int) (blue / count), (int) (green / count), (int) (red / count));
+			}
+		}
+
+		return blurred;
+	}
+
+	@Test
+	void sameAsTheAverageOfEachWindow() {
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			for (int radius : new int[] { 0, 1, 3, 12, 40, Integer.MAX_VALUE }) {
+				Bitmap bitmap = Pictures.random(23, 17, allocator, radius);
+				Bitmap expected = blur(bitmap, radius);
+				bitmap.setThreads(3);
+				bitmap.blur(radius);
+
+				assertNull(Pictures.difference(expected, bitmap), "radius " + radius + " on " + allocator);
+			}
+		}
+	}
+
+	@Test
+	void pipelines() throws Exception {
+		File in = new File(directory, "in.bmp"), out = new File(directory, "out.bmp");
+		for (int radius : new int[] { 2, Integer.MAX_VALUE }) {
+			Bitmap bitmap = Pictures.random(23, 17, PixelStorage.ROWS, radius);
+			bitmap.write(in);
+			Bitmap expected = blur(bitmap, radius);
+
+			bitmap.pipeline().blur(radius).apply();
+			assertNull(Pictures.difference(expected, bitmap), "BitmapPipeline, radius " + radius);
+
+			new StripPipeline().blur(radius).process(in, out);
+			assertNull(Pictures.difference(expected, new Bitmap(out)), "StripPipeline, radius " + radius);
+		}
+	}
+
+	/**
+	 * A window over the whole of a 3000x3000 picture holds 9 million pixels, so its
+	 * sums do not fit in ints; every pixel is the average of the whole picture.
+	 */
+	@Test
+	void windowTooBigForInts() throws Exception {
+		final int size = 3000;
+		assertTrue(Kernels.isWideWindow(size, size, size));
+
+		long[] totals = new long[3];
+		for (int y = 0; y < size; ++y) {
+			for (int x = 0; x < size; ++x) {
+				totals[0] += color(x, y, 0);
+				totals[1] += color(x, y, 1);
+				totals[2] += color(x, y, 2);
+			}
+		}
+		long count = (long) size * size;
+
+		for (PixelStorage.Allocator allocator : new PixelStorage.Allocator[] { PixelStorage.CONTIGUOUS, PixelStorage.PACKED }) {
+			Bitmap bitmap = picture(size, allocator);
+			bitmap.setThreads(4);
+			bitmap.blur(Integer.MAX_VALUE);
+
+			for (int[] at : new int[][] { { 0, 0 }, { size - 1, size - 1 }, { 1234, 2345 } }) {
+				Pixel pixel = bitmap.newPixel(at[0], at[1]);
+				assertEquals(totals[0] / count, pixel.getBlue(), allocator.toString());
+				assertEquals(totals[1] / count, pixel.getGreen(), allocator.toString());
+				assertEquals(totals[2] / count, pixel.getRed(), allocator.toString());
+			}
+		}
+
+		// the strips are blurred the same way.
+		File in = new File(directory, "big.bmp"), out = new File(directory, "big-out.bmp");
+		picture(size, PixelStorage.CONTIGUOUS).write(in);
+		new StripPipeline().blur(size).process(in, out);
+		Pixel pixel = new Bitmap(out).newPixel(17, 2999);
+		assertEquals(totals[0] / count, pixel.getBlue());
+		assertEquals(totals[2] / count, pixel.getRed());
+	}
+
+	private static int color(int x, int y, int component) {
+		return component == 0 ? (x * 7 + y) & 0xFF : component == 1 ? 250 + (x ^ y) % 6 : (y * 3) & 0xFF;
+	}
+
+	private static Bitmap picture(int size, PixelStorage.Allocator allocator) {
+		Bitmap bitmap = new Bitmap(size, size, allocator);
+		PixelStorage storage = bitmap.getStorage();
+		byte[] row = new byte[size * 3];
+		for (int y = 0; y < size; ++y) {
+			for (int x = 0; x < size; ++x) {
+				row[x * 3] = (byte) color(x, y, 0);
+				row[x * 3 + 1] = (byte) color(x, y, 1);
+				row[x * 3 + 2] = (byte) color(x, y, 2);
+			}
+			storage.setRow(y, row, 0);
+		}
+
+		return bitmap;
+	}
+}
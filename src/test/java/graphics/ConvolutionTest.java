@@ -0,0 +1,161 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks convolve against the weighted sums of the pixels of each window, worked out
+ * one by one with doubles, for separable and full kernels, every BorderMode and every
+ * storage; the fixed-point sums may only be one away from them.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class ConvolutionTest {
+	/**
+	 * The kernels checked, each with whether it should be found to be separable.
+	 */
+	private static final Object[][] KERNELS = {
+		{ "sharpen", ConvolutionKernel.sharpen(), false },
+		{ "sobelX", ConvolutionKernel.sobelX(), true },
+		{ "sobelY", ConvolutionKernel.sobelY(), true },
+		{ "emboss", ConvolutionKernel.emboss(), false },
+		{ "emboss + 128", new ConvolutionKernel(3, 3, new double[] {
+			-2, -1, 0,
+			-1,  1, 1,
+			 0,  1, 2
+		}, 128), false },
+		{ "gaussian(0.8)", ConvolutionKernel.gaussian(0.8), true },
+		{ "gaussian(2)", ConvolutionKernel.gaussian(2), true },
+		// not symmetric in either direction, so a flipped row or column shows.
+		{ "asymmetric 5x3", new ConvolutionKernel(5, 3, new double[] {
+			0.3, 0,    0.1, -0.2, 0.05,
+			0,   0.25, 0.4, 0,    0,
+			0.1, 0,    0,   0.2,  0.1
+		}), false },
+		{ "asymmetric separable 3x5", new ConvolutionKernel(3, 5, outer(
+			new double[] { 0.5, 0.2, 0.1, 0.1, 0.1 },
+			new double[] { 0.6, 0.3, 0.1 })), true },
+		{ "1x1", new ConvolutionKernel(1, 1, new double[] { 1.5 }), true },
+	};
+
+	private static double[] outer(double[] column, double[] row) {
+		double[] weights = new double[column.length * row.length];
+		for (int y = 0; y < column.length; ++y)
+			for (int x = 0; x < row.length; ++x)
+				weights[y * row.length + x] = column[y] * row[x];
+		return weights;
+	}
+
+	/**
+	 * Convolves a picture the slow way: each component is the sum of the pixels of
+	 * its window times their weights, plus the bias, rounded and clamped. The first
+	 * row of the kernel is the one above the pixel, and so has the biggest y.
+	 */
+	private static double[][][] convolve(Bitmap bitmap, ConvolutionKernel kernel, BorderMode border) {
+		int width = bitmap.getWidth(), height = bitmap.getHeight();
+		int rx = kernel.getWidth() / 2, ry = kernel.getHeight() / 2;
+		double[][][] convolved = new double[height][width][3];
+		Pixel in = bitmap.newEmptyPixel();
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				double blue = kernel.getBias(), green = kernel.getBias(), red = kernel.getBias();
+				for (int ky = 0; ky < kernel.getHeight(); ++ky) {
+					for (int kx = 0; kx < kernel.getWidth(); ++kx) {
+						double weight = kernel.getWeight(kx, ky);
+						in.moveTo(border.map(x - rx + kx, width), border.map(y + ry - ky, height));
+						blue += weight * in.getBlue();
+						green += weight * in.getGreen();
+						red += weight * in.getRed();
+					}
+				}
+
+				convolved[y][x][0] = Math.max(0, Math.min(255, blue));
+				convolved[y][x][1] = Math.max(0, Math.min(255, green));
+				convolved[y][x][2] = Math.max(0, Math.min(255, red));
+			}
+		}
+
+		return convolved;
+	}
+
+	private static String difference(double[][][] expected, Bitmap actual) {
+		for (int y = 0; y < expected.length; ++y) {
+			for (int x = 0; x < expected[y].length; ++x) {
+				Pixel pixel = actual.newPixel(x, y);
+				int[] colors = { pixel.getBlue(), pixel.getGreen(), pixel.getRed() };
+				for (int c = 0; c < 3; ++c) {
+					if (Math.abs(colors[c] - expected[y][x][c]) > 1)
+						return String.format("(%d, %d)[%d]: expected %.2f but was %d", x, y, c, expected[y][x][c], colors[c]);
+				}
+			}
+		}
+		return null;
+	}
+
+	@Test
+	void kernelsAreFoundSeparable() {
+		for (Object[] kernel : KERNELS)
+			assertEquals(kernel[2], ((ConvolutionKernel) kernel[1]).isSeparable(), (String) kernel[0]);
+	}
+
+	@Test
+	void sameAsTheSumOfEachWindow() {
+		for (Object[] entry : KERNELS) {
+			ConvolutionKernel kernel = (ConvolutionKernel) entry[1];
+			for (BorderMode border : BorderMode.values()) {
+				for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+					String name = entry[0] + ", " + border + " on " + allocator;
+					Bitmap bitmap = Pictures.random(23, 17, allocator, name.hashCode());
+					double[][][] expected = convolve(bitmap, kernel, border);
+					bitmap.setThreads(3);
+					bitmap.convolve(kernel, border);
+
+					assertNull(difference(expected, bitmap), name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A kernel bigger than the picture reads past both edges of it at once.
+	 */
+	@Test
+	void kernelBiggerThanThePicture() {
+		ConvolutionKernel kernel = ConvolutionKernel.gaussian(3);
+		for (BorderMode border : BorderMode.values()) {
+			for (int[] size : new int[][] { { 1, 1 }, { 5, 2 }, { 1, 9 } }) {
+				String name = border + ", " + size[0] + "x" + size[1];
+				Bitmap bitmap = Pictures.random(size[0], size[1], PixelStorage.ROWS, name.hashCode());
+				double[][][] expected = convolve(bitmap, kernel, border);
+				bitmap.convolve(kernel, border);
+
+				assertNull(difference(expected, bitmap), name);
+			}
+		}
+	}
+
+	@Test
+	void alphaIsKept() {
+		for (Object[] entry : KERNELS) {
+			Bitmap bitmap = Pictures.random(16, 8, PixelStorage.PACKED, 5);
+			bitmap.setBitsPerPixel(32);
+			PackedStorage storage = (PackedStorage) bitmap.getStorage();
+			for (int y = 0; y < 8; ++y) {
+				for (int x = 0; x < 16; ++x) {
+					int i = storage.pixelOffset(y) + x;
+					storage.getData()[i] = (storage.getData()[i] & PackedStorage.COLORS) | ((x * 16 + y) << 24);
+				}
+			}
+
+			bitmap.convolve((ConvolutionKernel) entry[1], BorderMode.MIRROR);
+			PackedStorage convolved = (PackedStorage) bitmap.getStorage();
+			for (int y = 0; y < 8; ++y) {
+				for (int x = 0; x < 16; ++x)
+					assertEquals(x * 16 + y, convolved.getData()[convolved.pixelOffset(y) + x] >>> 24, (String) entry[0]);
+			}
+		}
+	}
+}
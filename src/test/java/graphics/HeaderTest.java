@@ -0,0 +1,84 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import exceptions.*;
+
+/**
+ * Checks that headers whose sizes cannot be represented are not bitmaps for probe(),
+ * map() and the reader, and that files which end before their colors do are not
+ * bitmaps for map() and the reader.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class HeaderTest {
+	@TempDir
+	File directory;
+
+	/**
+	 * Writes the 54 bytes of a 24-bit header, followed by `colors` bytes of colors.
+	 */
+	private File write(String name, int width, int height, int colors) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(54 + colors).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put((byte) 'B').put((byte) 'M').putInt(54 + colors).putInt(0).putInt(54);
+		buffer.putInt(40).putInt(width).putInt(height).putShort((short) 1).putShort((short) 24);
+
+		File file = new File(directory, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(buffer.array());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static void assertNotABitmap(final File file) {
+		assertThrows(NotABitmapException.class, () -> Bitmap.probe(file), "probe " + file.getName());
+		assertThrows(NotABitmapException.class, () -> Bitmap.map(file), "map " + file.getName());
+		assertThrows(NotABitmapException.class, () -> new Bitmap(file), "read " + file.getName());
+	}
+
+	@Test
+	void sizesWhichCannotBeRepresented() throws Exception {
+		// a row of 3 GB, whose size overflows an int.
+		assertNotABitmap(this.write("row.bmp", 1073741824, 1, 16));
+		// rows which fit, but 8 GB of colors, more than the size of a file can give.
+		assertNotABitmap(this.write("data.bmp", 65536, 65536, 16));
+	}
+
+	@Test
+	void truncatedColors() throws Exception {
+		// a 10x10 picture needs 320 bytes of colors; probe() only reads the header.
+		final File truncated = this.write("truncated.bmp", 10, 10, 160);
+		assertEquals(10, Bitmap.probe(truncated).getWidth());
+		assertThrows(NotABitmapException.class, () -> Bitmap.map(truncated));
+		assertThrows(NotABitmapException.class, () -> new Bitmap(truncated));
+
+		// and the whole of them is a bitmap.
+		File file = this.write("whole.bmp", 10, 10, 320);
+		assertEquals(10, Bitmap.probe(file).getWidth());
+		assertEquals(10, Bitmap.map(file).getHeight());
+		assertEquals(10, new Bitmap(file).getWidth());
+	}
+
+	@Test
+	void picturesWhichFitAreRead() throws Exception {
+		for (int[] size : Arrays.asList(new int[] { 1, 1 }, new int[] { 3, 2 }, new int[] { 257, 3 })) {
+			Bitmap bitmap = Pictures.random(size[0], size[1], PixelStorage.ROWS, size[0]);
+			File file = new File(directory, size[0] + "x" + size[1] + ".bmp");
+			bitmap.write(file);
+
+			assertNull(Pictures.difference(bitmap, new Bitmap(file)));
+			assertNull(Pictures.difference(bitmap, Bitmap.map(file)));
+		}
+	}
+}
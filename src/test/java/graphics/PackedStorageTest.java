@@ -0,0 +1,90 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * Checks that 32-bit bitmaps are read into a packed storage and written back with
+ * the same colors, and that the operations on packed pixels keep their alpha.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class PackedStorageTest {
+	@TempDir
+	File directory;
+
+	private Bitmap writeAndRead(Bitmap bitmap, String name) throws Exception {
+		File file = new File(directory, name);
+		bitmap.write(file);
+		return new Bitmap(file);
+	}
+
+	@Test
+	void roundTrip() throws Exception {
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			Bitmap bitmap = Pictures.random(37, 19, allocator, 7);
+			bitmap.setBitsPerPixel(32);
+			Bitmap read = this.writeAndRead(bitmap, "32.bmp");
+
+			assertEquals(32, read.getBitsPerPixel());
+			assertTrue(read.getStorage() instanceof PackedStorage);
+			assertNull(Pictures.difference(bitmap, read), allocator.toString());
+
+			// and it can be written back as 24 bits.
+			read.setBitsPerPixel(24);
+			Bitmap back = this.writeAndRead(read, "24.bmp");
+			assertEquals(24, back.getBitsPerPixel());
+			assertNull(Pictures.difference(bitmap, back), allocator.toString());
+		}
+	}
+
+	@Test
+	void alphaIsKept() throws Exception {
+		Bitmap bitmap = Pictures.random(16, 8, PixelStorage.PACKED, 9);
+		bitmap.setBitsPerPixel(32);
+		PackedStorage storage = (PackedStorage) bitmap.getStorage();
+		for (int y = 0; y < 8; ++y) {
+			for (int x = 0; x < 16; ++x)
+				storage.getData()[storage.pixelOffset(y) + x] &= 0x80FFFFFF;
+		}
+
+		bitmap.invert();
+		bitmap.horizontalMirror();
+		bitmap.blur(2);
+		Bitmap read = this.writeAndRead(bitmap, "alpha.bmp");
+
+		PackedStorage packed = (PackedStorage) read.getStorage();
+		for (int y = 0; y < 8; ++y) {
+			for (int x = 0; x < 16; ++x)
+				assertEquals(0x80, packed.getData()[packed.pixelOffset(y) + x] >>> 24);
+		}
+	}
+
+	@Test
+	void poolsAndCachesCountFourBytesForEachPixel() throws Exception {
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			PixelStorage storage = allocator.allocate(10, 7);
+			long bytes = 10 * 7 * (storage instanceof PackedStorage ? 4 : 3);
+
+			StoragePool pool = new StoragePool(1 << 20);
+			pool.release(storage);
+			assertEquals(bytes, pool.getRetainedBytes(), allocator.toString());
+
+			// a pool which only fits the 24-bit colors does not keep a packed storage.
+			StoragePool small = new StoragePool(10 * 7 * 3);
+			small.release(allocator.allocate(10, 7));
+			assertEquals(storage instanceof PackedStorage ? 0 : bytes, small.getRetainedBytes(), allocator.toString());
+
+			File file = new File(directory, "cached.bmp");
+			Pictures.random(10, 7, allocator, 3).write(file);
+			BitmapCache cache = new BitmapCache(1 << 20, allocator);
+			cache.get(file);
+			assertEquals(bytes, cache.getRetainedBytes(), allocator.toString());
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * Checks that the bitmaps written with a palette, compressed with RLE4 or RLE8,
+ * are read back with the same colors and palette.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class PaletteTest {
+	@TempDir
+	File directory;
+
+	private static int[] palette(int colors) {
+		int[] palette = new int[colors];
+		for (int i = 0; i < colors; ++i)
+			palette[i] = ((i * 0x3B7) << 8 ^ i * 0x1F ^ (i * 0x65) << 16) & 0xFFFFFF;
+
+		return palette;
+	}
+
+	private Bitmap writeAndRead(Bitmap bitmap, String name) throws Exception {
+		File file = new File(directory, name);
+		bitmap.write(file);
+		return new Bitmap(file);
+	}
+
+	@Test
+	void rle4() throws Exception {
+		for (int colors : new int[] { 2, 16 }) {
+			for (int width : new int[] { 1, 7, 64, 333 }) {
+				int[] palette = palette(colors);
+				Bitmap bitmap = Pictures.random(width, 23, palette, width);
+				bitmap.setPalette(palette);
+				Bitmap read = this.writeAndRead(bitmap, "rle4.bmp");
+
+				assertEquals(4, read.getBitsPerPixel());
+				assertArrayEquals(palette, read.getPalette());
+				assertNull(Pictures.difference(bitmap, read), colors + " colors, " + width + " wide");
+			}
+		}
+	}
+
+	@Test
+	void rle8() throws Exception {
+		for (int colors : new int[] { 17, 256 }) {
+			for (int width : new int[] { 1, 7, 64, 333 }) {
+				int[] palette = palette(colors);
+				Bitmap bitmap = Pictures.random(width, 23, palette, width);
+				bitmap.setPalette(palette);
+				Bitmap read = this.writeAndRead(bitmap, "rle8.bmp");
+
+				assertEquals(8, read.getBitsPerPixel());
+				assertArrayEquals(palette, read.getPalette());
+				assertNull(Pictures.difference(bitmap, read), colors + " colors, " + width + " wide");
+			}
+		}
+	}
+
+	@Test
+	void rleIsWrittenAgainTheSame() throws Exception {
+		int[] palette = palette(200);
+		Bitmap bitmap = Pictures.random(61, 23, palette, 1);
+		bitmap.setPalette(palette);
+		Bitmap read = this.writeAndRead(bitmap, "first.bmp");
+		Bitmap again = this.writeAndRead(read, "second.bmp");
+
+		assertArrayEquals(palette, again.getPalette());
+		assertNull(Pictures.difference(bitmap, again));
+	}
+
+	@Test
+	void colorOutsideOfThePaletteIsWrittenAsTheNearest() throws Exception {
+		Bitmap bitmap = new Bitmap(3, 1);
+		bitmap.newPixel(0, 0).setColorsTo(0, 0, 250);
+		bitmap.newPixel(1, 0).setColorsTo(10, 10, 10);
+		bitmap.newPixel(2, 0).setColorsTo(200, 200, 200);
+		bitmap.setPalette(new int[] { 0x000000, 0xFF0000, 0xFFFFFF });
+		Bitmap read = this.writeAndRead(bitmap, "nearest.bmp");
+
+		assertEquals(255, read.newPixel(0, 0).getRed());
+		assertEquals(0, read.newPixel(0, 0).getBlue());
+		assertEquals(0, read.newPixel(1, 0).getGreen());
+		assertEquals(255, read.newPixel(2, 0).getGreen());
+	}
+}
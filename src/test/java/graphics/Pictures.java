@@ -0,0 +1,136 @@
+package graphics;
+
+import java.util.*;
+
+/**
+ * Pictures shared by the tests: random ones, copies of rectangles made pixel by
+ * pixel, and a comparison of the colors of two pictures.
+ *
+ * @author Claude Abounegm
+ *
+ */
+final class Pictures {
+	/**
+	 * Every kind of storage, so each test can be run over all of them.
+	 */
+	static final PixelStorage.Allocator[] STORAGES = { PixelStorage.ROWS, PixelStorage.CONTIGUOUS,
+			PixelStorage.CONTIGUOUS_PADDED, PixelStorage.DIRECT, PixelStorage.DIRECT_PADDED, PixelStorage.PACKED };
+
+	private Pictures() {
+	}
+
+	/**
+	 * Creates a picture of random colors.
+	 *
+	 * @param width - The width of the picture.
+	 * @param height - The height of the picture.
+	 * @param allocator - The storage of the picture.
+	 * @param seed - The seed of the colors, so the same picture can be made again.
+	 * @return The new picture.
+	 */
+	static Bitmap random(int width, int height, PixelStorage.Allocator allocator, long seed) {
+		Random random = new Random(seed);
+		Bitmap bitmap = new Bitmap(width, height, allocator);
+		Pixel pixel = bitmap.newEmptyPixel();
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x)
+				pixel.moveTo(x, y).setColorsTo(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+		}
+
+		return bitmap;
+	}
+
+	/**
+	 * Creates a picture whose colors are all taken from a palette.
+	 *
+	 * @param width - The width of the picture.
+	 * @param height - The height of the picture.
+	 * @param palette - The colors, as 0xRRGGBB.
+	 * @param seed - The seed which picks the colors.
+	 * @return The new picture.
+	 */
+	static Bitmap random(int width, int height, int[] palette, long seed) {
+		Random random = new Random(seed);
+		Bitmap bitmap = new Bitmap(width, height);
+		Pixel pixel = bitmap.newEmptyPixel();
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				// runs of the same color, so there is something to compress.
+				int color = palette[(x / (1 + random.nextInt(4)) + y) % palette.length];
+				pixel.moveTo(x, y).setColorsTo(color & 0xFF, (color >> 8) & 0xFF, (color >> 16) & 0xFF);
+			}
+		}
+
+		return bitmap;
+	}
+
+	/**
+	 * Copies a rectangle of a picture into a new one, pixel by pixel.
+	 *
+	 * @param src - The picture to copy from.
+	 * @param x - The column of the left edge of the rectangle.
+	 * @param y - The row of the bottom edge of the rectangle.
+	 * @param width - The width of the rectangle.
+	 * @param height - The height of the rectangle.
+	 * @return A new picture with the colors of the rectangle.
+	 */
+	static Bitmap copy(Bitmap src, int x, int y, int width, int height) {
+		Bitmap copy = new Bitmap(width, height);
+		paste(copy, src, -x, -y);
+		return copy;
+	}
+	/**
+	 * Copies a whole picture.
+	 *
+	 * @param src - The picture to copy.
+	 * @return A new picture with the same colors.
+	 */
+	static Bitmap copy(Bitmap src) {
+		return copy(src, 0, 0, src.getWidth(), src.getHeight());
+	}
+
+	/**
+	 * Pastes a picture into another one, pixel by pixel, leaving out what is outside of it.
+	 *
+	 * @param dest - The picture to paste into.
+	 * @param src - The picture to paste.
+	 * @param x - The column at which the left edge of src goes.
+	 * @param y - The row at which the bottom edge of src goes.
+	 */
+	static void paste(Bitmap dest, Bitmap src, int x, int y) {
+		Pixel in = src.newEmptyPixel(), out = dest.newEmptyPixel();
+		for (int j = Math.max(0, y); j < Math.min(dest.getHeight(), y + src.getHeight()); ++j) {
+			for (int i = Math.max(0, x); i < Math.min(dest.getWidth(), x + src.getWidth()); ++i)
+				out.moveTo(i, j).setColorsFrom(in.moveTo(i - x, j - y));
+		}
+	}
+
+	/**
+	 * Finds the first pixel whose colors differ between two pictures.
+	 *
+	 * @param expected - The expected picture.
+	 * @param actual - The actual picture.
+	 * @return null if the pictures are the same; otherwise, what differs.
+	 */
+	static String difference(Bitmap expected, Bitmap actual) {
+		if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight())
+			return "size " + actual.getWidth() + "x" + actual.getHeight() + " instead of "
+					+ expected.getWidth() + "x" + expected.getHeight();
+
+		Pixel a = expected.newEmptyPixel(), b = actual.newEmptyPixel();
+		for (int y = 0; y < expected.getHeight(); ++y) {
+			for (int x = 0; x < expected.getWidth(); ++x) {
+				a.moveTo(x, y);
+				b.moveTo(x, y);
+				if (a.getBlue() != b.getBlue() || a.getGreen() != b.getGreen() || a.getRed() != b.getRed())
+					return "pixel (" + x + ", " + y + ") is " + rgb(b) + " instead of " + rgb(a);
+			}
+		}
+
+		return null;
+	}
+
+	private static String rgb(Pixel p) {
+		return String.format("#%02x%02x%02x", p.getRed(), p.getGreen(), p.getBlue());
+	}
+}
@@ -0,0 +1,142 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.function.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * Checks that an operation on a region changes the same part of its picture as
+ * the operation on a copy of that part would, over every kind of storage.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class RegionTest {
+	private static final int X = 13, Y = 9, WIDTH = 40, HEIGHT = 30;
+
+	@TempDir
+	File directory;
+
+	/**
+	 * Does an operation on a region of a random picture, and on a copy of the same
+	 * part pasted back into a copy of the picture, and compares both pictures.
+	 */
+	private static void check(String name, Consumer<Bitmap> operation, int width, int height) {
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			for (int threads : new int[] { 1, 4 }) {
+				Bitmap bitmap = Pictures.random(97, 61, allocator, name.hashCode());
+				Bitmap expected = Pictures.copy(bitmap);
+				Bitmap part = Pictures.copy(expected, X, Y, width, height);
+				operation.accept(part);
+				Pictures.paste(expected, part, X, Y);
+
+				Bitmap region = bitmap.region(X, Y, width, height);
+				region.setThreads(threads);
+				operation.accept(region);
+
+				assertTrue(region.isRegion(), name);
+				assertNull(Pictures.difference(expected, bitmap), name + " on " + allocator + ", " + threads + " threads");
+			}
+		}
+	}
+
+	@Test
+	void rowOperations() {
+		check("invert", Bitmap::invert, WIDTH, HEIGHT);
+		check("grayscale", Bitmap::grayscale, WIDTH, HEIGHT);
+		check("horizontal mirror", Bitmap::horizontalMirror, WIDTH, HEIGHT);
+		check("vertical flip", Bitmap::verticalFlip, WIDTH, HEIGHT);
+		check("gamma", b -> b.lookup(LookupTable.gamma(2.2)), WIDTH, HEIGHT);
+		check("pipeline", b -> b.pipeline().invert().grayscale().horizontalMirror().apply(), WIDTH, HEIGHT);
+		check("nested region", b -> b.region(3, 2, 10, 7).invert(), WIDTH, HEIGHT);
+	}
+
+	@Test
+	void operationsWithANewStorageAreWrittenBack() {
+		check("blur", Bitmap::blur, WIDTH, HEIGHT);
+		check("blur 5", b -> b.blur(5), WIDTH, HEIGHT);
+		check("sharpen", b -> b.convolve(ConvolutionKernel.sharpen(), BorderMode.MIRROR), WIDTH, HEIGHT);
+		check("gaussian", b -> b.convolve(ConvolutionKernel.gaussian(1.5)), WIDTH, HEIGHT);
+		check("rotate 180", b -> b.rotate(180), WIDTH, HEIGHT);
+		check("rotate 90", b -> b.rotate(90), 25, 25);
+		check("transpose", Bitmap::transpose, 25, 25);
+	}
+
+	@Test
+	void copyFromPastes() {
+		Bitmap src = Pictures.random(WIDTH, HEIGHT, PixelStorage.ROWS, 1);
+		check("paste", b -> b.copyFrom(src), WIDTH, HEIGHT);
+	}
+
+	@Test
+	void changeOfSizeDetaches() {
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			Bitmap bitmap = Pictures.random(97, 61, allocator, 2);
+			Bitmap before = Pictures.copy(bitmap);
+			Bitmap region = bitmap.region(5, 7, 33, 21);
+			region.shrink();
+
+			assertFalse(region.isRegion());
+			assertEquals(16, region.getWidth());
+			assertNull(Pictures.difference(before, bitmap), allocator.toString());
+		}
+	}
+
+	@Test
+	void regionSeesChangesOfThePicture() {
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			Bitmap bitmap = Pictures.random(97, 61, allocator, 3);
+			Bitmap region = bitmap.region(10, 10, 20, 20);
+			bitmap.blur();
+
+			assertNull(Pictures.difference(Pictures.copy(bitmap, 10, 10, 20, 20), region), allocator.toString());
+		}
+	}
+
+	@Test
+	void writeRegion() throws Exception {
+		File file = new File(directory, "region.bmp");
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			Bitmap bitmap = Pictures.random(97, 61, allocator, 4);
+			bitmap.region(5, 7, 33, 21).write(file);
+
+			assertNull(Pictures.difference(Pictures.copy(bitmap, 5, 7, 33, 21), new Bitmap(file)), allocator.toString());
+		}
+	}
+
+	@Test
+	void writePackedRegion() throws Exception {
+		Bitmap bitmap = Pictures.random(40, 40, PixelStorage.PACKED, 8);
+		bitmap.setBitsPerPixel(32);
+		Bitmap region = bitmap.region(2, 2, 20, 20);
+		region.blur();
+		File file = new File(directory, "region32.bmp");
+		region.write(file);
+		Bitmap read = new Bitmap(file);
+
+		assertEquals(32, read.getBitsPerPixel());
+		assertNull(Pictures.difference(Pictures.copy(bitmap, 2, 2, 20, 20), read));
+	}
+
+	@Test
+	void regionOfACachedBitmapLeavesTheCacheUnchanged() throws Exception {
+		File file = new File(directory, "cached.bmp");
+		Pictures.random(97, 61, PixelStorage.ROWS, 5).write(file);
+
+		BitmapCache cache = new BitmapCache(1 << 24);
+		cache.get(file).region(0, 0, 10, 10).invert();
+
+		assertNull(Pictures.difference(new Bitmap(file), cache.get(file)));
+	}
+
+	@Test
+	void regionOutsideOfThePicture() {
+		Bitmap bitmap = new Bitmap(97, 61);
+		assertThrows(IllegalArgumentException.class, () -> bitmap.region(90, 0, 10, 10));
+		assertThrows(IllegalArgumentException.class, () -> bitmap.region(0, 0, 0, 10));
+	}
+}
@@ -0,0 +1,150 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+/**
+ * Checks resize against the pictures whose result is known: the same size, a
+ * single color, AREA at exactly half the size, and pictures of a single pixel.
+ *
+ * @author Claude Abounegm
+ *
+ */
+class ResizeTest {
+	private static Bitmap constant(int width, int height, PixelStorage.Allocator allocator) {
+		Bitmap bitmap = new Bitmap(width, height, allocator);
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x)
+				bitmap.newPixel(x, y).setColorsTo(12, 140, 251);
+		return bitmap;
+	}
+
+	private static String notConstant(Bitmap bitmap) {
+		for (int y = 0; y < bitmap.getHeight(); ++y) {
+			for (int x = 0; x < bitmap.getWidth(); ++x) {
+				Pixel pixel = bitmap.newPixel(x, y);
+				if (pixel.getBlue() != 12 || pixel.getGreen() != 140 || pixel.getRed() != 251)
+					return String.format("(%d, %d) is %d, %d, %d", x, y, pixel.getBlue(), pixel.getGreen(), pixel.getRed());
+			}
+		}
+		return null;
+	}
+
+	@Test
+	void sameSizeIsTheSamePicture() {
+		for (ResampleFilter filter : ResampleFilter.values()) {
+			for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+				Bitmap bitmap = Pictures.random(23, 17, allocator, 3);
+				Bitmap expected = Pictures.copy(bitmap);
+				bitmap.setThreads(3);
+				bitmap.resize(23, 17, filter);
+
+				assertNull(Pictures.difference(expected, bitmap), filter + " on " + allocator);
+			}
+		}
+	}
+
+	@Test
+	void constantPictureStaysConstant() {
+		int[][] sizes = { { 7, 5 }, { 40, 31 }, { 3, 50 }, { 64, 1 }, { 1, 1 } };
+		for (ResampleFilter filter : ResampleFilter.values()) {
+			for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+				for (int[] size : sizes) {
+					String name = filter + " to " + size[0] + "x" + size[1] + " on " + allocator;
+					Bitmap bitmap = constant(23, 17, allocator);
+					bitmap.setThreads(3);
+					bitmap.resize(size[0], size[1], filter);
+
+					assertEquals(size[0], bitmap.getWidth(), name);
+					assertEquals(size[1], bitmap.getHeight(), name);
+					assertNull(notConstant(bitmap), name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * At exactly half the size, AREA averages the same 2x2 squares as shrink(). shrink()
+	 * drops the fraction of each average, while AREA rounds the average of each pair
+	 * of columns and then of each pair of rows, so it is the same or one more (never
+	 * more than one away from the exact average).
+	 */
+	@Test
+	void areaAtHalfTheSizeIsShrink() {
+		for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+			for (int[] size : new int[][] { { 24, 18 }, { 2, 2 }, { 64, 2 } }) {
+				String name = size[0] + "x" + size[1] + " on " + allocator;
+				Bitmap bitmap = Pictures.random(size[0], size[1], allocator, size[0]);
+				Bitmap shrunk = Pictures.copy(bitmap);
+				shrunk.shrink();
+				Bitmap original = Pictures.copy(bitmap);
+				bitmap.setThreads(3);
+				bitmap.resize(size[0] / 2, size[1] / 2, ResampleFilter.AREA);
+
+				Pixel in = original.newEmptyPixel();
+				for (int y = 0; y < size[1] / 2; ++y) {
+					for (int x = 0; x < size[0] / 2; ++x) {
+						int[] sums = new int[3];
+						for (int j = 0; j < 2; ++j) {
+							for (int i = 0; i < 2; ++i) {
+								in.moveTo(x * 2 + i, y * 2 + j);
+								sums[0] += in.getBlue();
+								sums[1] += in.getGreen();
+								sums[2] += in.getRed();
+							}
+						}
+
+						Pixel area = bitmap.newPixel(x, y), shrink = shrunk.newPixel(x, y);
+						int[] areaColors = { area.getBlue(), area.getGreen(), area.getRed() };
+						int[] shrinkColors = { shrink.getBlue(), shrink.getGreen(), shrink.getRed() };
+						for (int c = 0; c < 3; ++c) {
+							String at = name + " at (" + x + ", " + y + ")[" + c + "]";
+							assertEquals(sums[c] / 4, shrinkColors[c], at);
+							assertTrue(areaColors[c] == shrinkColors[c] || areaColors[c] == shrinkColors[c] + 1,
+									at + ": " + areaColors[c] + " for a sum of " + sums[c]);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void singlePixel() {
+		for (ResampleFilter filter : ResampleFilter.values()) {
+			for (PixelStorage.Allocator allocator : Pictures.STORAGES) {
+				// from one pixel, every pixel is that one.
+				Bitmap bitmap = constant(1, 1, allocator);
+				bitmap.resize(9, 4, filter);
+				assertNull(notConstant(bitmap), filter + " from 1x1 on " + allocator);
+
+				// and back to one pixel.
+				bitmap.resize(1, 1, filter);
+				assertNull(notConstant(bitmap), filter + " back to 1x1 on " + allocator);
+
+				// any picture can become one pixel, within its colors.
+				Bitmap random = Pictures.random(16, 12, allocator, 11);
+				int[] min = { 255, 255, 255 }, max = { 0, 0, 0 };
+				for (int y = 0; y < 12; ++y) {
+					for (int x = 0; x < 16; ++x) {
+						Pixel pixel = random.newPixel(x, y);
+						int[] colors = { pixel.getBlue(), pixel.getGreen(), pixel.getRed() };
+						for (int c = 0; c < 3; ++c) {
+							min[c] = Math.min(min[c], colors[c]);
+							max[c] = Math.max(max[c], colors[c]);
+						}
+					}
+				}
+
+				random.resize(1, 1, filter);
+				assertEquals(1, random.getWidth());
+				assertEquals(1, random.getHeight());
+				Pixel pixel = random.newPixel(0, 0);
+				int[] colors = { pixel.getBlue(), pixel.getGreen(), pixel.getRed() };
+				for (int c = 0; c < 3; ++c)
+					assertTrue(colors[c] >= min[c] && colors[c] <= max[c], filter + " to 1x1 on " + allocator);
+			}
+		}
+	}
+}
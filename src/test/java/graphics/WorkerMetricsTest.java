@@ -0,0 +1,100 @@
+package graphics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+import metrics.*;
+
+/**
+ * Tests the metrics of the workers of a ParallelExecutor: operations which run at
+ * the same time are only counted once as active time, and the chunks run by the
+ * threads which called the executor are not reported as workers.
+ *
+ * @author Claude Abounegm
+ *
+ */
+public class WorkerMetricsTest {
+	private ParallelExecutor executor;
+	private boolean enabled;
+
+	@BeforeEach
+	public void setUp() {
+		enabled = Metrics.isEnabled();
+		Metrics.setEnabled(true);
+		Metrics.reset();
+		executor = new ParallelExecutor(2);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdown();
+		Metrics.reset();
+		Metrics.setEnabled(enabled);
+	}
+
+	private static ParallelExecutor.RangeAction sleep(final long millis) {
+		return new ParallelExecutor.RangeAction() {
+			void execute(int start, int end) {
+				try {
+					Thread.sleep(millis * (end - start));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+
+	@Test
+	public void overlappingOperationsAreCountedOnce() throws InterruptedException {
+		List<Thread> callers = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			callers.add(new Thread(new Runnable() {
+				public void run() {
+					executor.invoke(sleep(5), 16, 2);
+				}
+			}, "caller-" + i));
+		}
+
+		long time = System.nanoTime();
+		for (Thread caller : callers)
+			caller.start();
+		for (Thread caller : callers)
+			caller.join();
+		long elapsed = System.nanoTime() - time;
+
+		// each worker is active for at most the time the operations took together.
+		MetricsSnapshot snapshot = Metrics.snapshot();
+		assertFalse(snapshot.getWorkers().isEmpty());
+		for (WorkerMetrics worker : snapshot.getWorkers()) {
+			assertTrue(worker.getBusyNanos() + worker.getIdleNanos() <= elapsed,
+					worker.getName() + " was active for longer than the operations");
+		}
+
+		long chunks = 0;
+		for (WorkerMetrics worker : snapshot.getWorkers())
+			chunks += worker.getChunks();
+		for (WorkerMetrics caller : snapshot.getCallers()) {
+			assertTrue(caller.getName().startsWith("caller-"), caller.getName());
+			assertEquals(0, caller.getIdleNanos());
+			chunks += caller.getChunks();
+		}
+		assertEquals(4 * 8, chunks);
+	}
+
+	@Test
+	public void singleChunkIsRunByTheCaller() {
+		executor.invoke(sleep(1), 10, 1);
+
+		MetricsSnapshot snapshot = Metrics.snapshot();
+		assertTrue(snapshot.getWorkers().isEmpty(), "a worker ran the chunk of the caller");
+		assertEquals(1, snapshot.getCallers().size());
+
+		WorkerMetrics caller = snapshot.getCallers().get(0);
+		assertEquals(Thread.currentThread().getName(), caller.getName());
+		assertEquals(1, caller.getChunks());
+		assertEquals(0, caller.getIdleNanos());
+	}
+}